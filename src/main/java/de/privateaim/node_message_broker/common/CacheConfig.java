@@ -0,0 +1,59 @@
+package de.privateaim.node_message_broker.common;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for caching results of requests to external systems.
+ *
+ * @param maxEntries        number of maximum entries held by the cache before older ones get evicted
+ * @param expireAfterWrite  time after which an entry gets evicted once it has been written
+ * @param refreshAfterWrite time after which an entry gets refreshed in the background on its next access while still
+ *                          serving the current value
+ */
+public record CacheConfig(long maxEntries, Duration expireAfterWrite, Duration refreshAfterWrite) {
+    public static final class Builder {
+        private long maxEntries = 1000;
+        private Duration expireAfterWrite = Duration.ofHours(1);
+        private Duration refreshAfterWrite = Duration.ofMinutes(5);
+
+        public Builder withMaxEntries(long maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder withExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+            return this;
+        }
+
+        public Builder withRefreshAfterWrite(Duration refreshAfterWrite) {
+            this.refreshAfterWrite = refreshAfterWrite;
+            return this;
+        }
+
+        public CacheConfig build() {
+            requireNonNull(expireAfterWrite, "expireAfterWrite must not be null");
+            requireNonNull(refreshAfterWrite, "refreshAfterWrite must not be null");
+
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be greater than 0");
+            }
+
+            if (expireAfterWrite.isNegative() || expireAfterWrite.isZero()) {
+                throw new IllegalArgumentException("expireAfterWrite must be greater than 0");
+            }
+
+            if (refreshAfterWrite.isNegative() || refreshAfterWrite.isZero()) {
+                throw new IllegalArgumentException("refreshAfterWrite must be greater than 0");
+            }
+
+            if (refreshAfterWrite.compareTo(expireAfterWrite) >= 0) {
+                throw new IllegalArgumentException("refreshAfterWrite must be less than expireAfterWrite");
+            }
+
+            return new CacheConfig(maxEntries, expireAfterWrite, refreshAfterWrite);
+        }
+    }
+}
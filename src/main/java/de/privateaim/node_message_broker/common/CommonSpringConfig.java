@@ -6,6 +6,7 @@ import de.privateaim.node_message_broker.ConfigurationUtil;
 import de.privateaim.node_message_broker.common.hub.HttpHubClient;
 import de.privateaim.node_message_broker.common.hub.HubClient;
 import de.privateaim.node_message_broker.common.hub.auth.HubOIDCAuthenticator;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.handler.ssl.SslContext;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -26,6 +27,7 @@ import reactor.netty.transport.ProxyProvider;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 
 @Slf4j
@@ -47,6 +49,30 @@ public class CommonSpringConfig {
     @Value("${app.hub.auth.robotSecretFile}")
     private String hubAuthRobotSecretFile;
 
+    @Value("${app.hub.auth.tokenRefreshFraction}")
+    private double hubAuthTokenRefreshFraction;
+
+    @Value("${app.hub.auth.tokenFailureBackoffMs}")
+    private long hubAuthTokenFailureBackoffMs;
+
+    @Value("${app.hub.cache.publicKeys.maxEntries}")
+    private long publicKeyCacheMaxEntries;
+
+    @Value("${app.hub.cache.publicKeys.expireAfterSeconds}")
+    private long publicKeyCacheExpireAfterSeconds;
+
+    @Value("${app.hub.cache.publicKeys.refreshAfterSeconds}")
+    private long publicKeyCacheRefreshAfterSeconds;
+
+    @Value("${app.hub.cache.analysisNodes.maxEntries}")
+    private long analysisNodesCacheMaxEntries;
+
+    @Value("${app.hub.cache.analysisNodes.expireAfterSeconds}")
+    private long analysisNodesCacheExpireAfterSeconds;
+
+    @Value("${app.hub.cache.analysisNodes.refreshAfterSeconds}")
+    private long analysisNodesCacheRefreshAfterSeconds;
+
     @Value("${app.proxy.host}")
     private String proxyHost;
 
@@ -80,6 +106,26 @@ public class CommonSpringConfig {
         return new HttpRetryConfig(EXCHANGE__MAX_RETRIES, EXCHANGE__MAX_RETRY_DELAY_MS);
     }
 
+    @Qualifier("HUB_PUBLIC_KEY_CACHE_CONFIG")
+    @Bean
+    CacheConfig publicKeyCacheConfig() {
+        return new CacheConfig.Builder()
+                .withMaxEntries(publicKeyCacheMaxEntries)
+                .withExpireAfterWrite(Duration.ofSeconds(publicKeyCacheExpireAfterSeconds))
+                .withRefreshAfterWrite(Duration.ofSeconds(publicKeyCacheRefreshAfterSeconds))
+                .build();
+    }
+
+    @Qualifier("HUB_ANALYSIS_NODES_CACHE_CONFIG")
+    @Bean
+    CacheConfig analysisNodesCacheConfig() {
+        return new CacheConfig.Builder()
+                .withMaxEntries(analysisNodesCacheMaxEntries)
+                .withExpireAfterWrite(Duration.ofSeconds(analysisNodesCacheExpireAfterSeconds))
+                .withRefreshAfterWrite(Duration.ofSeconds(analysisNodesCacheRefreshAfterSeconds))
+                .build();
+    }
+
     @Qualifier("CORE_HTTP_CLIENT")
     @Bean
     HttpClient decoratedHttpClient(@Qualifier("COMMON_NETTY_SSL_CONTEXT") SslContext sslContext) {
@@ -164,9 +210,13 @@ public class CommonSpringConfig {
     @Bean
     public HubClient hubClient(
             @Qualifier("HUB_CORE_WEB_CLIENT") WebClient webClient,
-            @Qualifier("HUB_EXCHANGE_RETRY_CONFIG") HttpRetryConfig retryConfig
+            @Qualifier("HUB_EXCHANGE_RETRY_CONFIG") HttpRetryConfig retryConfig,
+            @Qualifier("HUB_PUBLIC_KEY_CACHE_CONFIG") CacheConfig publicKeyCacheConfig,
+            @Qualifier("HUB_ANALYSIS_NODES_CACHE_CONFIG") CacheConfig analysisNodesCacheConfig,
+            MeterRegistry meterRegistry
     ) {
-        return new HttpHubClient(webClient, retryConfig);
+        return new HttpHubClient(webClient, retryConfig, publicKeyCacheConfig, analysisNodesCacheConfig,
+                meterRegistry);
     }
 
     @Qualifier("HUB_AUTH_WEB_CLIENT")
@@ -206,12 +256,23 @@ public class CommonSpringConfig {
                 .build();
     }
 
+    @Qualifier("HUB_TOKEN_PROVIDER")
+    @Bean
+    public OIDCTokenProvider hubTokenProvider(
+            @Qualifier("HUB_AUTHENTICATOR") OIDCAuthenticator authenticator,
+            MeterRegistry meterRegistry
+    ) {
+        return new OIDCTokenProvider("hub", authenticator, hubAuthTokenRefreshFraction,
+                Duration.ofMillis(hubAuthTokenFailureBackoffMs), meterRegistry);
+    }
+
     @Qualifier("HUB_AUTHENTICATION_MIDDLEWARE")
     @Bean
     ExchangeFilterFunction hubAuthenticationMiddleware(
-            @Qualifier("HUB_AUTHENTICATOR") OIDCAuthenticator authenticator
+            @Qualifier("HUB_TOKEN_PROVIDER") OIDCTokenProvider tokenProvider
     ) {
-        return new OIDCAuthenticatorMiddleware(authenticator);
+        // tokens are shared with the hub messenger's sockets
+        return new OIDCAuthenticatorMiddleware(tokenProvider);
     }
 
     @Primary
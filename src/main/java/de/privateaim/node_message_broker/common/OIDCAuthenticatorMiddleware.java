@@ -1,33 +1,74 @@
 package de.privateaim.node_message_broker.common;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
-import org.springframework.security.oauth2.core.OAuth2AccessToken;
 import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.ExchangeFunction;
 import reactor.core.publisher.Mono;
 
-import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * A middleware for authenticating against several different services of a single external provider.
+ * <p>
+ * Tokens are either kept per host or shared by all hosts, see {@link OIDCTokenProvider} for how they are acquired and
+ * kept up to date.
  */
 @Slf4j
 public final class OIDCAuthenticatorMiddleware implements ExchangeFilterFunction {
 
-    private final Map<String, OIDCTokenPair> tokenPairByHost;
-    private final OIDCAuthenticator oidcAuthenticator;
+    private final Map<String, OIDCTokenProvider> tokenProviderByHost;
+    private final Function<String, OIDCTokenProvider> tokenProviderFactory;
 
+    /**
+     * Creates a new {@link OIDCAuthenticatorMiddleware} instance that keeps tokens per host.
+     *
+     * @param oidcAuthenticator authenticator for acquiring tokens
+     */
     public OIDCAuthenticatorMiddleware(OIDCAuthenticator oidcAuthenticator) {
-        this.tokenPairByHost = new ConcurrentHashMap<>();
-        this.oidcAuthenticator = requireNonNull(oidcAuthenticator, "OIDC authenticator must not be null");
+        this(oidcAuthenticator, OIDCTokenProvider.DEFAULT_REFRESH_FRACTION, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Creates a new {@link OIDCAuthenticatorMiddleware} instance that keeps tokens per host.
+     *
+     * @param oidcAuthenticator authenticator for acquiring tokens
+     * @param refreshFraction   fraction of an access token's lifetime after which it gets refreshed in the background,
+     *                          within (0, 1]
+     * @param meterRegistry     registry for recording metrics of token acquisitions
+     */
+    public OIDCAuthenticatorMiddleware(OIDCAuthenticator oidcAuthenticator, double refreshFraction,
+                                       MeterRegistry meterRegistry) {
+        requireNonNull(oidcAuthenticator, "OIDC authenticator must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        if (!(refreshFraction > 0 && refreshFraction <= 1)) {
+            throw new IllegalArgumentException("refresh fraction must be within (0, 1]");
+        }
+
+        this.tokenProviderByHost = new ConcurrentHashMap<>();
+        this.tokenProviderFactory = host ->
+                new OIDCTokenProvider(host, oidcAuthenticator, refreshFraction, meterRegistry);
+    }
+
+    /**
+     * Creates a new {@link OIDCAuthenticatorMiddleware} instance that uses the same tokens for all hosts.
+     *
+     * @param tokenProvider provider of the tokens, possibly shared with other components
+     */
+    public OIDCAuthenticatorMiddleware(OIDCTokenProvider tokenProvider) {
+        requireNonNull(tokenProvider, "token provider must not be null");
+        this.tokenProviderByHost = new ConcurrentHashMap<>();
+        this.tokenProviderFactory = host -> tokenProvider;
     }
 
     @Override
@@ -37,55 +78,30 @@ public final class OIDCAuthenticatorMiddleware implements ExchangeFilterFunction
             return Mono.just(ClientResponse.create(HttpStatus.BAD_REQUEST).build());
         }
 
-        var authToken = computeAccessTokenForHost(host);
-        var authenticatedRequest = ClientRequest.from(request)
-                .headers(headers -> headers.setBearerAuth(authToken.getTokenValue()))
-                .build();
+        var tokenProvider = tokenProviderByHost.computeIfAbsent(host, tokenProviderFactory);
+        return tokenProvider.getAccessToken().flatMap(authToken -> {
+            var authenticatedRequest = ClientRequest.from(request)
+                    .headers(headers -> headers.setBearerAuth(authToken.getTokenValue()))
+                    .build();
 
-        return next.exchange(authenticatedRequest).flatMap(response -> {
-            // Handling for unauthorized events in case of time overlaps regarding token expiration.
-            // Can happen if time skew is not properly handled by the authentication server.
-            if (response.statusCode().value() == HttpStatus.UNAUTHORIZED.value()) {
-                return response.releaseBody()
-                        .then(Mono.just(computeAccessTokenForHost(host)))
-                        .flatMap(token -> {
-                            var newRequest = ClientRequest.from(request)
-                                    .headers(headers -> headers.setBearerAuth(token.getTokenValue()))
-                                    .build();
-                            log.warn("retrying request to '{}' with new bearer token after receiving status code 401 " +
-                                    "(unauthorized)", request.url());
-                            return next.exchange(newRequest);
-                        });
-            } else {
-                return Mono.just(response);
-            }
+            return next.exchange(authenticatedRequest).flatMap(response -> {
+                // Handling for unauthorized events in case of time overlaps regarding token expiration.
+                // Can happen if time skew is not properly handled by the authentication server.
+                if (response.statusCode().value() == HttpStatus.UNAUTHORIZED.value()) {
+                    return response.releaseBody()
+                            .then(tokenProvider.replaceAccessToken(authToken))
+                            .flatMap(token -> {
+                                var newRequest = ClientRequest.from(request)
+                                        .headers(headers -> headers.setBearerAuth(token.getTokenValue()))
+                                        .build();
+                                log.warn("retrying request to '{}' with new bearer token after receiving status " +
+                                        "code 401 (unauthorized)", request.url());
+                                return next.exchange(newRequest);
+                            });
+                } else {
+                    return Mono.just(response);
+                }
+            });
         });
     }
-
-    private OAuth2AccessToken computeAccessTokenForHost(@NonNull String host) {
-        // TODO: revise - find another way to circumvent using block()
-        // The following is an atomic operation!
-        return tokenPairByHost.compute(host, (unused, tokenPair) -> {
-            if (tokenPair == null) {
-                log.info("acquiring access token for host '{}' as there is none yet", host);
-                return oidcAuthenticator.authenticate().block();
-            }
-
-            if (tokenPair.accessToken().getExpiresAt().isBefore(Instant.now())) {
-                return tokenPair.refreshToken()
-                        .map(refreshToken -> {
-                            if (refreshToken.getExpiresAt().isBefore(Instant.now())) {
-                                log.warn("refresh token expired - acquiring new pair of access token and refresh token for " +
-                                        "host '{}'", host);
-                                return oidcAuthenticator.authenticate().block();
-                            } else {
-                                log.info("refreshing access token for host '{}'", host);
-                                return oidcAuthenticator.refresh(refreshToken).block();
-                            }
-                        })
-                        .orElseGet(() -> oidcAuthenticator.authenticate().block());
-            }
-            return tokenPair;
-        }).accessToken();
-    }
 }
@@ -0,0 +1,274 @@
+package de.privateaim.node_message_broker.common;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2Token;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Provides access tokens of an external provider and keeps them up to date.
+ * <p>
+ * Acquiring or refreshing a token never blocks. All callers that need a new token share a single pending acquisition.
+ * Once the configured fraction of an access token's lifetime has passed, the token gets refreshed in the background
+ * while callers keep using it until it expires. A failed acquisition is not repeated until the configured back-off
+ * elapsed. Callers asking for a new token in the meantime get the same failure, so that an unavailable provider is not
+ * flooded with requests.
+ */
+@Slf4j
+public final class OIDCTokenProvider {
+
+    public static final String REFRESH_TIMER_NAME = "auth.token.refresh";
+    public static final String STALL_TIMER_NAME = "auth.token.stalls";
+
+    public static final double DEFAULT_REFRESH_FRACTION = 0.8;
+    public static final Duration DEFAULT_FAILURE_BACKOFF = Duration.ofSeconds(1);
+
+    private record TokenState(OIDCTokenPair tokenPair, Instant refreshAt) {
+    }
+
+    private record Failure(Throwable cause, Instant retryAt) {
+    }
+
+    private final String name;
+    private final OIDCAuthenticator oidcAuthenticator;
+    private final double refreshFraction;
+    private final Duration failureBackoff;
+    private final Clock clock;
+    private final Timer refreshSuccessTimer;
+    private final Timer refreshFailureTimer;
+    private final Timer stallTimer;
+    private volatile TokenState state;
+    private Mono<OIDCTokenPair> pendingAcquisition;
+    private Failure lastFailure;
+    private long acquisitions;
+
+    /**
+     * Creates a new {@link OIDCTokenProvider} instance.
+     *
+     * @param name              name of the provided tokens' audience, used for logging
+     * @param oidcAuthenticator authenticator for acquiring tokens
+     * @param refreshFraction   fraction of an access token's lifetime after which it gets refreshed in the background,
+     *                          within (0, 1]
+     * @param meterRegistry     registry for recording metrics of token acquisitions
+     */
+    public OIDCTokenProvider(@NotNull String name, @NotNull OIDCAuthenticator oidcAuthenticator,
+                             double refreshFraction, @NotNull MeterRegistry meterRegistry) {
+        this(name, oidcAuthenticator, refreshFraction, DEFAULT_FAILURE_BACKOFF, meterRegistry);
+    }
+
+    /**
+     * Creates a new {@link OIDCTokenProvider} instance.
+     *
+     * @param name              name of the provided tokens' audience, used for logging
+     * @param oidcAuthenticator authenticator for acquiring tokens
+     * @param refreshFraction   fraction of an access token's lifetime after which it gets refreshed in the background,
+     *                          within (0, 1]
+     * @param failureBackoff    time after a failed acquisition before another one gets started, zero to retry right
+     *                          away
+     * @param meterRegistry     registry for recording metrics of token acquisitions
+     */
+    public OIDCTokenProvider(@NotNull String name, @NotNull OIDCAuthenticator oidcAuthenticator,
+                             double refreshFraction, @NotNull Duration failureBackoff,
+                             @NotNull MeterRegistry meterRegistry) {
+        this(name, oidcAuthenticator, refreshFraction, failureBackoff, meterRegistry, Clock.systemUTC());
+    }
+
+    OIDCTokenProvider(String name, OIDCAuthenticator oidcAuthenticator, double refreshFraction,
+                      Duration failureBackoff, MeterRegistry meterRegistry, Clock clock) {
+        this.name = requireNonNull(name, "name must not be null");
+        this.oidcAuthenticator = requireNonNull(oidcAuthenticator, "OIDC authenticator must not be null");
+        this.failureBackoff = requireNonNull(failureBackoff, "failure back-off must not be null");
+        this.clock = requireNonNull(clock, "clock must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        if (!(refreshFraction > 0 && refreshFraction <= 1)) {
+            throw new IllegalArgumentException("refresh fraction must be within (0, 1]");
+        }
+        if (failureBackoff.isNegative()) {
+            throw new IllegalArgumentException("failure back-off must not be negative");
+        }
+        this.refreshFraction = refreshFraction;
+
+        this.refreshSuccessTimer = refreshTimer("success", meterRegistry);
+        this.refreshFailureTimer = refreshTimer("failure", meterRegistry);
+        this.stallTimer = Timer.builder(STALL_TIMER_NAME)
+                .description("Time requests spent waiting for an access token since there was no usable one")
+                .register(meterRegistry);
+    }
+
+    private static Timer refreshTimer(String outcome, MeterRegistry meterRegistry) {
+        return Timer.builder(REFRESH_TIMER_NAME)
+                .description("Time spent acquiring a new access token")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns a valid access token. Waits for a new one only if there is no valid one. If the current access token
+     * is due for a refresh, the refresh gets started in the background.
+     *
+     * @return A valid access token.
+     */
+    public Mono<OAuth2AccessToken> getAccessToken() {
+        return Mono.defer(() -> {
+            var now = clock.instant();
+            var current = state;
+            if (isUsable(current, now)) {
+                if (!now.isBefore(current.refreshAt())) {
+                    // the current token stays in use until the refreshed one is available
+                    acquire(current).subscribe(null, err ->
+                            log.warn("failed to refresh access token for '{}' in advance - will retry: {}",
+                                    name, err.getMessage()));
+                }
+                return Mono.just(current.tokenPair().accessToken());
+            }
+
+            var sample = Timer.start();
+            return acquire(current)
+                    .map(OIDCTokenPair::accessToken)
+                    .doFinally(ignored -> sample.stop(stallTimer));
+        });
+    }
+
+    /**
+     * Returns an access token that is not due for a refresh. Waits for the refresh if the current access token is due.
+     *
+     * @return An access token that is not due for a refresh.
+     */
+    public Mono<OAuth2AccessToken> getRefreshedAccessToken() {
+        return Mono.defer(() -> {
+            var current = state;
+            var now = clock.instant();
+            if (isUsable(current, now) && now.isBefore(current.refreshAt())) {
+                return Mono.just(current.tokenPair().accessToken());
+            }
+            return acquire(current).map(OIDCTokenPair::accessToken);
+        });
+    }
+
+    /**
+     * Returns an access token that replaces the given one, e.g. after it got rejected. A new one only gets acquired if
+     * the given access token is still the current one.
+     *
+     * @param rejected the access token that shall get replaced
+     * @return An access token other than the rejected one.
+     */
+    public Mono<OAuth2AccessToken> replaceAccessToken(OAuth2AccessToken rejected) {
+        return Mono.defer(() -> {
+            var current = state;
+            if (current != null && current.tokenPair().accessToken() != rejected) {
+                return Mono.just(current.tokenPair().accessToken());
+            }
+            return acquire(current).map(OIDCTokenPair::accessToken);
+        });
+    }
+
+    /**
+     * Returns the point in time at which the current access token is due for a refresh.
+     *
+     * @return The point in time of the next refresh, which is {@link Instant#MIN} if there is no access token yet.
+     */
+    public Instant nextRefreshAt() {
+        var current = state;
+        return current == null ? Instant.MIN : current.refreshAt();
+    }
+
+    private static boolean isUsable(TokenState state, Instant now) {
+        return state != null && !isExpired(state.tokenPair().accessToken(), now);
+    }
+
+    /**
+     * Returns the pending acquisition of a new token pair or starts a new one. A new acquisition only gets started if
+     * the given state is still the current one, i.e. no other acquisition replaced it in the meantime, and the back-off
+     * of the last failed acquisition elapsed.
+     */
+    private synchronized Mono<OIDCTokenPair> acquire(TokenState stale) {
+        if (state != stale) {
+            return Mono.just(state.tokenPair());
+        }
+        if (pendingAcquisition == null) {
+            if (lastFailure != null && clock.instant().isBefore(lastFailure.retryAt())) {
+                return Mono.error(lastFailure.cause());
+            }
+
+            var acquisition = ++acquisitions;
+            var sample = Timer.start();
+            pendingAcquisition = acquireTokenPair(stale == null ? null : stale.tokenPair())
+                    .doOnNext(this::replaceState)
+                    .doOnSuccess(ignored -> sample.stop(refreshSuccessTimer))
+                    .doOnError(err -> {
+                        sample.stop(refreshFailureTimer);
+                        recordFailure(acquisition, err);
+                    })
+                    .doFinally(ignored -> clearPendingAcquisition(acquisition))
+                    .cache();
+        }
+        return pendingAcquisition;
+    }
+
+    // Subscribers of an acquisition might ask for another one while still being notified, e.g. after a request got
+    // rejected. Hence, the acquisition is not pending anymore as soon as its result is in place.
+    private synchronized void replaceState(OIDCTokenPair acquired) {
+        state = new TokenState(acquired, computeRefreshAt(acquired.accessToken(), clock.instant()));
+        pendingAcquisition = null;
+        lastFailure = null;
+    }
+
+    private synchronized void recordFailure(long acquisition, Throwable cause) {
+        if (acquisitions == acquisition) {
+            lastFailure = new Failure(cause, clock.instant().plus(failureBackoff));
+        }
+    }
+
+    private synchronized void clearPendingAcquisition(long acquisition) {
+        if (acquisitions == acquisition) {
+            pendingAcquisition = null;
+        }
+    }
+
+    private Mono<OIDCTokenPair> acquireTokenPair(OIDCTokenPair stale) {
+        if (stale == null) {
+            log.info("acquiring access token for '{}' as there is none yet", name);
+            return oidcAuthenticator.authenticate();
+        }
+
+        return stale.refreshToken()
+                .map(refreshToken -> {
+                    if (isExpired(refreshToken, clock.instant())) {
+                        log.warn("refresh token expired - acquiring new pair of access token and refresh token for " +
+                                "'{}'", name);
+                        return oidcAuthenticator.authenticate();
+                    } else {
+                        log.info("refreshing access token for '{}'", name);
+                        return oidcAuthenticator.refresh(refreshToken);
+                    }
+                })
+                .orElseGet(oidcAuthenticator::authenticate);
+    }
+
+    private static boolean isExpired(OAuth2Token token, Instant now) {
+        return token.getExpiresAt() != null && token.getExpiresAt().isBefore(now);
+    }
+
+    private Instant computeRefreshAt(OAuth2AccessToken accessToken, Instant acquiredAt) {
+        if (accessToken.getExpiresAt() == null) {
+            return Instant.MAX;
+        }
+
+        var issuedAt = accessToken.getIssuedAt() != null ? accessToken.getIssuedAt() : acquiredAt;
+        var lifetime = Duration.between(issuedAt, accessToken.getExpiresAt());
+        if (lifetime.isNegative()) {
+            return accessToken.getExpiresAt();
+        }
+        return issuedAt.plusMillis((long) (lifetime.toMillis() * refreshFraction));
+    }
+}
@@ -1,13 +1,22 @@
 package de.privateaim.node_message_broker.common.hub;
 
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.privateaim.node_message_broker.common.CacheConfig;
 import de.privateaim.node_message_broker.common.HttpRetryConfig;
 import de.privateaim.node_message_broker.common.hub.api.AnalysisNode;
 import de.privateaim.node_message_broker.common.hub.api.HubResponseContainer;
 import de.privateaim.node_message_broker.common.hub.api.Node;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.util.encoders.DecoderException;
 import org.bouncycastle.util.encoders.Hex;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatusCode;
@@ -21,6 +30,9 @@ import java.io.InputStreamReader;
 import java.security.interfaces.ECPublicKey;
 import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 import static java.util.Objects.requireNonNull;
 
@@ -30,17 +42,83 @@ import static java.util.Objects.requireNonNull;
 @Slf4j
 public final class HttpHubClient implements HubClient {
 
+    private static final String PUBLIC_KEY_CACHE_NAME = "hub.public-keys";
+    private static final String ANALYSIS_NODES_CACHE_NAME = "hub.analysis-nodes";
+
     private final WebClient authenticatedWebClient;
     private final HttpRetryConfig retryConfig;
+    private final MeterRegistry meterRegistry;
+    private final AsyncLoadingCache<String, ECPublicKey> publicKeyCache;
+    private final AsyncLoadingCache<String, List<AnalysisNode>> analysisNodesCache;
 
     public HttpHubClient(WebClient authenticatedWebClient, HttpRetryConfig retryConfig) {
+        this(authenticatedWebClient, retryConfig, new CacheConfig.Builder().build(), new CacheConfig.Builder().build(),
+                new SimpleMeterRegistry());
+    }
+
+    public HttpHubClient(WebClient authenticatedWebClient, HttpRetryConfig retryConfig,
+                         CacheConfig publicKeyCacheConfig, CacheConfig analysisNodesCacheConfig,
+                         MeterRegistry meterRegistry) {
         this.authenticatedWebClient = requireNonNull(authenticatedWebClient, "authenticated web client must not be null");
         this.retryConfig = requireNonNull(retryConfig, "retry config must not be null");
+        this.meterRegistry = requireNonNull(meterRegistry, "meter registry must not be null");
+        this.publicKeyCache = buildCache(PUBLIC_KEY_CACHE_NAME,
+                requireNonNull(publicKeyCacheConfig, "public key cache config must not be null"),
+                this::requestPublicKey);
+        this.analysisNodesCache = buildCache(ANALYSIS_NODES_CACHE_NAME,
+                requireNonNull(analysisNodesCacheConfig, "analysis nodes cache config must not be null"),
+                this::requestAnalysisNodes);
+    }
+
+    // Concurrent lookups for the same key share a single in-flight request. Entries that are due for a refresh keep
+    // being served while the refresh is carried out in the background (stale-while-revalidate).
+    private <V> AsyncLoadingCache<String, V> buildCache(String name, CacheConfig config,
+                                                        Function<String, Mono<V>> loader) {
+        var refreshCounter = Counter.builder("hub.cache.refreshes")
+                .description("Number of background refreshes of cached Hub lookups")
+                .tag("cache", name)
+                .register(meterRegistry);
+
+        var cache = Caffeine.newBuilder()
+                .maximumSize(config.maxEntries())
+                .expireAfterWrite(config.expireAfterWrite())
+                .refreshAfterWrite(config.refreshAfterWrite())
+                .recordStats()
+                .buildAsync(new AsyncCacheLoader<String, V>() {
+                    @Override
+                    public CompletableFuture<? extends V> asyncLoad(String key, Executor executor) {
+                        return loader.apply(key).toFuture();
+                    }
+
+                    @Override
+                    public CompletableFuture<? extends V> asyncReload(String key, V oldValue, Executor executor) {
+                        log.debug("refreshing cached entry `{}` of cache `{}`", key, name);
+                        refreshCounter.increment();
+                        return loader.apply(key).toFuture();
+                    }
+                });
+
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+    }
+
+    private <V> Mono<V> lookup(AsyncLoadingCache<String, V> cache, String key) {
+        return Mono.defer(() -> {
+            var pendingValue = cache.get(key);
+
+            // Cancellation is suppressed since the underlying request might be shared with other subscribers.
+            // Failed requests get removed right away so that the next lookup does not observe the same failure.
+            return Mono.fromFuture(pendingValue, true)
+                    .doOnError(err -> cache.asMap().remove(key, pendingValue));
+        });
     }
 
-    // TODO: this might use a cache to cut corners and improve performance by avoiding unnecessary round-trips
     @Override
     public Mono<List<AnalysisNode>> fetchAnalysisNodes(String analysisId) {
+        return lookup(analysisNodesCache, analysisId);
+    }
+
+    private Mono<List<AnalysisNode>> requestAnalysisNodes(String analysisId) {
+        log.debug("requesting analysis nodes for analysis `{}` from hub", analysisId);
         return authenticatedWebClient.get()
                 .uri(uriBuilder -> uriBuilder
                         .path("/analysis-nodes")
@@ -60,6 +138,7 @@ public final class HttpHubClient implements HubClient {
                 .bodyToMono(new ParameterizedTypeReference<HubResponseContainer<List<AnalysisNode>>>() {
                 })
                 .map(resp -> resp.data)
+                .doOnNext(this::warmPublicKeyCache)
                 .retryWhen(Retry.backoff(retryConfig.maxRetries(), Duration.ofMillis(retryConfig.retryDelayMs()))
                         .jitter(0.75)
                         .filter(err -> err instanceof HubCoreServerException)
@@ -68,9 +147,13 @@ public final class HttpHubClient implements HubClient {
                                         .formatted(retryConfig.maxRetries())))));
     }
 
-    // TODO: add cache here! - see spring annotations
     @Override
     public Mono<ECPublicKey> fetchPublicKey(String robotId) {
+        return lookup(publicKeyCache, robotId);
+    }
+
+    private Mono<ECPublicKey> requestPublicKey(String robotId) {
+        log.debug("requesting public key for node with robot id `{}` from hub", robotId);
         return authenticatedWebClient.get()
                 .uri(uriBuilder -> uriBuilder
                         .path("/nodes")
@@ -98,17 +181,10 @@ public final class HttpHubClient implements HubClient {
                         return Mono.error(new NoPublicKeyException("node with robot id `%s` has no public key set"
                                 .formatted(robotId)));
                     }
-                    return Mono.just(Hex.decode(resp.data.getFirst().publicKey.getBytes()));
-                })
-                .flatMap(pubKey -> {
                     try {
-                        var key = (SubjectPublicKeyInfo) new PEMParser(
-                                new InputStreamReader(new ByteArrayInputStream(pubKey)))
-                                .readObject();
-                        return Mono.just((ECPublicKey) new JcaPEMKeyConverter().getPublicKey(key));
-                    } catch (IOException e) {
-                        return Mono.error(new MalformedPublicKeyException("failed to read public key from node with " +
-                                "robot id `%s`".formatted(robotId), e));
+                        return Mono.just(parsePublicKey(robotId, resp.data.getFirst().publicKey));
+                    } catch (MalformedPublicKeyException e) {
+                        return Mono.error(e);
                     }
                 })
                 .retryWhen(Retry.backoff(retryConfig.maxRetries(), Duration.ofMillis(retryConfig.retryDelayMs()))
@@ -118,4 +194,34 @@ public final class HttpHubClient implements HubClient {
                                 new HubNodePublicKeyNotObtainable("exhausted maximum number of retries of '%d'"
                                         .formatted(retryConfig.maxRetries())))));
     }
+
+    private static ECPublicKey parsePublicKey(String robotId, String hexEncodedPublicKey)
+            throws MalformedPublicKeyException {
+        try {
+            var pubKey = Hex.decode(hexEncodedPublicKey.getBytes());
+            var key = (SubjectPublicKeyInfo) new PEMParser(
+                    new InputStreamReader(new ByteArrayInputStream(pubKey)))
+                    .readObject();
+            return (ECPublicKey) new JcaPEMKeyConverter().getPublicKey(key);
+        } catch (IOException | DecoderException | ClassCastException e) {
+            throw new MalformedPublicKeyException("failed to read public key from node with " +
+                    "robot id `%s`".formatted(robotId), e);
+        }
+    }
+
+    // Analysis nodes are requested including their node which already carries the node's public key. Populating the
+    // public key cache with these saves a dedicated request per recipient when sending messages afterward.
+    private void warmPublicKeyCache(List<AnalysisNode> analysisNodes) {
+        analysisNodes.stream()
+                .map(analysisNode -> analysisNode.node)
+                .filter(node -> node != null && node.robotId != null && node.publicKey != null)
+                .forEach(node -> {
+                    try {
+                        publicKeyCache.put(node.robotId,
+                                CompletableFuture.completedFuture(parsePublicKey(node.robotId, node.publicKey)));
+                    } catch (MalformedPublicKeyException e) {
+                        log.debug("skipping public key of node with robot id `{}` for caching", node.robotId, e);
+                    }
+                });
+    }
 }
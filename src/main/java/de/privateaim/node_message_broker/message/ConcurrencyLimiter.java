@@ -0,0 +1,141 @@
+package de.privateaim.node_message_broker.message;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.SequencedSet;
+
+/**
+ * Limits the number of tasks that run concurrently without blocking any threads. Tasks exceeding the limit wait for a
+ * permit in the order they got subscribed to, so that a single caller submitting lots of tasks cannot starve others.
+ * <p>
+ * Waiting tasks get signalled iteratively by a single thread at a time. Otherwise, a task that completes right away when
+ * being signalled would signal the next waiting task further down the same stack, once per waiting task.
+ */
+final class ConcurrencyLimiter {
+
+    private static final class Lease {
+        private MonoSink<Void> sink;
+        private boolean granted;
+        private boolean released;
+    }
+
+    private final int maxConcurrency;
+    // Leases are only ever removed from the head, unless their task gets cancelled while waiting.
+    private final SequencedSet<Lease> waiting = new LinkedHashSet<>();
+    private final Queue<Lease> granted = new ArrayDeque<>();
+    private boolean signalling;
+    private int inUse;
+
+    /**
+     * Creates a new {@link ConcurrencyLimiter} instance.
+     *
+     * @param maxConcurrency number of maximum tasks that are allowed to run concurrently
+     */
+    ConcurrencyLimiter(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("max concurrency must be greater than 0");
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Defers subscribing to the given task until a permit is available. The permit is held until the task terminates or
+     * gets cancelled.
+     *
+     * @param task the task
+     * @param <T>  type of the task's result
+     * @return The task guarded by this limiter.
+     */
+    <T> Mono<T> limit(Mono<T> task) {
+        return Mono.defer(() -> {
+            var lease = new Lease();
+            return acquire(lease)
+                    .then(task)
+                    .doFinally(ignored -> release(lease));
+        });
+    }
+
+    /**
+     * Returns the number of tasks that are currently running.
+     *
+     * @return Number of running tasks.
+     */
+    synchronized int inUse() {
+        return inUse;
+    }
+
+    /**
+     * Returns the number of tasks that are currently waiting for a permit.
+     *
+     * @return Number of waiting tasks.
+     */
+    synchronized int waiting() {
+        return waiting.size();
+    }
+
+    private Mono<Void> acquire(Lease lease) {
+        return Mono.create(sink -> {
+            synchronized (this) {
+                if (lease.released) {
+                    return;
+                }
+                if (inUse < maxConcurrency) {
+                    inUse++;
+                    lease.granted = true;
+                } else {
+                    lease.sink = sink;
+                    waiting.add(lease);
+                    return;
+                }
+            }
+            sink.success();
+        });
+    }
+
+    // A lease whose task got cancelled might have been granted a permit without ever having seen it. The permit is
+    // passed on in that case as well since the lease gets released exactly once.
+    private void release(Lease lease) {
+        synchronized (this) {
+            if (lease.released) {
+                return;
+            }
+            lease.released = true;
+            if (!lease.granted) {
+                waiting.remove(lease);
+                return;
+            }
+
+            if (waiting.isEmpty()) {
+                inUse--;
+                return;
+            }
+            var next = waiting.removeFirst();
+            next.granted = true;
+            granted.add(next);
+            // the thread that is already signalling takes care of this lease as well
+            if (signalling) {
+                return;
+            }
+            signalling = true;
+        }
+        signalGranted();
+    }
+
+    private void signalGranted() {
+        while (true) {
+            Lease next;
+            synchronized (this) {
+                next = granted.poll();
+                if (next == null) {
+                    signalling = false;
+                    return;
+                }
+            }
+            next.sink.success();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.privateaim.node_message_broker.message;
+
+import de.privateaim.node_message_broker.message.receive.MessageReceiver;
+import io.socket.emitter.Emitter;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hands messages that arrive at any socket of a {@link HubMessengerSocketPool} to a single receiver.
+ * <p>
+ * The same listener is registered on every socket of the pool. Since the Hub might deliver a message via more than one
+ * of them, the receiver is expected to discard repeated deliveries, e.g. by being a
+ * {@link de.privateaim.node_message_broker.message.receive.HubMessageDeduplicator}. Messages are handed over as they
+ * arrive without waiting for them to be processed, so that socket.io's event thread is never held up. Frames that
+ * socket.io already parsed are not even decoded before being handed over.
+ */
+@Slf4j
+public final class HubMessengerMessageListener implements Emitter.Listener {
+
+    private final MessageReceiver messageReceiver;
+
+    /**
+     * Creates a new {@link HubMessengerMessageListener} instance.
+     *
+     * @param messageReceiver receiver of all messages arriving at any socket
+     */
+    public HubMessengerMessageListener(@NotNull MessageReceiver messageReceiver) {
+        this.messageReceiver = requireNonNull(messageReceiver, "message receiver must not be null");
+    }
+
+    @Override
+    public void call(Object... objects) {
+        log.debug("queueing incoming message");
+        // frames already parsed by socket.io get decoded later on as they are instead of being serialized again
+        var processing = objects[0] instanceof JSONObject frame
+                ? messageReceiver.processMessage(frame)
+                : messageReceiver.processMessage(objects[0].toString().getBytes(StandardCharsets.UTF_8));
+        processing
+                .doOnError(err -> log.error("failed to queue incoming message", err))
+                .subscribe();
+    }
+}
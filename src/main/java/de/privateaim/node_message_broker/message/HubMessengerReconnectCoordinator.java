@@ -0,0 +1,241 @@
+package de.privateaim.node_message_broker.message;
+
+import de.privateaim.node_message_broker.common.OIDCTokenProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.socket.client.Manager;
+import io.socket.client.Socket;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the authentication of sockets connected to the Hub's messenger up to date without ever blocking socket.io's
+ * event thread.
+ * <p>
+ * The access token gets refreshed on a separate scheduler ahead of its expiry and is put into the auth options of all
+ * registered sockets right away, so that any reconnect that fires afterward already uses it. If a socket fails to
+ * connect, e.g. since the Hub rejected its token, a new token gets acquired and the socket connects again once it is
+ * in place.
+ */
+@Slf4j
+public final class HubMessengerReconnectCoordinator {
+
+    public static final String TOKEN_FETCH_TIMER_NAME = "hub.messenger.token.fetch";
+    public static final String RECONNECT_TIMER_NAME = "hub.messenger.connection.reconnect.duration";
+
+    static final String AUTH_TOKEN_KEY = "token";
+    static final Duration RETRY_DELAY = Duration.ofSeconds(5);
+
+    private static final String TRIGGER_SCHEDULED = "scheduled";
+    private static final String TRIGGER_CONNECT_ERROR = "connect-error";
+    private static final String OUTCOME_SUCCESS = "success";
+    private static final String OUTCOME_FAILURE = "failure";
+
+    private record Connection(int index, Socket socket, Map<String, String> auth,
+                              AtomicReference<Instant> disconnectedAt, Timer reconnectTimer) {
+    }
+
+    private final OIDCTokenProvider tokenProvider;
+    private final MeterRegistry meterRegistry;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final Map<String, Timer> tokenFetchTimers;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private volatile OAuth2AccessToken currentToken;
+    private volatile Disposable scheduledRefresh;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new {@link HubMessengerReconnectCoordinator} instance.
+     *
+     * @param tokenProvider provider of the access tokens, shared with other clients of the Hub
+     * @param meterRegistry registry for recording metrics of token fetches and reconnects
+     */
+    public HubMessengerReconnectCoordinator(@NotNull OIDCTokenProvider tokenProvider,
+                                            @NotNull MeterRegistry meterRegistry) {
+        this(tokenProvider, meterRegistry, Schedulers.newSingle("hub-messenger-auth", true), Clock.systemUTC());
+    }
+
+    HubMessengerReconnectCoordinator(OIDCTokenProvider tokenProvider, MeterRegistry meterRegistry,
+                                     Scheduler scheduler, Clock clock) {
+        this.tokenProvider = requireNonNull(tokenProvider, "token provider must not be null");
+        this.meterRegistry = requireNonNull(meterRegistry, "meter registry must not be null");
+        this.scheduler = requireNonNull(scheduler, "scheduler must not be null");
+        this.clock = requireNonNull(clock, "clock must not be null");
+        this.tokenFetchTimers = Map.of(
+                tokenFetchTimerKey(TRIGGER_SCHEDULED, OUTCOME_SUCCESS),
+                registerTokenFetchTimer(TRIGGER_SCHEDULED, OUTCOME_SUCCESS),
+                tokenFetchTimerKey(TRIGGER_SCHEDULED, OUTCOME_FAILURE),
+                registerTokenFetchTimer(TRIGGER_SCHEDULED, OUTCOME_FAILURE),
+                tokenFetchTimerKey(TRIGGER_CONNECT_ERROR, OUTCOME_SUCCESS),
+                registerTokenFetchTimer(TRIGGER_CONNECT_ERROR, OUTCOME_SUCCESS),
+                tokenFetchTimerKey(TRIGGER_CONNECT_ERROR, OUTCOME_FAILURE),
+                registerTokenFetchTimer(TRIGGER_CONNECT_ERROR, OUTCOME_FAILURE));
+    }
+
+    /**
+     * Registers a socket whose authentication shall be kept up to date.
+     *
+     * @param index  index of the socket's connection, used for tagging metrics
+     * @param socket the socket
+     * @param auth   auth options of the socket, which must be safe for concurrent access
+     */
+    public void register(int index, @NotNull Socket socket, @NotNull Map<String, String> auth) {
+        requireNonNull(socket, "socket must not be null");
+        requireNonNull(auth, "auth must not be null");
+
+        var connection = new Connection(index, socket, auth, new AtomicReference<>(),
+                Timer.builder(RECONNECT_TIMER_NAME)
+                        .description("Time between losing a connection to the hub messenger and reestablishing it")
+                        .tag("connection", String.valueOf(index))
+                        .register(meterRegistry));
+        var token = currentToken;
+        if (token != null) {
+            auth.put(AUTH_TOKEN_KEY, token.getTokenValue());
+        }
+        connections.add(connection);
+
+        // all listeners run on socket.io's event thread and must therefore never block
+        socket.on(Socket.EVENT_CONNECT_ERROR, objects -> scheduler.schedule(() -> reauthenticate(connection)));
+        socket.on(Socket.EVENT_DISCONNECT, objects -> connection.disconnectedAt().compareAndSet(null, clock.instant()));
+        socket.on(Socket.EVENT_CONNECT, objects -> {
+            var disconnectedAt = connection.disconnectedAt().getAndSet(null);
+            if (disconnectedAt != null) {
+                connection.reconnectTimer().record(Duration.between(disconnectedAt, clock.instant()));
+            }
+        });
+        socket.io().on(Manager.EVENT_RECONNECT_ATTEMPT, objects -> applyCurrentToken(connection));
+    }
+
+    /**
+     * Fetches the first access token and keeps refreshing it ahead of its expiry from then on.
+     *
+     * @return A completed {@link Mono} once the first access token is in place. Might return an error if it cannot be
+     * fetched, in which case fetching it gets retried in the background.
+     */
+    public Mono<Void> start() {
+        return fetchToken(TRIGGER_SCHEDULED)
+                .doOnSuccess(ignored -> scheduleRefresh())
+                .doOnError(err -> scheduleRefresh(RETRY_DELAY))
+                .subscribeOn(scheduler)
+                .then();
+    }
+
+    /**
+     * Stops refreshing the access token.
+     */
+    public void stop() {
+        stopped = true;
+        var refresh = scheduledRefresh;
+        if (refresh != null) {
+            refresh.dispose();
+        }
+        scheduler.dispose();
+    }
+
+    private void scheduleRefresh() {
+        var refreshAt = tokenProvider.nextRefreshAt();
+        if (refreshAt.equals(Instant.MAX)) {
+            return;
+        }
+
+        // a token that is already due again right after being fetched must not cause fetching it over and over
+        var delay = Duration.between(clock.instant(), refreshAt);
+        scheduleRefresh(delay.compareTo(RETRY_DELAY) < 0 ? RETRY_DELAY : delay);
+    }
+
+    private void scheduleRefresh(Duration delay) {
+        if (stopped) {
+            return;
+        }
+
+        log.debug("refreshing access token for hub messenger in {}", delay);
+        scheduledRefresh = scheduler.schedule(() -> fetchToken(TRIGGER_SCHEDULED).subscribe(
+                ignored -> scheduleRefresh(),
+                err -> {
+                    log.warn("failed to refresh access token for hub messenger - will retry in {}: {}", RETRY_DELAY,
+                            err.getMessage());
+                    scheduleRefresh(RETRY_DELAY);
+                }), delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void reauthenticate(Connection connection) {
+        if (stopped) {
+            return;
+        }
+
+        log.info("acquiring new access token for connection #{} to hub messenger after failing to connect",
+                connection.index());
+        fetchToken(TRIGGER_CONNECT_ERROR).subscribe(
+                ignored -> {
+                    log.info("refreshed authentication token, reconnecting connection #{} to hub messenger",
+                            connection.index());
+                    connection.socket().connect();
+                },
+                err -> {
+                    log.warn("failed to refresh authentication token for connection #{} - will retry in {}: {}",
+                            connection.index(), RETRY_DELAY, err.getMessage());
+                    scheduler.schedule(() -> reauthenticate(connection), RETRY_DELAY.toNanos(),
+                            TimeUnit.NANOSECONDS);
+                });
+    }
+
+    private Mono<OAuth2AccessToken> fetchToken(String trigger) {
+        return Mono.defer(() -> {
+            var sample = Timer.start();
+            var token = currentToken;
+            // a failed connect might be caused by an outdated token, so it gets replaced unless this already happened
+            var fetch = TRIGGER_CONNECT_ERROR.equals(trigger) && token != null
+                    ? tokenProvider.replaceAccessToken(token)
+                    : tokenProvider.getRefreshedAccessToken();
+            return fetch
+                    .doOnNext(this::applyToken)
+                    .doOnSuccess(ignored -> sample.stop(tokenFetchTimer(trigger, OUTCOME_SUCCESS)))
+                    .doOnError(ignored -> sample.stop(tokenFetchTimer(trigger, OUTCOME_FAILURE)));
+        });
+    }
+
+    private Timer tokenFetchTimer(String trigger, String outcome) {
+        return tokenFetchTimers.get(tokenFetchTimerKey(trigger, outcome));
+    }
+
+    private static String tokenFetchTimerKey(String trigger, String outcome) {
+        return trigger + "/" + outcome;
+    }
+
+    private Timer registerTokenFetchTimer(String trigger, String outcome) {
+        return Timer.builder(TOKEN_FETCH_TIMER_NAME)
+                .description("Time spent fetching an access token for connecting to the hub messenger")
+                .tag("trigger", trigger)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private void applyToken(OAuth2AccessToken token) {
+        currentToken = token;
+        connections.forEach(this::applyCurrentToken);
+    }
+
+    private void applyCurrentToken(Connection connection) {
+        var token = currentToken;
+        if (token != null) {
+            connection.auth().put(AUTH_TOKEN_KEY, token.getTokenValue());
+        }
+    }
+}
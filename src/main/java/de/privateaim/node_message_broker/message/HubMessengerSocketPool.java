@@ -0,0 +1,95 @@
+package de.privateaim.node_message_broker.message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.socket.client.Manager;
+import io.socket.client.Socket;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A pool of sockets that are connected to the Hub's messenger independently of each other. Every socket has its own
+ * underlying connection, so that a large frame on one connection does not delay frames on the others.
+ * <p>
+ * Health metrics are recorded per connection and tagged with the connection's index within the pool.
+ */
+public final class HubMessengerSocketPool {
+
+    public static final String CONNECTED_GAUGE_NAME = "hub.messenger.connection.connected";
+    public static final String DISCONNECT_COUNTER_NAME = "hub.messenger.connection.disconnects";
+    public static final String RECONNECT_COUNTER_NAME = "hub.messenger.connection.reconnects";
+    public static final String CONNECT_ERROR_COUNTER_NAME = "hub.messenger.connection.errors";
+
+    private static final String CONNECTION_TAG = "connection";
+
+    private final List<Socket> sockets;
+
+    /**
+     * Creates a new {@link HubMessengerSocketPool} instance.
+     *
+     * @param sockets       sockets of the pool, each with its own underlying connection
+     * @param meterRegistry registry for recording health metrics of the connections
+     */
+    public HubMessengerSocketPool(@NotNull List<Socket> sockets, @NotNull MeterRegistry meterRegistry) {
+        this.sockets = List.copyOf(requireNonNull(sockets, "sockets must not be null"));
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        if (this.sockets.isEmpty()) {
+            throw new IllegalArgumentException("sockets must not be empty");
+        }
+
+        for (int i = 0; i < this.sockets.size(); i++) {
+            registerHealthMetrics(this.sockets.get(i), String.valueOf(i), meterRegistry);
+        }
+    }
+
+    private static void registerHealthMetrics(Socket socket, String connection, MeterRegistry meterRegistry) {
+        Gauge.builder(CONNECTED_GAUGE_NAME, socket, s -> s.connected() ? 1 : 0)
+                .description("Whether a connection to the hub messenger is established")
+                .tag(CONNECTION_TAG, connection)
+                .register(meterRegistry);
+        var disconnectCounter = Counter.builder(DISCONNECT_COUNTER_NAME)
+                .description("Number of times a connection to the hub messenger got lost")
+                .tag(CONNECTION_TAG, connection)
+                .register(meterRegistry);
+        var reconnectCounter = Counter.builder(RECONNECT_COUNTER_NAME)
+                .description("Number of times a connection to the hub messenger got reestablished")
+                .tag(CONNECTION_TAG, connection)
+                .register(meterRegistry);
+        var connectErrorCounter = Counter.builder(CONNECT_ERROR_COUNTER_NAME)
+                .description("Number of failed attempts to connect to the hub messenger")
+                .tag(CONNECTION_TAG, connection)
+                .register(meterRegistry);
+
+        socket.on(Socket.EVENT_DISCONNECT, objects -> disconnectCounter.increment());
+        socket.on(Socket.EVENT_CONNECT_ERROR, objects -> connectErrorCounter.increment());
+        socket.io().on(Manager.EVENT_RECONNECT, objects -> reconnectCounter.increment());
+    }
+
+    /**
+     * Returns the sockets of the pool.
+     *
+     * @return The sockets in the order of their connection index.
+     */
+    public List<Socket> sockets() {
+        return sockets;
+    }
+
+    /**
+     * Connects all sockets of the pool.
+     */
+    public void connect() {
+        sockets.forEach(Socket::connect);
+    }
+
+    /**
+     * Disconnects all sockets of the pool.
+     */
+    public void disconnect() {
+        sockets.forEach(Socket::disconnect);
+    }
+}
@@ -1,19 +1,30 @@
 package de.privateaim.node_message_broker.message;
 
 import de.privateaim.node_message_broker.message.api.MessageBroadcastRequest;
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
 import de.privateaim.node_message_broker.message.api.MessageRequest;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.UUID;
+
 import static java.util.Objects.requireNonNull;
 
 /**
  * REST controller for sending messages. Either to selected recipients or to all of them in a broadcast fashion.
+ * <p>
+ * Messages are sent synchronously by default, responding with the delivery result of every recipient. If sending
+ * failed for every recipient, the response carries a {@code 502 Bad Gateway} status instead of {@code 202 Accepted}.
+ * Requests with {@code async=true} are accepted right away instead, responding with the location of the message's
+ * state.
  */
 @RestController
 @RequestMapping("/analyses/{analysisId}/messages")
@@ -26,8 +37,9 @@ public final class MessageController {
     }
 
     @PostMapping("broadcast")
-    Mono<ResponseEntity<Void>> sendBroadcastMessage(@PathVariable String analysisId,
-                                                    @Valid @RequestBody MessageBroadcastRequest messageBroadcastRequest) {
+    Mono<ResponseEntity<List<MessageDeliveryResult>>> sendBroadcastMessage(
+            @PathVariable String analysisId,
+            @Valid @RequestBody MessageBroadcastRequest messageBroadcastRequest) {
         if (analysisId.isBlank()) {
             return Mono.just(ResponseEntity.badRequest().build());
         }
@@ -37,12 +49,27 @@ public final class MessageController {
                         new ResponseStatusException(HttpStatus.BAD_GATEWAY, err.getMessage(), err))
                 // other errors are handled by Spring's default exception handler which will return
                 // a 500 status code.
-                .thenReturn(ResponseEntity.accepted().build());
+                .map(MessageController::delivered)
+                .defaultIfEmpty(ResponseEntity.accepted().build());
+    }
+
+    @PostMapping(path = "broadcast", params = "async=true")
+    Mono<ResponseEntity<MessageStatus>> acceptBroadcastMessage(
+            UriComponentsBuilder uriComponentsBuilder,
+            @PathVariable String analysisId,
+            @Valid @RequestBody MessageBroadcastRequest messageBroadcastRequest) {
+        if (analysisId.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return messageService.acceptBroadcastMessage(analysisId, messageBroadcastRequest)
+                .map(status -> accepted(uriComponentsBuilder, status));
     }
 
     @PostMapping
-    Mono<ResponseEntity<Void>> sendMessage(@PathVariable String analysisId,
-                                           @Valid @RequestBody MessageRequest messageRequest) {
+    Mono<ResponseEntity<List<MessageDeliveryResult>>> sendMessage(
+            @PathVariable String analysisId,
+            @Valid @RequestBody MessageRequest messageRequest) {
         if (analysisId.isBlank()) {
             return Mono.just(ResponseEntity.badRequest().build());
         }
@@ -54,6 +81,54 @@ public final class MessageController {
                         new ResponseStatusException(HttpStatus.BAD_REQUEST, err.getMessage(), err))
                 // other errors are handled by Spring's default exception handler which will return
                 // a 500 status code.
-                .thenReturn(ResponseEntity.accepted().build());
+                .map(MessageController::delivered)
+                .defaultIfEmpty(ResponseEntity.accepted().build());
+    }
+
+    @PostMapping(params = "async=true")
+    Mono<ResponseEntity<MessageStatus>> acceptMessage(
+            UriComponentsBuilder uriComponentsBuilder,
+            @PathVariable String analysisId,
+            @Valid @RequestBody MessageRequest messageRequest) {
+        if (analysisId.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return messageService.acceptMessageToSelectedRecipients(analysisId, messageRequest)
+                .map(status -> accepted(uriComponentsBuilder, status));
+    }
+
+    @GetMapping("/{messageId}")
+    Mono<ResponseEntity<MessageStatus>> getMessageStatus(
+            @PathVariable String analysisId,
+            @PathVariable UUID messageId) {
+        if (analysisId.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return messageService.getMessageStatus(analysisId, messageId)
+                .map(ResponseEntity::ok)
+                .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
+    }
+
+    private static ResponseEntity<List<MessageDeliveryResult>> delivered(List<MessageDeliveryResult> results) {
+        // callers that only check the status code must not mistake a total failure for a success
+        var failedForEveryRecipient = !results.isEmpty() && results.stream()
+                .allMatch(result -> result.getStatus() == MessageDeliveryResult.Status.FAILED);
+        return failedForEveryRecipient
+                ? ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(results)
+                : ResponseEntity.accepted().body(results);
+    }
+
+    private static ResponseEntity<MessageStatus> accepted(UriComponentsBuilder uriComponentsBuilder,
+                                                          MessageStatus status) {
+        var statusResourceUri = uriComponentsBuilder.replacePath(null)
+                .replaceQuery(null)
+                .path("/analyses/%s/messages/%s".formatted(status.getAnalysisId(), status.getMessageId()))
+                .build().toUri();
+
+        return ResponseEntity.accepted()
+                .location(statusResourceUri)
+                .body(status);
     }
 }
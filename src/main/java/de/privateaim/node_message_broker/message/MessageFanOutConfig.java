@@ -0,0 +1,41 @@
+package de.privateaim.node_message_broker.message;
+
+/**
+ * Configuration options for sending a message to multiple recipients.
+ *
+ * @param perRequestConcurrency number of maximum messages of a single request that are emitted concurrently, which also
+ *                              bounds the number of messages of a request that are prepared ahead of time
+ * @param globalConcurrency     number of maximum messages that are emitted concurrently across all requests
+ */
+public record MessageFanOutConfig(int perRequestConcurrency, int globalConcurrency) {
+    public static final class Builder {
+        private int perRequestConcurrency = 16;
+        private int globalConcurrency = 64;
+
+        public Builder withPerRequestConcurrency(int perRequestConcurrency) {
+            this.perRequestConcurrency = perRequestConcurrency;
+            return this;
+        }
+
+        public Builder withGlobalConcurrency(int globalConcurrency) {
+            this.globalConcurrency = globalConcurrency;
+            return this;
+        }
+
+        public MessageFanOutConfig build() {
+            if (perRequestConcurrency <= 0) {
+                throw new IllegalArgumentException("perRequestConcurrency must be greater than 0");
+            }
+
+            if (globalConcurrency <= 0) {
+                throw new IllegalArgumentException("globalConcurrency must be greater than 0");
+            }
+
+            if (perRequestConcurrency > globalConcurrency) {
+                throw new IllegalArgumentException("perRequestConcurrency must not be greater than globalConcurrency");
+            }
+
+            return new MessageFanOutConfig(perRequestConcurrency, globalConcurrency);
+        }
+    }
+}
@@ -3,11 +3,15 @@ package de.privateaim.node_message_broker.message;
 import com.fasterxml.jackson.databind.JsonNode;
 import de.privateaim.node_message_broker.common.hub.HubClient;
 import de.privateaim.node_message_broker.message.api.MessageBroadcastRequest;
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
 import de.privateaim.node_message_broker.message.api.MessageRequest;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
 import de.privateaim.node_message_broker.message.emit.EmitMessage;
 import de.privateaim.node_message_broker.message.emit.EmitMessageContext;
 import de.privateaim.node_message_broker.message.emit.EmitMessageRecipient;
+import de.privateaim.node_message_broker.message.emit.EnvelopeEmitMessage;
 import de.privateaim.node_message_broker.message.emit.MessageEmitter;
+import de.privateaim.node_message_broker.message.status.MessageStatusTracker;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -16,9 +20,9 @@ import reactor.core.publisher.Mono;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
@@ -33,8 +37,54 @@ public final class MessageService {
     private final MessageEmitter<EmitMessage> messageEmitter;
     private final HubClient hubClient;
     private final String selfRobotId;
+    private final MessageFanOutConfig fanOutConfig;
+    private final ConcurrencyLimiter globalEmitLimiter;
+    private final MessageEmitter<EnvelopeEmitMessage> envelopeMessageEmitter;
+    private final MessageStatusTracker statusTracker;
 
     public MessageService(MessageEmitter<EmitMessage> messageEmitter, HubClient hubClient, String selfRobotId) {
+        this(messageEmitter, hubClient, selfRobotId, new MessageFanOutConfig.Builder().build());
+    }
+
+    public MessageService(MessageEmitter<EmitMessage> messageEmitter, HubClient hubClient, String selfRobotId,
+                          MessageFanOutConfig fanOutConfig) {
+        this(messageEmitter, null, hubClient, selfRobotId, fanOutConfig, null);
+    }
+
+    /**
+     * Creates a new {@link MessageService} instance that sends messages with more than one recipient as a single
+     * message that is encrypted as an envelope for all recipients at once.
+     *
+     * @param messageEmitter         emitter for messages with a single recipient
+     * @param envelopeMessageEmitter emitter for messages with multiple recipients
+     * @param hubClient              client for communicating with the Hub
+     * @param selfRobotId            unique identifier of this node's robot account
+     * @param fanOutConfig           configuration for sending messages to multiple recipients individually
+     */
+    public MessageService(MessageEmitter<EmitMessage> messageEmitter,
+                          MessageEmitter<EnvelopeEmitMessage> envelopeMessageEmitter,
+                          HubClient hubClient, String selfRobotId, MessageFanOutConfig fanOutConfig) {
+        this(messageEmitter,
+                requireNonNull(envelopeMessageEmitter, "envelope message emitter must not be null"),
+                hubClient, selfRobotId, fanOutConfig, null);
+    }
+
+    /**
+     * Creates a new {@link MessageService} instance.
+     *
+     * @param messageEmitter         emitter for messages with a single recipient
+     * @param envelopeMessageEmitter emitter for messages with multiple recipients, may be {@code null} for sending
+     *                               messages to every recipient individually
+     * @param hubClient              client for communicating with the Hub
+     * @param selfRobotId            unique identifier of this node's robot account
+     * @param fanOutConfig           configuration for sending messages to multiple recipients individually
+     * @param statusTracker          tracker for the state of messages that are sent asynchronously, may be {@code null}
+     *                               if messages are only sent synchronously
+     */
+    public MessageService(MessageEmitter<EmitMessage> messageEmitter,
+                          MessageEmitter<EnvelopeEmitMessage> envelopeMessageEmitter,
+                          HubClient hubClient, String selfRobotId, MessageFanOutConfig fanOutConfig,
+                          MessageStatusTracker statusTracker) {
         this.messageEmitter = requireNonNull(messageEmitter, "message emitter must not be null");
         this.hubClient = requireNonNull(hubClient, "hub client must not be null");
         requireNonNull(selfRobotId, "self robot id must not be null");
@@ -42,6 +92,10 @@ public final class MessageService {
             throw new IllegalArgumentException("self robot id must not be blank");
         }
         this.selfRobotId = selfRobotId;
+        this.fanOutConfig = requireNonNull(fanOutConfig, "fan out config must not be null");
+        this.globalEmitLimiter = new ConcurrencyLimiter(fanOutConfig.globalConcurrency());
+        this.envelopeMessageEmitter = envelopeMessageEmitter; // optional
+        this.statusTracker = statusTracker; // optional
     }
 
     /**
@@ -49,13 +103,41 @@ public final class MessageService {
      * that this message is associated with.
      * <p>
      * This function does NOT guarantee that messages are sent to all recipients. If a message cannot be sent then
-     * sending it not retried!
+     * sending it not retried! Whether a message could be sent is reported for each recipient individually.
+     *
+     * @param analysisId unique identifier of the analysis that this message belongs to
+     * @param messageReq request describing the message to be sent
+     * @return A {@link Mono} emitting the delivery result of every recipient.
+     */
+    Mono<List<MessageDeliveryResult>> sendBroadcastMessage(@NotNull String analysisId, @NotNull MessageBroadcastRequest messageReq) {
+        if (analysisId == null) {
+            return Mono.error(new NullPointerException("analysis id must not be null"));
+        }
+        if (analysisId.isBlank()) {
+            return Mono.error(new IllegalArgumentException("analysis id must not be blank"));
+        }
+        if (messageReq == null) {
+            return Mono.error(new NullPointerException("message request must not be null"));
+        }
+
+        return broadcastMessage(UUID.randomUUID(), analysisId, messageReq, false);
+    }
+
+    /**
+     * Accepts a message for being sent as a broadcast to all eligible recipients in the background. That is, every
+     * node participating within the analysis that this message is associated with.
+     * <p>
+     * Just like {@link #sendBroadcastMessage(String, MessageBroadcastRequest)}, this function does NOT guarantee that
+     * messages are sent to all recipients. The state of the message, including whether it could be sent to every
+     * recipient, can be looked up via {@link #getMessageStatus(String, UUID)}.
      *
      * @param analysisId unique identifier of the analysis that this message belongs to
      * @param messageReq request describing the message to be sent
-     * @return A completed {@link Mono}.
+     * @return A {@link Mono} emitting the initial state of the accepted message. Might return an
+     * {@link IllegalStateException} as an error state if this service does not track the state of messages.
      */
-    Mono<Void> sendBroadcastMessage(@NotNull String analysisId, @NotNull MessageBroadcastRequest messageReq) {
+    Mono<MessageStatus> acceptBroadcastMessage(@NotNull String analysisId,
+                                               @NotNull MessageBroadcastRequest messageReq) {
         if (analysisId == null) {
             return Mono.error(new NullPointerException("analysis id must not be null"));
         }
@@ -66,14 +148,17 @@ public final class MessageService {
             return Mono.error(new NullPointerException("message request must not be null"));
         }
 
+        var messageId = UUID.randomUUID();
+        return acceptInBackground(messageId, analysisId, broadcastMessage(messageId, analysisId, messageReq, true));
+    }
+
+    private Mono<List<MessageDeliveryResult>> broadcastMessage(UUID messageId, String analysisId,
+                                                               MessageBroadcastRequest messageReq, boolean tracked) {
         return getParticipantsOffAllOtherParticipatingAnalysisNodes(analysisId)
                 .onErrorMap(err -> new AnalysisNodesLookupException("could not look up analysis nodes for analysis `%s`"
                         .formatted(analysisId), err))
-                .flatMap(participants -> {
-                    var participantsRobotIds = participants.stream().map(p -> p.robotId).toList();
-                    var messages = buildIndividualMessages(analysisId, messageReq.message, participantsRobotIds);
-                    return sendIndividualMessages(messages);
-                });
+                .flatMap(participants -> sendMessages(messageId, analysisId, messageReq.message,
+                        List.copyOf(participants), tracked));
     }
 
     /**
@@ -81,13 +166,13 @@ public final class MessageService {
      * of the analysis that this message belongs to.
      * <p>
      * This function does NOT guarantee that messages are sent to all selected recipients. If a message cannot be sent
-     * then sending is not retried!
+     * then sending is not retried! Whether a message could be sent is reported for each recipient individually.
      *
      * @param analysisId unique identifier of the analysis that this message belongs to
      * @param messageReq request describing the message to be sent
-     * @return A completed {@link Mono}.
+     * @return A {@link Mono} emitting the delivery result of every selected recipient.
      */
-    Mono<Void> sendMessageToSelectedRecipients(@NotNull String analysisId, @NotNull MessageRequest messageReq) {
+    Mono<List<MessageDeliveryResult>> sendMessageToSelectedRecipients(@NotNull String analysisId, @NotNull MessageRequest messageReq) {
         if (analysisId == null) {
             return Mono.error(new NullPointerException("analysis id must not be null"));
         }
@@ -101,13 +186,66 @@ public final class MessageService {
             return Mono.error(new IllegalArgumentException("recipients must not be empty"));
         }
 
+        return sendMessageToRecipients(UUID.randomUUID(), analysisId, messageReq, false);
+    }
+
+    /**
+     * Accepts a message for being sent to selected recipients in the background. These recipients are described within
+     * the given request and MUST be part of the analysis that this message belongs to.
+     * <p>
+     * Just like {@link #sendMessageToSelectedRecipients(String, MessageRequest)}, this function does NOT guarantee that
+     * messages are sent to all selected recipients. The state of the message, including whether it could be sent to
+     * every recipient, can be looked up via {@link #getMessageStatus(String, UUID)}.
+     *
+     * @param analysisId unique identifier of the analysis that this message belongs to
+     * @param messageReq request describing the message to be sent
+     * @return A {@link Mono} emitting the initial state of the accepted message. Might return an
+     * {@link IllegalStateException} as an error state if this service does not track the state of messages.
+     */
+    Mono<MessageStatus> acceptMessageToSelectedRecipients(@NotNull String analysisId,
+                                                          @NotNull MessageRequest messageReq) {
+        if (analysisId == null) {
+            return Mono.error(new NullPointerException("analysis id must not be null"));
+        }
+        if (analysisId.isBlank()) {
+            return Mono.error(new IllegalArgumentException("analysis id must not be blank"));
+        }
+        if (messageReq == null) {
+            return Mono.error(new NullPointerException("message request must not be null"));
+        }
+        if (messageReq.recipients.isEmpty()) {
+            return Mono.error(new IllegalArgumentException("recipients must not be empty"));
+        }
+
+        var messageId = UUID.randomUUID();
+        return acceptInBackground(messageId, analysisId,
+                sendMessageToRecipients(messageId, analysisId, messageReq, true));
+    }
+
+    /**
+     * Looks up the state of a message that got accepted for being sent asynchronously.
+     *
+     * @param analysisId unique identifier of the analysis that the message belongs to
+     * @param messageId  unique identifier of the message
+     * @return A {@link Mono} emitting the state of the message or an empty {@link Mono} if it is unknown. Might return
+     * an {@link IllegalStateException} as an error state if this service does not track the state of messages.
+     */
+    Mono<MessageStatus> getMessageStatus(@NotNull String analysisId, @NotNull UUID messageId) {
+        if (statusTracker == null) {
+            return Mono.error(new IllegalStateException("messages are not sent asynchronously"));
+        }
+        return statusTracker.getStatus(analysisId, messageId);
+    }
+
+    private Mono<List<MessageDeliveryResult>> sendMessageToRecipients(UUID messageId, String analysisId,
+                                                                      MessageRequest messageReq, boolean tracked) {
         return getParticipantsOffAllOtherParticipatingAnalysisNodes(analysisId)
                 .onErrorMap(err -> new AnalysisNodesLookupException("could not look up analysis nodes", err))
                 .flatMap(participants -> {
                     var participantsNodeIds = participants.stream().map(p -> p.nodeId).toList();
                     if (participantsNodeIds.containsAll(messageReq.recipients)) {
-                        return sendIndividualMessages(buildIndividualMessages(analysisId, messageReq.message,
-                                mapNodeIdsToRobotIds(participants, messageReq.recipients)));
+                        return sendMessages(messageId, analysisId, messageReq.message,
+                                mapNodeIdsToParticipants(participants, messageReq.recipients), tracked);
                     } else {
                         return Mono.error(new InvalidMessageRecipientsException("list of recipients contains at least " +
                                 "one recipients that is not part of the analysis"));
@@ -115,13 +253,101 @@ public final class MessageService {
                 });
     }
 
-    private Mono<Void> sendIndividualMessages(Flux<EmitMessage> messages) {
-        return messages.flatMap(msg ->
-                        messageEmitter.emitMessage(msg)
-                                .doOnError(err -> log.error("emitting message `{}` to node `{}` failed",
-                                        msg.context().messageId(), msg.recipient().nodeRobotId(), err))
-                                .onErrorResume(err -> Mono.empty()))
-                .then(Mono.empty());
+    // Sending happens detached from the caller so that it does not have to wait for the Hub. Its outcome is only
+    // reported via the tracked state of the message.
+    private Mono<MessageStatus> acceptInBackground(UUID messageId, String analysisId,
+                                                   Mono<List<MessageDeliveryResult>> sending) {
+        if (statusTracker == null) {
+            return Mono.error(new IllegalStateException("messages are not sent asynchronously"));
+        }
+        return statusTracker.accept(messageId, analysisId)
+                .doOnSuccess(ignored -> sending
+                        .then(statusTracker.complete(messageId))
+                        .onErrorResume(err -> {
+                            log.error("sending message `{}` failed", messageId, err);
+                            return statusTracker.fail(messageId, describeFailure(err));
+                        })
+                        .subscribe());
+    }
+
+    // The message gets serialized only once. Its payload is shared by all individual messages since middlewares never
+    // modify a payload in place but create a new one instead.
+    private Mono<List<MessageDeliveryResult>> sendMessages(UUID messageId, String analysisId, JsonNode message,
+                                                           List<AnalysisParticipant> recipients, boolean tracked) {
+        if (tracked) {
+            statusTracker.recordRecipients(messageId, recipients.stream().map(AnalysisParticipant::nodeId).toList());
+        }
+
+        var payload = message.toString().getBytes(StandardCharsets.UTF_8);
+        if (envelopeMessageEmitter != null && recipients.size() > 1) {
+            return sendEnvelopeMessage(messageId, analysisId, payload, recipients)
+                    .doOnNext(results -> results.forEach(result -> recordResult(messageId, result, tracked)));
+        }
+        return sendIndividualMessages(messageId, analysisId, payload, recipients, tracked);
+    }
+
+    private void recordResult(UUID messageId, MessageDeliveryResult result, boolean tracked) {
+        if (tracked) {
+            statusTracker.recordResult(messageId, result);
+        }
+    }
+
+    // Messages are emitted with bounded concurrency per request and across all requests so that a single request with
+    // lots of recipients can neither exhaust resources needed for emitting nor starve other requests. Messages get
+    // built lazily so that only the ones currently being emitted are held in memory.
+    private Mono<List<MessageDeliveryResult>> sendIndividualMessages(UUID messageId, String analysisId, byte[] payload,
+                                                                     List<AnalysisParticipant> recipients,
+                                                                     boolean tracked) {
+        return Flux.fromIterable(recipients)
+                .flatMapSequential(recipient -> sendIndividualMessage(messageId, analysisId, payload, recipient)
+                                // results are recorded as soon as they are known instead of once all are known
+                                .doOnNext(result -> recordResult(messageId, result, tracked)),
+                        fanOutConfig.perRequestConcurrency())
+                .collectList();
+    }
+
+    // A message encrypted as an envelope reaches all recipients at once. Hence, it's either sent to all of them or to
+    // none.
+    private Mono<List<MessageDeliveryResult>> sendEnvelopeMessage(UUID messageId, String analysisId, byte[] payload,
+                                                                  List<AnalysisParticipant> recipients) {
+        return globalEmitLimiter.limit(Mono.defer(() -> envelopeMessageEmitter.emitMessage(new EnvelopeEmitMessage(
+                        recipients.stream().map(recipient -> new EmitMessageRecipient(recipient.robotId)).toList(),
+                        payload,
+                        new EmitMessageContext(messageId, analysisId)))))
+                .then(Mono.fromSupplier(() -> recipients.stream()
+                        .map(recipient -> MessageDeliveryResult.builder()
+                                .recipient(recipient.nodeId)
+                                .status(MessageDeliveryResult.Status.SENT)
+                                .build())
+                        .toList()))
+                .onErrorResume(err -> {
+                    log.error("emitting message `{}` to {} nodes failed", messageId, recipients.size(), err);
+                    return Mono.just(recipients.stream()
+                            .map(recipient -> MessageDeliveryResult.builder()
+                                    .recipient(recipient.nodeId)
+                                    .status(MessageDeliveryResult.Status.FAILED)
+                                    .reason(describeFailure(err))
+                                    .build())
+                            .toList());
+                });
+    }
+
+    private Mono<MessageDeliveryResult> sendIndividualMessage(UUID messageId, String analysisId, byte[] payload,
+                                                              AnalysisParticipant recipient) {
+        return globalEmitLimiter.limit(Mono.defer(() -> messageEmitter.emitMessage(
+                        buildIndividualMessage(messageId, analysisId, payload, recipient.robotId))))
+                .thenReturn(MessageDeliveryResult.builder()
+                        .recipient(recipient.nodeId)
+                        .status(MessageDeliveryResult.Status.SENT)
+                        .build())
+                .onErrorResume(err -> {
+                    log.error("emitting message `{}` to node `{}` failed", messageId, recipient.robotId, err);
+                    return Mono.just(MessageDeliveryResult.builder()
+                            .recipient(recipient.nodeId)
+                            .status(MessageDeliveryResult.Status.FAILED)
+                            .reason(describeFailure(err))
+                            .build());
+                });
     }
 
     private Mono<Set<AnalysisParticipant>> getParticipantsOffAllOtherParticipatingAnalysisNodes(String analysisId) {
@@ -132,30 +358,34 @@ public final class MessageService {
                         .collect(Collectors.toSet()));
     }
 
-    private Flux<EmitMessage> buildIndividualMessages(String analysisId, JsonNode message,
-                                                      List<String> recipientRobotIds) {
-        var messageId = UUID.randomUUID();
-        return Flux.fromIterable(recipientRobotIds.stream().map(robotId -> EmitMessage.builder()
-                                .sendTo(new EmitMessageRecipient(robotId))
-                                .withPayload(message.toString().getBytes(StandardCharsets.UTF_8))
-                                .inContext(new EmitMessageContext(
-                                        messageId,
-                                        analysisId))
-                                .build())
-                        .toList())
-                .onErrorMap(err -> new RuntimeException("could not prepare individual messages", err));
+    private EmitMessage buildIndividualMessage(UUID messageId, String analysisId, byte[] payload,
+                                               String recipientRobotId) {
+        return EmitMessage.builder()
+                .sendTo(new EmitMessageRecipient(recipientRobotId))
+                .withPayload(payload)
+                .inContext(new EmitMessageContext(
+                        messageId,
+                        analysisId))
+                .build();
     }
 
-    private List<String> mapNodeIdsToRobotIds(Set<AnalysisParticipant> participants, List<String> nodeIds) {
-        var nodeIdRobotIdMapping = participants.stream()
-                .map(p -> Map.entry(p.nodeId(), p.robotId()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    private List<AnalysisParticipant> mapNodeIdsToParticipants(Set<AnalysisParticipant> participants,
+                                                               List<String> nodeIds) {
+        var nodeIdParticipantMapping = participants.stream()
+                .collect(Collectors.toMap(AnalysisParticipant::nodeId, Function.identity()));
 
         return nodeIds.stream()
-                .map(nodeIdRobotIdMapping::get)
+                .map(nodeIdParticipantMapping::get)
                 .toList();
     }
 
+    private static String describeFailure(Throwable err) {
+        var cause = err.getCause();
+        return cause == null || cause.getMessage() == null
+                ? err.getMessage()
+                : "%s: %s".formatted(err.getMessage(), cause.getMessage());
+    }
+
     private record AnalysisParticipant(
             String nodeId,
             String robotId // for internal communication usage
@@ -2,18 +2,45 @@ package de.privateaim.node_message_broker.message;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.privateaim.node_message_broker.ConfigurationUtil;
-import de.privateaim.node_message_broker.common.OIDCAuthenticator;
+import de.privateaim.node_message_broker.common.OIDCTokenProvider;
 import de.privateaim.node_message_broker.common.hub.HubClient;
+import de.privateaim.node_message_broker.message.crypto.CipherProviderSelector;
+import de.privateaim.node_message_broker.message.crypto.CryptoProviderConfig;
+import de.privateaim.node_message_broker.message.crypto.ECDHSharedSecretCache;
 import de.privateaim.node_message_broker.message.crypto.HubMessageCryptoService;
 import de.privateaim.node_message_broker.message.crypto.MessageCryptoService;
 import de.privateaim.node_message_broker.message.emit.EmitMessage;
+import de.privateaim.node_message_broker.message.emit.EmitMessageContext;
+import de.privateaim.node_message_broker.message.emit.EnvelopeEmitMessage;
+import de.privateaim.node_message_broker.message.emit.HubEnvelopeMessageEmitter;
+import de.privateaim.node_message_broker.message.emit.HubMessageAckConfig;
+import de.privateaim.node_message_broker.message.emit.HubMessageBase64EncodingMiddleware;
+import de.privateaim.node_message_broker.message.emit.HubMessageBatchConfig;
+import de.privateaim.node_message_broker.message.emit.HubMessageBatchingEmitter;
+import de.privateaim.node_message_broker.message.emit.HubMessageChunkConfig;
+import de.privateaim.node_message_broker.message.emit.HubMessageChunkingEmitter;
+import de.privateaim.node_message_broker.message.emit.HubMessageCompressionMiddleware;
 import de.privateaim.node_message_broker.message.emit.HubMessageEmitter;
+import de.privateaim.node_message_broker.message.emit.HubMessageEmitterPool;
 import de.privateaim.node_message_broker.message.emit.HubMessageEncryptionMiddleware;
+import de.privateaim.node_message_broker.message.emit.HubMessageEnvelopeEncryptionMiddleware;
+import de.privateaim.node_message_broker.message.emit.HubMessageTransport;
 import de.privateaim.node_message_broker.message.emit.MessageEmitter;
+import de.privateaim.node_message_broker.message.emit.outbox.MessageOutboxConfig;
+import de.privateaim.node_message_broker.message.emit.outbox.MongoMessageOutbox;
+import de.privateaim.node_message_broker.message.emit.outbox.persistence.MessageOutboxEntry;
+import de.privateaim.node_message_broker.message.emit.outbox.persistence.MessageOutboxRepository;
 import de.privateaim.node_message_broker.message.receive.*;
+import de.privateaim.node_message_broker.message.status.MessageStatusConfig;
+import de.privateaim.node_message_broker.message.status.MessageStatusTracker;
+import de.privateaim.node_message_broker.message.status.persistence.MessageStatusEntry;
+import de.privateaim.node_message_broker.message.status.persistence.MessageStatusRepository;
 import de.privateaim.node_message_broker.message.subscription.MessageSubscriptionService;
 import de.privateaim.node_message_broker.message.subscription.MessageSubscriptionServiceImpl;
 import de.privateaim.node_message_broker.message.subscription.persistence.MessageSubscriptionRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import io.socket.client.IO;
 import io.socket.client.Manager;
 import io.socket.client.Socket;
@@ -28,10 +55,16 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -45,11 +78,15 @@ import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.Provider;
 import java.security.SecureRandom;
+import java.security.Security;
 import java.security.interfaces.ECPrivateKey;
-import java.util.Base64;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.regex.Pattern;
@@ -60,12 +97,150 @@ class MessageSpringConfig {
     @Value("${app.hub.messenger.baseUrl}")
     private String hubMessengerBaseUrl;
 
+    @Value("${app.hub.messenger.ack.enabled}")
+    private boolean hubMessengerAckEnabled;
+
+    @Value("${app.hub.messenger.ack.timeoutMs}")
+    private long hubMessengerAckTimeoutMs;
+
+    @Value("${app.hub.messenger.ack.maxRetries}")
+    private int hubMessengerAckMaxRetries;
+
+    @Value("${app.hub.messenger.ack.retryBackoffMs}")
+    private long hubMessengerAckRetryBackoffMs;
+
+    @Value("${app.hub.messenger.binaryTransport.enabled}")
+    private boolean hubMessengerBinaryTransportEnabled;
+
+    @Value("${app.hub.messenger.pool.size}")
+    private int hubMessengerPoolSize;
+
     @Value("${app.security.nodePrivateECDHKeyFile}")
     private String nodePrivateECDHKeyFile;
 
+    @Value("${app.security.sharedSecretCache.enabled}")
+    private boolean sharedSecretCacheEnabled;
+
+    @Value("${app.security.sharedSecretCache.maxEntries}")
+    private long sharedSecretCacheMaxEntries;
+
+    @Value("${app.security.sharedSecretCache.expireAfterSeconds}")
+    private long sharedSecretCacheExpireAfterSeconds;
+
+    @Value("${app.security.crypto.keyAgreementProvider}")
+    private String keyAgreementProviderName;
+
+    @Value("${app.security.crypto.cipherProvider}")
+    private String cipherProviderName;
+
     @Value("${app.hub.auth.robotId}")
     private String selfRobotId;
 
+    @Value("${app.message.fanOut.perRequestConcurrency}")
+    private int fanOutPerRequestConcurrency;
+
+    @Value("${app.message.fanOut.globalConcurrency}")
+    private int fanOutGlobalConcurrency;
+
+    @Value("${app.message.envelopeEncryption.enabled}")
+    private boolean envelopeEncryptionEnabled;
+
+    @Value("${app.message.batching.enabled}")
+    private boolean batchingEnabled;
+
+    @Value("${app.message.batching.windowMs}")
+    private long batchingWindowMs;
+
+    @Value("${app.message.batching.maxMessages}")
+    private int batchingMaxMessages;
+
+    @Value("${app.message.batching.maxBytes}")
+    private int batchingMaxBytes;
+
+    @Value("${app.message.compression.enabled}")
+    private boolean compressionEnabled;
+
+    @Value("${app.message.compression.thresholdBytes}")
+    private int compressionThresholdBytes;
+
+    @Value("${app.message.compression.maxDecompressedBytes}")
+    private int compressionMaxDecompressedBytes;
+
+    @Value("${app.message.chunking.enabled}")
+    private boolean chunkingEnabled;
+
+    @Value("${app.message.chunking.thresholdBytes}")
+    private int chunkingThresholdBytes;
+
+    @Value("${app.message.chunking.chunkSizeBytes}")
+    private int chunkingChunkSizeBytes;
+
+    @Value("${app.message.chunking.maxInFlightChunks}")
+    private int chunkingMaxInFlightChunks;
+
+    @Value("${app.message.chunking.spoolDirectory}")
+    private String chunkingSpoolDirectory;
+
+    @Value("${app.message.chunking.reassemblyTimeoutSeconds}")
+    private long chunkingReassemblyTimeoutSeconds;
+
+    @Value("${app.message.chunking.maxMessageBytes}")
+    private int chunkingMaxMessageBytes;
+
+    @Value("${app.message.chunking.maxTransfers}")
+    private int chunkingMaxTransfers;
+
+    @Value("${app.message.chunking.maxTransfersPerSender}")
+    private int chunkingMaxTransfersPerSender;
+
+    @Value("${app.message.status.maxEntries}")
+    private int statusMaxEntries;
+
+    @Value("${app.message.status.timeToLiveSeconds}")
+    private long statusTimeToLiveSeconds;
+
+    @Value("${app.message.status.persistence.enabled}")
+    private boolean statusPersistenceEnabled;
+
+    @Value("${app.message.outbox.enabled}")
+    private boolean outboxEnabled;
+
+    @Value("${app.message.outbox.timeToLiveSeconds}")
+    private long outboxTimeToLiveSeconds;
+
+    @Value("${app.message.outbox.drainConcurrency}")
+    private int outboxDrainConcurrency;
+
+    @Value("${app.message.receive.queue.capacity}")
+    private int receiveQueueCapacity;
+
+    @Value("${app.message.receive.queue.concurrency}")
+    private int receiveQueueConcurrency;
+
+    @Value("${app.message.receive.queue.overflowPolicy}")
+    private HubMessageIngestionOverflowPolicy receiveQueueOverflowPolicy;
+
+    @Value("${app.message.receive.queue.blockTimeoutMs}")
+    private long receiveQueueBlockTimeoutMs;
+
+    @Value("${app.message.receive.queue.spillDirectory}")
+    private String receiveQueueSpillDirectory;
+
+    @Value("${app.message.receive.queue.orderedPerSender}")
+    private boolean receiveQueueOrderedPerSender;
+
+    @Value("${app.message.receive.queue.maxWaitingPerSender}")
+    private int receiveQueueMaxWaitingPerSender;
+
+    @Value("${app.message.receive.deduplication.maxEntries}")
+    private long receiveDeduplicationMaxEntries;
+
+    @Value("${app.message.receive.deduplication.windowSeconds}")
+    private long receiveDeduplicationWindowSeconds;
+
+    @Value("${app.message.receive.crypto.parallelism}")
+    private int receiveCryptoParallelism;
+
     @Value("${app.proxy.host}")
     private String proxyHost;
 
@@ -140,13 +315,51 @@ class MessageSpringConfig {
     }
 
 
-    @Qualifier("HUB_MESSENGER_UNDERLYING_SOCKET")
+    @Qualifier("HUB_MESSENGER_RECONNECT_COORDINATOR")
+    @Bean(destroyMethod = "stop")
+    public HubMessengerReconnectCoordinator hubMessengerReconnectCoordinator(
+            @Qualifier("HUB_TOKEN_PROVIDER") OIDCTokenProvider hubTokenProvider,
+            MeterRegistry meterRegistry) {
+        return new HubMessengerReconnectCoordinator(hubTokenProvider, meterRegistry);
+    }
+
+    @Qualifier("HUB_MESSENGER_UNDERLYING_SOCKETS")
     @Bean(destroyMethod = "disconnect")
-    public Socket underlyingMessengerSocket(
-            @Qualifier("HUB_AUTHENTICATOR") OIDCAuthenticator hubAuthenticator,
-            @Qualifier("HUB_MESSAGE_RECEIVER") MessageReceiver messageReceiver,
-            @Qualifier("HUB_MESSENGER_UNDERLYING_SOCKET_SECURE_CLIENT") OkHttpClient secureBaseClient) {
+    public HubMessengerSocketPool underlyingMessengerSockets(
+            @Qualifier("HUB_MESSENGER_RECONNECT_COORDINATOR") HubMessengerReconnectCoordinator reconnectCoordinator,
+            @Qualifier("HUB_MESSAGE_DEDUPLICATOR") MessageReceiver messageReceiver,
+            @Qualifier("HUB_MESSENGER_UNDERLYING_SOCKET_SECURE_CLIENT") OkHttpClient secureBaseClient,
+            MeterRegistry meterRegistry) {
+        if (hubMessengerPoolSize <= 0) {
+            throw new IllegalArgumentException("hub messenger pool size must be greater than 0");
+        }
+
+        // a single listener receives the messages of all sockets, so that repeated deliveries get discarded
+        var messageListener = new HubMessengerMessageListener(messageReceiver);
+        var sockets = new ArrayList<Socket>();
+        for (int connection = 0; connection < hubMessengerPoolSize; connection++) {
+            sockets.add(createMessengerSocket(connection, reconnectCoordinator, messageListener, secureBaseClient));
+        }
+        var pool = new HubMessengerSocketPool(sockets, meterRegistry);
 
+        // Get auth token before first connection attempt to avoid an expected initial failure
+        reconnectCoordinator.start()
+                .doOnSuccess(ignored -> log.info("obtained initial authentication token for hub messenger"))
+                .doOnError(err -> log.warn("failed to obtain initial authentication token - will authenticate on " +
+                        "first connection error: {}", err.getMessage()))
+                .onErrorComplete()
+                .subscribe(null, null, () -> {
+                    log.info("connecting to hub messenger with {} connections", sockets.size());
+                    pool.connect();
+                });
+        return pool;
+    }
+
+    private Socket createMessengerSocket(
+            int connection,
+            HubMessengerReconnectCoordinator reconnectCoordinator,
+            HubMessengerMessageListener messageListener,
+            OkHttpClient secureBaseClient) {
         URI messengerUri = URI.create(hubMessengerBaseUrl);
 
         String socketHost = messengerUri.getScheme() + "://" + messengerUri.getHost();
@@ -161,7 +374,10 @@ class MessageSpringConfig {
 
         IO.Options options = IO.Options.builder()
                 .setPath(socketPath)
-                .setAuth(new HashMap<>())
+                // the token gets updated by the reconnect coordinator outside of socket.io's event thread
+                .setAuth(new ConcurrentHashMap<>())
+                // every socket of the pool needs its own manager, otherwise they would share a single connection
+                .setForceNew(true)
                 // Configure robust reconnection: infinite attempts with exponential backoff
                 .setReconnection(true)
                 .setReconnectionAttempts(Integer.MAX_VALUE)
@@ -177,103 +393,100 @@ class MessageSpringConfig {
 
         // socket.io expects the base URL to be without the path
         final Socket socket = IO.socket(URI.create(socketHost), options);
-        log.info("created socket for hub messenger at `{}`", socketHost);
+        log.info("created socket #{} for hub messenger at `{}`", connection, socketHost);
+        // re-authentication on connection errors and reconnect attempts is taken care of by the coordinator
+        reconnectCoordinator.register(connection, socket, options.auth);
 
         socket.on(Socket.EVENT_CONNECT_ERROR, objects -> {
             String errorMsg = objects.length > 0 ? objects[0].toString() : "unknown error";
-            log.error("cannot connect to hub messenger at `{}` - error: {}", hubMessengerBaseUrl, errorMsg);
-
-            // Try to refresh the authentication token and reconnect
-            // IMPORTANT: Do not throw exceptions here - it would kill the EventThread and stop reconnection
-            try {
-                var oidcTokenPair = hubAuthenticator.authenticate().block();
-                if (oidcTokenPair != null) {
-                    options.auth.put("token", oidcTokenPair.accessToken().getTokenValue());
-                    log.info("refreshed authentication token, reconnecting to hub messenger");
-                    socket.connect();
-                } else {
-                    log.warn("authentication returned null - will retry on next reconnection attempt");
-                }
-            } catch (Exception e) {
-                log.warn("failed to refresh authentication token - will retry on next reconnection attempt: {}",
-                        e.getMessage());
-            }
+            log.error("connection #{} cannot connect to hub messenger at `{}` - error: {}", connection,
+                    hubMessengerBaseUrl, errorMsg);
         });
 
-        socket.on(Socket.EVENT_CONNECT,
-                objects -> log.info("connected to hub messenger at `{}`", hubMessengerBaseUrl));
+        socket.on(Socket.EVENT_CONNECT, objects -> log.info("connection #{} connected to hub messenger at `{}`",
+                connection, hubMessengerBaseUrl));
 
         socket.on(Socket.EVENT_DISCONNECT, objects -> {
             String reason = objects.length > 0 ? objects[0].toString() : "unknown";
-            log.warn("disconnected from hub messenger at `{}` - reason: {}", hubMessengerBaseUrl, reason);
+            log.warn("connection #{} disconnected from hub messenger at `{}` - reason: {}", connection,
+                    hubMessengerBaseUrl, reason);
         });
 
         socket.io().on(Manager.EVENT_RECONNECT_ATTEMPT, objects -> {
             int attemptNumber = objects.length > 0 ? (int) objects[0] : -1;
-            log.info("reconnection attempt #{} to hub messenger at `{}`", attemptNumber, hubMessengerBaseUrl);
-
-            // Try to refresh the authentication token before reconnecting
-            // IMPORTANT: Do not throw exceptions here - it would kill the EventThread and stop reconnection
-            try {
-                var oidcTokenPair = hubAuthenticator.authenticate().block();
-                if (oidcTokenPair != null) {
-                    options.auth.put("token", oidcTokenPair.accessToken().getTokenValue());
-                    log.debug("refreshed authentication token for reconnection attempt #{}", attemptNumber);
-                } else {
-                    log.warn("authentication returned null on attempt #{} - will use existing token", attemptNumber);
-                }
-            } catch (Exception e) {
-                log.warn("failed to refresh authentication token on attempt #{} - will use existing token: {}",
-                        attemptNumber, e.getMessage());
-            }
+            log.info("reconnection attempt #{} of connection #{} to hub messenger at `{}`", attemptNumber, connection,
+                    hubMessengerBaseUrl);
         });
 
         socket.io().on(Manager.EVENT_RECONNECT, objects -> {
             int attemptNumber = objects.length > 0 ? (int) objects[0] : -1;
-            log.info("successfully reconnected to hub messenger at `{}` after {} attempts",
-                    hubMessengerBaseUrl, attemptNumber);
+            log.info("successfully reconnected connection #{} to hub messenger at `{}` after {} attempts",
+                    connection, hubMessengerBaseUrl, attemptNumber);
         });
 
         socket.io().on(Manager.EVENT_RECONNECT_ERROR, objects -> {
             String errorMsg = objects.length > 0 ? objects[0].toString() : "unknown error";
-            log.warn("reconnection error to hub messenger at `{}`: {}", hubMessengerBaseUrl, errorMsg);
+            log.warn("reconnection error of connection #{} to hub messenger at `{}`: {}", connection,
+                    hubMessengerBaseUrl, errorMsg);
         });
 
         socket.io().on(Manager.EVENT_ERROR, objects -> {
             String errorMsg = objects.length > 0 ? objects[0].toString() : "unknown error";
-            log.error("socket manager error for hub messenger at `{}`: {}", hubMessengerBaseUrl, errorMsg);
+            log.error("socket manager error of connection #{} for hub messenger at `{}`: {}", connection,
+                    hubMessengerBaseUrl, errorMsg);
         });
 
-        socket.on(SOCKET_RECEIVE_HUB_MESSAGE_IDENTIFIER, objects -> {
-                    log.debug("processing incoming message");
-                    messageReceiver.processMessage(objects[0].toString().getBytes(StandardCharsets.UTF_8))
-                            .doOnError(err -> log.error("failed to process incoming message", err))
-                            .subscribe();
-                }
-        );
+        socket.on(SOCKET_RECEIVE_HUB_MESSAGE_IDENTIFIER, messageListener);
 
-        // Get auth token before first connection attempt to avoid an expected initial failure
-        try {
-            var oidcTokenPair = hubAuthenticator.authenticate().block();
-            if (oidcTokenPair != null) {
-                options.auth.put("token", oidcTokenPair.accessToken().getTokenValue());
-                log.info("obtained initial authentication token for hub messenger");
-            } else {
-                log.warn("initial authentication returned null - will authenticate on first connection error");
-            }
-        } catch (Exception e) {
-            log.warn("failed to obtain initial authentication token - will authenticate on first connection error: {}",
-                    e.getMessage());
+        return socket;
+    }
+
+
+    @Bean
+    CryptoProviderConfig cryptoProviderConfig(MeterRegistry meterRegistry) {
+        var keyAgreementProvider = getSecurityProvider(keyAgreementProviderName);
+
+        Provider cipherProvider;
+        if (cipherProviderName.isBlank()) {
+            log.info("benchmarking security providers for selecting the fastest one for message encryption");
+            cipherProvider = CipherProviderSelector.selectFastest(List.of(Security.getProviders()));
+        } else {
+            cipherProvider = getSecurityProvider(cipherProviderName);
         }
 
-        socket.connect();
-        return socket;
+        log.info("using security provider `{}` for key agreements and `{}` for message encryption",
+                keyAgreementProvider.getName(), cipherProvider.getName());
+        Gauge.builder("crypto.provider", () -> 1)
+                .description("Security providers in use for cryptographic operations on messages")
+                .tags("operation", "key-agreement", "provider", keyAgreementProvider.getName())
+                .register(meterRegistry);
+        Gauge.builder("crypto.provider", () -> 1)
+                .description("Security providers in use for cryptographic operations on messages")
+                .tags("operation", "cipher", "provider", cipherProvider.getName())
+                .register(meterRegistry);
+
+        return new CryptoProviderConfig.Builder()
+                .withKeyAgreementProvider(keyAgreementProvider)
+                .withCipherProvider(cipherProvider)
+                .build();
     }
 
+    private static Provider getSecurityProvider(String name) {
+        var provider = Security.getProvider(name);
+        if (provider == null) {
+            throw new IllegalStateException("security provider `%s` is not registered".formatted(name));
+        }
+        return provider;
+    }
 
     @Bean
-    MessageCryptoService hubMessageCryptoService() {
-        return new HubMessageCryptoService(new SecureRandom());
+    MessageCryptoService hubMessageCryptoService(CryptoProviderConfig cryptoProviderConfig) {
+        if (!sharedSecretCacheEnabled) {
+            return new HubMessageCryptoService(new SecureRandom(), cryptoProviderConfig);
+        }
+
+        return new HubMessageCryptoService(new SecureRandom(), new ECDHSharedSecretCache(sharedSecretCacheMaxEntries,
+                Duration.ofSeconds(sharedSecretCacheExpireAfterSeconds)), cryptoProviderConfig);
     }
 
     @Qualifier("NODE_SECURITY_PRIVATE_ECDH_KEY")
@@ -303,14 +516,16 @@ class MessageSpringConfig {
 
     @Qualifier("HUB_MESSAGE_EMIT_KDF_KEYING_INFO_GEN")
     @Bean
-    Function<EmitMessage, byte[]> hubMessageEmitKDFKeyingInfoGenerator() {
-        return (message) -> (message.context().messageId() + message.context().analysisId()).getBytes();
+    Function<EmitMessageContext, byte[]> hubMessageEmitKDFKeyingInfoGenerator() {
+        // shared by all encrypting middlewares and has to match HUB_MESSAGE_RECEIVE_KDF_KEYING_INFO_GEN on the recipients' side
+        return (context) -> (context.messageId() + context.analysisId()).getBytes(StandardCharsets.UTF_8);
     }
 
     @Qualifier("HUB_MESSAGE_RECEIVE_KDF_KEYING_INFO_GEN")
     @Bean
     Function<ReceiveMessage, byte[]> hubMessageReceiveKDFKeyingInfoGenerator() {
-        return (message) -> (message.context().messageId() + message.context().analysisId()).getBytes();
+        return (message) -> (message.context().messageId() + message.context().analysisId())
+                .getBytes(StandardCharsets.UTF_8);
     }
 
     @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_ENCRYPT")
@@ -319,54 +534,204 @@ class MessageSpringConfig {
             @Qualifier("NODE_SECURITY_PRIVATE_ECDH_KEY") ECPrivateKey nodePrivateKey,
             MessageCryptoService messageCryptoService,
             HubClient hubClient,
-            @Qualifier("HUB_MESSAGE_EMIT_KDF_KEYING_INFO_GEN") Function<EmitMessage, byte[]> kdfKeyingInfoGenerator
+            @Qualifier("HUB_MESSAGE_EMIT_KDF_KEYING_INFO_GEN") Function<EmitMessageContext, byte[]> kdfKeyingInfoGenerator
     ) {
         return new HubMessageEncryptionMiddleware(
                 nodePrivateKey,
                 messageCryptoService,
                 hubClient,
-                kdfKeyingInfoGenerator
+                (message) -> kdfKeyingInfoGenerator.apply(message.context())
         );
     }
 
     @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_BASE64_ENCODE")
     @Bean
-    Function<EmitMessage, Mono<EmitMessage>> hubMessageBase64EncodingMiddleware() {
-        var b64Encoder = Base64.getEncoder();
+    HubMessageBase64EncodingMiddleware hubMessageBase64EncodingMiddleware() {
+        return new HubMessageBase64EncodingMiddleware();
+    }
 
-        return message -> Mono.just(new EmitMessage(
-                message.recipient(),
-                b64Encoder.encode(message.payload()),
-                message.context()
-        ));
+    @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_COMPRESS")
+    @Bean
+    Function<EmitMessage, Mono<EmitMessage>> hubMessageCompressionMiddleware(MeterRegistry meterRegistry) {
+        return new HubMessageCompressionMiddleware(compressionThresholdBytes, meterRegistry);
     }
 
     @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARES")
     @Bean
     public List<Function<EmitMessage, Mono<EmitMessage>>> hubMessageEmitMiddlewares(
+            @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_COMPRESS") Function<EmitMessage, Mono<EmitMessage>> compressMiddleware,
             @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_ENCRYPT") Function<EmitMessage, Mono<EmitMessage>> encryptMiddleware,
             @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_BASE64_ENCODE") Function<EmitMessage, Mono<EmitMessage>> base64EncodeMiddleware
     ) {
-        return List.of(encryptMiddleware,
-                base64EncodeMiddleware);
+        var middlewares = new ArrayList<Function<EmitMessage, Mono<EmitMessage>>>();
+        if (compressionEnabled) {
+            log.info("compressing message payloads of at least {} bytes", compressionThresholdBytes);
+            // nodes do not negotiate compression, recipients that predate it cannot process compressed messages
+            log.warn("message compression is enabled - all recipients must be able to decompress messages");
+            // compression has to happen before encryption since encrypted data does not compress
+            middlewares.add(compressMiddleware);
+        }
+        middlewares.add(encryptMiddleware);
+        // binary payloads are attached to messages as is
+        if (!hubMessengerBinaryTransportEnabled) {
+            middlewares.add(base64EncodeMiddleware);
+        }
+        return List.copyOf(middlewares);
     }
 
     @Qualifier("HUB_MESSENGER_SOCKET")
     @Bean
-    public MessageEmitter<EmitMessage> hubMessageSocket(
-            @Qualifier("HUB_MESSENGER_UNDERLYING_SOCKET") Socket socket,
-            @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARES") List<Function<EmitMessage, Mono<EmitMessage>>> middlewares
+    public HubMessageEmitterPool hubMessageSocket(
+            @Qualifier("HUB_MESSENGER_UNDERLYING_SOCKETS") HubMessengerSocketPool socketPool,
+            @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARES") List<Function<EmitMessage, Mono<EmitMessage>>> middlewares,
+            MessageOutboxRepository messageOutboxRepository,
+            ReactiveMongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry
     ) {
-        var hubMessageEmitter = new HubMessageEmitter(socket);
-        middlewares.forEach(hubMessageEmitter::registerMiddleware);
-        return hubMessageEmitter;
+        HubMessageAckConfig ackConfig = null;
+        if (hubMessengerAckEnabled) {
+            log.info("awaiting acknowledgements of the hub messenger for emitted messages");
+            ackConfig = new HubMessageAckConfig.Builder()
+                    .withTimeout(Duration.ofMillis(hubMessengerAckTimeoutMs))
+                    .withMaxRetries(hubMessengerAckMaxRetries)
+                    .withRetryBackoff(Duration.ofMillis(hubMessengerAckRetryBackoffMs))
+                    .build();
+        }
+
+        var transport = HubMessageTransport.TEXT;
+        if (hubMessengerBinaryTransportEnabled) {
+            log.info("attaching message payloads as binary data");
+            transport = HubMessageTransport.BINARY;
+        }
+
+        MongoMessageOutbox outbox = null;
+        if (outboxEnabled) {
+            var outboxConfig = new MessageOutboxConfig.Builder()
+                    .withTimeToLive(Duration.ofSeconds(outboxTimeToLiveSeconds))
+                    .withDrainConcurrency(outboxDrainConcurrency)
+                    .build();
+            outbox = new MongoMessageOutbox(messageOutboxRepository, outboxConfig, meterRegistry);
+
+            // index creation is not done automatically, yet the TTL index is what keeps the outbox from growing
+            // unbounded
+            var indexResolver = new MongoPersistentEntityIndexResolver(
+                    mongoTemplate.getConverter().getMappingContext());
+            var indexOps = mongoTemplate.indexOps(MessageOutboxEntry.class);
+            Flux.fromIterable(indexResolver.resolveIndexFor(MessageOutboxEntry.class))
+                    .concatMap(indexOps::ensureIndex)
+                    .then(outbox.refreshStatistics())
+                    .subscribe(null, err -> log.error("failed to initialize message outbox", err));
+        }
+
+        // the outbox is shared by all connections and gets drained by whichever connection becomes available
+        var emitters = new ArrayList<HubMessageEmitter>();
+        for (var socket : socketPool.sockets()) {
+            var hubMessageEmitter = new HubMessageEmitter(socket, meterRegistry, outbox, ackConfig, transport);
+            middlewares.forEach(hubMessageEmitter::registerMiddleware);
+            emitters.add(hubMessageEmitter);
+
+            if (outbox != null) {
+                socket.on(Socket.EVENT_CONNECT, objects -> hubMessageEmitter.drainOutbox()
+                        .subscribe(null, err -> log.error("failed to drain message outbox", err)));
+                // the socket might have connected before listening for the event
+                if (socket.connected()) {
+                    hubMessageEmitter.drainOutbox()
+                            .subscribe(null, err -> log.error("failed to drain message outbox", err));
+                }
+            }
+        }
+        return new HubMessageEmitterPool(emitters);
     }
 
+    @Qualifier("HUB_MESSENGER_ENVELOPE_SOCKET")
     @Bean
-    public MessageService messageService(
+    public MessageEmitter<EnvelopeEmitMessage> hubEnvelopeMessageSocket(
+            @Qualifier("HUB_MESSENGER_SOCKET") HubMessageEmitterPool hubMessageEmitterPool,
+            @Qualifier("NODE_SECURITY_PRIVATE_ECDH_KEY") ECPrivateKey nodePrivateKey,
+            MessageCryptoService messageCryptoService,
+            HubClient hubClient,
+            @Qualifier("HUB_MESSAGE_EMIT_KDF_KEYING_INFO_GEN") Function<EmitMessageContext, byte[]> kdfKeyingInfoGenerator,
+            @Qualifier("HUB_MESSAGE_EMIT_MIDDLEWARE_BASE64_ENCODE") HubMessageBase64EncodingMiddleware base64EncodeMiddleware,
+            MeterRegistry meterRegistry
+    ) {
+        var envelopeMessageEmitter = new HubEnvelopeMessageEmitter(hubMessageEmitterPool, meterRegistry);
+        envelopeMessageEmitter.registerMiddleware("HubMessageEnvelopeEncryptionMiddleware",
+                new HubMessageEnvelopeEncryptionMiddleware(nodePrivateKey, messageCryptoService, hubClient,
+                        kdfKeyingInfoGenerator));
+        envelopeMessageEmitter.registerMiddleware("HubMessageBase64EncodingMiddleware",
+                base64EncodeMiddleware.forEnvelopes());
+        return envelopeMessageEmitter;
+    }
+
+    @Bean
+    MessageStatusTracker messageStatusTracker(
+            MessageStatusRepository messageStatusRepository,
+            ReactiveMongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry) {
+        var config = new MessageStatusConfig.Builder()
+                .withMaxEntries(statusMaxEntries)
+                .withTimeToLive(Duration.ofSeconds(statusTimeToLiveSeconds))
+                .build();
+        if (!statusPersistenceEnabled) {
+            return new MessageStatusTracker(config, null, meterRegistry);
+        }
+
+        log.info("persisting the state of messages that are sent asynchronously");
+        // index creation is not done automatically, yet the TTL index is what keeps persisted states from growing
+        // unbounded
+        var indexResolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        var indexOps = mongoTemplate.indexOps(MessageStatusEntry.class);
+        Flux.fromIterable(indexResolver.resolveIndexFor(MessageStatusEntry.class))
+                .concatMap(indexOps::ensureIndex)
+                .subscribe(null, err -> log.error("failed to initialize message status persistence", err));
+
+        return new MessageStatusTracker(config, messageStatusRepository, meterRegistry);
+    }
+
+    // a batching emitter gets closed on shutdown by the inferred destroy method
+    @Qualifier("HUB_MESSENGER_OUTGOING_SOCKET")
+    @Bean
+    MessageEmitter<EmitMessage> hubOutgoingMessageSocket(
             @Qualifier("HUB_MESSENGER_SOCKET") MessageEmitter<EmitMessage> socket,
-            HubClient hubClient) {
-        return new MessageService(socket, hubClient, selfRobotId);
+            MeterRegistry meterRegistry) {
+        if (chunkingEnabled) {
+            log.info("transferring messages of more than {} bytes in chunks", chunkingThresholdBytes);
+            socket = new HubMessageChunkingEmitter(socket, new HubMessageChunkConfig.Builder()
+                    .withThresholdBytes(chunkingThresholdBytes)
+                    .withChunkSizeBytes(chunkingChunkSizeBytes)
+                    .withMaxInFlightChunks(chunkingMaxInFlightChunks)
+                    .build(), meterRegistry);
+        }
+
+        // batching happens before chunking so that large messages are never part of a batch
+        if (batchingEnabled) {
+            log.info("batching messages emitted to the same recipient in quick succession");
+            socket = new HubMessageBatchingEmitter(socket, new HubMessageBatchConfig.Builder()
+                    .withWindow(Duration.ofMillis(batchingWindowMs))
+                    .withMaxMessages(batchingMaxMessages)
+                    .withMaxBytes(batchingMaxBytes)
+                    .build(), meterRegistry);
+        }
+        return socket;
+    }
+
+    @Bean
+    public MessageService messageService(
+            @Qualifier("HUB_MESSENGER_OUTGOING_SOCKET") MessageEmitter<EmitMessage> socket,
+            @Qualifier("HUB_MESSENGER_ENVELOPE_SOCKET") MessageEmitter<EnvelopeEmitMessage> envelopeSocket,
+            HubClient hubClient,
+            MessageStatusTracker messageStatusTracker) {
+        var fanOutConfig = new MessageFanOutConfig.Builder()
+                .withPerRequestConcurrency(fanOutPerRequestConcurrency)
+                .withGlobalConcurrency(fanOutGlobalConcurrency)
+                .build();
+
+        if (envelopeEncryptionEnabled) {
+            log.info("sending messages with multiple recipients as envelopes");
+            return new MessageService(socket, envelopeSocket, hubClient, selfRobotId, fanOutConfig,
+                    messageStatusTracker);
+        }
+        return new MessageService(socket, null, hubClient, selfRobotId, fanOutConfig, messageStatusTracker);
     }
 
     @Qualifier("HUB_MESSAGE_RECEIVE_FORWARD_WEB_CLIENT")
@@ -385,43 +750,89 @@ class MessageSpringConfig {
         return new MessageSubscriptionServiceImpl(messageSubscriptionRepository);
     }
 
+    @Qualifier("HUB_MESSAGE_RECEIVE_CRYPTO_SCHEDULER")
+    @Bean(destroyMethod = "dispose")
+    Scheduler hubMessageReceiveCryptoScheduler(MeterRegistry meterRegistry) {
+        if (receiveCryptoParallelism < 0) {
+            throw new IllegalArgumentException("receive crypto parallelism must not be negative");
+        }
+
+        var parallelism = receiveCryptoParallelism == 0
+                ? Runtime.getRuntime().availableProcessors()
+                : receiveCryptoParallelism;
+        log.info("decoding and decrypting received messages with up to {} threads", parallelism);
+
+        var threadFactory = new CustomizableThreadFactory("receive-crypto-");
+        threadFactory.setDaemon(true);
+        // utilization gets exported as `executor.*` metrics tagged with the executor's name
+        var executor = ExecutorServiceMetrics.monitor(meterRegistry,
+                Executors.newFixedThreadPool(parallelism, threadFactory), "receive.crypto");
+        return Schedulers.fromExecutorService(executor, "receive-crypto");
+    }
+
     @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_DECRYPT")
     @Bean
     Function<ReceiveMessage, Mono<ReceiveMessage>> hubMessageReceiveDecryptionMiddleware(
             @Qualifier("NODE_SECURITY_PRIVATE_ECDH_KEY") ECPrivateKey nodePrivateKey,
             MessageCryptoService messageCryptoService,
             HubClient hubClient,
-            @Qualifier("HUB_MESSAGE_RECEIVE_KDF_KEYING_INFO_GEN") Function<ReceiveMessage, byte[]> kdfKeyingInfoGenerator
+            @Qualifier("HUB_MESSAGE_RECEIVE_KDF_KEYING_INFO_GEN") Function<ReceiveMessage, byte[]> kdfKeyingInfoGenerator,
+            @Qualifier("HUB_MESSAGE_RECEIVE_CRYPTO_SCHEDULER") Scheduler cryptoScheduler
     ) {
+        // the sender's public key is fetched on an event loop of the HTTP client, which must not be held up by
+        // decrypting large payloads
         return new HubMessageDecryptionMiddleware(
                 nodePrivateKey,
                 messageCryptoService,
                 hubClient,
-                kdfKeyingInfoGenerator
+                kdfKeyingInfoGenerator,
+                cryptoScheduler
         );
     }
 
     @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_BASE64_DECODE")
     @Bean
-    Function<ReceiveMessage, Mono<ReceiveMessage>> hubMessageBase64DecodingMiddleware() {
-        var b64Encoder = Base64.getDecoder();
+    Function<ReceiveMessage, Mono<ReceiveMessage>> hubMessageBase64DecodingMiddleware(
+            @Qualifier("HUB_MESSAGE_RECEIVE_CRYPTO_SCHEDULER") Scheduler cryptoScheduler) {
+        return new HubMessageBase64DecodingMiddleware(cryptoScheduler);
+    }
 
-        return message -> Mono.just(new ReceiveMessage(
-                message.sender(),
-                b64Encoder.decode(message.payload()),
-                message.context()
-        ));
+    @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_DECOMPRESS")
+    @Bean
+    Function<ReceiveMessage, Mono<ReceiveMessage>> hubMessageDecompressionMiddleware(MeterRegistry meterRegistry) {
+        return new HubMessageDecompressionMiddleware(compressionMaxDecompressedBytes, meterRegistry);
+    }
+
+    @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_REASSEMBLE")
+    @Bean
+    Function<ReceiveMessage, Mono<ReceiveMessage>> hubMessageChunkReassemblyMiddleware(MeterRegistry meterRegistry)
+            throws IOException {
+        var middleware = new HubMessageChunkReassemblyMiddleware(new HubMessageChunkReassemblyConfig.Builder()
+                .withSpoolDirectory(Paths.get(chunkingSpoolDirectory))
+                .withTimeout(Duration.ofSeconds(chunkingReassemblyTimeoutSeconds))
+                .withMaxMessageBytes(chunkingMaxMessageBytes)
+                .withMaxTransfers(chunkingMaxTransfers)
+                .withMaxTransfersPerSender(chunkingMaxTransfersPerSender)
+                .build(), meterRegistry);
+        middleware.purgeSpoolDirectory();
+        return middleware;
     }
 
     @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARES")
     @Bean
     List<Function<ReceiveMessage, Mono<ReceiveMessage>>> hubMessageReceiveMiddlewares(
             @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_BASE64_DECODE") Function<ReceiveMessage, Mono<ReceiveMessage>> base64DecodeMiddleware,
-            @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_DECRYPT") Function<ReceiveMessage, Mono<ReceiveMessage>> decryptMiddleware
+            @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_DECRYPT") Function<ReceiveMessage, Mono<ReceiveMessage>> decryptMiddleware,
+            @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_DECOMPRESS") Function<ReceiveMessage, Mono<ReceiveMessage>> decompressMiddleware,
+            @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARE_REASSEMBLE") Function<ReceiveMessage, Mono<ReceiveMessage>> reassembleMiddleware
     ) {
+        // decompression and reassembly are always in place so that compressed or chunked messages of peers can be
+        // read regardless of whether this node compresses or chunks its own messages
         return List.of(
                 base64DecodeMiddleware,
-                decryptMiddleware);
+                decryptMiddleware,
+                decompressMiddleware,
+                reassembleMiddleware);
     }
 
     @Qualifier("HUB_MESSAGE_RECEIVE_CONSUMER")
@@ -443,12 +854,46 @@ class MessageSpringConfig {
     MessageReceiver hubMessageReceiver(
             @Qualifier("HUB_JSON_MAPPER") ObjectMapper jsonMapper,
             @Qualifier("HUB_MESSAGE_RECEIVE_MIDDLEWARES") List<Function<ReceiveMessage, Mono<ReceiveMessage>>> middlewares,
-            @Qualifier("HUB_MESSAGE_RECEIVE_CONSUMER") MessageConsumer messageConsumer
+            @Qualifier("HUB_MESSAGE_RECEIVE_CONSUMER") MessageConsumer messageConsumer,
+            @Qualifier("HUB_MESSAGE_RECEIVE_CRYPTO_SCHEDULER") Scheduler cryptoScheduler,
+            MeterRegistry meterRegistry
     ) {
-        var messageReceiver = new HubMessageReceiver(jsonMapper);
+        // frames handed over by the socket reader get decoded along with Base64 payloads instead of on its thread
+        var messageReceiver = new HubMessageReceiver(jsonMapper, meterRegistry, cryptoScheduler);
         middlewares.forEach(messageReceiver::registerMiddleware);
         messageReceiver.registerConsumer(messageConsumer);
 
         return messageReceiver;
     }
+
+    @Qualifier("HUB_MESSAGE_INGESTION_QUEUE")
+    @Bean
+    MessageReceiver hubMessageIngestionQueue(
+            @Qualifier("HUB_MESSAGE_RECEIVER") MessageReceiver messageReceiver,
+            MeterRegistry meterRegistry
+    ) throws IOException {
+        // incoming messages get processed by a bounded number of workers instead of all at once
+        var ingestionQueue = new HubMessageIngestionQueue(messageReceiver, new HubMessageIngestionQueueConfig.Builder()
+                .withCapacity(receiveQueueCapacity)
+                .withConcurrency(receiveQueueConcurrency)
+                .withOverflowPolicy(receiveQueueOverflowPolicy)
+                .withBlockTimeout(Duration.ofMillis(receiveQueueBlockTimeoutMs))
+                .withSpillDirectory(Paths.get(receiveQueueSpillDirectory))
+                .withOrderedPerSender(receiveQueueOrderedPerSender)
+                .withMaxWaitingPerSender(receiveQueueMaxWaitingPerSender)
+                .build(), meterRegistry);
+        ingestionQueue.recoverSpilledMessages();
+        return ingestionQueue;
+    }
+
+    @Qualifier("HUB_MESSAGE_DEDUPLICATOR")
+    @Bean
+    MessageReceiver hubMessageDeduplicator(
+            @Qualifier("HUB_MESSAGE_INGESTION_QUEUE") MessageReceiver messageReceiver,
+            MeterRegistry meterRegistry
+    ) {
+        // the same message might get delivered more than once, e.g. if its sender retries emitting it
+        return new HubMessageDeduplicator(messageReceiver, receiveDeduplicationMaxEntries,
+                Duration.ofSeconds(receiveDeduplicationWindowSeconds), meterRegistry);
+    }
 }
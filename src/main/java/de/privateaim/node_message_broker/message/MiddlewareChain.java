@@ -0,0 +1,125 @@
+package de.privateaim.node_message_broker.message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An immutable chain of middlewares that get applied to a message in order. The chain gets composed once when adding a
+ * middleware instead of every time a message is processed.
+ * <p>
+ * Every stage of the chain records its processing time and the number of errors it encountered, tagged with the name of
+ * the stage and the direction of the message flow.
+ *
+ * @param <T> type of the message
+ */
+public final class MiddlewareChain<T> implements Function<T, Mono<T>> {
+
+    public static final String STAGE_TIMER_NAME = "message.middleware";
+    public static final String STAGE_ERROR_COUNTER_NAME = "message.middleware.errors";
+
+    private final String direction;
+    private final MeterRegistry meterRegistry;
+    private final Function<T, Mono<T>> composedStages;
+    private final int size;
+
+    private MiddlewareChain(String direction, MeterRegistry meterRegistry, Function<T, Mono<T>> composedStages,
+                            int size) {
+        this.direction = direction;
+        this.meterRegistry = meterRegistry;
+        this.composedStages = composedStages;
+        this.size = size;
+    }
+
+    /**
+     * Creates a new chain without any middlewares. Applying it returns the message as is.
+     *
+     * @param direction     direction of the message flow the chain is used for, e.g. {@code emit}
+     * @param meterRegistry registry for recording stage metrics
+     * @param <T>           type of the message
+     * @return The empty chain.
+     */
+    public static <T> MiddlewareChain<T> empty(@NotNull String direction, @NotNull MeterRegistry meterRegistry) {
+        return new MiddlewareChain<>(
+                requireNonNull(direction, "direction must not be null"),
+                requireNonNull(meterRegistry, "meter registry must not be null"),
+                Mono::just,
+                0);
+    }
+
+    /**
+     * Creates a new chain that applies the given middleware after all middlewares of this chain.
+     *
+     * @param stageName  name of the stage used for tagging its metrics
+     * @param middleware the middleware
+     * @return The extended chain.
+     */
+    public MiddlewareChain<T> with(@NotNull String stageName, @NotNull Function<T, Mono<T>> middleware) {
+        requireNonNull(stageName, "stage name must not be null");
+        requireNonNull(middleware, "middleware must not be null");
+
+        var stage = instrument(stageName, middleware);
+        var previousStages = composedStages;
+        // function composition for middlewares with in-between unwrapping of result values in a reactive way.
+        return new MiddlewareChain<>(direction, meterRegistry, msg -> previousStages.apply(msg).flatMap(stage),
+                size + 1);
+    }
+
+    /**
+     * Creates a new chain that applies the given middleware after all middlewares of this chain. The stage name is
+     * derived from the middleware's class or its position in the chain if the class is anonymous.
+     *
+     * @param middleware the middleware
+     * @return The extended chain.
+     */
+    public MiddlewareChain<T> with(@NotNull Function<T, Mono<T>> middleware) {
+        requireNonNull(middleware, "middleware must not be null");
+
+        var middlewareClass = middleware.getClass();
+        var stageName = middlewareClass.isAnonymousClass() || middlewareClass.isSynthetic()
+                || middlewareClass.isHidden()
+                ? "middleware-" + size
+                : middlewareClass.getSimpleName();
+        return with(stageName, middleware);
+    }
+
+    /**
+     * Applies all middlewares of this chain to the given message.
+     *
+     * @param message the message
+     * @return The message after all middlewares have been applied.
+     */
+    @Override
+    public Mono<T> apply(T message) {
+        return composedStages.apply(message);
+    }
+
+    private Function<T, Mono<T>> instrument(String stageName, Function<T, Mono<T>> middleware) {
+        var timer = Timer.builder(STAGE_TIMER_NAME)
+                .description("Time spent applying a middleware to a message")
+                .tag("direction", direction)
+                .tag("stage", stageName)
+                .register(meterRegistry);
+        var errorCounter = Counter.builder(STAGE_ERROR_COUNTER_NAME)
+                .description("Number of errors encountered while applying a middleware to a message")
+                .tag("direction", direction)
+                .tag("stage", stageName)
+                .register(meterRegistry);
+
+        return msg -> Mono.defer(() -> {
+            var sample = Timer.start(meterRegistry);
+            return Mono.defer(() -> middleware.apply(msg))
+                    .doOnSuccess(ignored -> sample.stop(timer))
+                    .doOnError(err -> {
+                        sample.stop(timer);
+                        errorCounter.increment();
+                    });
+        });
+    }
+}
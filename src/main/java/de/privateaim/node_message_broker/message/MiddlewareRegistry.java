@@ -0,0 +1,81 @@
+package de.privateaim.node_message_broker.message;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Collects the middlewares of an emitter or receiver into a {@link MiddlewareChain}.
+ * <p>
+ * Middlewares can only be registered until the chain gets used for the first time. Messages take the chain that is
+ * current when they start being processed, so a middleware registered afterward would silently be missed by them.
+ *
+ * @param <T> type of the message
+ */
+public final class MiddlewareRegistry<T> {
+
+    private volatile MiddlewareChain<T> chain;
+    private volatile boolean inUse;
+
+    /**
+     * Creates a new {@link MiddlewareRegistry} instance without any middlewares.
+     *
+     * @param direction     direction of the message flow the chain is used for, e.g. {@code emit}
+     * @param meterRegistry registry for recording stage metrics
+     */
+    public MiddlewareRegistry(@NotNull String direction, @NotNull MeterRegistry meterRegistry) {
+        this.chain = MiddlewareChain.empty(direction, meterRegistry);
+    }
+
+    /**
+     * Registers a middleware that gets applied after all previously registered ones. The stage name is derived from the
+     * middleware's class.
+     *
+     * @param middleware the middleware
+     * @throws IllegalStateException If the chain is already in use.
+     */
+    public synchronized void register(@NotNull Function<T, Mono<T>> middleware) {
+        requireNonNull(middleware, "middleware must not be null");
+        checkNotInUse();
+        chain = chain.with(middleware);
+    }
+
+    /**
+     * Registers a middleware that gets applied after all previously registered ones.
+     *
+     * @param stageName  name of the stage used for tagging metrics of the middleware
+     * @param middleware the middleware
+     * @throws IllegalStateException If the chain is already in use.
+     */
+    public synchronized void register(@NotNull String stageName, @NotNull Function<T, Mono<T>> middleware) {
+        requireNonNull(stageName, "stage name must not be null");
+        requireNonNull(middleware, "middleware must not be null");
+        checkNotInUse();
+        chain = chain.with(stageName, middleware);
+    }
+
+    /**
+     * Returns the chain of all registered middlewares. No further middlewares can be registered afterward.
+     *
+     * @return The chain.
+     */
+    public MiddlewareChain<T> chain() {
+        if (!inUse) {
+            // a registration that is in progress completes before the chain gets handed out
+            synchronized (this) {
+                inUse = true;
+            }
+        }
+        return chain;
+    }
+
+    private void checkNotInUse() {
+        if (inUse) {
+            throw new IllegalStateException("middlewares must be registered before any message gets processed");
+        }
+    }
+}
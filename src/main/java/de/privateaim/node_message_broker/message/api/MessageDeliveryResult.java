@@ -0,0 +1,39 @@
+package de.privateaim.node_message_broker.message.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+/**
+ * Schema describing whether a message could get sent to a single recipient.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@EqualsAndHashCode
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public final class MessageDeliveryResult {
+
+    public enum Status {
+        PENDING,
+        SENT,
+        FAILED
+    }
+
+    /**
+     * Node id of the recipient.
+     */
+    @JsonProperty("recipient")
+    public String recipient;
+
+    @JsonProperty("status")
+    public Status status;
+
+    /**
+     * Reason why the message could not get sent. Only set if sending failed.
+     */
+    @JsonProperty("reason")
+    public String reason;
+}
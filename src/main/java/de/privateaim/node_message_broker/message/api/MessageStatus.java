@@ -0,0 +1,60 @@
+package de.privateaim.node_message_broker.message.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Schema describing the state of a message that got accepted for being sent asynchronously.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@EqualsAndHashCode
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+public final class MessageStatus {
+
+    public enum State {
+        /**
+         * The message is still being sent to its recipients.
+         */
+        PENDING,
+
+        /**
+         * Sending the message to every recipient got attempted. Whether it succeeded is reported for every recipient
+         * individually.
+         */
+        COMPLETED,
+
+        /**
+         * The message could not get sent to any recipient, e.g. because the recipients could not get looked up.
+         */
+        FAILED
+    }
+
+    @JsonProperty("messageId")
+    public UUID messageId;
+
+    @JsonProperty("analysisId")
+    public String analysisId;
+
+    @JsonProperty("state")
+    public State state;
+
+    /**
+     * Reason why the message could not get sent. Only set if sending failed.
+     */
+    @JsonProperty("reason")
+    public String reason;
+
+    /**
+     * Delivery result of every recipient. Only set once the recipients are known.
+     */
+    @JsonProperty("results")
+    public List<MessageDeliveryResult> results;
+}
@@ -0,0 +1,120 @@
+package de.privateaim.node_message_broker.message.api.hub;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Representation of multiple messages for the same recipient that are sent as the data of a single message.
+ * <p>
+ * The binary layout is a version byte and the number of messages as an int, followed by every message consisting of
+ * its identifier as two longs, the length of its payload as an int and the payload itself.
+ *
+ * @param entries the messages of the batch
+ */
+public record HubMessageBatch(List<Entry> entries) {
+
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH_BYTES = 1 + Integer.BYTES;
+    private static final int ENTRY_HEADER_LENGTH_BYTES = 2 * Long.BYTES + Integer.BYTES;
+
+    /**
+     * A single message of a batch.
+     *
+     * @param messageId unique identifier of the message
+     * @param payload   the actual message payload
+     */
+    public record Entry(UUID messageId, byte[] payload) {
+        public Entry {
+            requireNonNull(messageId, "message id must not be null");
+            requireNonNull(payload, "payload must not be null");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry entry
+                    && messageId.equals(entry.messageId)
+                    && Arrays.equals(payload, entry.payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * messageId.hashCode() + Arrays.hashCode(payload);
+        }
+    }
+
+    public HubMessageBatch {
+        entries = List.copyOf(requireNonNull(entries, "entries must not be null"));
+    }
+
+    /**
+     * Encodes the batch into its binary layout.
+     *
+     * @return The encoded batch.
+     */
+    public byte[] encode() {
+        var length = HEADER_LENGTH_BYTES;
+        for (var entry : entries) {
+            length += ENTRY_HEADER_LENGTH_BYTES + entry.payload().length;
+        }
+
+        var buffer = ByteBuffer.allocate(length)
+                .put(VERSION)
+                .putInt(entries.size());
+        for (var entry : entries) {
+            buffer.putLong(entry.messageId().getMostSignificantBits())
+                    .putLong(entry.messageId().getLeastSignificantBits())
+                    .putInt(entry.payload().length)
+                    .put(entry.payload());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a batch from its binary layout.
+     *
+     * @param data the encoded batch
+     * @return The decoded batch.
+     * @throws IllegalArgumentException If the data is not a valid batch.
+     */
+    public static HubMessageBatch decode(byte[] data) {
+        requireNonNull(data, "data must not be null");
+
+        try {
+            var buffer = ByteBuffer.wrap(data);
+            var version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported batch version `%d`".formatted(version));
+            }
+
+            var count = buffer.getInt();
+            if (count < 0 || (long) count * ENTRY_HEADER_LENGTH_BYTES > buffer.remaining()) {
+                throw new IllegalArgumentException("invalid number of messages in batch");
+            }
+
+            var entries = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                var messageId = new UUID(buffer.getLong(), buffer.getLong());
+                var payloadLength = buffer.getInt();
+                if (payloadLength < 0 || payloadLength > buffer.remaining()) {
+                    throw new IllegalArgumentException("invalid payload length of message in batch");
+                }
+                var payload = new byte[payloadLength];
+                buffer.get(payload);
+                entries.add(new Entry(messageId, payload));
+            }
+
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("unexpected trailing data in batch");
+            }
+            return new HubMessageBatch(entries);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("batch is truncated", e);
+        }
+    }
+}
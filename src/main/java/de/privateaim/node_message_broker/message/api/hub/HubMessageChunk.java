@@ -0,0 +1,135 @@
+package de.privateaim.node_message_broker.message.api.hub;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Representation of a single part of a large message that is transferred in multiple chunks, sent as the data of a
+ * single message.
+ * <p>
+ * The binary layout is a version byte, the identifier of the transfer as two longs, the index of the chunk and the
+ * number of chunks as ints, the offset of the chunk's data and the total length of the transferred payload as longs
+ * and the framing of the transferred payload as a short length followed by its UTF-8 bytes. The remainder is the
+ * chunk's data.
+ *
+ * @param transferId  unique identifier of the transferred message
+ * @param index       index of the chunk within the transfer, starting at 0
+ * @param count       number of chunks of the transfer
+ * @param offset      offset of the chunk's data within the transferred payload
+ * @param totalLength length of the transferred payload
+ * @param framing     framing of the transferred payload. Absent if the payload is a single message.
+ * @param data        the chunk's part of the transferred payload
+ */
+public record HubMessageChunk(
+        UUID transferId,
+        int index,
+        int count,
+        long offset,
+        long totalLength,
+        String framing,
+        byte[] data
+) {
+
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH_BYTES = 1 + 2 * Long.BYTES + 2 * Integer.BYTES + 2 * Long.BYTES
+            + Short.BYTES;
+
+    public HubMessageChunk {
+        requireNonNull(transferId, "transfer id must not be null");
+        requireNonNull(data, "data must not be null");
+
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be greater than 0");
+        }
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("index must be within [0, count)");
+        }
+        if (offset < 0 || totalLength < 0 || offset + data.length > totalLength) {
+            throw new IllegalArgumentException("data must be within the transferred payload");
+        }
+    }
+
+    /**
+     * Encodes the chunk into its binary layout.
+     *
+     * @return The encoded chunk.
+     */
+    public byte[] encode() {
+        var encodedFraming = framing == null ? new byte[0] : framing.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_LENGTH_BYTES + encodedFraming.length + data.length)
+                .put(VERSION)
+                .putLong(transferId.getMostSignificantBits())
+                .putLong(transferId.getLeastSignificantBits())
+                .putInt(index)
+                .putInt(count)
+                .putLong(offset)
+                .putLong(totalLength)
+                .putShort((short) encodedFraming.length)
+                .put(encodedFraming)
+                .put(data)
+                .array();
+    }
+
+    /**
+     * Decodes a chunk from its binary layout.
+     *
+     * @param data the encoded chunk
+     * @return The decoded chunk.
+     * @throws IllegalArgumentException If the data is not a valid chunk.
+     */
+    public static HubMessageChunk decode(byte[] data) {
+        requireNonNull(data, "data must not be null");
+
+        try {
+            var buffer = ByteBuffer.wrap(data);
+            var version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported chunk version `%d`".formatted(version));
+            }
+
+            var transferId = new UUID(buffer.getLong(), buffer.getLong());
+            var index = buffer.getInt();
+            var count = buffer.getInt();
+            var offset = buffer.getLong();
+            var totalLength = buffer.getLong();
+
+            var framingLength = Short.toUnsignedInt(buffer.getShort());
+            if (framingLength > buffer.remaining()) {
+                throw new IllegalArgumentException("invalid framing length of chunk");
+            }
+            String framing = null;
+            if (framingLength > 0) {
+                framing = new String(data, buffer.position(), framingLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + framingLength);
+            }
+
+            var chunkData = Arrays.copyOfRange(data, buffer.position(), data.length);
+            return new HubMessageChunk(transferId, index, count, offset, totalLength, framing, chunkData);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("chunk is truncated", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof HubMessageChunk chunk
+                && transferId.equals(chunk.transferId)
+                && index == chunk.index
+                && count == chunk.count
+                && offset == chunk.offset
+                && totalLength == chunk.totalLength
+                && Objects.equals(framing, chunk.framing)
+                && Arrays.equals(data, chunk.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(transferId, index, count, offset, totalLength, framing) + Arrays.hashCode(data);
+    }
+}
@@ -10,8 +10,13 @@ import java.util.UUID;
 /**
  * Representation of metadata as part of a message.
  *
- * @param messageId  unique identifier of the message for tracing purposes
- * @param analysisId unique identifier of the analysis that the message is associated with
+ * @param messageId   unique identifier of the message for tracing purposes
+ * @param analysisId  unique identifier of the analysis that the message is associated with
+ * @param encryption  format that the message's data is encrypted with. Absent if the data is encrypted for a single
+ *                    recipient only.
+ * @param framing     framing of the message's data. Absent if the data is a single message.
+ * @param compression codec that the message's data is compressed with before getting encrypted. Absent if the data
+ *                    is not compressed.
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record HubMessageMetadata(
@@ -21,14 +26,55 @@ public record HubMessageMetadata(
         // it to be serialized using org.json. However, since this record is also used for reading and socket.io not
         // mandating the use of a specific deserializer, jackson is used for simplicity and its richer feature set.
 
-        @JsonProperty("messageId")
+        @JsonProperty(MESSAGE_ID_FIELD)
         @NonNull
-        @JSONPropertyName("messageId")
+        @JSONPropertyName(MESSAGE_ID_FIELD)
         UUID messageId,
 
-        @JsonProperty("analysisId")
+        @JsonProperty(ANALYSIS_ID_FIELD)
         @NonNull
-        @JSONPropertyName("analysisId")
-        String analysisId
+        @JSONPropertyName(ANALYSIS_ID_FIELD)
+        String analysisId,
+
+        @JsonProperty(ENCRYPTION_FIELD)
+        @JSONPropertyName(ENCRYPTION_FIELD)
+        String encryption,
+
+        @JsonProperty(FRAMING_FIELD)
+        @JSONPropertyName(FRAMING_FIELD)
+        String framing,
+
+        @JsonProperty(COMPRESSION_FIELD)
+        @JSONPropertyName(COMPRESSION_FIELD)
+        String compression
 ) {
+    // Names of the fields of metadata as sent by the Hub, also read directly from incoming frames.
+    public static final String MESSAGE_ID_FIELD = "messageId";
+    public static final String ANALYSIS_ID_FIELD = "analysisId";
+    public static final String ENCRYPTION_FIELD = "encryption";
+    public static final String FRAMING_FIELD = "framing";
+    public static final String COMPRESSION_FIELD = "compression";
+
+    /**
+     * Encryption format of data that is encrypted once for multiple recipients as an envelope.
+     */
+    public static final String ENVELOPE_ENCRYPTION = "envelope";
+
+    /**
+     * Framing of data that holds multiple messages as a {@link HubMessageBatch}.
+     */
+    public static final String BATCH_FRAMING = "batch";
+
+    /**
+     * Framing of data that holds a single part of a large message as a {@link HubMessageChunk}.
+     */
+    public static final String CHUNK_FRAMING = "chunk";
+
+    public HubMessageMetadata(@NonNull UUID messageId, @NonNull String analysisId) {
+        this(messageId, analysisId, null, null, null);
+    }
+
+    public HubMessageMetadata(@NonNull UUID messageId, @NonNull String analysisId, String encryption) {
+        this(messageId, analysisId, encryption, null, null);
+    }
 }
@@ -19,14 +19,17 @@ public record HubMessageSender(
         // it to be serialized using org.json. However, since this record is also used for reading and socket.io not
         // mandating the use of a specific deserializer, jackson is used for simplicity and its richer feature set.
 
-        @JsonProperty("type")
+        @JsonProperty(TYPE_FIELD)
         @NonNull
-        @JSONPropertyName("type")
+        @JSONPropertyName(TYPE_FIELD)
         String senderType,
 
-        @JsonProperty("id")
+        @JsonProperty(ID_FIELD)
         @NonNull
-        @JSONPropertyName("id")
+        @JSONPropertyName(ID_FIELD)
         String nodeRobotId
 ) {
+    // Names of the fields of a sender as sent by the Hub, also read directly from incoming frames.
+    public static final String TYPE_FIELD = "type";
+    public static final String ID_FIELD = "id";
 }
@@ -13,16 +13,20 @@ import lombok.NonNull;
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record IncomingHubMessage(
-        @JsonProperty("from")
+        @JsonProperty(SENDER_FIELD)
         @NonNull
         HubMessageSender sender,
 
-        @JsonProperty("data")
+        @JsonProperty(PAYLOAD_FIELD)
         @NonNull
         String payload,
 
-        @JsonProperty("metadata")
+        @JsonProperty(METADATA_FIELD)
         @NonNull
         HubMessageMetadata metadata
 ) {
+    // Names of the fields of a message as sent by the Hub, also read directly from incoming frames.
+    public static final String SENDER_FIELD = "from";
+    public static final String PAYLOAD_FIELD = "data";
+    public static final String METADATA_FIELD = "metadata";
 }
@@ -0,0 +1,103 @@
+package de.privateaim.node_message_broker.message.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compression of message payloads. Payloads get compressed before they are encrypted since encrypted data does not
+ * compress.
+ */
+public final class PayloadCompression {
+
+    /**
+     * Codec of payloads that are compressed using DEFLATE (RFC 1951) with a zlib wrapper (RFC 1950).
+     */
+    public static final String DEFLATE = "deflate";
+
+    public static final String RATIO_SUMMARY_NAME = "message.compression.ratio";
+    public static final String CPU_TIMER_NAME = "message.compression.cpu";
+    public static final String SKIPPED_COUNTER_NAME = "message.compression.skipped";
+
+    private static final int BUFFER_SIZE_BYTES = 8192;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * Compresses the given data using {@link #DEFLATE}.
+     *
+     * @param data the data to compress
+     * @return The compressed data.
+     */
+    public static byte[] deflate(byte[] data) {
+        requireNonNull(data, "data must not be null");
+
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            var out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            var buffer = new byte[BUFFER_SIZE_BYTES];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses the given data that is compressed using {@link #DEFLATE}.
+     *
+     * @param data     the compressed data
+     * @param maxBytes number of maximum bytes of the decompressed data
+     * @return The decompressed data.
+     * @throws DataFormatException If the data is not compressed properly or exceeds the maximum number of bytes once
+     *                             decompressed.
+     */
+    public static byte[] inflate(byte[] data, int maxBytes) throws DataFormatException {
+        requireNonNull(data, "data must not be null");
+
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            var out = new ByteArrayOutputStream(Math.min(maxBytes, Math.max(64, data.length * 4)));
+            var buffer = new byte[BUFFER_SIZE_BYTES];
+            while (!inflater.finished()) {
+                var inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("compressed data is truncated");
+                }
+                if (out.size() + inflated > maxBytes) {
+                    throw new DataFormatException("decompressed data exceeds %d bytes".formatted(maxBytes));
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the CPU time of the current thread, falling back to wall-clock time if the JVM does not support
+     * measuring it. Only the difference between two values is meaningful.
+     *
+     * @return The current CPU time in nanoseconds.
+     */
+    public static long currentThreadCpuTimeNanos() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+                ? THREAD_MX_BEAN.getCurrentThreadCpuTime()
+                : System.nanoTime();
+    }
+}
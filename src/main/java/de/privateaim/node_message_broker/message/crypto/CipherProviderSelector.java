@@ -0,0 +1,121 @@
+package de.privateaim.node_message_broker.message.crypto;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Selects the fastest security provider for the symmetric cipher used by {@link HubMessageCryptoService}.
+ * Performance differs heavily between providers, e.g. depending on whether a provider makes use of hardware
+ * acceleration. Thus, candidates are compared by running a short microbenchmark.
+ * <p>
+ * All candidates are warmed up before any of them gets measured. Measurements then take turns between the candidates
+ * over several rounds and the median round of each candidate is compared, so that neither the order of the candidates
+ * nor a single disturbed round decides the selection. For a stable selection across restarts, the provider should be
+ * configured explicitly based on the results of {@code HubMessageCryptoServiceBenchmark}.
+ */
+@Slf4j
+public final class CipherProviderSelector {
+
+    private static final int PAYLOAD_SIZE_BYTES = 64 * 1024;
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASUREMENT_ROUNDS = 7;
+    private static final int MEASUREMENT_ITERATIONS = 50;
+
+    // A candidate that supports the cipher, ready to be measured.
+    private record Candidate(Provider provider, Cipher cipher, long[] roundDurationsNanos) {
+    }
+
+    private CipherProviderSelector() {
+    }
+
+    /**
+     * Selects the provider that encrypts messages the fastest out of the given candidates. Candidates that do not
+     * support the cipher are skipped.
+     *
+     * @param candidates providers to choose from
+     * @return The fastest provider.
+     * @throws IllegalArgumentException If none of the candidates supports the cipher.
+     */
+    public static Provider selectFastest(List<Provider> candidates) {
+        requireNonNull(candidates, "candidates must not be null");
+
+        var random = new SecureRandom();
+        var keyMaterial = new byte[32];
+        random.nextBytes(keyMaterial);
+        var key = new SecretKeySpec(keyMaterial, "AES");
+        var payload = new byte[PAYLOAD_SIZE_BYTES];
+
+        var supportingCandidates = new ArrayList<Candidate>();
+        for (var candidate : candidates) {
+            try {
+                var cipher = Cipher.getInstance(HubMessageCryptoService.TRANSFORMATION_ALGORITHM, candidate);
+                encrypt(cipher, key, payload, random, WARMUP_ITERATIONS);
+                supportingCandidates.add(new Candidate(candidate, cipher, new long[MEASUREMENT_ROUNDS]));
+            } catch (GeneralSecurityException e) {
+                log.debug("skipping security provider `{}` since it does not support `{}`", candidate.getName(),
+                        HubMessageCryptoService.TRANSFORMATION_ALGORITHM, e);
+            }
+        }
+
+        if (supportingCandidates.isEmpty()) {
+            throw new IllegalArgumentException("none of the candidates supports `%s`"
+                    .formatted(HubMessageCryptoService.TRANSFORMATION_ALGORITHM));
+        }
+
+        for (var round = 0; round < MEASUREMENT_ROUNDS; round++) {
+            for (var candidate : supportingCandidates) {
+                try {
+                    var start = System.nanoTime();
+                    encrypt(candidate.cipher(), key, payload, random, MEASUREMENT_ITERATIONS);
+                    candidate.roundDurationsNanos()[round] = System.nanoTime() - start;
+                } catch (GeneralSecurityException e) {
+                    // the candidate already encrypted successfully during its warmup
+                    throw new IllegalStateException("security provider `%s` failed to encrypt"
+                            .formatted(candidate.provider().getName()), e);
+                }
+            }
+        }
+
+        Provider fastestProvider = null;
+        var fastestDurationNanos = Long.MAX_VALUE;
+        for (var candidate : supportingCandidates) {
+            var durationNanos = median(candidate.roundDurationsNanos());
+            log.info("security provider `{}` encrypts with `{}` at {} MB/s", candidate.provider().getName(),
+                    HubMessageCryptoService.TRANSFORMATION_ALGORITHM,
+                    (long) PAYLOAD_SIZE_BYTES * MEASUREMENT_ITERATIONS * 1000 / Math.max(durationNanos, 1));
+
+            if (durationNanos < fastestDurationNanos) {
+                fastestProvider = candidate.provider();
+                fastestDurationNanos = durationNanos;
+            }
+        }
+        return fastestProvider;
+    }
+
+    private static void encrypt(Cipher cipher, SecretKeySpec key, byte[] payload, SecureRandom random,
+                                int iterations) throws GeneralSecurityException {
+        var iv = new byte[12];
+        for (int i = 0; i < iterations; i++) {
+            random.nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+            cipher.doFinal(payload);
+        }
+    }
+
+    private static long median(long[] values) {
+        var sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,31 @@
+package de.privateaim.node_message_broker.message.crypto;
+
+import java.security.Provider;
+
+/**
+ * Configuration options for choosing the security providers used for cryptographic operations on messages.
+ * Operations without a dedicated provider use the first registered provider that supports them.
+ *
+ * @param keyAgreementProvider provider used for the ECDH key agreement including the key derivation function
+ * @param cipherProvider       provider used for encrypting and decrypting messages
+ */
+public record CryptoProviderConfig(Provider keyAgreementProvider, Provider cipherProvider) {
+    public static final class Builder {
+        private Provider keyAgreementProvider;
+        private Provider cipherProvider;
+
+        public Builder withKeyAgreementProvider(Provider keyAgreementProvider) {
+            this.keyAgreementProvider = keyAgreementProvider;
+            return this;
+        }
+
+        public Builder withCipherProvider(Provider cipherProvider) {
+            this.cipherProvider = cipherProvider;
+            return this;
+        }
+
+        public CryptoProviderConfig build() {
+            return new CryptoProviderConfig(keyAgreementProvider, cipherProvider);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package de.privateaim.node_message_broker.message.crypto;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.security.InvalidKeyException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A bounded cache for raw ECDH shared secrets of pairs of keys. Computing a shared secret requires an EC scalar
+ * multiplication which is by far the most expensive part of deriving a symmetric key for a message. Since the keys of
+ * communicating parties rarely change, the raw secret can be reused for deriving keys of subsequent messages.
+ * Secrets get zeroed as soon as they are evicted from the cache.
+ */
+public final class ECDHSharedSecretCache {
+
+    /**
+     * Computes the raw ECDH shared secret of a pair of keys.
+     */
+    @FunctionalInterface
+    public interface SharedSecretAgreement {
+        byte[] agree(ECPrivateKey privateKey, ECPublicKey publicKey) throws InvalidKeyException;
+    }
+
+    private record KeyPairIdentity(ECPrivateKey privateKey, ECPublicKey publicKey) {
+    }
+
+    // Guards the secret so that it cannot get zeroed while a copy of it is being taken.
+    private static final class SharedSecret {
+        private byte[] secret;
+
+        private SharedSecret(byte[] secret) {
+            this.secret = secret;
+        }
+
+        private synchronized byte[] copy() {
+            return secret == null ? null : secret.clone();
+        }
+
+        private synchronized void destroy() {
+            if (secret != null) {
+                Arrays.fill(secret, (byte) 0);
+                secret = null;
+            }
+        }
+    }
+
+    private final Cache<KeyPairIdentity, SharedSecret> cache;
+
+    /**
+     * Creates a new cache for ECDH shared secrets.
+     *
+     * @param maxEntries        number of maximum secrets held by the cache before older ones get evicted
+     * @param expireAfterAccess time after which a secret gets evicted once it has been accessed for the last time
+     */
+    public ECDHSharedSecretCache(long maxEntries, Duration expireAfterAccess) {
+        requireNonNull(expireAfterAccess, "expireAfterAccess must not be null");
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be greater than 0");
+        }
+        if (expireAfterAccess.isNegative() || expireAfterAccess.isZero()) {
+            throw new IllegalArgumentException("expireAfterAccess must be greater than 0");
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(expireAfterAccess)
+                .<KeyPairIdentity, SharedSecret>removalListener((keys, sharedSecret, cause) -> {
+                    if (sharedSecret != null) {
+                        sharedSecret.destroy();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the raw ECDH shared secret of the given pair of keys. The secret gets computed using the given agreement
+     * if it is not cached yet.
+     * The returned array is a copy owned by the caller who is responsible for zeroing it once it is no longer needed.
+     *
+     * @param privateKey the private key of one party
+     * @param publicKey  the public key of the other party
+     * @param agreement  computation of the shared secret in case it is not cached yet
+     * @return A copy of the raw shared secret.
+     * @throws InvalidKeyException If one of the keys is not usable by the agreement.
+     */
+    public byte[] getSharedSecret(ECPrivateKey privateKey, ECPublicKey publicKey, SharedSecretAgreement agreement)
+            throws InvalidKeyException {
+        requireNonNull(privateKey, "private key must not be null");
+        requireNonNull(publicKey, "public key must not be null");
+        requireNonNull(agreement, "agreement must not be null");
+
+        var keys = new KeyPairIdentity(privateKey, publicKey);
+        var cachedSecret = cache.getIfPresent(keys);
+        if (cachedSecret != null) {
+            var secret = cachedSecret.copy();
+            if (secret != null) {
+                return secret;
+            }
+        }
+
+        var secret = agreement.agree(privateKey, publicKey);
+        cache.put(keys, new SharedSecret(secret.clone()));
+        return secret;
+    }
+
+    /**
+     * Evicts all cached secrets and zeroes them.
+     */
+    public void clear() {
+        cache.invalidateAll();
+        cache.cleanUp();
+    }
+}
@@ -1,15 +1,22 @@
 package de.privateaim.node_message_broker.message.crypto;
 
 import jakarta.validation.constraints.NotNull;
+import org.bouncycastle.crypto.agreement.kdf.ConcatenationKDFGenerator;
+import org.bouncycastle.crypto.params.KDFParameters;
+import org.bouncycastle.crypto.util.DigestFactory;
 import org.bouncycastle.jcajce.spec.UserKeyingMaterialSpec;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyAgreement;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 
@@ -17,19 +24,63 @@ import static java.util.Objects.requireNonNull;
  * A service that offers cryptographic functionality tailored to be used when exchanging messages via the Hub.
  * It makes use of an AES 256-bit algorithm using GCM without any padding and makes use of ECDH keys created by the Hub
  * when registering a node.
+ * <p>
+ * If a {@link ECDHSharedSecretCache} is given, raw ECDH shared secrets get reused across messages and only the KDF
+ * runs per message. Derived keys are identical to the ones derived without a cache.
+ * Security providers used for the key agreement and the cipher can be chosen via a {@link CryptoProviderConfig}.
+ * <p>
+ * Envelopes are laid out as follows: a version byte, the number of encrypted content keys as an unsigned 16-bit
+ * integer, the encrypted content keys of all recipients and finally the encrypted message. Since content keys have a
+ * fixed length, so do their encrypted counterparts.
  */
 public final class HubMessageCryptoService implements MessageCryptoService {
 
     private static final int IV_LENGTH_BYTES = 12; // NIST recommends 12 Byte IVs
     private static final int AUTHENTICATION_TAG_LENGTH_BYTES = 16;
     private static final String KEY_AGREEMENT_ALGORITHM = "ECCDHwithSHA384CKDF";
+    // Raw cofactor ECDH without any KDF - combined with a SHA-384 concatenation KDF it equals KEY_AGREEMENT_ALGORITHM.
+    private static final String RAW_KEY_AGREEMENT_ALGORITHM = "ECCDH";
+    private static final int SECRET_KEY_LENGTH_BYTES = 32;
+    private static final String SECRET_KEY_SPEC_ALGORITHM = "AES";
     private static final String SECRET_KEY_ALGORITHM = "AES[256]";
-    private static final String TRANSFORMATION_ALGORITHM = "AES_256/GCM/NoPadding";
+    // Key size is determined by derived keys which are always 256 bits. "AES_256/..." is not supported by all providers.
+    static final String TRANSFORMATION_ALGORITHM = "AES/GCM/NoPadding";
+    private static final byte ENVELOPE_VERSION = 1;
+    private static final int ENVELOPE_HEADER_LENGTH_BYTES = 3;
+    private static final int ENVELOPE_MAX_RECIPIENTS = 0xFFFF;
 
     private final SecureRandom randomGenerator;
+    private final ECDHSharedSecretCache sharedSecretCache;
+    private final CryptoProviderConfig providerConfig;
+    // Cipher instances are not thread-safe but expensive to look up. Since every operation fully re-initializes the
+    // cipher, a single instance per thread can be reused safely.
+    private final ThreadLocal<Cipher> ciphers;
 
     public HubMessageCryptoService(@NotNull SecureRandom randomGenerator) {
+        this(randomGenerator, new CryptoProviderConfig.Builder().build());
+    }
+
+    public HubMessageCryptoService(@NotNull SecureRandom randomGenerator,
+                                   @NotNull ECDHSharedSecretCache sharedSecretCache) {
+        this(randomGenerator, requireNonNull(sharedSecretCache, "shared secret cache must not be null"),
+                new CryptoProviderConfig.Builder().build());
+    }
+
+    public HubMessageCryptoService(@NotNull SecureRandom randomGenerator,
+                                   @NotNull CryptoProviderConfig providerConfig) {
+        this.randomGenerator = requireNonNull(randomGenerator, "random generator must not be null");
+        this.sharedSecretCache = null;
+        this.providerConfig = requireNonNull(providerConfig, "provider config must not be null");
+        this.ciphers = ThreadLocal.withInitial(this::createCipher);
+    }
+
+    public HubMessageCryptoService(@NotNull SecureRandom randomGenerator,
+                                   @NotNull ECDHSharedSecretCache sharedSecretCache,
+                                   @NotNull CryptoProviderConfig providerConfig) {
         this.randomGenerator = requireNonNull(randomGenerator, "random generator must not be null");
+        this.sharedSecretCache = requireNonNull(sharedSecretCache, "shared secret cache must not be null");
+        this.providerConfig = requireNonNull(providerConfig, "provider config must not be null");
+        this.ciphers = ThreadLocal.withInitial(this::createCipher);
     }
 
     /**
@@ -49,8 +100,14 @@ public final class HubMessageCryptoService implements MessageCryptoService {
             throw new IllegalArgumentException("KDF keying info must not be empty");
         }
 
+        if (sharedSecretCache != null) {
+            return deriveSymmetricKeyFromSharedSecret(
+                    sharedSecretCache.getSharedSecret(privateKey, publicKey, this::computeSharedSecret),
+                    KDFKeyingInfo);
+        }
+
         try {
-            var agreement = KeyAgreement.getInstance(KEY_AGREEMENT_ALGORITHM);
+            var agreement = createKeyAgreement(KEY_AGREEMENT_ALGORITHM);
             agreement.init(privateKey, new UserKeyingMaterialSpec(KDFKeyingInfo));
             agreement.doPhase(publicKey, true);
             return agreement.generateSecret(SECRET_KEY_ALGORITHM);
@@ -63,6 +120,44 @@ public final class HubMessageCryptoService implements MessageCryptoService {
         }
     }
 
+    private byte[] computeSharedSecret(ECPrivateKey privateKey, ECPublicKey publicKey) throws InvalidKeyException {
+        try {
+            var agreement = createKeyAgreement(RAW_KEY_AGREEMENT_ALGORITHM);
+            agreement.init(privateKey);
+            agreement.doPhase(publicKey, true);
+            return agreement.generateSecret();
+        } catch (NoSuchAlgorithmException e) {
+            // can not happen -> ensured by provider
+            throw new RuntimeException("check security provider for support of algorithm: '%s'"
+                    .formatted(RAW_KEY_AGREEMENT_ALGORITHM), e);
+        }
+    }
+
+    // Mirrors the KDF step of KEY_AGREEMENT_ALGORITHM so that peers deriving keys without a cache stay compatible.
+    private Key deriveSymmetricKeyFromSharedSecret(byte[] sharedSecret, byte[] KDFKeyingInfo) {
+        var keyMaterial = new byte[SECRET_KEY_LENGTH_BYTES];
+        try {
+            var kdf = new ConcatenationKDFGenerator(DigestFactory.createSHA384());
+            kdf.init(new KDFParameters(sharedSecret, KDFKeyingInfo));
+            kdf.generateBytes(keyMaterial, 0, keyMaterial.length);
+            return new SecretKeySpec(keyMaterial, SECRET_KEY_SPEC_ALGORITHM);
+        } finally {
+            Arrays.fill(sharedSecret, (byte) 0);
+            Arrays.fill(keyMaterial, (byte) 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getEncryptedMessageLength(int messageLength) {
+        if (messageLength < 0) {
+            throw new IllegalArgumentException("message length must not be negative");
+        }
+        return IV_LENGTH_BYTES + messageLength + AUTHENTICATION_TAG_LENGTH_BYTES;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -75,18 +170,27 @@ public final class HubMessageCryptoService implements MessageCryptoService {
         // Since this is a byte array that would equal to roughly 2GB which is way lower than the enforced requirement.
         requireNonNull(message, "message must not be null");
 
-        var gcmParameterSpec = getGCMParameterSpec(generateGcmInitializationVector());
+        var encryptedMessage = ByteBuffer.allocate(getEncryptedMessageLength(message.length));
+        encryptMessage(derivedSymmetricKey, ByteBuffer.wrap(message), encryptedMessage);
+        return encryptedMessage.array();
+    }
 
+    // Encrypts the remaining bytes of a message directly into an output buffer, advancing both buffers' positions.
+    private int encryptMessage(Key derivedSymmetricKey, ByteBuffer message, ByteBuffer output)
+            throws InvalidKeyException, MessageCryptoException {
+        var encryptedMessageLength = getEncryptedMessageLength(message.remaining());
+        if (output.remaining() < encryptedMessageLength) {
+            throw new IllegalArgumentException("output must have at least '%d' bytes remaining but has only '%d' bytes"
+                    .formatted(encryptedMessageLength, output.remaining()));
+        }
+
+        var initializationVector = generateGcmInitializationVector();
+
+        var cipher = ciphers.get();
         try {
-            var cipher = Cipher.getInstance(TRANSFORMATION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, derivedSymmetricKey, gcmParameterSpec);
-            return prependIVToCiphertext(gcmParameterSpec.getIV(), cipher.doFinal(message));
-        } catch (NoSuchAlgorithmException e) {
-            // can not happen -> ensured by provider
-            throw new RuntimeException("check security provider for support of algorithm: '%s'"
-                    .formatted(TRANSFORMATION_ALGORITHM), e);
-        } catch (NoSuchPaddingException e) {
-            throw new RuntimeException("check security provider for support of a 'NoPadding' option", e);
+            cipher.init(Cipher.ENCRYPT_MODE, derivedSymmetricKey, getGCMParameterSpec(initializationVector, 0));
+            output.put(initializationVector);
+            return IV_LENGTH_BYTES + cipher.doFinal(message, output);
         } catch (InvalidAlgorithmParameterException e) {
             throw new RuntimeException("unintended behavior", e);
         } catch (InvalidKeyException e) {
@@ -103,22 +207,33 @@ public final class HubMessageCryptoService implements MessageCryptoService {
     public byte[] decryptMessage(Key derivedSymmetricKey, byte[] message) throws InvalidKeyException, MessageCryptoException {
         requireNonNull(derivedSymmetricKey, "derived symmetric key must not be null");
         requireNonNull(message, "message must not be null");
-        if (message.length < IV_LENGTH_BYTES) {
-            throw new IllegalArgumentException("message length must be greater than '%d' bytes but is only '%d' bytes"
-                    .formatted(IV_LENGTH_BYTES, message.length));
+        requireMinimumMessageLength(message.length);
+
+        var cipher = ciphers.get();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, derivedSymmetricKey, getGCMParameterSpec(message, 0));
+            return cipher.doFinal(message, IV_LENGTH_BYTES, message.length - IV_LENGTH_BYTES);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new RuntimeException("unintended behavior", e);
+        } catch (InvalidKeyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MessageCryptoException("an unexpected error occurred", e);
         }
+    }
+
+    // Decrypts the remaining bytes of a message directly into an output buffer, advancing both buffers' positions.
+    private int decryptMessage(Key derivedSymmetricKey, ByteBuffer message, ByteBuffer output)
+            throws InvalidKeyException, MessageCryptoException {
+        requireMinimumMessageLength(message.remaining());
 
-        var gcmParameterSpec = getGCMParameterSpec(extractIVFromCiphertext(message));
+        var initializationVector = new byte[IV_LENGTH_BYTES];
+        message.get(initializationVector);
 
+        var cipher = ciphers.get();
         try {
-            var cipher = Cipher.getInstance(TRANSFORMATION_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, derivedSymmetricKey, gcmParameterSpec);
-            return cipher.doFinal(removeIVFromCiphertext(message));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("check security provider for support of algorithm: '%s'"
-                    .formatted(TRANSFORMATION_ALGORITHM), e);
-        } catch (NoSuchPaddingException e) {
-            throw new RuntimeException("check security provider for support of a 'NoPadding' option", e);
+            cipher.init(Cipher.DECRYPT_MODE, derivedSymmetricKey, getGCMParameterSpec(initializationVector, 0));
+            return cipher.doFinal(message, output);
         } catch (InvalidAlgorithmParameterException e) {
             throw new RuntimeException("unintended behavior", e);
         } catch (InvalidKeyException e) {
@@ -128,32 +243,135 @@ public final class HubMessageCryptoService implements MessageCryptoService {
         }
     }
 
-    private byte[] generateGcmInitializationVector() {
-        byte[] initializationVector = new byte[IV_LENGTH_BYTES];
-        randomGenerator.nextBytes(initializationVector);
-        return initializationVector;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encryptEnvelope(List<Key> derivedSymmetricKeys, byte[] message)
+            throws InvalidKeyException, MessageCryptoException {
+        requireNonNull(derivedSymmetricKeys, "derived symmetric keys must not be null");
+        requireNonNull(message, "message must not be null");
+        if (derivedSymmetricKeys.isEmpty()) {
+            throw new IllegalArgumentException("derived symmetric keys must not be empty");
+        }
+        if (derivedSymmetricKeys.size() > ENVELOPE_MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("envelopes can hold content keys of at most '%d' recipients"
+                    .formatted(ENVELOPE_MAX_RECIPIENTS));
+        }
+
+        var encryptedContentKeyLength = getEncryptedMessageLength(SECRET_KEY_LENGTH_BYTES);
+        var envelope = ByteBuffer.allocate(ENVELOPE_HEADER_LENGTH_BYTES
+                + derivedSymmetricKeys.size() * encryptedContentKeyLength
+                + getEncryptedMessageLength(message.length));
+        envelope.put(ENVELOPE_VERSION);
+        envelope.putShort((short) derivedSymmetricKeys.size());
+
+        var contentKeyMaterial = new byte[SECRET_KEY_LENGTH_BYTES];
+        try {
+            randomGenerator.nextBytes(contentKeyMaterial);
+            for (var derivedSymmetricKey : derivedSymmetricKeys) {
+                encryptMessage(requireNonNull(derivedSymmetricKey, "derived symmetric key must not be null"),
+                        ByteBuffer.wrap(contentKeyMaterial), envelope);
+            }
+            encryptMessage(new SecretKeySpec(contentKeyMaterial, SECRET_KEY_SPEC_ALGORITHM), ByteBuffer.wrap(message),
+                    envelope);
+        } finally {
+            Arrays.fill(contentKeyMaterial, (byte) 0);
+        }
+        return envelope.array();
     }
 
-    private GCMParameterSpec getGCMParameterSpec(byte[] initializationVector) {
-        return new GCMParameterSpec(AUTHENTICATION_TAG_LENGTH_BYTES * 8, initializationVector);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] decryptEnvelope(Key derivedSymmetricKey, byte[] envelope)
+            throws InvalidKeyException, MessageCryptoException {
+        requireNonNull(derivedSymmetricKey, "derived symmetric key must not be null");
+        requireNonNull(envelope, "envelope must not be null");
+
+        var encryptedContentKeyLength = getEncryptedMessageLength(SECRET_KEY_LENGTH_BYTES);
+        var buffer = ByteBuffer.wrap(envelope);
+        if (buffer.remaining() < ENVELOPE_HEADER_LENGTH_BYTES) {
+            throw new MessageCryptoException("envelope is too short", null);
+        }
+        var version = buffer.get();
+        if (version != ENVELOPE_VERSION) {
+            throw new MessageCryptoException("unsupported envelope version '%d'".formatted(version), null);
+        }
+        var numberOfContentKeys = Short.toUnsignedInt(buffer.getShort());
+        var encryptedMessageOffset = ENVELOPE_HEADER_LENGTH_BYTES + numberOfContentKeys * encryptedContentKeyLength;
+        if (envelope.length < encryptedMessageOffset + getEncryptedMessageLength(0)) {
+            throw new MessageCryptoException("envelope is too short", null);
+        }
+
+        // Envelopes do not tell which content key belongs to which recipient. Only the recipient's own key
+        // authenticates its encrypted content key, so trying all of them is cheap compared to deriving the key.
+        var contentKeyMaterial = new byte[SECRET_KEY_LENGTH_BYTES];
+        try {
+            for (int i = 0; i < numberOfContentKeys; i++) {
+                var encryptedContentKey = buffer.slice(
+                        ENVELOPE_HEADER_LENGTH_BYTES + i * encryptedContentKeyLength, encryptedContentKeyLength);
+                try {
+                    decryptMessage(derivedSymmetricKey, encryptedContentKey, ByteBuffer.wrap(contentKeyMaterial));
+                } catch (MessageCryptoException e) {
+                    continue;
+                }
+
+                return decryptMessageIntoNewArray(new SecretKeySpec(contentKeyMaterial, SECRET_KEY_SPEC_ALGORITHM),
+                        ByteBuffer.wrap(envelope, encryptedMessageOffset, envelope.length - encryptedMessageOffset));
+            }
+        } finally {
+            Arrays.fill(contentKeyMaterial, (byte) 0);
+        }
+
+        throw new MessageCryptoException("envelope does not hold a content key for the given key", null);
     }
 
-    private byte[] prependIVToCiphertext(byte[] iv, byte[] ciphertext) {
-        var encryptedMessageWithIV = new byte[IV_LENGTH_BYTES + ciphertext.length];
-        System.arraycopy(iv, 0, encryptedMessageWithIV, 0, IV_LENGTH_BYTES);
-        System.arraycopy(ciphertext, 0, encryptedMessageWithIV, IV_LENGTH_BYTES, ciphertext.length);
-        return encryptedMessageWithIV;
+    private byte[] decryptMessageIntoNewArray(Key derivedSymmetricKey, ByteBuffer message)
+            throws InvalidKeyException, MessageCryptoException {
+        var decryptedMessage = new byte[message.remaining() - IV_LENGTH_BYTES - AUTHENTICATION_TAG_LENGTH_BYTES];
+        decryptMessage(derivedSymmetricKey, message, ByteBuffer.wrap(decryptedMessage));
+        return decryptedMessage;
     }
 
-    private byte[] extractIVFromCiphertext(byte[] ciphertext) {
-        var iv = new byte[IV_LENGTH_BYTES];
-        System.arraycopy(ciphertext, 0, iv, 0, IV_LENGTH_BYTES);
-        return iv;
+    private static void requireMinimumMessageLength(int messageLength) {
+        if (messageLength < IV_LENGTH_BYTES) {
+            throw new IllegalArgumentException("message length must be greater than '%d' bytes but is only '%d' bytes"
+                    .formatted(IV_LENGTH_BYTES, messageLength));
+        }
+    }
+
+    private KeyAgreement createKeyAgreement(String algorithm) throws NoSuchAlgorithmException {
+        var provider = providerConfig.keyAgreementProvider();
+        return provider == null
+                ? KeyAgreement.getInstance(algorithm)
+                : KeyAgreement.getInstance(algorithm, provider);
+    }
+
+    private Cipher createCipher() {
+        try {
+            var provider = providerConfig.cipherProvider();
+            return provider == null
+                    ? Cipher.getInstance(TRANSFORMATION_ALGORITHM)
+                    : Cipher.getInstance(TRANSFORMATION_ALGORITHM, provider);
+        } catch (NoSuchAlgorithmException e) {
+            // can not happen -> ensured by provider
+            throw new RuntimeException("check security provider for support of algorithm: '%s'"
+                    .formatted(TRANSFORMATION_ALGORITHM), e);
+        } catch (NoSuchPaddingException e) {
+            throw new RuntimeException("check security provider for support of a 'NoPadding' option", e);
+        }
+    }
+
+    private byte[] generateGcmInitializationVector() {
+        byte[] initializationVector = new byte[IV_LENGTH_BYTES];
+        randomGenerator.nextBytes(initializationVector);
+        return initializationVector;
     }
 
-    private byte[] removeIVFromCiphertext(byte[] ciphertext) {
-        var ciphertextWithoutIV = new byte[ciphertext.length - IV_LENGTH_BYTES];
-        System.arraycopy(ciphertext, IV_LENGTH_BYTES, ciphertextWithoutIV, 0, ciphertextWithoutIV.length);
-        return ciphertextWithoutIV;
+    private GCMParameterSpec getGCMParameterSpec(byte[] initializationVector, int offset) {
+        return new GCMParameterSpec(AUTHENTICATION_TAG_LENGTH_BYTES * 8, initializationVector, offset,
+                IV_LENGTH_BYTES);
     }
 }
@@ -6,6 +6,7 @@ import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
+import java.util.List;
 
 /**
  * Represents a service offering cryptographic functionality for messages.
@@ -40,6 +41,42 @@ public interface MessageCryptoService {
     byte[] decryptMessage(@NotNull Key derivedSymmetricKey, @NotNull byte[] message)
             throws InvalidKeyException, MessageCryptoException;
 
+    /**
+     * Returns the length of an encrypted message including all additional information that is required for decrypting
+     * it again.
+     *
+     * @param messageLength length of the message that shall get encrypted
+     * @return The length of the encrypted message.
+     */
+    int getEncryptedMessageLength(int messageLength);
+
+    /**
+     * Encrypts a message for multiple recipients at once. The message gets encrypted only once using a random content
+     * key. The content key in turn gets encrypted with the symmetric key of every recipient and is put into an envelope
+     * alongside the encrypted message.
+     *
+     * @param derivedSymmetricKeys symmetric keys of all recipients for encrypting the content key
+     * @param message              the message itself that shall get encrypted
+     * @return The envelope holding the encrypted content key for every recipient and the encrypted message.
+     * @throws InvalidKeyException    If one of the keys is not usable by the implementation.
+     * @throws MessageCryptoException If an error occurs while encrypting the message.
+     */
+    byte[] encryptEnvelope(@NotNull List<Key> derivedSymmetricKeys, @NotNull byte[] message)
+            throws InvalidKeyException, MessageCryptoException;
+
+    /**
+     * Decrypts a message from an envelope that was created via {@link #encryptEnvelope(List, byte[])}.
+     *
+     * @param derivedSymmetricKey the symmetric key of the recipient that the content key was encrypted with
+     * @param envelope            the envelope holding the encrypted content keys and the encrypted message
+     * @return The decrypted message.
+     * @throws InvalidKeyException    If the key is not usable by the implementation.
+     * @throws MessageCryptoException If the envelope is malformed, does not hold a content key for the given key or an
+     *                                error occurs while decrypting the message.
+     */
+    byte[] decryptEnvelope(@NotNull Key derivedSymmetricKey, @NotNull byte[] envelope)
+            throws InvalidKeyException, MessageCryptoException;
+
     /**
      * Derives a symmetric key from key information of 2 parties that are trying to exchange sensitive information.
      *
@@ -9,6 +9,9 @@ import static java.util.Objects.requireNonNull;
 
 /**
  * Represents a message in internal format that is supposed to get emitted and sent to a recipient.
+ * <p>
+ * The payload might be shared by messages of multiple recipients and must therefore be treated as read-only. Processing
+ * steps that change the payload have to create a new message with a new payload instead.
  *
  * @param recipient recipient of the message
  * @param payload   the actual message payload
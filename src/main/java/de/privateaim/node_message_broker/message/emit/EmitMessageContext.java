@@ -1,15 +1,41 @@
 package de.privateaim.node_message_broker.message.emit;
 
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.compression.PayloadCompression;
+
 import java.util.UUID;
 
 /**
  * Represents meta information of a message that shall be sent to a recipient.
  *
- * @param messageId  unique identifier of the message
- * @param analysisId unique identifier of the analysis that this message belongs to
+ * @param messageId   unique identifier of the message
+ * @param analysisId  unique identifier of the analysis that this message belongs to
+ * @param framing     framing of the payload, e.g. {@link HubMessageMetadata#BATCH_FRAMING} if the payload holds
+ *                    multiple messages. Absent if the payload is a single message.
+ * @param compression codec that the payload is compressed with, e.g. {@link PayloadCompression#DEFLATE}. Absent if
+ *                    the payload is not compressed.
  */
 public record EmitMessageContext(
         UUID messageId,
-        String analysisId
+        String analysisId,
+        String framing,
+        String compression
 ) {
+    public EmitMessageContext(UUID messageId, String analysisId) {
+        this(messageId, analysisId, null, null);
+    }
+
+    public EmitMessageContext(UUID messageId, String analysisId, String framing) {
+        this(messageId, analysisId, framing, null);
+    }
+
+    /**
+     * Creates a copy of this context with the given compression codec.
+     *
+     * @param compression codec that the payload is compressed with
+     * @return The new context.
+     */
+    public EmitMessageContext withCompression(String compression) {
+        return new EmitMessageContext(messageId, analysisId, framing, compression);
+    }
 }
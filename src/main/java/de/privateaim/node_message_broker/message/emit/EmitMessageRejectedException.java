@@ -0,0 +1,13 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Indicates that the Hub responded with a negative acknowledgement to an emitted message.
+ */
+public final class EmitMessageRejectedException extends Exception {
+
+    public EmitMessageRejectedException(@NotNull String message) {
+        super(message);
+    }
+}
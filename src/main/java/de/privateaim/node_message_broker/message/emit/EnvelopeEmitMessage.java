@@ -0,0 +1,63 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents a message in internal format that is supposed to get emitted and sent to multiple recipients at once.
+ * The payload of such a message is shared by all recipients and gets encrypted as an envelope.
+ * <p>
+ * Like with {@link EmitMessage}, the payload must be treated as read-only.
+ *
+ * @param recipients recipients of the message
+ * @param payload    the actual message payload
+ * @param context    meta information regarding the message
+ */
+public record EnvelopeEmitMessage(
+        List<EmitMessageRecipient> recipients,
+        byte[] payload,
+        EmitMessageContext context
+) {
+    public EnvelopeEmitMessage(@NotNull List<EmitMessageRecipient> recipients, @NotNull byte[] payload,
+                               @NotNull EmitMessageContext context) {
+        requireNonNull(recipients, "message recipients must not be null");
+        if (recipients.isEmpty()) {
+            throw new IllegalArgumentException("message recipients must not be empty");
+        }
+        this.recipients = List.copyOf(recipients);
+        this.payload = requireNonNull(payload, "payload must not be null");
+        this.context = requireNonNull(context, "message context must not be null");
+    }
+
+    /**
+     * Creates a copy of this message with a different payload.
+     *
+     * @param payload the new payload
+     * @return The copy of this message.
+     */
+    public EnvelopeEmitMessage withPayload(@NotNull byte[] payload) {
+        return new EnvelopeEmitMessage(recipients, payload, context);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof EnvelopeEmitMessage msg)) {
+            return false;
+        }
+        return (recipients.equals(msg.recipients) && Objects.deepEquals(payload, msg.payload)
+                && context.equals(msg.context));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(recipients, Arrays.hashCode(payload), context);
+    }
+}
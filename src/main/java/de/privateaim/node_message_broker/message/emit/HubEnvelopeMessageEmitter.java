@@ -0,0 +1,97 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.MiddlewareRegistry;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageRecipient;
+import de.privateaim.node_message_broker.message.api.hub.OutgoingHubMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An emitter for emitting a single message to multiple other nodes at once via the Hub. Registered middlewares are
+ * expected to encrypt the message as an envelope so that every recipient is able to decrypt it.
+ * Messages are emitted via the socket of a {@link HubMessageEmitter}. If there is a pool of emitters, all messages of
+ * an analysis are emitted via the same one.
+ */
+@Slf4j
+public final class HubEnvelopeMessageEmitter implements MessageEmitter<EnvelopeEmitMessage> {
+
+    private final HubMessageEmitterPool hubMessageEmitterPool;
+    private final MiddlewareRegistry<EnvelopeEmitMessage> middlewares;
+
+    /**
+     * Creates a new {@link HubEnvelopeMessageEmitter} instance.
+     *
+     * @param hubMessageEmitter emitter whose socket is used for emitting messages
+     * @param meterRegistry     registry for recording metrics of the emitting stages
+     */
+    public HubEnvelopeMessageEmitter(@NotNull HubMessageEmitter hubMessageEmitter,
+                                     @NotNull MeterRegistry meterRegistry) {
+        this(new HubMessageEmitterPool(List.of(
+                requireNonNull(hubMessageEmitter, "hub message emitter must not be null"))), meterRegistry);
+    }
+
+    /**
+     * Creates a new {@link HubEnvelopeMessageEmitter} instance.
+     *
+     * @param hubMessageEmitterPool pool of emitters whose sockets are used for emitting messages
+     * @param meterRegistry         registry for recording metrics of the emitting stages
+     */
+    public HubEnvelopeMessageEmitter(@NotNull HubMessageEmitterPool hubMessageEmitterPool,
+                                     @NotNull MeterRegistry meterRegistry) {
+        this.hubMessageEmitterPool = requireNonNull(hubMessageEmitterPool,
+                "hub message emitter pool must not be null");
+        this.middlewares = new MiddlewareRegistry<>("emit-envelope",
+                requireNonNull(meterRegistry, "meter registry must not be null"));
+    }
+
+    /**
+     * Registers a middleware. Registered middlewares are invoked in order before emitting a message via
+     * {@link #emitMessage(EnvelopeEmitMessage)}.
+     *
+     * @param stageName  name of the stage used for tagging metrics of the middleware
+     * @param middleware the middleware
+     * @throws IllegalStateException If a message got emitted already.
+     */
+    public void registerMiddleware(@NotNull String stageName,
+                                   @NotNull Function<EnvelopeEmitMessage, Mono<EnvelopeEmitMessage>> middleware) {
+        middlewares.register(stageName, middleware);
+    }
+
+    /**
+     * Attempts to emit the given message to all of its recipients.
+     *
+     * @param message the message that shall get emitted
+     * @return A completed {@link Mono}. Might return an {@link EmitMessageException} as an error state if the message
+     * could not get emitted.
+     */
+    @Override
+    public Mono<Void> emitMessage(EnvelopeEmitMessage message) {
+        log.info("emitting message `{}` to {} nodes", message.context().messageId(), message.recipients().size());
+
+        return middlewares.chain()
+                .apply(message)
+                .onErrorMap(err ->
+                        new EmitMessageException("failed to apply middlewares before emitting message", err))
+                .flatMap(preprocessedMessage -> hubMessageEmitterPool
+                        .emitterFor(preprocessedMessage.context().analysisId(), null)
+                        .emitHubMessage(new OutgoingHubMessage(
+                                preprocessedMessage.recipients().stream()
+                                        .map(recipient -> new HubMessageRecipient("robot", recipient.nodeRobotId()))
+                                        .toList(),
+                                new String(preprocessedMessage.payload()),
+                                new HubMessageMetadata(
+                                        preprocessedMessage.context().messageId(),
+                                        preprocessedMessage.context().analysisId(),
+                                        HubMessageMetadata.ENVELOPE_ENCRYPTION))))
+                .onErrorMap(err -> !(err instanceof EmitMessageException),
+                        err -> new EmitMessageException("an unexpected error occurred", err));
+    }
+}
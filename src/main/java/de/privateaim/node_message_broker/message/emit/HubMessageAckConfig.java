@@ -0,0 +1,54 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for emitting messages that have to get acknowledged by the Hub.
+ *
+ * @param timeout      time to wait for the Hub to acknowledge a message before the attempt is considered failed
+ * @param maxRetries   number of maximum retries after an attempt failed due to a missing or negative acknowledgement
+ * @param retryBackoff initial delay before retrying a failed attempt, grows exponentially with every retry
+ */
+public record HubMessageAckConfig(Duration timeout, int maxRetries, Duration retryBackoff) {
+    public static final class Builder {
+        private Duration timeout = Duration.ofSeconds(5);
+        private int maxRetries = 3;
+        private Duration retryBackoff = Duration.ofMillis(500);
+
+        public Builder withTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder withMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder withRetryBackoff(Duration retryBackoff) {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        public HubMessageAckConfig build() {
+            requireNonNull(timeout, "timeout must not be null");
+            requireNonNull(retryBackoff, "retryBackoff must not be null");
+
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("timeout must be greater than 0");
+            }
+
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative");
+            }
+
+            if (retryBackoff.isNegative()) {
+                throw new IllegalArgumentException("retryBackoff must not be negative");
+            }
+
+            return new HubMessageAckConfig(timeout, maxRetries, retryBackoff);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * A middleware that encodes a message's payload using Base64 so that it can be transported as text. Messages with
+ * multiple recipients get encoded the same way via {@link #forEnvelopes()}.
+ */
+public final class HubMessageBase64EncodingMiddleware implements Function<EmitMessage, Mono<EmitMessage>> {
+
+    private static final Base64.Encoder B64_ENCODER = Base64.getEncoder();
+
+    /**
+     * Encodes the payload of the given message.
+     *
+     * @param message the message whose payload shall get encoded
+     * @return The message with its payload being encoded. Might return an {@link EmitMiddlewareException} as an error
+     * state if applying this middleware fails.
+     */
+    @Override
+    public Mono<EmitMessage> apply(@NotNull EmitMessage message) {
+        if (message == null) {
+            return Mono.error(new EmitMiddlewareException("outgoing hub message must not be null"));
+        }
+
+        return Mono.just(new EmitMessage(
+                message.recipient(),
+                B64_ENCODER.encode(message.payload()),
+                message.context()
+        ));
+    }
+
+    /**
+     * Returns a middleware that encodes the payload of messages with multiple recipients just like this one.
+     *
+     * @return The middleware.
+     */
+    public Function<EnvelopeEmitMessage, Mono<EnvelopeEmitMessage>> forEnvelopes() {
+        return message -> {
+            if (message == null) {
+                return Mono.error(new EmitMiddlewareException("outgoing hub message must not be null"));
+            }
+
+            return Mono.just(message.withPayload(B64_ENCODER.encode(message.payload())));
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for batching messages that are emitted to the same recipient in quick succession.
+ *
+ * @param window      time that a batch is kept open for further messages after its first message got added
+ * @param maxMessages number of maximum messages in a batch before it gets emitted right away
+ * @param maxBytes    number of maximum payload bytes in a batch before it gets emitted right away
+ */
+public record HubMessageBatchConfig(Duration window, int maxMessages, int maxBytes) {
+    public static final class Builder {
+        private Duration window = Duration.ofMillis(10);
+        private int maxMessages = 32;
+        private int maxBytes = 1024 * 1024;
+
+        public Builder withWindow(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        public Builder withMaxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        public Builder withMaxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public HubMessageBatchConfig build() {
+            requireNonNull(window, "window must not be null");
+
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window must be greater than 0");
+            }
+
+            if (maxMessages <= 1) {
+                throw new IllegalArgumentException("maxMessages must be greater than 1");
+            }
+
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes must be greater than 0");
+            }
+
+            return new HubMessageBatchConfig(window, maxMessages, maxBytes);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageBatch;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An emitter that collects messages for the same recipient of the same analysis into batches and emits every batch as
+ * a single message via another emitter. This way, the per-message overhead of encrypting and emitting is only paid
+ * once per batch.
+ * <p>
+ * A batch is emitted once its window elapsed or it reached its maximum number of messages or bytes, whatever happens
+ * first. Batches consisting of a single message are emitted as is. Emitting a message completes once the batch it is
+ * part of got emitted. Cancelling the emission of a message withdraws it from its batch as long as the batch is open.
+ * <p>
+ * Closing the emitter fails all messages that have not been emitted yet.
+ */
+@Slf4j
+public final class HubMessageBatchingEmitter implements MessageEmitter<EmitMessage> {
+
+    public static final String BATCH_SIZE_SUMMARY_NAME = "message.emit.batch.size";
+
+    private record BatchKey(String analysisId, String nodeRobotId) {
+    }
+
+    private record PendingMessage(EmitMessage message, MonoSink<Void> sink) {
+    }
+
+    private static final class Batch {
+        private final List<PendingMessage> messages = new ArrayList<>();
+        private final Disposable.Swap window = Disposables.swap();
+        private long bytes;
+
+        private void add(PendingMessage message) {
+            messages.add(message);
+            bytes += message.message().payload().length;
+        }
+
+        private boolean withdraw(PendingMessage message) {
+            if (messages.removeIf(pending -> pending == message)) {
+                bytes -= message.message().payload().length;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final MessageEmitter<EmitMessage> delegate;
+    private final HubMessageBatchConfig config;
+    private final Scheduler scheduler;
+    private final DistributionSummary batchSizeSummary;
+    private final Map<BatchKey, Batch> openBatches = new HashMap<>();
+    // pending batch windows and emissions of batches
+    private final Disposable.Composite tasks = Disposables.composite();
+    private boolean closed;
+
+    /**
+     * Creates a new {@link HubMessageBatchingEmitter} instance.
+     *
+     * @param delegate      emitter for emitting batches
+     * @param config        configuration of the batches
+     * @param meterRegistry registry for recording metrics of the batches
+     */
+    public HubMessageBatchingEmitter(@NotNull MessageEmitter<EmitMessage> delegate,
+                                     @NotNull HubMessageBatchConfig config,
+                                     @NotNull MeterRegistry meterRegistry) {
+        this(delegate, config, meterRegistry, Schedulers.parallel());
+    }
+
+    HubMessageBatchingEmitter(MessageEmitter<EmitMessage> delegate, HubMessageBatchConfig config,
+                              MeterRegistry meterRegistry, Scheduler scheduler) {
+        this.delegate = requireNonNull(delegate, "delegate must not be null");
+        this.config = requireNonNull(config, "config must not be null");
+        this.scheduler = requireNonNull(scheduler, "scheduler must not be null");
+        this.batchSizeSummary = DistributionSummary.builder(BATCH_SIZE_SUMMARY_NAME)
+                .description("Number of messages that got emitted as a single batch")
+                .register(requireNonNull(meterRegistry, "meter registry must not be null"));
+    }
+
+    /**
+     * Adds the given message to the open batch of its recipient.
+     *
+     * @param message the message that shall get emitted
+     * @return A completed {@link Mono} once the batch holding the message got emitted. Might return an
+     * {@link EmitMessageException} as an error state if the batch could not get emitted.
+     */
+    @Override
+    public Mono<Void> emitMessage(EmitMessage message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+
+        return Mono.create(sink -> {
+            var pending = new PendingMessage(message, sink);
+            var key = new BatchKey(message.context().analysisId(), message.recipient().nodeRobotId());
+            addToBatch(key, pending);
+            sink.onCancel(() -> withdrawFromBatch(key, pending));
+        });
+    }
+
+    /**
+     * Closes the emitter. Messages of batches that have not been emitted yet fail and further messages get rejected.
+     */
+    public void close() {
+        List<Batch> batches;
+        synchronized (openBatches) {
+            closed = true;
+            batches = new ArrayList<>(openBatches.values());
+            openBatches.clear();
+        }
+
+        // emissions that are in progress fail their messages once they get cancelled
+        tasks.dispose();
+        batches.forEach(batch -> batch.messages.forEach(pending -> pending.sink().error(closedError())));
+    }
+
+    private static EmitMessageException closedError() {
+        return new EmitMessageException("cannot emit message",
+                new IllegalStateException("batching emitter is closed"));
+    }
+
+    private void addToBatch(BatchKey key, PendingMessage message) {
+        Batch overflownBatch = null;
+        Batch completedBatch = null;
+        Batch openedBatch = null;
+
+        boolean isClosed;
+        synchronized (openBatches) {
+            isClosed = closed;
+            if (!isClosed) {
+                var batch = openBatches.get(key);
+                // a message that does not fit into the open batch anymore gets added to a new one
+                if (batch != null && batch.bytes + message.message().payload().length > config.maxBytes()) {
+                    openBatches.remove(key);
+                    overflownBatch = batch;
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new Batch();
+                    openBatches.put(key, batch);
+                    openedBatch = batch;
+                }
+
+                batch.add(message);
+                if (batch.messages.size() >= config.maxMessages() || batch.bytes >= config.maxBytes()) {
+                    openBatches.remove(key);
+                    completedBatch = batch;
+                }
+            }
+        }
+
+        if (isClosed) {
+            message.sink().error(closedError());
+            return;
+        }
+
+        if (overflownBatch != null) {
+            emitBatch(key, overflownBatch);
+        }
+        if (completedBatch != null) {
+            emitBatch(key, completedBatch);
+        } else if (openedBatch != null) {
+            var batch = openedBatch;
+            tasks.add(batch.window);
+            batch.window.update(scheduler.schedule(() -> {
+                tasks.remove(batch.window);
+                closeBatch(key, batch);
+            }, config.window().toNanos(), TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private void withdrawFromBatch(BatchKey key, PendingMessage message) {
+        synchronized (openBatches) {
+            var batch = openBatches.get(key);
+            // messages of batches that are already being emitted cannot get withdrawn anymore
+            if (batch == null || !batch.withdraw(message) || !batch.messages.isEmpty()) {
+                return;
+            }
+            openBatches.remove(key);
+            cancelWindow(batch);
+        }
+    }
+
+    private void closeBatch(BatchKey key, Batch batch) {
+        boolean isOpen;
+        synchronized (openBatches) {
+            isOpen = openBatches.remove(key, batch);
+        }
+        // the batch might have already been emitted due to reaching its limits
+        if (isOpen) {
+            emitBatch(key, batch);
+        }
+    }
+
+    private void cancelWindow(Batch batch) {
+        if (tasks.remove(batch.window)) {
+            batch.window.dispose();
+        }
+    }
+
+    private void emitBatch(BatchKey key, Batch batch) {
+        cancelWindow(batch);
+        var messages = batch.messages;
+        batchSizeSummary.record(messages.size());
+
+        Mono<Void> emission;
+        if (messages.size() == 1) {
+            emission = Mono.defer(() -> delegate.emitMessage(messages.getFirst().message()));
+        } else {
+            var batchId = UUID.randomUUID();
+            log.debug("emitting {} messages to node `{}` as batch `{}`", messages.size(), key.nodeRobotId(), batchId);
+            var payload = new HubMessageBatch(messages.stream()
+                    .map(pending -> new HubMessageBatch.Entry(
+                            pending.message().context().messageId(),
+                            pending.message().payload()))
+                    .toList())
+                    .encode();
+
+            emission = Mono.defer(() -> delegate.emitMessage(EmitMessage.builder()
+                    .sendTo(messages.getFirst().message().recipient())
+                    .withPayload(payload)
+                    .inContext(new EmitMessageContext(batchId, key.analysisId(), HubMessageMetadata.BATCH_FRAMING))
+                    .build()));
+        }
+
+        var subscription = Disposables.swap();
+        tasks.add(subscription);
+        subscription.update(emission
+                .doOnCancel(() -> messages.forEach(pending -> pending.sink().error(closedError())))
+                .doFinally(ignored -> tasks.remove(subscription))
+                .subscribe(
+                        null,
+                        err -> messages.forEach(pending -> pending.sink().error(err)),
+                        () -> messages.forEach(pending -> pending.sink().success())));
+    }
+}
@@ -0,0 +1,47 @@
+package de.privateaim.node_message_broker.message.emit;
+
+/**
+ * Configuration options for transferring large messages in multiple chunks.
+ *
+ * @param thresholdBytes    number of minimum payload bytes above which a message gets transferred in chunks
+ * @param chunkSizeBytes    number of maximum payload bytes of a single chunk
+ * @param maxInFlightChunks number of maximum chunks of a single message that are emitted concurrently
+ */
+public record HubMessageChunkConfig(int thresholdBytes, int chunkSizeBytes, int maxInFlightChunks) {
+    public static final class Builder {
+        private int thresholdBytes = 8 * 1024 * 1024;
+        private int chunkSizeBytes = 1024 * 1024;
+        private int maxInFlightChunks = 4;
+
+        public Builder withThresholdBytes(int thresholdBytes) {
+            this.thresholdBytes = thresholdBytes;
+            return this;
+        }
+
+        public Builder withChunkSizeBytes(int chunkSizeBytes) {
+            this.chunkSizeBytes = chunkSizeBytes;
+            return this;
+        }
+
+        public Builder withMaxInFlightChunks(int maxInFlightChunks) {
+            this.maxInFlightChunks = maxInFlightChunks;
+            return this;
+        }
+
+        public HubMessageChunkConfig build() {
+            if (chunkSizeBytes <= 0) {
+                throw new IllegalArgumentException("chunkSizeBytes must be greater than 0");
+            }
+
+            if (thresholdBytes < chunkSizeBytes) {
+                throw new IllegalArgumentException("thresholdBytes must be greater than or equal to chunkSizeBytes");
+            }
+
+            if (maxInFlightChunks <= 0) {
+                throw new IllegalArgumentException("maxInFlightChunks must be greater than 0");
+            }
+
+            return new HubMessageChunkConfig(thresholdBytes, chunkSizeBytes, maxInFlightChunks);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageChunk;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An emitter that splits messages with large payloads into multiple chunks and emits every chunk as a single message
+ * via another emitter. This way, neither the Hub nor any other party has to buffer the whole payload at once. Since
+ * chunks pass the other emitter's middlewares individually, every chunk gets encrypted on its own.
+ * <p>
+ * Only a bounded number of chunks of a message is emitted concurrently. Emitting a message completes once all of its
+ * chunks got emitted. Messages up to the configured threshold are emitted as is.
+ */
+@Slf4j
+public final class HubMessageChunkingEmitter implements MessageEmitter<EmitMessage> {
+
+    public static final String CHUNK_COUNTER_NAME = "message.emit.chunks";
+
+    private final MessageEmitter<EmitMessage> delegate;
+    private final HubMessageChunkConfig config;
+    private final Counter chunkCounter;
+
+    /**
+     * Creates a new {@link HubMessageChunkingEmitter} instance.
+     *
+     * @param delegate      emitter for emitting chunks
+     * @param config        configuration of the chunks
+     * @param meterRegistry registry for recording metrics of the chunks
+     */
+    public HubMessageChunkingEmitter(@NotNull MessageEmitter<EmitMessage> delegate,
+                                     @NotNull HubMessageChunkConfig config,
+                                     @NotNull MeterRegistry meterRegistry) {
+        this.delegate = requireNonNull(delegate, "delegate must not be null");
+        this.config = requireNonNull(config, "config must not be null");
+        this.chunkCounter = Counter.builder(CHUNK_COUNTER_NAME)
+                .description("Number of chunks that large messages got split into")
+                .register(requireNonNull(meterRegistry, "meter registry must not be null"));
+    }
+
+    /**
+     * Emits the given message, split into chunks if its payload exceeds the configured threshold.
+     *
+     * @param message the message that shall get emitted
+     * @return A completed {@link Mono} once the message or all of its chunks got emitted. Might return an
+     * {@link EmitMessageException} as an error state if the message or any of its chunks could not get emitted.
+     */
+    @Override
+    public Mono<Void> emitMessage(EmitMessage message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+        if (message.payload().length <= config.thresholdBytes()) {
+            return delegate.emitMessage(message);
+        }
+
+        var payload = message.payload();
+        var chunkSize = config.chunkSizeBytes();
+        var count = (payload.length + chunkSize - 1) / chunkSize;
+        log.debug("emitting message `{}` to node `{}` in {} chunks", message.context().messageId(),
+                message.recipient().nodeRobotId(), count);
+
+        // chunks are only copied from the payload once they are about to get emitted to keep memory usage bounded
+        return Flux.range(0, count)
+                .flatMap(index -> delegate.emitMessage(chunkOf(message, index, count))
+                        .doOnSuccess(ignored -> chunkCounter.increment()), config.maxInFlightChunks())
+                .then();
+    }
+
+    private EmitMessage chunkOf(EmitMessage message, int index, int count) {
+        var payload = message.payload();
+        var offset = (long) index * config.chunkSizeBytes();
+        var chunk = new HubMessageChunk(
+                message.context().messageId(),
+                index,
+                count,
+                offset,
+                payload.length,
+                message.context().framing(),
+                Arrays.copyOfRange(payload, (int) offset,
+                        (int) Math.min(payload.length, offset + config.chunkSizeBytes())));
+
+        return EmitMessage.builder()
+                .sendTo(message.recipient())
+                .withPayload(chunk.encode())
+                .inContext(new EmitMessageContext(UUID.randomUUID(), message.context().analysisId(),
+                        HubMessageMetadata.CHUNK_FRAMING))
+                .build();
+    }
+}
@@ -0,0 +1,99 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.compression.PayloadCompression;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A middleware that compresses a message's payload. It has to be applied before encrypting the payload.
+ * <p>
+ * Payloads below a size threshold are left as is since compressing them is not worth the effort. The same applies to
+ * payloads that do not get smaller by compressing them. The codec of a compressed payload is recorded in the message's
+ * context so that recipients are able to decompress it.
+ */
+public final class HubMessageCompressionMiddleware implements Function<EmitMessage, Mono<EmitMessage>> {
+
+    private final int thresholdBytes;
+    private final DistributionSummary ratioSummary;
+    private final Timer cpuTimer;
+    private final Counter belowThresholdCounter;
+    private final Counter notBeneficialCounter;
+
+    /**
+     * Creates a new {@link HubMessageCompressionMiddleware} instance.
+     *
+     * @param thresholdBytes number of minimum bytes of a payload for it to get compressed
+     * @param meterRegistry  registry for recording compression metrics
+     */
+    public HubMessageCompressionMiddleware(int thresholdBytes, @NotNull MeterRegistry meterRegistry) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        this.thresholdBytes = thresholdBytes;
+        this.ratioSummary = DistributionSummary.builder(PayloadCompression.RATIO_SUMMARY_NAME)
+                .description("Ratio of the original size of a payload to its compressed size")
+                .tag("codec", PayloadCompression.DEFLATE)
+                .register(meterRegistry);
+        this.cpuTimer = Timer.builder(PayloadCompression.CPU_TIMER_NAME)
+                .description("CPU time spent compressing or decompressing a payload")
+                .tag("codec", PayloadCompression.DEFLATE)
+                .tag("operation", "compress")
+                .register(meterRegistry);
+        this.belowThresholdCounter = Counter.builder(PayloadCompression.SKIPPED_COUNTER_NAME)
+                .description("Number of payloads that were not compressed")
+                .tag("reason", "below-threshold")
+                .register(meterRegistry);
+        this.notBeneficialCounter = Counter.builder(PayloadCompression.SKIPPED_COUNTER_NAME)
+                .description("Number of payloads that were not compressed")
+                .tag("reason", "not-beneficial")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Compresses the payload of the given message if it is worth it.
+     *
+     * @param message the message whose payload shall get compressed
+     * @return The message with its payload being compressed or the message as is. Might return an
+     * {@link EmitMiddlewareException} as an error state if applying this middleware fails.
+     */
+    @Override
+    public Mono<EmitMessage> apply(@NotNull EmitMessage message) {
+        if (message == null) {
+            return Mono.error(new EmitMiddlewareException("message must not be null"));
+        }
+
+        return Mono.fromCallable(() -> {
+            if (message.payload().length < thresholdBytes) {
+                belowThresholdCounter.increment();
+                return message;
+            }
+
+            var start = PayloadCompression.currentThreadCpuTimeNanos();
+            var compressedPayload = PayloadCompression.deflate(message.payload());
+            cpuTimer.record(PayloadCompression.currentThreadCpuTimeNanos() - start, TimeUnit.NANOSECONDS);
+
+            if (compressedPayload.length >= message.payload().length) {
+                notBeneficialCounter.increment();
+                return message;
+            }
+
+            ratioSummary.record((double) message.payload().length / Math.max(1, compressedPayload.length));
+            return new EmitMessage(
+                    message.recipient(),
+                    compressedPayload,
+                    message.context().withCompression(PayloadCompression.DEFLATE));
+        }).onErrorMap(err -> !(err instanceof EmitMiddlewareException),
+                err -> new EmitMiddlewareException("failed to compress message payload", err));
+    }
+}
@@ -1,31 +1,69 @@
 package de.privateaim.node_message_broker.message.emit;
 
+import de.privateaim.node_message_broker.message.MiddlewareChain;
+import de.privateaim.node_message_broker.message.MiddlewareRegistry;
 import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
 import de.privateaim.node_message_broker.message.api.hub.HubMessageRecipient;
 import de.privateaim.node_message_broker.message.api.hub.OutgoingHubMessage;
+import de.privateaim.node_message_broker.message.emit.outbox.MessageOutbox;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.AckWithTimeout;
 import io.socket.client.Socket;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
-import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * An emitter for emitting messages to other nodes via the Hub.
+ * <p>
+ * If an outbox is given, messages that get emitted while the socket is not connected are stored in it instead of
+ * being buffered in memory by the socket. They get emitted once the outbox gets drained via {@link #drainOutbox()}.
+ * <p>
+ * If an acknowledgement config is given, emitting a message only completes once the Hub acknowledged it. Attempts that
+ * are not acknowledged in time or acknowledged negatively get retried with the same message id, so that recipients
+ * can discard repeated deliveries of the message. Otherwise, a message is considered emitted as
+ * soon as it got handed over to the socket.
+ * <p>
+ * Payloads are transported as text by default. With {@link HubMessageTransport#BINARY}, payloads get attached to
+ * messages as binary data instead and must therefore not be encoded as text by any middleware. Messages that get
+ * stored in the outbox are always stored with a Base64 encoded payload and later on emitted as text.
  */
 @Slf4j
 public final class HubMessageEmitter implements MessageEmitter<EmitMessage> {
 
     private final Socket socket;
-    private final List<Function<EmitMessage, Mono<EmitMessage>>> middlewares;
+    private final Timer socketEmitTimer;
+    private final Counter socketEmitErrorCounter;
+    private final MessageOutbox outbox;
+    private final HubMessageAckConfig ackConfig;
+    private final HubMessageTransport transport;
+    private final Timer acknowledgedTimer;
+    private final Timer rejectedTimer;
+    private final Timer timedOutTimer;
+    private final Counter ackRetryCounter;
+    private final MiddlewareRegistry<EmitMessage> middlewares;
 
     // This has to be equal to what the server is listening for on the hub instance.
     private static final String SOCKET_SEND_MESSAGE_IDENTIFIER = "send";
+    private static final String FRAME_PAYLOAD_KEY = "data";
+    private static final String METRICS_DIRECTION = "emit";
+    private static final String SOCKET_EMIT_STAGE_NAME = "socket-emit";
+
+    public static final String ACK_TIMER_NAME = "message.emit.ack";
+    public static final String ACK_RETRY_COUNTER_NAME = "message.emit.ack.retries";
 
     /**
      * Creates a new {@link HubMessageEmitter} instance.
@@ -33,19 +71,110 @@ public final class HubMessageEmitter implements MessageEmitter<EmitMessage> {
      * @param socket {@link Socket} instance for emitting messages
      */
     public HubMessageEmitter(@NotNull Socket socket) {
+        this(socket, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Creates a new {@link HubMessageEmitter} instance.
+     *
+     * @param socket        {@link Socket} instance for emitting messages
+     * @param meterRegistry registry for recording metrics of the emitting stages
+     */
+    public HubMessageEmitter(@NotNull Socket socket, @NotNull MeterRegistry meterRegistry) {
+        this(socket, meterRegistry, null);
+    }
+
+    /**
+     * Creates a new {@link HubMessageEmitter} instance.
+     *
+     * @param socket        {@link Socket} instance for emitting messages
+     * @param meterRegistry registry for recording metrics of the emitting stages
+     * @param outbox        outbox for storing messages while the socket is not connected, may be {@code null}
+     */
+    public HubMessageEmitter(@NotNull Socket socket, @NotNull MeterRegistry meterRegistry, MessageOutbox outbox) {
+        this(socket, meterRegistry, outbox, null);
+    }
+
+    /**
+     * Creates a new {@link HubMessageEmitter} instance.
+     *
+     * @param socket        {@link Socket} instance for emitting messages
+     * @param meterRegistry registry for recording metrics of the emitting stages
+     * @param outbox        outbox for storing messages while the socket is not connected, may be {@code null}
+     * @param ackConfig     configuration for awaiting acknowledgements of the Hub, may be {@code null} for not awaiting
+     *                      any acknowledgements
+     */
+    public HubMessageEmitter(@NotNull Socket socket, @NotNull MeterRegistry meterRegistry, MessageOutbox outbox,
+                             HubMessageAckConfig ackConfig) {
+        this(socket, meterRegistry, outbox, ackConfig, HubMessageTransport.TEXT);
+    }
+
+    /**
+     * Creates a new {@link HubMessageEmitter} instance.
+     *
+     * @param socket        {@link Socket} instance for emitting messages
+     * @param meterRegistry registry for recording metrics of the emitting stages
+     * @param outbox        outbox for storing messages while the socket is not connected, may be {@code null}
+     * @param ackConfig     configuration for awaiting acknowledgements of the Hub, may be {@code null} for not awaiting
+     *                      any acknowledgements
+     * @param transport     way of transporting payloads of messages emitted via {@link #emitMessage(EmitMessage)}
+     */
+    public HubMessageEmitter(@NotNull Socket socket, @NotNull MeterRegistry meterRegistry, MessageOutbox outbox,
+                             HubMessageAckConfig ackConfig, @NotNull HubMessageTransport transport) {
         this.socket = requireNonNull(socket, "socket must not be null");
-        middlewares = new ArrayList<>();
+        this.outbox = outbox;
+        this.ackConfig = ackConfig;
+        this.transport = requireNonNull(transport, "transport must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+        this.middlewares = new MiddlewareRegistry<>(METRICS_DIRECTION, meterRegistry);
+        this.socketEmitTimer = Timer.builder(MiddlewareChain.STAGE_TIMER_NAME)
+                .description("Time spent applying a middleware to a message")
+                .tag("direction", METRICS_DIRECTION)
+                .tag("stage", SOCKET_EMIT_STAGE_NAME)
+                .register(meterRegistry);
+        this.socketEmitErrorCounter = Counter.builder(MiddlewareChain.STAGE_ERROR_COUNTER_NAME)
+                .description("Number of errors encountered while applying a middleware to a message")
+                .tag("direction", METRICS_DIRECTION)
+                .tag("stage", SOCKET_EMIT_STAGE_NAME)
+                .register(meterRegistry);
+        this.acknowledgedTimer = ackTimer("acknowledged", meterRegistry);
+        this.rejectedTimer = ackTimer("rejected", meterRegistry);
+        this.timedOutTimer = ackTimer("timeout", meterRegistry);
+        this.ackRetryCounter = Counter.builder(ACK_RETRY_COUNTER_NAME)
+                .description("Number of retried emits due to missing or negative acknowledgements of the Hub")
+                .register(meterRegistry);
+    }
+
+    private static Timer ackTimer(String outcome, MeterRegistry meterRegistry) {
+        return Timer.builder(ACK_TIMER_NAME)
+                .description("Time between emitting a message and the Hub acknowledging it")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 
     /**
      * Registers a middleware. Registered middlewares are invoked in order before emitting a message via
-     * {@link #emitMessage(EmitMessage)}.
+     * {@link #emitMessage(EmitMessage)}. Metrics of the middleware are tagged with a stage name derived from its class.
      *
      * @param messageEmitterMiddleware the middleware
+     * @throws IllegalStateException If a message got emitted already.
      */
     public void registerMiddleware(@NotNull Function<EmitMessage, Mono<EmitMessage>> messageEmitterMiddleware) {
-        middlewares.add(
-                requireNonNull(messageEmitterMiddleware, "middleware must not be null"));
+        middlewares.register(messageEmitterMiddleware);
+    }
+
+    /**
+     * Registers a middleware. Registered middlewares are invoked in order before emitting a message via
+     * {@link #emitMessage(EmitMessage)}.
+     *
+     * @param stageName                name of the stage used for tagging metrics of the middleware
+     * @param messageEmitterMiddleware the middleware
+     * @throws IllegalStateException If a message got emitted already.
+     */
+    public void registerMiddleware(@NotNull String stageName,
+                                   @NotNull Function<EmitMessage, Mono<EmitMessage>> messageEmitterMiddleware) {
+        middlewares.register(stageName, messageEmitterMiddleware);
     }
 
     /**
@@ -59,30 +188,150 @@ public final class HubMessageEmitter implements MessageEmitter<EmitMessage> {
     public Mono<Void> emitMessage(EmitMessage message) {
         log.info("emitting message `{}` to node `{}`", message.context().messageId(), message.recipient().nodeRobotId());
 
-        return generateMiddlewareStack()
+        return middlewares.chain()
                 .apply(message)
                 .onErrorMap(err ->
                         new EmitMessageException("failed to apply middlewares before emitting message", err))
-                .map(preprocessedMessage -> new OutgoingHubMessage(
-                        List.of(new HubMessageRecipient("robot", preprocessedMessage.recipient().nodeRobotId())),
-                        new String(preprocessedMessage.payload()),
-                        new HubMessageMetadata(
-                                preprocessedMessage.context().messageId(),
-                                preprocessedMessage.context().analysisId())))
-                .map((msg) -> socket.emit(SOCKET_SEND_MESSAGE_IDENTIFIER, new JSONObject(msg)))
+                .flatMap(preprocessedMessage -> {
+                    var binary = transport == HubMessageTransport.BINARY;
+                    var hubMessage = new OutgoingHubMessage(
+                            List.of(new HubMessageRecipient("robot", preprocessedMessage.recipient().nodeRobotId())),
+                            binary ? "" : new String(preprocessedMessage.payload()),
+                            new HubMessageMetadata(
+                                    preprocessedMessage.context().messageId(),
+                                    preprocessedMessage.context().analysisId(),
+                                    null,
+                                    preprocessedMessage.context().framing(),
+                                    preprocessedMessage.context().compression()));
+                    if (!binary) {
+                        return emitHubMessage(hubMessage);
+                    }
+
+                    // byte arrays are sent as binary attachments by socket.io
+                    var frame = new JSONObject(hubMessage).put(FRAME_PAYLOAD_KEY, preprocessedMessage.payload());
+                    return emitHubFrame(frame, hubMessage);
+                })
+                .onErrorMap(err -> !(err instanceof EmitMessageException),
+                        err -> new EmitMessageException("an unexpected error occurred", err));
+    }
+
+    /**
+     * Emits a message that is already in the Hub's format via the underlying socket. The message gets stored in the
+     * outbox instead if there is one and the socket is not connected.
+     *
+     * @param message the message that shall get emitted
+     * @return A completed {@link Mono}. Might return an {@link EmitMessageException} as an error state if the message
+     * could not get emitted.
+     */
+    Mono<Void> emitHubMessage(OutgoingHubMessage message) {
+        return Mono.defer(() -> emitHubFrame(new JSONObject(message), message));
+    }
+
+    private Mono<Void> emitHubFrame(JSONObject frame, OutgoingHubMessage message) {
+        return Mono.defer(() -> {
+                    if (outbox != null && !socket.connected()) {
+                        log.info("storing message `{}` in outbox since the socket is not connected",
+                                message.metadata().messageId());
+                        return outbox.store(toTextFrame(frame).toString(), orderingKeyOf(message));
+                    }
+                    return emitFrame(frame);
+                })
                 .onErrorMap(err -> !(err instanceof EmitMessageException),
-                        err -> new EmitMessageException("an unexpected error occurred", err))
-                .then(Mono.empty());
-    }
-
-    // TODO: do this in the register function - improves performance since the chain does not have to be built every time
-    //       it's invoked
-    private Function<EmitMessage, Mono<EmitMessage>> generateMiddlewareStack() {
-        // function composition for middlewares with in-between unwrapping of result values in a reactive way.
-        return middlewares.stream()
-                .reduce(
-                        Mono::just,
-                        (curr, next) ->
-                                (msg) -> curr.apply(msg).flatMap(next));
+                        err -> new EmitMessageException("an unexpected error occurred", err));
+    }
+
+    // Messages of the same analysis to the same recipients have to arrive in the order they got emitted in.
+    private static String orderingKeyOf(OutgoingHubMessage message) {
+        return message.metadata().analysisId() + "/" + message.recipient().stream()
+                .map(HubMessageRecipient::nodeRobotId)
+                .collect(Collectors.joining(","));
+    }
+
+    private static JSONObject toTextFrame(JSONObject frame) {
+        if (!(frame.opt(FRAME_PAYLOAD_KEY) instanceof byte[] payload)) {
+            return frame;
+        }
+        return new JSONObject(frame, JSONObject.getNames(frame))
+                .put(FRAME_PAYLOAD_KEY, Base64.getEncoder().encodeToString(payload));
+    }
+
+    /**
+     * Emits all messages stored in the outbox as long as the socket is connected. Does nothing if there is no outbox.
+     *
+     * @return The number of messages that got emitted.
+     */
+    public Mono<Long> drainOutbox() {
+        if (outbox == null) {
+            return Mono.just(0L);
+        }
+
+        return outbox.drain(frame -> Mono.defer(() -> socket.connected()
+                ? emitFrame(new JSONObject(frame))
+                : Mono.error(new IllegalStateException("socket is not connected"))));
+    }
+
+    private Mono<Void> emitFrame(JSONObject frame) {
+        if (ackConfig == null) {
+            return Mono.fromRunnable(() -> recordSocketEmit(() -> socket.emit(SOCKET_SEND_MESSAGE_IDENTIFIER, frame)));
+        }
+
+        return Mono.defer(() -> {
+                    var sample = Timer.start();
+                    // unlike a plain acknowledgement, socket.io forgets about this one once it timed out, so that
+                    // neither a late acknowledgement nor the still buffered message itself outlives the attempt
+                    return Mono.<Void>create(sink -> recordSocketEmit(() ->
+                                    socket.emit(SOCKET_SEND_MESSAGE_IDENTIFIER, new Object[]{frame},
+                                            new AckWithTimeout(ackConfig.timeout().toMillis()) {
+                                                @Override
+                                                public void onSuccess(Object... args) {
+                                                    var error = getAckError(args);
+                                                    if (error == null) {
+                                                        sink.success();
+                                                    } else {
+                                                        sink.error(new EmitMessageRejectedException(
+                                                                "hub rejected message: " + error));
+                                                    }
+                                                }
+
+                                                @Override
+                                                public void onTimeout() {
+                                                    // each acknowledgement has a timer thread of its own
+                                                    cancelTimer();
+                                                    sink.error(new TimeoutException(
+                                                            "hub did not acknowledge message within "
+                                                                    + ackConfig.timeout()));
+                                                }
+                                            })))
+                            .doOnSuccess(ignored -> sample.stop(acknowledgedTimer))
+                            .doOnError(EmitMessageRejectedException.class, ignored -> sample.stop(rejectedTimer))
+                            .doOnError(TimeoutException.class, ignored -> sample.stop(timedOutTimer));
+                })
+                .retryWhen(Retry.backoff(ackConfig.maxRetries(), ackConfig.retryBackoff())
+                        .filter(err -> err instanceof EmitMessageRejectedException
+                                || err instanceof TimeoutException)
+                        .doBeforeRetry(signal -> {
+                            ackRetryCounter.increment();
+                            log.warn("retrying emit of message after failed acknowledgement (retry {}): {}",
+                                    signal.totalRetries() + 1, signal.failure().toString());
+                        })
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    private void recordSocketEmit(Runnable emit) {
+        try {
+            socketEmitTimer.record(emit);
+        } catch (RuntimeException e) {
+            socketEmitErrorCounter.increment();
+            throw e;
+        }
+    }
+
+    // The Hub acknowledges a message either without any arguments or with an object that carries an error if it
+    // could not accept the message.
+    private static String getAckError(Object[] args) {
+        if (args.length > 0 && args[0] instanceof JSONObject response && response.has("error")) {
+            return String.valueOf(response.get("error"));
+        }
+        return null;
     }
 }
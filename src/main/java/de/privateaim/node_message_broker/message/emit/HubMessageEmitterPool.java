@@ -0,0 +1,73 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An emitter that distributes messages across multiple {@link HubMessageEmitter} instances, each emitting via its own
+ * connection to the Hub.
+ * <p>
+ * Messages are assigned to an emitter by their analysis and recipient. Thus, all messages of an analysis to the same
+ * recipient are emitted via the same connection and keep their order, while messages to other recipients do not have
+ * to wait for them.
+ */
+public final class HubMessageEmitterPool implements MessageEmitter<EmitMessage> {
+
+    private final List<HubMessageEmitter> emitters;
+
+    /**
+     * Creates a new {@link HubMessageEmitterPool} instance.
+     *
+     * @param emitters emitters that messages get distributed across
+     */
+    public HubMessageEmitterPool(@NotNull List<HubMessageEmitter> emitters) {
+        this.emitters = List.copyOf(requireNonNull(emitters, "emitters must not be null"));
+
+        if (this.emitters.isEmpty()) {
+            throw new IllegalArgumentException("emitters must not be empty");
+        }
+    }
+
+    /**
+     * Returns the emitters of the pool.
+     *
+     * @return The emitters in the order of their connection index.
+     */
+    public List<HubMessageEmitter> emitters() {
+        return emitters;
+    }
+
+    /**
+     * Returns the emitter that is assigned to messages of the given analysis and recipient.
+     *
+     * @param analysisId  unique identifier of the analysis
+     * @param nodeRobotId robot id of the recipient, may be {@code null} for messages with multiple recipients
+     * @return The assigned emitter.
+     */
+    HubMessageEmitter emitterFor(String analysisId, String nodeRobotId) {
+        if (emitters.size() == 1) {
+            return emitters.getFirst();
+        }
+        return emitters.get(Math.floorMod(Objects.hash(analysisId, nodeRobotId), emitters.size()));
+    }
+
+    /**
+     * Emits the given message via the emitter that is assigned to its analysis and recipient.
+     *
+     * @param message the message that shall get emitted
+     * @return A completed {@link Mono}. Might return an {@link EmitMessageException} as an error state if the message
+     * could not get emitted.
+     */
+    @Override
+    public Mono<Void> emitMessage(EmitMessage message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+        return emitterFor(message.context().analysisId(), message.recipient().nodeRobotId()).emitMessage(message);
+    }
+}
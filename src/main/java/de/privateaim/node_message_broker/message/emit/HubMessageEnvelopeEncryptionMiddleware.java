@@ -0,0 +1,104 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.common.hub.HubClient;
+import de.privateaim.node_message_broker.message.crypto.MessageCryptoException;
+import de.privateaim.node_message_broker.message.crypto.MessageCryptoService;
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A middleware that encrypts a message for all of its recipients at once before it's sent.
+ * <p>
+ * The payload gets encrypted only once with a random content key. Only the content key gets encrypted for every
+ * recipient. See {@link MessageCryptoService#encryptEnvelope(List, byte[])} for more information.
+ */
+public final class HubMessageEnvelopeEncryptionMiddleware
+        implements Function<EnvelopeEmitMessage, Mono<EnvelopeEmitMessage>> {
+
+    private final ECPrivateKey nodePrivateKey; // this node's ECDH private key
+    private final MessageCryptoService messageCryptoService;
+    private final HubClient hubClient;
+    private final Function<EmitMessageContext, byte[]> kdfKeyingInfoGenerator;
+
+    /**
+     * Constructs a new {@link HubMessageEnvelopeEncryptionMiddleware} instance.
+     *
+     * @param nodePrivateKey         the sender's private key. The key must be an ECDH key.
+     * @param messageCryptoService   service offering cryptographic functionality
+     * @param hubClient              client for communicating with the Hub
+     * @param kdfKeyingInfoGenerator generator for generating additional keying information based on a message's
+     *                               context to derive a symmetric key for every recipient. It has to generate the same
+     *                               information as used by recipients for decrypting the message.
+     *                               See {@link MessageCryptoService#deriveSymmetricKey(ECPrivateKey, ECPublicKey, byte[])}
+     *                               for more information on how to choose appropriate values.
+     */
+    public HubMessageEnvelopeEncryptionMiddleware(
+            @NotNull ECPrivateKey nodePrivateKey,
+            @NotNull MessageCryptoService messageCryptoService,
+            @NotNull HubClient hubClient,
+            @NotNull Function<EmitMessageContext, byte[]> kdfKeyingInfoGenerator) {
+        this.nodePrivateKey = requireNonNull(nodePrivateKey, "node private key must not be null");
+        this.messageCryptoService = requireNonNull(messageCryptoService, "message crypto service must not be null");
+        this.hubClient = requireNonNull(hubClient, "hub client must not be null");
+        this.kdfKeyingInfoGenerator = requireNonNull(kdfKeyingInfoGenerator, "KDF keying info generator must not be null");
+    }
+
+    /**
+     * Encrypts the given message for all of its recipients.
+     * <p>
+     * Encryption of the content key is done by using a derived symmetric key based on parts of the sender's and
+     * recipient's key information. The recipients' key information is obtained from the Hub.
+     *
+     * @param message the message that shall get encrypted
+     * @return The encrypted message. Might return an {@link EmitMiddlewareException} as an error state if applying this
+     * middleware fails.
+     */
+    @Override
+    public Mono<EnvelopeEmitMessage> apply(@NotNull EnvelopeEmitMessage message) {
+        if (message == null) {
+            return Mono.error(new EmitMiddlewareException("outgoing hub message must not be null"));
+        }
+
+        return Flux.fromIterable(message.recipients())
+                .flatMapSequential(recipient -> hubClient.fetchPublicKey(recipient.nodeRobotId()))
+                .collectList()
+                .onErrorMap(err -> new EmitMiddlewareException("failed to retrieve key material", err))
+                .flatMap(publicKeys -> {
+                    var kdfKeyingInfo = kdfKeyingInfoGenerator.apply(message.context());
+                    var symmetricKeys = new ArrayList<Key>(publicKeys.size());
+                    try {
+                        for (var publicKey : publicKeys) {
+                            symmetricKeys.add(messageCryptoService.deriveSymmetricKey(nodePrivateKey, publicKey,
+                                    kdfKeyingInfo));
+                        }
+                        return Mono.just(symmetricKeys);
+                    } catch (InvalidKeyException e) {
+                        return Mono.error(
+                                new EmitMiddlewareException("failed to derive symmetric key for message encryption", e)
+                        );
+                    }
+                })
+                .flatMap(symmetricKeys -> {
+                    try {
+                        return Mono.just(message.withPayload(
+                                messageCryptoService.encryptEnvelope(symmetricKeys, message.payload())));
+                    } catch (InvalidKeyException | MessageCryptoException e) {
+                        return Mono.error(
+                                new EmitMiddlewareException("failed to encrypt message for message encryption", e));
+                    }
+                })
+                .onErrorMap((err) -> !(err instanceof EmitMiddlewareException),
+                        err -> new EmitMiddlewareException("an unexpected error occurred", err));
+    }
+}
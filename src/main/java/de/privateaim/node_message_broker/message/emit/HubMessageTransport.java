@@ -0,0 +1,17 @@
+package de.privateaim.node_message_broker.message.emit;
+
+/**
+ * Ways of transporting the payload of a message via the Hub's socket.
+ */
+public enum HubMessageTransport {
+    /**
+     * The payload is transported as text within the message. It therefore has to be encoded as text beforehand, e.g.
+     * by using Base64.
+     */
+    TEXT,
+
+    /**
+     * The payload is transported as is using a binary attachment of the message.
+     */
+    BINARY
+}
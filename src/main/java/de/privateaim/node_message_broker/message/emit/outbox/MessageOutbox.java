@@ -0,0 +1,43 @@
+package de.privateaim.node_message_broker.message.emit.outbox;
+
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * Durably holds message frames that cannot get emitted right away, e.g. because the connection to the Hub is lost.
+ */
+public interface MessageOutbox {
+
+    /**
+     * Stores a frame for emitting it later on. The frame is not ordered in relation to any other frame.
+     *
+     * @param frame serialized frame of the message as it gets emitted to the Hub
+     * @return A completed {@link Mono} once the frame is stored.
+     */
+    default Mono<Void> store(String frame) {
+        return store(frame, null);
+    }
+
+    /**
+     * Stores a frame for emitting it later on.
+     *
+     * @param frame       serialized frame of the message as it gets emitted to the Hub
+     * @param orderingKey key of the frames that have to be emitted in the order they got stored, e.g. since they are
+     *                    sent to the same recipient. May be {@code null} if the frame is not ordered in relation to any
+     *                    other frame.
+     * @return A completed {@link Mono} once the frame is stored.
+     */
+    Mono<Void> store(String frame, String orderingKey);
+
+    /**
+     * Emits all stored frames that have not expired yet using the given emitter. Frames get removed from the outbox
+     * once they got emitted successfully. Frames that cannot get emitted are kept for a later attempt. Frames with the
+     * same ordering key get emitted one after another in the order they got stored. Once one of them cannot get
+     * emitted, the following ones are kept as well.
+     *
+     * @param emitter emits a single frame
+     * @return The number of frames that got emitted.
+     */
+    Mono<Long> drain(Function<String, Mono<Void>> emitter);
+}
@@ -0,0 +1,42 @@
+package de.privateaim.node_message_broker.message.emit.outbox;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for the outbox holding messages that cannot get emitted right away.
+ *
+ * @param timeToLive       time after which a stored message gets discarded if it could not get emitted until then
+ * @param drainConcurrency number of stored messages that get emitted concurrently once the outbox gets drained
+ */
+public record MessageOutboxConfig(Duration timeToLive, int drainConcurrency) {
+    public static final class Builder {
+        private Duration timeToLive = Duration.ofHours(24);
+        private int drainConcurrency = 8;
+
+        public Builder withTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public Builder withDrainConcurrency(int drainConcurrency) {
+            this.drainConcurrency = drainConcurrency;
+            return this;
+        }
+
+        public MessageOutboxConfig build() {
+            requireNonNull(timeToLive, "timeToLive must not be null");
+
+            if (timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new IllegalArgumentException("timeToLive must be greater than 0");
+            }
+
+            if (drainConcurrency <= 0) {
+                throw new IllegalArgumentException("drainConcurrency must be greater than 0");
+            }
+
+            return new MessageOutboxConfig(timeToLive, drainConcurrency);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package de.privateaim.node_message_broker.message.emit.outbox;
+
+import de.privateaim.node_message_broker.message.emit.outbox.persistence.MessageOutboxEntry;
+import de.privateaim.node_message_broker.message.emit.outbox.persistence.MessageOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An outbox that persists message frames in MongoDB. Frames that are not emitted within their time to live get
+ * discarded, either by MongoDB's TTL monitor or at the latest when draining the outbox.
+ * <p>
+ * The depth of the outbox and the age of its oldest frame are tracked locally so that reading these metrics does not
+ * require a round trip to the database. Both get resynchronized with the database whenever the outbox gets drained.
+ */
+@Slf4j
+public final class MongoMessageOutbox implements MessageOutbox {
+
+    public static final String DEPTH_GAUGE_NAME = "message.outbox.depth";
+    public static final String OLDEST_AGE_GAUGE_NAME = "message.outbox.oldest.age";
+    public static final String FRAMES_COUNTER_NAME = "message.outbox.frames";
+
+    private final MessageOutboxRepository repository;
+    private final MessageOutboxConfig config;
+    private final Clock clock;
+
+    private final AtomicLong depth = new AtomicLong();
+    private final AtomicReference<Instant> oldestCreatedAt = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+    private final Counter storedCounter;
+    private final Counter emittedCounter;
+    private final Counter expiredCounter;
+
+    /**
+     * Creates a new {@link MongoMessageOutbox} instance.
+     *
+     * @param repository    repository for persisting frames
+     * @param config        configuration of the outbox
+     * @param meterRegistry registry for recording metrics of the outbox
+     */
+    public MongoMessageOutbox(@NotNull MessageOutboxRepository repository, @NotNull MessageOutboxConfig config,
+                              @NotNull MeterRegistry meterRegistry) {
+        this(repository, config, meterRegistry, Clock.systemUTC());
+    }
+
+    MongoMessageOutbox(MessageOutboxRepository repository, MessageOutboxConfig config, MeterRegistry meterRegistry,
+                       Clock clock) {
+        this.repository = requireNonNull(repository, "repository must not be null");
+        this.config = requireNonNull(config, "config must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+        this.clock = requireNonNull(clock, "clock must not be null");
+
+        Gauge.builder(DEPTH_GAUGE_NAME, depth, AtomicLong::get)
+                .description("Number of message frames waiting in the outbox")
+                .register(meterRegistry);
+        TimeGauge.builder(OLDEST_AGE_GAUGE_NAME, oldestCreatedAt, TimeUnit.MILLISECONDS, this::ageInMillis)
+                .description("Age of the oldest message frame waiting in the outbox")
+                .register(meterRegistry);
+        storedCounter = framesCounter("stored", meterRegistry);
+        emittedCounter = framesCounter("emitted", meterRegistry);
+        expiredCounter = framesCounter("expired", meterRegistry);
+    }
+
+    private static Counter framesCounter(String outcome, MeterRegistry meterRegistry) {
+        return Counter.builder(FRAMES_COUNTER_NAME)
+                .description("Number of message frames that passed through the outbox")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private double ageInMillis(AtomicReference<Instant> createdAt) {
+        var oldest = createdAt.get();
+        return oldest == null ? 0 : Math.max(0, Duration.between(oldest, clock.instant()).toMillis());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<Void> store(String frame, String orderingKey) {
+        if (frame == null) {
+            return Mono.error(new NullPointerException("frame must not be null"));
+        }
+
+        return Mono.defer(() -> {
+            var now = clock.instant();
+            return repository.save(new MessageOutboxEntry(UUID.randomUUID(), frame, now,
+                            now.plus(config.timeToLive()), orderingKey))
+                    .doOnSuccess(ignored -> {
+                        depth.incrementAndGet();
+                        oldestCreatedAt.compareAndSet(null, now);
+                        storedCounter.increment();
+                    });
+        }).then();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only a single drain runs at a time. Requesting a drain while another one is running, e.g. due to quickly
+     * reconnecting, lets the running one do another pass once it is done.
+     */
+    @Override
+    public Mono<Long> drain(Function<String, Mono<Void>> emitter) {
+        if (emitter == null) {
+            return Mono.error(new NullPointerException("emitter must not be null"));
+        }
+
+        return Mono.defer(() -> {
+            drainRequested.set(true);
+            if (!draining.compareAndSet(false, true)) {
+                return Mono.just(0L);
+            }
+
+            return Mono.defer(() -> {
+                        drainRequested.set(false);
+                        return drainOnce(emitter);
+                    })
+                    .repeat(drainRequested::get)
+                    .reduce(0L, Long::sum)
+                    .doFinally(ignored -> {
+                        draining.set(false);
+                        // a drain might have been requested right after the last pass has been done
+                        if (drainRequested.get()) {
+                            drain(emitter).subscribe();
+                        }
+                    });
+        });
+    }
+
+    private Mono<Long> drainOnce(Function<String, Mono<Void>> emitter) {
+        return repository.deleteAllByExpiresAtBefore(clock.instant())
+                .doOnNext(expired -> {
+                    if (expired > 0) {
+                        log.warn("discarded {} expired message frames from the outbox", expired);
+                        expiredCounter.increment(expired);
+                    }
+                })
+                .thenMany(Flux.defer(() -> {
+                    // frames of a key that failed must not overtake it, they get emitted on the next drain instead
+                    var failedOrderingKeys = ConcurrentHashMap.<String>newKeySet();
+                    // hashing keys into as many groups as get emitted concurrently keeps the frames of a key in order
+                    // while never leaving a group without a subscriber
+                    return repository.findAllByOrderByCreatedAtAsc()
+                            .groupBy(entry -> Math.floorMod(orderingKeyOf(entry).hashCode(),
+                                    config.drainConcurrency()))
+                            .flatMap(group -> group.concatMap(entry -> {
+                                var orderingKey = orderingKeyOf(entry);
+                                if (failedOrderingKeys.contains(orderingKey)) {
+                                    return Mono.empty();
+                                }
+                                return emitEntry(entry, emitter)
+                                        .switchIfEmpty(Mono.fromRunnable(() -> failedOrderingKeys.add(orderingKey)));
+                            }), config.drainConcurrency());
+                }))
+                .count()
+                .flatMap(emitted -> refreshStatistics().thenReturn(emitted))
+                .doOnNext(emitted -> log.info("emitted {} message frames from the outbox", emitted));
+    }
+
+    // Frames without a key are not ordered in relation to any other frame.
+    private static String orderingKeyOf(MessageOutboxEntry entry) {
+        return entry.orderingKey() != null ? entry.orderingKey() : entry.id().toString();
+    }
+
+    private Mono<MessageOutboxEntry> emitEntry(MessageOutboxEntry entry, Function<String, Mono<Void>> emitter) {
+        return Mono.defer(() -> emitter.apply(entry.frame()))
+                .then(Mono.defer(() -> repository.deleteById(entry.id())))
+                .thenReturn(entry)
+                .doOnNext(ignored -> emittedCounter.increment())
+                .onErrorResume(err -> {
+                    log.debug("keeping message frame `{}` in the outbox since it could not get emitted",
+                            entry.id(), err);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Synchronizes the locally tracked depth and age of the oldest frame with the database.
+     *
+     * @return A completed {@link Mono} once the statistics got refreshed.
+     */
+    public Mono<Void> refreshStatistics() {
+        return repository.count()
+                .doOnNext(depth::set)
+                .then(repository.findFirstByOrderByCreatedAtAsc()
+                        .map(MessageOutboxEntry::createdAt)
+                        .doOnSuccess(oldestCreatedAt::set))
+                .then();
+    }
+}
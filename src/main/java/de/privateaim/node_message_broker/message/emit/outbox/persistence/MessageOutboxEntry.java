@@ -0,0 +1,22 @@
+package de.privateaim.node_message_broker.message.emit.outbox.persistence;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Represents a single message frame that is waiting to get emitted to the Hub.
+ *
+ * @param id          unique identifier of the entry
+ * @param frame       serialized frame of the message as it gets emitted to the Hub, already encrypted
+ * @param createdAt   point in time at which the frame got stored
+ * @param expiresAt   point in time after which the frame gets discarded instead of being emitted
+ * @param orderingKey key of the frames that have to be emitted in the order they got stored. Absent if the frame
+ *                    is not ordered in relation to any other frame.
+ */
+public record MessageOutboxEntry(@MongoId UUID id, String frame, @Indexed(name = "createdAt") Instant createdAt,
+                                 @Indexed(name = "expiresAt", expireAfter = "0s") Instant expiresAt,
+                                 String orderingKey) {
+}
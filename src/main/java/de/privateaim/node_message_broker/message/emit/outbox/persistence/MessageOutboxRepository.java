@@ -0,0 +1,21 @@
+package de.privateaim.node_message_broker.message.emit.outbox.persistence;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Repository for managing persisted message frames that are waiting to get emitted.
+ */
+public interface MessageOutboxRepository extends ReactiveMongoRepository<MessageOutboxEntry, UUID> {
+
+    Flux<MessageOutboxEntry> findAllByOrderByCreatedAtAsc();
+
+    Mono<MessageOutboxEntry> findFirstByOrderByCreatedAtAsc();
+
+    Mono<Long> deleteAllByExpiresAtBefore(Instant instant);
+
+}
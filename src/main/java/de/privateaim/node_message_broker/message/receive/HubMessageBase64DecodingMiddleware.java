@@ -0,0 +1,66 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Base64;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A middleware that decodes a message's Base64 encoded payload. Payloads that got transported as binary data are not
+ * encoded and therefore left as is, just like payloads that got decoded from their frame already.
+ */
+public final class HubMessageBase64DecodingMiddleware implements Function<ReceiveMessage, Mono<ReceiveMessage>> {
+
+    private static final Base64.Decoder B64_DECODER = Base64.getDecoder();
+
+    private final Scheduler scheduler;
+
+    /**
+     * Creates a new {@link HubMessageBase64DecodingMiddleware} instance that decodes payloads on the calling thread.
+     */
+    public HubMessageBase64DecodingMiddleware() {
+        this(Schedulers.immediate());
+    }
+
+    /**
+     * Creates a new {@link HubMessageBase64DecodingMiddleware} instance.
+     *
+     * @param scheduler scheduler that payloads get decoded on
+     */
+    public HubMessageBase64DecodingMiddleware(@NotNull Scheduler scheduler) {
+        this.scheduler = requireNonNull(scheduler, "scheduler must not be null");
+    }
+
+    /**
+     * Decodes the payload of the given message.
+     *
+     * @param message the message whose payload shall get decoded
+     * @return The message with its payload being decoded. Might return a {@link ReceiveMiddlewareException} as an
+     * error state if applying this middleware fails.
+     */
+    @Override
+    public Mono<ReceiveMessage> apply(@NotNull ReceiveMessage message) {
+        if (message == null) {
+            return Mono.error(new ReceiveMiddlewareException("message must not be null"));
+        }
+
+        var transport = message.context().transport();
+        if (ReceiveMessageContext.BINARY_TRANSPORT.equals(transport)
+                || ReceiveMessageContext.DECODED_TRANSPORT.equals(transport)) {
+            return Mono.just(message);
+        }
+
+        return Mono.fromCallable(() -> new ReceiveMessage(
+                        message.sender(),
+                        B64_DECODER.decode(message.payload()),
+                        message.context()))
+                .subscribeOn(scheduler)
+                .onErrorMap(IllegalArgumentException.class,
+                        err -> new ReceiveMiddlewareException("failed to decode message payload", err));
+    }
+}
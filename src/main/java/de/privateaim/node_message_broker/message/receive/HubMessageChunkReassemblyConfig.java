@@ -0,0 +1,76 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for reassembling large messages that are transferred in multiple chunks.
+ *
+ * @param spoolDirectory        directory that chunks are written to until all chunks of a message are received
+ * @param timeout               time without receiving any further chunk after which an incomplete message gets
+ *                              discarded
+ * @param maxMessageBytes       number of maximum payload bytes of a reassembled message
+ * @param maxTransfers          number of maximum messages that are reassembled at once
+ * @param maxTransfersPerSender number of maximum messages of a single sender that are reassembled at once
+ */
+public record HubMessageChunkReassemblyConfig(Path spoolDirectory, Duration timeout, int maxMessageBytes,
+                                              int maxTransfers, int maxTransfersPerSender) {
+    public static final class Builder {
+        private Path spoolDirectory;
+        private Duration timeout = Duration.ofMinutes(10);
+        private int maxMessageBytes = 1024 * 1024 * 1024;
+        private int maxTransfers = 64;
+        private int maxTransfersPerSender = 8;
+
+        public Builder withSpoolDirectory(Path spoolDirectory) {
+            this.spoolDirectory = spoolDirectory;
+            return this;
+        }
+
+        public Builder withTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder withMaxMessageBytes(int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+            return this;
+        }
+
+        public Builder withMaxTransfers(int maxTransfers) {
+            this.maxTransfers = maxTransfers;
+            return this;
+        }
+
+        public Builder withMaxTransfersPerSender(int maxTransfersPerSender) {
+            this.maxTransfersPerSender = maxTransfersPerSender;
+            return this;
+        }
+
+        public HubMessageChunkReassemblyConfig build() {
+            requireNonNull(spoolDirectory, "spool directory must not be null");
+            requireNonNull(timeout, "timeout must not be null");
+
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("timeout must be greater than 0");
+            }
+
+            if (maxMessageBytes <= 0) {
+                throw new IllegalArgumentException("maxMessageBytes must be greater than 0");
+            }
+
+            if (maxTransfers <= 0) {
+                throw new IllegalArgumentException("maxTransfers must be greater than 0");
+            }
+
+            if (maxTransfersPerSender <= 0) {
+                throw new IllegalArgumentException("maxTransfersPerSender must be greater than 0");
+            }
+
+            return new HubMessageChunkReassemblyConfig(spoolDirectory, timeout, maxMessageBytes, maxTransfers,
+                    maxTransfersPerSender);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageChunk;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A middleware that reassembles large messages that are transferred in multiple chunks. It has to be applied after
+ * decrypting and decompressing the payload. Messages that are not a chunk are left as is.
+ * <p>
+ * Chunks are written to a file in the spool directory until all chunks of a message are received, so that partially
+ * received messages do not occupy any memory. Chunks may arrive in any order and chunks that are received more than
+ * once are ignored. Since a transfer is independent of the socket connection, chunks that the sender re-emits after a
+ * reconnect, e.g. since the Hub did not acknowledge them, still get added to it. Missing chunks are never requested
+ * from the sender though. Transfers that do not receive any chunk within the configured timeout get discarded, logging
+ * the number of missing chunks, and their message is lost.
+ * <p>
+ * Chunks get validated against the layout of their transfer before anything gets allocated for them. The number of
+ * transfers that are open at once is limited in total and per sender, chunks of further transfers get rejected.
+ * <p>
+ * Applying this middleware to a chunk completes without a value unless the chunk completes its message, in which case
+ * the reassembled message is returned.
+ */
+@Slf4j
+public final class HubMessageChunkReassemblyMiddleware implements Function<ReceiveMessage, Mono<ReceiveMessage>> {
+
+    public static final String TRANSFER_COUNTER_NAME = "message.receive.chunk.transfers";
+    public static final String ACTIVE_TRANSFERS_GAUGE_NAME = "message.receive.chunk.transfers.active";
+
+    private static final String SPOOL_FILE_PREFIX = "transfer-";
+    private static final String SPOOL_FILE_SUFFIX = ".part";
+
+    private record TransferKey(String senderNodeRobotId, String analysisId, UUID transferId) {
+    }
+
+    private static final class Transfer {
+        private final Path file;
+        private final FileChannel channel;
+        private final int count;
+        private final long chunkSize;
+        private final long totalLength;
+        private final String framing;
+        private final BitSet received;
+        private int receivedCount;
+        private Instant lastActivity;
+        private boolean closed;
+
+        private Transfer(Path file, FileChannel channel, HubMessageChunk chunk, long chunkSize, Instant now) {
+            this.file = file;
+            this.channel = channel;
+            this.count = chunk.count();
+            this.chunkSize = chunkSize;
+            this.totalLength = chunk.totalLength();
+            this.framing = chunk.framing();
+            // grows with the chunks actually received instead of the number of chunks claimed by the sender
+            this.received = new BitSet();
+            this.lastActivity = now;
+        }
+
+        private boolean matches(HubMessageChunk chunk, long chunkSize) {
+            return count == chunk.count()
+                    && this.chunkSize == chunkSize
+                    && totalLength == chunk.totalLength()
+                    && Objects.equals(framing, chunk.framing());
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("could not remove spool file `{}`", file, e);
+            }
+        }
+    }
+
+    private final HubMessageChunkReassemblyConfig config;
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final Map<TransferKey, Transfer> transfers = new ConcurrentHashMap<>();
+    private final Object openLock = new Object();
+    private final Counter completedCounter;
+    private final Counter expiredCounter;
+    private final Counter rejectedCounter;
+
+    /**
+     * Creates a new {@link HubMessageChunkReassemblyMiddleware} instance.
+     *
+     * @param config        configuration of the reassembly
+     * @param meterRegistry registry for recording metrics of the reassembly
+     */
+    public HubMessageChunkReassemblyMiddleware(@NotNull HubMessageChunkReassemblyConfig config,
+                                               @NotNull MeterRegistry meterRegistry) {
+        this(config, meterRegistry, Clock.systemUTC(), Schedulers.parallel());
+    }
+
+    HubMessageChunkReassemblyMiddleware(HubMessageChunkReassemblyConfig config, MeterRegistry meterRegistry,
+                                        Clock clock, Scheduler scheduler) {
+        this.config = requireNonNull(config, "config must not be null");
+        this.clock = requireNonNull(clock, "clock must not be null");
+        this.scheduler = requireNonNull(scheduler, "scheduler must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        this.completedCounter = Counter.builder(TRANSFER_COUNTER_NAME)
+                .description("Number of messages transferred in chunks that got reassembled or discarded")
+                .tag("outcome", "completed")
+                .register(meterRegistry);
+        this.expiredCounter = Counter.builder(TRANSFER_COUNTER_NAME)
+                .description("Number of messages transferred in chunks that got reassembled or discarded")
+                .tag("outcome", "expired")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder(TRANSFER_COUNTER_NAME)
+                .description("Number of messages transferred in chunks that got reassembled or discarded")
+                .tag("outcome", "rejected")
+                .register(meterRegistry);
+        Gauge.builder(ACTIVE_TRANSFERS_GAUGE_NAME, transfers, Map::size)
+                .description("Number of messages transferred in chunks that are currently being reassembled")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Removes spool files that are left over from a previous run, e.g. due to a crash. Transfers of these files cannot
+     * be resumed since their state is kept in memory only.
+     *
+     * @throws IOException If the spool directory cannot be created or cleaned up.
+     */
+    public void purgeSpoolDirectory() throws IOException {
+        Files.createDirectories(config.spoolDirectory());
+        try (var leftovers = Files.newDirectoryStream(config.spoolDirectory(),
+                SPOOL_FILE_PREFIX + "*" + SPOOL_FILE_SUFFIX)) {
+            for (var leftover : leftovers) {
+                log.info("removing left over spool file `{}`", leftover);
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    /**
+     * Adds the given chunk to its transfer.
+     *
+     * @param message the message that shall get reassembled if it is a chunk
+     * @return The message as is if it is not a chunk, the reassembled message if the chunk completes its transfer or
+     * an empty {@link Mono} otherwise. Might return a {@link ReceiveMiddlewareException} as an error state if applying
+     * this middleware fails.
+     */
+    @Override
+    public Mono<ReceiveMessage> apply(@NotNull ReceiveMessage message) {
+        if (message == null) {
+            return Mono.error(new ReceiveMiddlewareException("message must not be null"));
+        }
+        if (!HubMessageMetadata.CHUNK_FRAMING.equals(message.context().framing())) {
+            return Mono.just(message);
+        }
+
+        // writing to the spool file is blocking
+        return Mono.fromCallable(() -> addChunk(message))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorMap(err -> !(err instanceof ReceiveMiddlewareException),
+                        err -> new ReceiveMiddlewareException("failed to reassemble chunked message", err));
+    }
+
+    private ReceiveMessage addChunk(ReceiveMessage message) throws ReceiveMiddlewareException, IOException {
+        HubMessageChunk chunk;
+        try {
+            chunk = HubMessageChunk.decode(message.payload());
+        } catch (IllegalArgumentException e) {
+            throw new ReceiveMiddlewareException("cannot decode chunk", e);
+        }
+        if (chunk.totalLength() > config.maxMessageBytes()) {
+            throw new ReceiveMiddlewareException("chunked message of %d bytes exceeds %d bytes"
+                    .formatted(chunk.totalLength(), config.maxMessageBytes()));
+        }
+
+        var chunkSize = chunkSizeOf(chunk);
+
+        var key = new TransferKey(message.sender().nodeRobotId(), message.context().analysisId(), chunk.transferId());
+        var transfer = transferOf(key, chunk, chunkSize);
+
+        synchronized (transfer) {
+            if (transfer.closed) {
+                throw new ReceiveMiddlewareException("transfer of message `%s` got discarded"
+                        .formatted(chunk.transferId()));
+            }
+            if (!transfer.matches(chunk, chunkSize)) {
+                throw new ReceiveMiddlewareException("chunk does not match transfer of message `%s`"
+                        .formatted(chunk.transferId()));
+            }
+
+            transfer.lastActivity = clock.instant();
+            if (transfer.received.get(chunk.index())) {
+                log.debug("ignoring duplicate chunk {} of message `{}`", chunk.index(), chunk.transferId());
+                return null;
+            }
+
+            var data = ByteBuffer.wrap(chunk.data());
+            var position = chunk.offset();
+            while (data.hasRemaining()) {
+                position += transfer.channel.write(data, position);
+            }
+            transfer.received.set(chunk.index());
+            if (++transfer.receivedCount < transfer.count) {
+                return null;
+            }
+
+            // all chunks got written at this point, so the spool file is as large as the validated total length
+            var payload = ByteBuffer.allocate((int) transfer.totalLength);
+            while (payload.hasRemaining()) {
+                if (transfer.channel.read(payload, payload.position()) < 0) {
+                    throw new IOException("spool file `%s` is truncated".formatted(transfer.file));
+                }
+            }
+            transfers.remove(key, transfer);
+            transfer.close();
+            completedCounter.increment();
+            log.debug("reassembled message `{}` from {} chunks", chunk.transferId(), transfer.count);
+
+            return ReceiveMessage.builder()
+                    .sentFrom(message.sender())
+                    .withPayload(payload.array())
+                    .inContext(new ReceiveMessageContext(
+                            chunk.transferId(),
+                            message.context().analysisId(),
+                            null,
+                            transfer.framing,
+                            null))
+                    .build();
+        }
+    }
+
+    // Derives the size of all but the last chunk of a transfer from the given chunk and checks that the chunk fits the
+    // resulting layout, so that the number of chunks claimed by the sender is consistent with the total length.
+    private static long chunkSizeOf(HubMessageChunk chunk) throws ReceiveMiddlewareException {
+        var isLast = chunk.index() == chunk.count() - 1;
+        long chunkSize;
+        if (!isLast) {
+            chunkSize = chunk.data().length;
+        } else if (chunk.index() > 0) {
+            chunkSize = chunk.offset() / chunk.index();
+        } else {
+            chunkSize = chunk.totalLength();
+        }
+
+        var fitsLayout = isLast
+                ? chunk.offset() + chunk.data().length == chunk.totalLength() && chunk.data().length <= chunkSize
+                : chunkSize > 0;
+        var expectedCount = chunkSize == 0 ? 1 : Math.ceilDiv(chunk.totalLength(), chunkSize);
+        if (!fitsLayout || chunk.offset() != chunkSize * chunk.index() || chunk.count() != expectedCount) {
+            throw new ReceiveMiddlewareException("chunk %d of %d does not fit message `%s` of %d bytes"
+                    .formatted(chunk.index(), chunk.count(), chunk.transferId(), chunk.totalLength()));
+        }
+        return chunkSize;
+    }
+
+    private Transfer transferOf(TransferKey key, HubMessageChunk chunk, long chunkSize)
+            throws ReceiveMiddlewareException, IOException {
+        var transfer = transfers.get(key);
+        if (transfer != null) {
+            return transfer;
+        }
+
+        // transfers only get removed outside of this lock, which cannot exceed any limit
+        synchronized (openLock) {
+            transfer = transfers.get(key);
+            if (transfer != null) {
+                return transfer;
+            }
+
+            if (transfers.size() >= config.maxTransfers()) {
+                rejectedCounter.increment();
+                throw new ReceiveMiddlewareException(
+                        "cannot reassemble message `%s` since %d messages are already being reassembled"
+                                .formatted(chunk.transferId(), transfers.size()));
+            }
+            var transfersOfSender = transfers.keySet().stream()
+                    .filter(other -> other.senderNodeRobotId().equals(key.senderNodeRobotId()))
+                    .count();
+            if (transfersOfSender >= config.maxTransfersPerSender()) {
+                rejectedCounter.increment();
+                throw new ReceiveMiddlewareException(
+                        "cannot reassemble message `%s` since %d messages of node `%s` are already being reassembled"
+                                .formatted(chunk.transferId(), transfersOfSender, key.senderNodeRobotId()));
+            }
+
+            var file = Files.createTempFile(config.spoolDirectory(), SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+            var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            transfer = new Transfer(file, channel, chunk, chunkSize, clock.instant());
+            transfers.put(key, transfer);
+            scheduleExpiryCheck(key, transfer, config.timeout());
+            return transfer;
+        }
+    }
+
+    private void scheduleExpiryCheck(TransferKey key, Transfer transfer, Duration delay) {
+        scheduler.schedule(() -> checkExpiry(key, transfer), delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void checkExpiry(TransferKey key, Transfer transfer) {
+        synchronized (transfer) {
+            if (transfer.closed) {
+                return;
+            }
+
+            var idle = Duration.between(transfer.lastActivity, clock.instant());
+            if (idle.compareTo(config.timeout()) < 0) {
+                scheduleExpiryCheck(key, transfer, config.timeout().minus(idle));
+                return;
+            }
+
+            transfers.remove(key, transfer);
+            transfer.close();
+            expiredCounter.increment();
+            log.warn("discarding incomplete message `{}` of node `{}` with {} of {} chunks missing",
+                    key.transferId(), key.senderNodeRobotId(), transfer.count - transfer.receivedCount,
+                    transfer.count);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import de.privateaim.node_message_broker.message.compression.PayloadCompression;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.constraints.NotNull;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A middleware that decompresses a message's payload according to the codec recorded in its context. It has to be
+ * applied after decrypting the payload. Messages without a codec are left as is.
+ */
+public final class HubMessageDecompressionMiddleware implements Function<ReceiveMessage, Mono<ReceiveMessage>> {
+
+    private final int maxDecompressedBytes;
+    private final Timer cpuTimer;
+
+    /**
+     * Creates a new {@link HubMessageDecompressionMiddleware} instance.
+     *
+     * @param maxDecompressedBytes number of maximum bytes of a decompressed payload, protecting against payloads that
+     *                             expand excessively
+     * @param meterRegistry        registry for recording decompression metrics
+     */
+    public HubMessageDecompressionMiddleware(int maxDecompressedBytes, @NotNull MeterRegistry meterRegistry) {
+        if (maxDecompressedBytes <= 0) {
+            throw new IllegalArgumentException("max decompressed bytes must be greater than 0");
+        }
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        this.maxDecompressedBytes = maxDecompressedBytes;
+        this.cpuTimer = Timer.builder(PayloadCompression.CPU_TIMER_NAME)
+                .description("CPU time spent compressing or decompressing a payload")
+                .tag("codec", PayloadCompression.DEFLATE)
+                .tag("operation", "decompress")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Decompresses the payload of the given message if it is compressed.
+     *
+     * @param message the message whose payload shall get decompressed
+     * @return The message with its payload being decompressed. Might return a {@link ReceiveMiddlewareException} as an
+     * error state if applying this middleware fails.
+     */
+    @Override
+    public Mono<ReceiveMessage> apply(@NotNull ReceiveMessage message) {
+        if (message == null) {
+            return Mono.error(new ReceiveMiddlewareException("message must not be null"));
+        }
+
+        var compression = message.context().compression();
+        if (compression == null) {
+            return Mono.just(message);
+        }
+        if (!PayloadCompression.DEFLATE.equals(compression)) {
+            return Mono.error(new ReceiveMiddlewareException(
+                    "unsupported compression codec `%s`".formatted(compression)));
+        }
+
+        try {
+            var start = PayloadCompression.currentThreadCpuTimeNanos();
+            var payload = PayloadCompression.inflate(message.payload(), maxDecompressedBytes);
+            cpuTimer.record(PayloadCompression.currentThreadCpuTimeNanos() - start, TimeUnit.NANOSECONDS);
+
+            return Mono.just(new ReceiveMessage(
+                    message.sender(),
+                    payload,
+                    message.context()
+            ));
+        } catch (DataFormatException e) {
+            return Mono.error(new ReceiveMiddlewareException("failed to decompress message payload", e));
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package de.privateaim.node_message_broker.message.receive;
 
 import de.privateaim.node_message_broker.common.hub.HubClient;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
 import de.privateaim.node_message_broker.message.crypto.MessageCryptoException;
 import de.privateaim.node_message_broker.message.crypto.MessageCryptoService;
 import jakarta.validation.constraints.NotNull;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.util.function.Function;
@@ -22,6 +26,7 @@ public final class HubMessageDecryptionMiddleware implements Function<ReceiveMes
     private final MessageCryptoService messageCryptoService;
     private final HubClient hubClient;
     private final Function<ReceiveMessage, byte[]> kdfKeyingInfoGenerator;
+    private final Scheduler scheduler;
 
     /**
      * Constructs a new {@link HubMessageDecryptionMiddleware} instance.
@@ -39,10 +44,32 @@ public final class HubMessageDecryptionMiddleware implements Function<ReceiveMes
             @NotNull MessageCryptoService messageCryptoService,
             @NotNull HubClient hubClient,
             @NotNull Function<ReceiveMessage, byte[]> kdfKeyingInfoGenerator) {
+        this(nodePrivateKey, messageCryptoService, hubClient, kdfKeyingInfoGenerator, Schedulers.immediate());
+    }
+
+    /**
+     * Constructs a new {@link HubMessageDecryptionMiddleware} instance that derives keys and decrypts messages on the
+     * given scheduler instead of the thread that provides the sender's key information, e.g. an event loop of the
+     * HTTP client.
+     *
+     * @param nodePrivateKey         the receiver's private key. The key must be an ECDH key.
+     * @param messageCryptoService   service offering cryptographic functionality
+     * @param hubClient              client for communicating with the Hub
+     * @param kdfKeyingInfoGenerator generator for generating additional keying information based on a single message to
+     *                               derive a symmetric key for encryption.
+     * @param scheduler              scheduler that keys get derived and messages get decrypted on
+     */
+    public HubMessageDecryptionMiddleware(
+            @NotNull ECPrivateKey nodePrivateKey,
+            @NotNull MessageCryptoService messageCryptoService,
+            @NotNull HubClient hubClient,
+            @NotNull Function<ReceiveMessage, byte[]> kdfKeyingInfoGenerator,
+            @NotNull Scheduler scheduler) {
         this.nodePrivateKey = requireNonNull(nodePrivateKey, "node private key must not be null");
         this.messageCryptoService = requireNonNull(messageCryptoService, "message crypto service must not be null");
         this.hubClient = requireNonNull(hubClient, "hub client must not be null");
         this.kdfKeyingInfoGenerator = requireNonNull(kdfKeyingInfoGenerator, "KDF keying info generator must not be null");
+        this.scheduler = requireNonNull(scheduler, "scheduler must not be null");
     }
 
     /**
@@ -50,6 +77,7 @@ public final class HubMessageDecryptionMiddleware implements Function<ReceiveMes
      * <p>
      * Decryption is done by using a derived symmetric key based on parts of the sender's and recipient's key
      * information. The sender's key information is obtained from the Hub.
+     * Messages that were encrypted for multiple recipients at once are unwrapped from their envelope.
      *
      * @param message the message that shall get decrypted
      * @return The decrypted message. Might return qn {@link ReceiveMiddlewareException} as an error state is applying
@@ -65,6 +93,7 @@ public final class HubMessageDecryptionMiddleware implements Function<ReceiveMes
                         hubClient.fetchPublicKey(message.sender().nodeRobotId()),
                         Mono.just(kdfKeyingInfoGenerator.apply(message)))
                 .onErrorMap(err -> new ReceiveMiddlewareException("failed to retrieve key material", err))
+                .publishOn(scheduler)
                 .flatMap(keyMaterial -> {
                     try {
                         return Mono.just(messageCryptoService.deriveSymmetricKey(nodePrivateKey, keyMaterial.getT1(),
@@ -79,7 +108,7 @@ public final class HubMessageDecryptionMiddleware implements Function<ReceiveMes
                     try {
                         return Mono.just(new ReceiveMessage(
                                 message.sender(),
-                                messageCryptoService.decryptMessage(symmetricKey, message.payload()),
+                                decrypt(symmetricKey, message),
                                 message.context()
                         ));
                     } catch (InvalidKeyException | MessageCryptoException e) {
@@ -90,4 +119,16 @@ public final class HubMessageDecryptionMiddleware implements Function<ReceiveMes
                 .onErrorMap(err -> !(err instanceof ReceiveMiddlewareException),
                         err -> new ReceiveMiddlewareException("an unexpected error occurred", err));
     }
+
+    private byte[] decrypt(Key symmetricKey, ReceiveMessage message) throws InvalidKeyException,
+            MessageCryptoException {
+        var encryption = message.context().encryption();
+        if (encryption == null) {
+            return messageCryptoService.decryptMessage(symmetricKey, message.payload());
+        } else if (encryption.equals(HubMessageMetadata.ENVELOPE_ENCRYPTION)) {
+            return messageCryptoService.decryptEnvelope(symmetricKey, message.payload());
+        } else {
+            throw new MessageCryptoException("unsupported encryption format `%s`".formatted(encryption), null);
+        }
+    }
 }
@@ -0,0 +1,103 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Discards messages that got received before, so that another receiver gets to process each message only once.
+ * <p>
+ * The same message might arrive more than once, e.g. if its sender retries emitting it after its acknowledgement got
+ * lost or if the Hub delivers it via more than one connection. Deliveries of the same message carry the same message
+ * id, which gets remembered per sender for a bounded number of messages and a bounded amount of time. Messages lacking
+ * either of them are passed on as they are. A message that cannot be handed to the other receiver is forgotten again,
+ * so that a later delivery of it is not discarded.
+ */
+@Slf4j
+public final class HubMessageDeduplicator implements MessageReceiver {
+
+    public static final String DUPLICATES_COUNTER_NAME = "message.receive.duplicates";
+
+    private final MessageReceiver delegate;
+    private final Cache<String, Boolean> receivedMessages;
+    private final Counter duplicatesCounter;
+
+    /**
+     * Creates a new {@link HubMessageDeduplicator} instance.
+     *
+     * @param delegate      receiver that processes the messages that were not received before
+     * @param maxEntries    number of maximum message ids that are remembered before older ones get forgotten
+     * @param window        time after which a message id gets forgotten once it got received
+     * @param meterRegistry registry for recording discarded duplicates
+     */
+    public HubMessageDeduplicator(@NotNull MessageReceiver delegate, long maxEntries, @NotNull Duration window,
+                                  @NotNull MeterRegistry meterRegistry) {
+        this.delegate = requireNonNull(delegate, "delegate must not be null");
+        requireNonNull(window, "window must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be greater than 0");
+        }
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window must be greater than 0");
+        }
+
+        this.receivedMessages = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(window)
+                .build();
+        this.duplicatesCounter = Counter.builder(DUPLICATES_COUNTER_NAME)
+                .description("Number of received messages discarded since they got received before")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> processMessage(byte[] message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+        return deduplicate(() -> HubMessageIdentity.of(message), () -> delegate.processMessage(message));
+    }
+
+    @Override
+    public Mono<Void> processMessage(JSONObject frame) {
+        if (frame == null) {
+            return Mono.error(new NullPointerException("frame must not be null"));
+        }
+        return deduplicate(() -> HubMessageIdentity.of(frame), () -> delegate.processMessage(frame));
+    }
+
+    @Override
+    public Mono<Void> processMessage(ReceiveMessage message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+        return deduplicate(() -> HubMessageIdentity.of(message), () -> delegate.processMessage(message));
+    }
+
+    private Mono<Void> deduplicate(Supplier<HubMessageIdentity> identity, Supplier<Mono<Void>> processing) {
+        return Mono.defer(() -> {
+            var key = identity.get().deduplicationKey();
+            if (key == null) {
+                return processing.get();
+            }
+            if (receivedMessages.asMap().putIfAbsent(key, Boolean.TRUE) != null) {
+                log.debug("discarding message `{}` since it got received before", key);
+                duplicatesCounter.increment();
+                return Mono.empty();
+            }
+            return processing.get()
+                    .doOnError(ignored -> receivedMessages.invalidate(key));
+        });
+    }
+}
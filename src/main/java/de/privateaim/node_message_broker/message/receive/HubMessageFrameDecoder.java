@@ -0,0 +1,156 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageSender;
+import de.privateaim.node_message_broker.message.api.hub.IncomingHubMessage;
+import jakarta.validation.constraints.NotNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decodes messages received from the Hub's messenger straight from the frames that socket.io already parsed.
+ * <p>
+ * Unlike serializing a frame back to JSON just to deserialize it again, the fields of the frame are read as they are
+ * and a Base64 encoded payload gets decoded directly from its characters into an array of the exact decoded size. The
+ * characters are read in chunks via a reusable per-thread buffer, so that a payload is never copied as a whole before
+ * being decoded. Payloads that got transported as binary attachments are taken as is.
+ * <p>
+ * Fields are read by the names that {@link IncomingHubMessage} and the records it consists of declare for them, so
+ * that frames get decoded the same way as messages that get deserialized.
+ */
+public final class HubMessageFrameDecoder {
+
+    // Must be a multiple of 4 so that a chunk always holds complete units of Base64 characters.
+    private static final int CHUNK_SIZE_CHARS = 8192;
+    private static final ThreadLocal<char[]> CHUNK_BUFFER = ThreadLocal.withInitial(() -> new char[CHUNK_SIZE_CHARS]);
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        var alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (var i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private HubMessageFrameDecoder() {
+    }
+
+    /**
+     * Decodes a message from the given frame as received from the Hub's messenger. The payload of the resulting message
+     * is already decoded.
+     *
+     * @param frame the frame holding the message
+     * @return The decoded message.
+     * @throws ProcessingReceivedMessageException If the frame does not hold a valid message.
+     */
+    public static ReceiveMessage decode(@NotNull JSONObject frame) throws ProcessingReceivedMessageException {
+        requireNonNull(frame, "frame must not be null");
+
+        try {
+            var sender = frame.getJSONObject(IncomingHubMessage.SENDER_FIELD);
+            var metadata = frame.getJSONObject(IncomingHubMessage.METADATA_FIELD);
+            // the sender's type is not used any further but still required, just like for any other received message
+            sender.getString(HubMessageSender.TYPE_FIELD);
+
+            byte[] payload;
+            String transport;
+            // payloads sent as binary attachments are reconstructed as byte arrays by socket.io
+            if (frame.get(IncomingHubMessage.PAYLOAD_FIELD) instanceof byte[] binaryPayload) {
+                payload = binaryPayload;
+                transport = ReceiveMessageContext.BINARY_TRANSPORT;
+            } else {
+                payload = decodeBase64(frame.getString(IncomingHubMessage.PAYLOAD_FIELD));
+                transport = ReceiveMessageContext.DECODED_TRANSPORT;
+            }
+
+            return ReceiveMessage.builder()
+                    .sentFrom(new ReceiveMessageSender(sender.getString(HubMessageSender.ID_FIELD)))
+                    .withPayload(payload)
+                    .inContext(new ReceiveMessageContext(
+                            UUID.fromString(metadata.getString(HubMessageMetadata.MESSAGE_ID_FIELD)),
+                            metadata.getString(HubMessageMetadata.ANALYSIS_ID_FIELD),
+                            metadata.optString(HubMessageMetadata.ENCRYPTION_FIELD, null),
+                            metadata.optString(HubMessageMetadata.FRAMING_FIELD, null),
+                            metadata.optString(HubMessageMetadata.COMPRESSION_FIELD, null),
+                            transport))
+                    .build();
+        } catch (JSONException | IllegalArgumentException e) {
+            throw new ProcessingReceivedMessageException("cannot parse received message", e);
+        }
+    }
+
+    /**
+     * Decodes the given Base64 encoded data using the basic alphabet, just like {@link java.util.Base64#getDecoder()}.
+     * Padding is optional.
+     *
+     * @param encoded the encoded data
+     * @return The decoded data.
+     * @throws IllegalArgumentException If the data is not valid Base64.
+     */
+    static byte[] decodeBase64(String encoded) {
+        var length = encoded.length();
+        var padding = 0;
+        if (length > 0 && encoded.charAt(length - 1) == '=') {
+            if (length % 4 != 0) {
+                throw new IllegalArgumentException("padded Base64 data must consist of complete units");
+            }
+            padding = encoded.charAt(length - 2) == '=' ? 2 : 1;
+        }
+
+        var dataLength = length - padding;
+        var lastUnitLength = dataLength % 4;
+        if (lastUnitLength == 1) {
+            throw new IllegalArgumentException("last unit of Base64 data does not have enough valid bits");
+        }
+        var completeUnitsLength = dataLength - lastUnitLength;
+        var decoded = new byte[completeUnitsLength / 4 * 3 + Math.max(0, lastUnitLength - 1)];
+
+        var chunk = CHUNK_BUFFER.get();
+        var out = 0;
+        for (var chunkStart = 0; chunkStart < completeUnitsLength; chunkStart += chunk.length) {
+            var chunkLength = Math.min(chunk.length, completeUnitsLength - chunkStart);
+            encoded.getChars(chunkStart, chunkStart + chunkLength, chunk, 0);
+            for (var i = 0; i < chunkLength; i += 4) {
+                // any illegal character turns the bits negative
+                var bits = valueOf(chunk[i]) << 18 | valueOf(chunk[i + 1]) << 12 | valueOf(chunk[i + 2]) << 6
+                        | valueOf(chunk[i + 3]);
+                if (bits < 0) {
+                    throw illegalCharacter(chunkStart + i);
+                }
+                decoded[out++] = (byte) (bits >> 16);
+                decoded[out++] = (byte) (bits >> 8);
+                decoded[out++] = (byte) bits;
+            }
+        }
+
+        if (lastUnitLength > 0) {
+            var bits = valueOf(encoded.charAt(completeUnitsLength)) << 18
+                    | valueOf(encoded.charAt(completeUnitsLength + 1)) << 12;
+            if (lastUnitLength == 3) {
+                bits |= valueOf(encoded.charAt(completeUnitsLength + 2)) << 6;
+            }
+            if (bits < 0) {
+                throw illegalCharacter(completeUnitsLength);
+            }
+            decoded[out++] = (byte) (bits >> 16);
+            if (lastUnitLength == 3) {
+                decoded[out] = (byte) (bits >> 8);
+            }
+        }
+        return decoded;
+    }
+
+    private static int valueOf(char c) {
+        return c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+    }
+
+    private static IllegalArgumentException illegalCharacter(int unitOffset) {
+        return new IllegalArgumentException("illegal Base64 character in unit starting at offset " + unitOffset);
+    }
+}
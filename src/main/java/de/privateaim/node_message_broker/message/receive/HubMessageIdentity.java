@@ -0,0 +1,141 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageSender;
+import de.privateaim.node_message_broker.message.api.hub.IncomingHubMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Identifies a message received from the Hub by its sender, the analysis it belongs to and its message id. Any of them
+ * is {@code null} if the message lacks it, processing such a message is going to fail anyway.
+ *
+ * @param senderId   id of the node robot that sent the message
+ * @param analysisId id of the analysis the message belongs to
+ * @param messageId  id of the message as chosen by its sender
+ */
+@Slf4j
+record HubMessageIdentity(String senderId, String analysisId, String messageId) {
+
+    private static final HubMessageIdentity UNKNOWN = new HubMessageIdentity(null, null, null);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Identifies an already decoded message.
+     *
+     * @param message the message
+     * @return The identity of the message.
+     */
+    static HubMessageIdentity of(ReceiveMessage message) {
+        var context = message.context();
+        return new HubMessageIdentity(
+                message.sender() == null ? null : message.sender().nodeRobotId(),
+                context == null ? null : context.analysisId(),
+                context == null || context.messageId() == null ? null : context.messageId().toString());
+    }
+
+    /**
+     * Identifies a message held by a frame that socket.io already parsed without decoding its payload.
+     *
+     * @param frame the frame holding the message
+     * @return The identity of the message.
+     */
+    static HubMessageIdentity of(JSONObject frame) {
+        var sender = frame.optJSONObject(IncomingHubMessage.SENDER_FIELD);
+        var metadata = frame.optJSONObject(IncomingHubMessage.METADATA_FIELD);
+        return new HubMessageIdentity(
+                sender == null ? null : sender.optString(HubMessageSender.ID_FIELD, null),
+                metadata == null ? null : metadata.optString(HubMessageMetadata.ANALYSIS_ID_FIELD, null),
+                metadata == null ? null : metadata.optString(HubMessageMetadata.MESSAGE_ID_FIELD, null));
+    }
+
+    /**
+     * Identifies an encoded message without deserializing it as a whole.
+     *
+     * @param message the encoded message
+     * @return The identity of the message.
+     */
+    static HubMessageIdentity of(byte[] message) {
+        String senderId = null;
+        String analysisId = null;
+        String messageId = null;
+        try (var parser = JSON_FACTORY.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return UNKNOWN;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case IncomingHubMessage.METADATA_FIELD -> {
+                        var values = readStringFields(parser, HubMessageMetadata.ANALYSIS_ID_FIELD,
+                                HubMessageMetadata.MESSAGE_ID_FIELD);
+                        analysisId = values[0];
+                        messageId = values[1];
+                    }
+                    case IncomingHubMessage.SENDER_FIELD ->
+                            senderId = readStringFields(parser, HubMessageSender.ID_FIELD)[0];
+                    default -> parser.skipChildren();
+                }
+                // the payload does not need to be skipped once everything is known
+                if (senderId != null && analysisId != null && messageId != null) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.debug("cannot identify received message", e);
+        }
+        return new HubMessageIdentity(senderId, analysisId, messageId);
+    }
+
+    /**
+     * Returns the key that messages which have to be processed in order of arrival have in common.
+     *
+     * @return The key or {@code null} if either the analysis or the sender is unknown.
+     */
+    String orderingKey() {
+        return analysisId == null || senderId == null ? null : analysisId + "/" + senderId;
+    }
+
+    /**
+     * Returns the key that all deliveries of the same message have in common.
+     *
+     * @return The key or {@code null} if either the sender or the message id is unknown.
+     */
+    String deduplicationKey() {
+        return senderId == null || messageId == null ? null : senderId + "/" + messageId;
+    }
+
+    private static String[] readStringFields(JsonParser parser, String... names) throws IOException {
+        var values = new String[names.length];
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return values;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var index = indexOf(names, field);
+            if (parser.nextToken() == JsonToken.VALUE_STRING && index >= 0) {
+                values[index] = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (var i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,24 @@
+package de.privateaim.node_message_broker.message.receive;
+
+/**
+ * Ways of handling incoming messages that arrive while the ingestion queue is full.
+ */
+public enum HubMessageIngestionOverflowPolicy {
+    /**
+     * The socket reader is blocked until the queue has room for the message again, but no longer than the configured
+     * timeout, after which the message fails. This slows down all sockets connected to the Hub, since they share a
+     * single event thread, instead of losing messages right away.
+     */
+    BLOCK,
+
+    /**
+     * The oldest queued message is dropped in favor of the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The message is written to the spill directory in the background and gets processed once all messages queued
+     * before it are.
+     */
+    SPILL
+}
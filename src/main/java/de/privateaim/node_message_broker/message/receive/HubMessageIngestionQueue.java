@@ -0,0 +1,673 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A bounded queue that incoming messages pass before they get processed by another receiver.
+ * <p>
+ * Handing a message to this queue completes as soon as the message is queued, so that the socket reader is not held
+ * up by processing it. Queued messages are processed in order of arrival by at most the configured number of workers
+ * at once. Once the queue is full, new messages are handled according to the configured overflow policy. Spilled
+ * messages are written to disk in the background and stay in memory until then, so that neither the socket reader nor
+ * the workers wait for the disk while holding the queue. Failures of processing a queued message are logged since
+ * there is nobody left to report them to.
+ * <p>
+ * If messages are ordered per sender, messages of the same sender within the same analysis are processed strictly one
+ * after another in order of arrival, while messages of different senders are still processed concurrently. Messages
+ * waiting for their sender's previous message are set aside up to a configured number per sender. Once this number is
+ * reached, the overflow policy gets applied to further messages of that sender only, so that a single busy sender
+ * does not take up all memory. If the policy is {@link HubMessageIngestionOverflowPolicy#BLOCK}, the sender's next
+ * message stays at the head of the queue until one of its waiting messages got processed. This holds up the queue
+ * and, once it is full, the socket reader, so that memory is bounded by the capacity plus the maximum number of waiting
+ * messages per sender. The other policies drop or spill such a message instead, so that other senders are not held up.
+ * <p>
+ * Spill files start with a magic number and the version of their layout. Files of a previous run without a matching
+ * header are considered corrupt and get discarded.
+ */
+@Slf4j
+public final class HubMessageIngestionQueue implements MessageReceiver {
+
+    public static final String DEPTH_GAUGE_NAME = "message.receive.queue.depth";
+    public static final String ACTIVE_GAUGE_NAME = "message.receive.queue.active";
+    public static final String WAIT_TIMER_NAME = "message.receive.queue.wait";
+    public static final String DROPPED_COUNTER_NAME = "message.receive.queue.dropped";
+    public static final String SENDERS_GAUGE_NAME = "message.receive.queue.senders";
+    public static final String SENDER_LAG_GAUGE_NAME = "message.receive.queue.sender.lag";
+
+    private static final String SPILL_FILE_PREFIX = "message-";
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+    private static final String SPILL_FILE_IN_PROGRESS_SUFFIX = ".tmp";
+
+    // Starts every spill file.
+    static final int SPILL_FILE_MAGIC = 0x4E4DFF53;
+    static final int SPILL_FILE_VERSION = 2;
+
+    // Marks a spilled message that already got decoded in place of the length of an encoded one.
+    private static final int SPILLED_DECODED_MESSAGE = -1;
+
+    // A message waiting for its turn, either held in memory or possibly spilled to disk.
+    private sealed interface WaitingMessage permits QueuedMessage, SpilledMessage {
+        QueuedMessage take();
+    }
+
+    // Either holds the message itself, encoded, as a parsed frame or already decoded, or refers to the file it got
+    // spilled to. Messages without an ordering key are not ordered in relation to any other message. Messages that
+    // might get spilled are numbered in order of arrival, so that their spill files get recovered in this order.
+    private record QueuedMessage(Instant enqueuedAt, String orderingKey, byte[] message, JSONObject frame,
+                                 ReceiveMessage decodedMessage, Path spillFile, long sequence)
+            implements WaitingMessage {
+
+        private QueuedMessage numbered(long sequence) {
+            return new QueuedMessage(enqueuedAt, orderingKey, message, frame, decodedMessage, spillFile, sequence);
+        }
+
+        @Override
+        public QueuedMessage take() {
+            return this;
+        }
+    }
+
+    // A message that got spilled to disk or is about to be. Until it is written, it can still be taken from memory.
+    private static final class SpilledMessage implements WaitingMessage {
+        private final Instant enqueuedAt;
+        private final String orderingKey;
+        private final Path spillFile;
+        private final AtomicReference<QueuedMessage> unwritten;
+
+        private SpilledMessage(QueuedMessage queuedMessage, Path spillFile) {
+            this(queuedMessage.enqueuedAt(), queuedMessage.orderingKey(), spillFile, queuedMessage);
+        }
+
+        private SpilledMessage(Instant enqueuedAt, String orderingKey, Path spillFile, QueuedMessage unwritten) {
+            this.enqueuedAt = enqueuedAt;
+            this.orderingKey = orderingKey;
+            this.spillFile = spillFile;
+            this.unwritten = new AtomicReference<>(unwritten);
+        }
+
+        // Takes the message from memory if it is not written yet, or refers to its spill file otherwise.
+        @Override
+        public QueuedMessage take() {
+            var queuedMessage = unwritten.getAndSet(null);
+            return queuedMessage != null
+                    ? queuedMessage
+                    : new QueuedMessage(enqueuedAt, orderingKey, null, null, null, spillFile, 0);
+        }
+    }
+
+    private final MessageReceiver delegate;
+    private final HubMessageIngestionQueueConfig config;
+    private final Clock clock;
+    private final Scheduler workerScheduler;
+    private final Scheduler spillScheduler;
+    private final BlockingDeque<QueuedMessage> queue;
+    private final Queue<SpilledMessage> spilled = new ConcurrentLinkedQueue<>();
+    private final Object overflowLock = new Object();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final AtomicLong spillSequence = new AtomicLong();
+    // Messages waiting for the message that is currently being processed for the same ordering key. Keys are only
+    // present while one of their messages is being processed.
+    private final Map<String, Queue<WaitingMessage>> waitingByOrderingKey = new ConcurrentHashMap<>();
+    private final Queue<String> readyOrderingKeys = new ArrayDeque<>();
+    private final Queue<String> completedOrderingKeys = new ConcurrentLinkedQueue<>();
+    private final Timer waitTimer;
+    private final Counter droppedCounter;
+
+    /**
+     * Creates a new {@link HubMessageIngestionQueue} instance.
+     *
+     * @param delegate      receiver that processes the queued messages
+     * @param config        configuration of the queue
+     * @param meterRegistry registry for recording metrics of the queue
+     */
+    public HubMessageIngestionQueue(@NotNull MessageReceiver delegate, @NotNull HubMessageIngestionQueueConfig config,
+                                    @NotNull MeterRegistry meterRegistry) {
+        this(delegate, config, meterRegistry, Clock.systemUTC(), Schedulers.parallel(), Schedulers.boundedElastic());
+    }
+
+    HubMessageIngestionQueue(MessageReceiver delegate, HubMessageIngestionQueueConfig config,
+                             MeterRegistry meterRegistry, Clock clock, Scheduler workerScheduler,
+                             Scheduler spillScheduler) {
+        this.delegate = requireNonNull(delegate, "delegate must not be null");
+        this.config = requireNonNull(config, "config must not be null");
+        this.clock = requireNonNull(clock, "clock must not be null");
+        this.workerScheduler = requireNonNull(workerScheduler, "worker scheduler must not be null");
+        this.spillScheduler = requireNonNull(spillScheduler, "spill scheduler must not be null");
+        requireNonNull(meterRegistry, "meter registry must not be null");
+
+        this.queue = new LinkedBlockingDeque<>(config.capacity());
+        Gauge.builder(DEPTH_GAUGE_NAME, queue, Queue::size)
+                .description("Number of received messages waiting to be processed")
+                .tag("storage", "memory")
+                .register(meterRegistry);
+        Gauge.builder(DEPTH_GAUGE_NAME, spilled, Queue::size)
+                .description("Number of received messages waiting to be processed")
+                .tag("storage", "disk")
+                .register(meterRegistry);
+        Gauge.builder(ACTIVE_GAUGE_NAME, active, AtomicInteger::get)
+                .description("Number of received messages that are currently being processed")
+                .register(meterRegistry);
+        Gauge.builder(SENDERS_GAUGE_NAME, waitingByOrderingKey, Map::size)
+                .description("Number of senders whose messages are currently being processed in order")
+                .register(meterRegistry);
+        Gauge.builder(SENDER_LAG_GAUGE_NAME, waitingByOrderingKey, HubMessageIngestionQueue::maxWaiting)
+                .description("Highest number of received messages of a single sender that wait for the previous one")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder(WAIT_TIMER_NAME)
+                .description("Time received messages spent waiting to be processed")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder(DROPPED_COUNTER_NAME)
+                .description("Number of received messages that got dropped since the queue was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues messages that got spilled to disk during a previous run so that they get processed first. Messages that
+     * were not completely written are removed. Does nothing unless the overflow policy is
+     * {@link HubMessageIngestionOverflowPolicy#SPILL}.
+     *
+     * @throws IOException If the spill directory cannot be created or read.
+     */
+    public void recoverSpilledMessages() throws IOException {
+        if (config.overflowPolicy() != HubMessageIngestionOverflowPolicy.SPILL) {
+            return;
+        }
+
+        Files.createDirectories(config.spillDirectory());
+        try (var leftovers = Files.newDirectoryStream(config.spillDirectory(),
+                SPILL_FILE_PREFIX + "*" + SPILL_FILE_IN_PROGRESS_SUFFIX)) {
+            for (var leftover : leftovers) {
+                log.info("removing incompletely spilled message `{}`", leftover);
+                Files.deleteIfExists(leftover);
+            }
+        }
+
+        var spillFiles = new ArrayList<Path>();
+        try (var leftovers = Files.newDirectoryStream(config.spillDirectory(),
+                SPILL_FILE_PREFIX + "*" + SPILL_FILE_SUFFIX)) {
+            leftovers.forEach(spillFiles::add);
+        }
+        spillFiles.sort(Comparator.comparingLong(HubMessageIngestionQueue::spillSequenceOf));
+
+        var recovered = 0;
+        synchronized (overflowLock) {
+            for (var spillFile : spillFiles) {
+                spillSequence.accumulateAndGet(spillSequenceOf(spillFile), Math::max);
+                String orderingKey;
+                try {
+                    orderingKey = readOrderingKey(spillFile);
+                } catch (IOException e) {
+                    log.warn("discarding corrupt spilled message `{}`: {}", spillFile, e.getMessage());
+                    Files.deleteIfExists(spillFile);
+                    continue;
+                }
+                spilled.add(new SpilledMessage(Files.getLastModifiedTime(spillFile).toInstant(), orderingKey,
+                        spillFile, null));
+                recovered++;
+            }
+        }
+        if (recovered > 0) {
+            log.info("recovered {} messages spilled to disk during a previous run", recovered);
+        }
+        drain();
+    }
+
+    /**
+     * Queues the given message for being processed.
+     *
+     * @param message the message to be processed
+     * @return A completed {@link Mono} once the message is queued. Might return a
+     * {@link ProcessingReceivedMessageException} as an error state if the message cannot be queued.
+     */
+    @Override
+    public Mono<Void> processMessage(byte[] message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+
+        return enqueue(() -> new QueuedMessage(clock.instant(), orderingKeyOf(message), message, null, null, null,
+                0));
+    }
+
+    /**
+     * Queues the given message in the form of a frame that socket.io already parsed for being processed. The frame only
+     * gets decoded once the message gets processed or spilled.
+     *
+     * @param frame the frame holding the message to be processed
+     * @return A completed {@link Mono} once the message is queued. Might return a
+     * {@link ProcessingReceivedMessageException} as an error state if the message cannot be queued.
+     */
+    @Override
+    public Mono<Void> processMessage(JSONObject frame) {
+        if (frame == null) {
+            return Mono.error(new NullPointerException("frame must not be null"));
+        }
+
+        return enqueue(() -> new QueuedMessage(clock.instant(), orderingKeyOf(frame), null, frame, null, null, 0));
+    }
+
+    /**
+     * Queues the given message that already got decoded for being processed.
+     *
+     * @param message the message to be processed
+     * @return A completed {@link Mono} once the message is queued. Might return a
+     * {@link ProcessingReceivedMessageException} as an error state if the message cannot be queued.
+     */
+    @Override
+    public Mono<Void> processMessage(ReceiveMessage message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+
+        return enqueue(() -> new QueuedMessage(clock.instant(), orderingKeyOf(message), null, null, message, null,
+                0));
+    }
+
+    private Mono<Void> enqueue(Supplier<QueuedMessage> queuedMessage) {
+        return Mono.fromCallable(() -> {
+                    offer(queuedMessage.get());
+                    drain();
+                    return true;
+                })
+                .onErrorMap(err -> new ProcessingReceivedMessageException("cannot queue received message", err))
+                .then();
+    }
+
+    private void offer(QueuedMessage queuedMessage) throws InterruptedException, TimeoutException {
+        switch (config.overflowPolicy()) {
+            case BLOCK -> {
+                // the socket reader must not be held up for longer, since all sockets share its thread
+                if (!queue.offerLast(queuedMessage, config.blockTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                    throw new TimeoutException("ingestion queue is still full after %s".formatted(
+                            config.blockTimeout()));
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offerLast(queuedMessage)) {
+                    if (queue.pollFirst() != null) {
+                        droppedCounter.increment();
+                        log.warn("dropped oldest received message since the ingestion queue is full");
+                    }
+                }
+            }
+            case SPILL -> {
+                SpilledMessage spilledMessage = null;
+                synchronized (overflowLock) {
+                    var numberedMessage = queuedMessage.numbered(spillSequence.incrementAndGet());
+                    // messages only stay in memory while none are spilled, so that they are processed in order
+                    if (!spilled.isEmpty() || !queue.offerLast(numberedMessage)) {
+                        spilledMessage = new SpilledMessage(numberedMessage, spillFileOf(numberedMessage));
+                        spilled.add(spilledMessage);
+                    }
+                }
+                if (spilledMessage != null) {
+                    var toBeWritten = spilledMessage;
+                    spillScheduler.schedule(() -> write(toBeWritten));
+                }
+            }
+        }
+    }
+
+    private QueuedMessage poll() {
+        synchronized (overflowLock) {
+            var queuedMessage = queue.pollFirst();
+            if (queuedMessage != null) {
+                return queuedMessage;
+            }
+            var spilledMessage = spilled.poll();
+            return spilledMessage != null ? spilledMessage.take() : null;
+        }
+    }
+
+    // Starts processing queued messages while there are idle workers. Only a single thread drains at a time, any
+    // other thread requesting a drain in the meantime makes it check again.
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        var missed = 1;
+        do {
+            String completedOrderingKey;
+            while ((completedOrderingKey = completedOrderingKeys.poll()) != null) {
+                release(completedOrderingKey);
+            }
+
+            while (active.get() < config.concurrency()) {
+                var queuedMessage = next();
+                if (queuedMessage == null) {
+                    break;
+                }
+                active.incrementAndGet();
+                process(queuedMessage);
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    // Returns the next message that can be processed right away. Messages whose ordering key is busy are set aside.
+    private QueuedMessage next() {
+        var readyOrderingKey = readyOrderingKeys.poll();
+        if (readyOrderingKey != null) {
+            return waitingByOrderingKey.get(readyOrderingKey).poll().take();
+        }
+
+        while (true) {
+            if (isHeldBack(queue.peekFirst())) {
+                return null;
+            }
+
+            var queuedMessage = poll();
+            if (queuedMessage == null || queuedMessage.orderingKey() == null) {
+                return queuedMessage;
+            }
+
+            var waiting = waitingByOrderingKey.get(queuedMessage.orderingKey());
+            if (waiting == null) {
+                waitingByOrderingKey.put(queuedMessage.orderingKey(), new ConcurrentLinkedQueue<>());
+                return queuedMessage;
+            }
+            if (waiting.size() >= config.maxWaitingPerSender()) {
+                overflow(waiting, queuedMessage);
+            } else {
+                waiting.add(queuedMessage);
+            }
+        }
+    }
+
+    // Checks whether a message stays at the head of the queue since its sender already has the maximum number of
+    // messages waiting. This only applies if the overflow policy is BLOCK, under which nobody but the workers takes
+    // messages from the queue, so the head does not change until it gets polled.
+    private boolean isHeldBack(QueuedMessage queuedMessage) {
+        if (config.overflowPolicy() != HubMessageIngestionOverflowPolicy.BLOCK || queuedMessage == null
+                || queuedMessage.orderingKey() == null) {
+            return false;
+        }
+        var waiting = waitingByOrderingKey.get(queuedMessage.orderingKey());
+        return waiting != null && waiting.size() >= config.maxWaitingPerSender();
+    }
+
+    // Applies the overflow policy to a message whose sender already has the maximum number of messages waiting. Such
+    // messages are held back in the queue instead if the policy is BLOCK.
+    private void overflow(Queue<WaitingMessage> waiting, QueuedMessage queuedMessage) {
+        switch (config.overflowPolicy()) {
+            case DROP_OLDEST -> {
+                waiting.poll();
+                droppedCounter.increment();
+                log.warn("dropped oldest waiting message of sender `{}` since too many of its messages wait",
+                        queuedMessage.orderingKey());
+                waiting.add(queuedMessage);
+            }
+            case SPILL -> {
+                if (queuedMessage.spillFile() != null) {
+                    waiting.add(queuedMessage);
+                    return;
+                }
+                var spilledMessage = new SpilledMessage(queuedMessage, spillFileOf(queuedMessage));
+                waiting.add(spilledMessage);
+                spillScheduler.schedule(() -> write(spilledMessage));
+            }
+        }
+    }
+
+    // Hands the ordering key over to its next waiting message, if any.
+    private void release(String orderingKey) {
+        if (waitingByOrderingKey.get(orderingKey).isEmpty()) {
+            waitingByOrderingKey.remove(orderingKey);
+        } else {
+            readyOrderingKeys.add(orderingKey);
+        }
+    }
+
+    private void process(QueuedMessage queuedMessage) {
+        waitTimer.record(Duration.between(queuedMessage.enqueuedAt(), clock.instant()));
+        load(queuedMessage)
+                .flatMap(this::delegate)
+                .subscribeOn(workerScheduler)
+                .doFinally(ignored -> {
+                    if (queuedMessage.orderingKey() != null) {
+                        completedOrderingKeys.add(queuedMessage.orderingKey());
+                    }
+                    active.decrementAndGet();
+                    drain();
+                })
+                .subscribe(null, err -> log.error("failed to process queued message", err));
+    }
+
+    private Mono<Void> delegate(QueuedMessage queuedMessage) {
+        if (queuedMessage.frame() != null) {
+            return delegate.processMessage(queuedMessage.frame());
+        }
+        if (queuedMessage.decodedMessage() != null) {
+            return delegate.processMessage(queuedMessage.decodedMessage());
+        }
+        return delegate.processMessage(queuedMessage.message());
+    }
+
+    private Mono<QueuedMessage> load(QueuedMessage queuedMessage) {
+        if (queuedMessage.spillFile() == null) {
+            return Mono.just(queuedMessage);
+        }
+        return Mono.fromCallable(() -> unspill(queuedMessage))
+                .subscribeOn(spillScheduler);
+    }
+
+    private Path spillFileOf(QueuedMessage queuedMessage) {
+        return config.spillDirectory().resolve(SPILL_FILE_PREFIX + "%020d".formatted(queuedMessage.sequence())
+                + SPILL_FILE_SUFFIX);
+    }
+
+    // Writes a spilled message to disk unless it got taken from memory before. If it cannot be written, it stays in
+    // memory instead.
+    private void write(SpilledMessage spilledMessage) {
+        var queuedMessage = spilledMessage.unwritten.get();
+        if (queuedMessage == null) {
+            return;
+        }
+
+        try {
+            spill(queuedMessage, spilledMessage.spillFile);
+        } catch (IOException e) {
+            log.warn("failed to spill received message to `{}` - keeping it in memory", spilledMessage.spillFile, e);
+            return;
+        }
+        if (!spilledMessage.unwritten.compareAndSet(queuedMessage, null)) {
+            // the message got taken from memory while being written
+            try {
+                Files.deleteIfExists(spilledMessage.spillFile);
+            } catch (IOException e) {
+                log.warn("failed to remove spilled message `{}` that got processed from memory",
+                        spilledMessage.spillFile, e);
+            }
+        }
+    }
+
+    private static void spill(QueuedMessage queuedMessage, Path spillFile) throws IOException {
+        var name = spillFile.getFileName().toString();
+        var inProgressFile = spillFile.resolveSibling(name.substring(0, name.length() - SPILL_FILE_SUFFIX.length())
+                + SPILL_FILE_IN_PROGRESS_SUFFIX);
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(inProgressFile)))) {
+            out.writeInt(SPILL_FILE_MAGIC);
+            out.writeByte(SPILL_FILE_VERSION);
+            out.writeUTF(queuedMessage.orderingKey() == null ? "" : queuedMessage.orderingKey());
+            if (queuedMessage.frame() != null) {
+                // frames get decoded in the background as well, since they are not meant to be stored as they are
+                out.writeInt(SPILLED_DECODED_MESSAGE);
+                writeDecodedMessage(out, decode(queuedMessage.frame()));
+            } else if (queuedMessage.decodedMessage() != null) {
+                out.writeInt(SPILLED_DECODED_MESSAGE);
+                writeDecodedMessage(out, queuedMessage.decodedMessage());
+            } else {
+                out.writeInt(queuedMessage.message().length);
+                out.write(queuedMessage.message());
+            }
+        }
+        // a spill file is only recovered after a restart once it is complete
+        Files.move(inProgressFile, spillFile, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("spilled received message to `{}` since the ingestion queue is full", spillFile);
+    }
+
+    private static QueuedMessage unspill(QueuedMessage queuedMessage) throws IOException {
+        byte[] message = null;
+        ReceiveMessage decodedMessage = null;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(queuedMessage.spillFile())))) {
+            readSpillFileHeader(in);
+            in.readUTF();
+            var messageLength = in.readInt();
+            if (messageLength == SPILLED_DECODED_MESSAGE) {
+                decodedMessage = readDecodedMessage(in);
+            } else {
+                message = in.readNBytes(messageLength);
+            }
+        }
+        Files.deleteIfExists(queuedMessage.spillFile());
+
+        return new QueuedMessage(queuedMessage.enqueuedAt(), queuedMessage.orderingKey(), message, null,
+                decodedMessage, null, 0);
+    }
+
+    private static ReceiveMessage decode(JSONObject frame) throws IOException {
+        try {
+            return HubMessageFrameDecoder.decode(frame);
+        } catch (ProcessingReceivedMessageException e) {
+            throw new IOException("cannot decode message to be spilled", e);
+        }
+    }
+
+    private static void writeDecodedMessage(DataOutputStream out, ReceiveMessage message) throws IOException {
+        var context = message.context();
+        writeString(out, message.sender().nodeRobotId());
+        out.writeLong(context.messageId().getMostSignificantBits());
+        out.writeLong(context.messageId().getLeastSignificantBits());
+        writeString(out, context.analysisId());
+        writeString(out, context.encryption());
+        writeString(out, context.framing());
+        writeString(out, context.compression());
+        writeString(out, context.transport());
+        writeBytes(out, message.payload());
+    }
+
+    private static ReceiveMessage readDecodedMessage(DataInputStream in) throws IOException {
+        var sender = new ReceiveMessageSender(readString(in));
+        var messageId = new UUID(in.readLong(), in.readLong());
+        var context = new ReceiveMessageContext(messageId, readString(in), readString(in), readString(in),
+                readString(in), readString(in));
+        return ReceiveMessage.builder()
+                .sentFrom(sender)
+                .withPayload(readBytes(in))
+                .inContext(context)
+                .build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        return length >= 0 ? in.readNBytes(length) : null;
+    }
+
+    private static void readSpillFileHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != SPILL_FILE_MAGIC) {
+            throw new IOException("missing spill file header");
+        }
+        var version = in.readUnsignedByte();
+        if (version != SPILL_FILE_VERSION) {
+            throw new IOException("unsupported spill file version %d".formatted(version));
+        }
+    }
+
+    private static String readOrderingKey(Path spillFile) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)))) {
+            readSpillFileHeader(in);
+            var orderingKey = in.readUTF();
+            return orderingKey.isEmpty() ? null : orderingKey;
+        }
+    }
+
+    private String orderingKeyOf(ReceiveMessage message) {
+        return config.orderedPerSender() ? HubMessageIdentity.of(message).orderingKey() : null;
+    }
+
+    private String orderingKeyOf(JSONObject frame) {
+        return config.orderedPerSender() ? HubMessageIdentity.of(frame).orderingKey() : null;
+    }
+
+    private String orderingKeyOf(byte[] message) {
+        return config.orderedPerSender() ? HubMessageIdentity.of(message).orderingKey() : null;
+    }
+
+    private static int maxWaiting(Map<String, Queue<WaitingMessage>> waitingByOrderingKey) {
+        return waitingByOrderingKey.values().stream()
+                .mapToInt(Queue::size)
+                .max()
+                .orElse(0);
+    }
+
+    private static long spillSequenceOf(Path spillFile) {
+        var name = spillFile.getFileName().toString();
+        try {
+            return Long.parseLong(name, SPILL_FILE_PREFIX.length(), name.length() - SPILL_FILE_SUFFIX.length(), 10);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for the queue that incoming messages pass before they get processed.
+ *
+ * @param capacity            number of maximum messages that are kept in memory while waiting to be processed
+ * @param concurrency         number of maximum messages that are processed concurrently
+ * @param overflowPolicy      how to handle incoming messages while the queue is full
+ * @param blockTimeout        time to wait for room in the queue before failing an incoming message, only used if the
+ *                            overflow policy is {@link HubMessageIngestionOverflowPolicy#BLOCK}
+ * @param spillDirectory      directory that messages are written to while the queue is full, only required if the
+ *                            overflow policy is {@link HubMessageIngestionOverflowPolicy#SPILL}
+ * @param orderedPerSender    whether messages of the same sender within the same analysis are processed in order
+ * @param maxWaitingPerSender number of maximum messages of a single sender that are set aside while waiting for the
+ *                            sender's previous message to be processed before the overflow policy gets applied to
+ *                            further messages of this sender
+ */
+public record HubMessageIngestionQueueConfig(int capacity, int concurrency,
+                                             HubMessageIngestionOverflowPolicy overflowPolicy, Duration blockTimeout,
+                                             Path spillDirectory, boolean orderedPerSender,
+                                             int maxWaitingPerSender) {
+    public static final class Builder {
+        private int capacity = 1024;
+        private int concurrency = 16;
+        private HubMessageIngestionOverflowPolicy overflowPolicy = HubMessageIngestionOverflowPolicy.SPILL;
+        private Duration blockTimeout = Duration.ofSeconds(1);
+        private Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"), "node-message-broker", "spill");
+        private boolean orderedPerSender = true;
+        private int maxWaitingPerSender = 64;
+
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder withConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public Builder withOverflowPolicy(HubMessageIngestionOverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        public Builder withBlockTimeout(Duration blockTimeout) {
+            this.blockTimeout = blockTimeout;
+            return this;
+        }
+
+        public Builder withSpillDirectory(Path spillDirectory) {
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        public Builder withOrderedPerSender(boolean orderedPerSender) {
+            this.orderedPerSender = orderedPerSender;
+            return this;
+        }
+
+        public Builder withMaxWaitingPerSender(int maxWaitingPerSender) {
+            this.maxWaitingPerSender = maxWaitingPerSender;
+            return this;
+        }
+
+        public HubMessageIngestionQueueConfig build() {
+            requireNonNull(overflowPolicy, "overflow policy must not be null");
+            requireNonNull(blockTimeout, "block timeout must not be null");
+
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be greater than 0");
+            }
+
+            if (concurrency <= 0) {
+                throw new IllegalArgumentException("concurrency must be greater than 0");
+            }
+
+            if (blockTimeout.isNegative() || blockTimeout.isZero()) {
+                throw new IllegalArgumentException("block timeout must be greater than 0");
+            }
+
+            if (maxWaitingPerSender <= 0) {
+                throw new IllegalArgumentException("max waiting per sender must be greater than 0");
+            }
+
+            if (overflowPolicy == HubMessageIngestionOverflowPolicy.SPILL) {
+                requireNonNull(spillDirectory, "spill directory must not be null");
+            }
+
+            return new HubMessageIngestionQueueConfig(capacity, concurrency, overflowPolicy, blockTimeout,
+                    spillDirectory, orderedPerSender, maxWaitingPerSender);
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package de.privateaim.node_message_broker.message.receive;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.privateaim.node_message_broker.message.MiddlewareRegistry;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageBatch;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
 import de.privateaim.node_message_broker.message.api.hub.IncomingHubMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,8 +29,9 @@ import static java.util.Objects.requireNonNull;
 public final class HubMessageReceiver implements MessageReceiver {
 
     private final ObjectMapper jsonMapper;
-    private final List<Function<ReceiveMessage, Mono<ReceiveMessage>>> middlewares;
     private final List<MessageConsumer> consumers;
+    private final MiddlewareRegistry<ReceiveMessage> middlewares;
+    private final Scheduler decodeScheduler;
 
     /**
      * Creates a new {@link HubMessageReceiver} instance.
@@ -30,20 +39,56 @@ public final class HubMessageReceiver implements MessageReceiver {
      * @param jsonMapper for deserializing JSON based messages
      */
     public HubMessageReceiver(@NotNull ObjectMapper jsonMapper) {
+        this(jsonMapper, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Creates a new {@link HubMessageReceiver} instance.
+     *
+     * @param jsonMapper    for deserializing JSON based messages
+     * @param meterRegistry registry for recording metrics of the middleware stages
+     */
+    public HubMessageReceiver(@NotNull ObjectMapper jsonMapper, @NotNull MeterRegistry meterRegistry) {
+        this(jsonMapper, meterRegistry, Schedulers.immediate());
+    }
+
+    /**
+     * Creates a new {@link HubMessageReceiver} instance.
+     *
+     * @param jsonMapper      for deserializing JSON based messages
+     * @param meterRegistry   registry for recording metrics of the middleware stages
+     * @param decodeScheduler scheduler that frames parsed by socket.io get decoded on
+     */
+    public HubMessageReceiver(@NotNull ObjectMapper jsonMapper, @NotNull MeterRegistry meterRegistry,
+                              @NotNull Scheduler decodeScheduler) {
         this.jsonMapper = requireNonNull(jsonMapper, "json mapper must not be null");
-        this.middlewares = new ArrayList<>();
+        this.decodeScheduler = requireNonNull(decodeScheduler, "decode scheduler must not be null");
+        this.middlewares = new MiddlewareRegistry<>("receive",
+                requireNonNull(meterRegistry, "meter registry must not be null"));
         this.consumers = new ArrayList<>();
     }
 
     /**
      * Registers a middleware. Registered middlewares are invoked in order before processing a message via
-     * {@link #processMessage(byte[])}.
+     * {@link #processMessage(byte[])}. Metrics of the middleware are tagged with a stage name derived from its class.
      *
      * @param middleware the middleware
+     * @throws IllegalStateException If a message got processed already.
      */
     public void registerMiddleware(Function<ReceiveMessage, Mono<ReceiveMessage>> middleware) {
-        middlewares.add(
-                requireNonNull(middleware, "middleware must not be null"));
+        middlewares.register(middleware);
+    }
+
+    /**
+     * Registers a middleware. Registered middlewares are invoked in order before processing a message via
+     * {@link #processMessage(byte[])}.
+     *
+     * @param stageName  name of the stage used for tagging metrics of the middleware
+     * @param middleware the middleware
+     * @throws IllegalStateException If a message got processed already.
+     */
+    public void registerMiddleware(String stageName, Function<ReceiveMessage, Mono<ReceiveMessage>> middleware) {
+        middlewares.register(stageName, middleware);
     }
 
     /**
@@ -65,27 +110,74 @@ public final class HubMessageReceiver implements MessageReceiver {
      */
     @Override
     public Mono<Void> processMessage(byte[] message) {
-        var internalMessage = convertIncomingMessageToInternal(message)
-                .flatMap(msg -> generateMiddlewareStack().apply(msg))
-                .cache()
-                .repeat(consumers.size());
-
-        return Flux.zip(
-                        internalMessage,
-                        Flux.fromIterable(consumers))
-                .flatMap(messageAndConsumer ->
-                        messageAndConsumer.getT2()
-                                .consume(messageAndConsumer.getT1())
+        return process(convertIncomingMessageToInternal(message));
+    }
+
+    /**
+     * Attempts to decode the message held by the given frame and forward it to any registered consumers.
+     *
+     * @param frame the frame holding the message to be processed
+     * @return A completed {@link Mono}.
+     */
+    @Override
+    public Mono<Void> processMessage(JSONObject frame) {
+        if (frame == null) {
+            return Mono.error(new NullPointerException("frame must not be null"));
+        }
+        return process(Mono.fromCallable(() -> HubMessageFrameDecoder.decode(frame))
+                .subscribeOn(decodeScheduler));
+    }
+
+    /**
+     * Attempts to process the given message that already got decoded and forward it to any registered consumers.
+     *
+     * @param message the message to be processed
+     * @return A completed {@link Mono}.
+     */
+    @Override
+    public Mono<Void> processMessage(ReceiveMessage message) {
+        if (message == null) {
+            return Mono.error(new NullPointerException("message must not be null"));
+        }
+        return process(Mono.just(message));
+    }
+
+    private Mono<Void> process(Mono<ReceiveMessage> message) {
+        return message
+                .flatMap(middlewares.chain())
+                .flatMapMany(this::splitBatch)
+                .concatMap(internalMessage -> Flux.fromIterable(consumers)
+                        .flatMap(consumer -> consumer
+                                .consume(internalMessage)
                                 .onErrorResume(err -> {
                                     log.error("consumer encountered an error while processing message", err);
                                     return Mono.empty();
-                                }))
+                                })))
                 .onErrorMap(err -> !(err instanceof ProcessingReceivedMessageException),
                         err -> new ProcessingReceivedMessageException("could not process message from hub", err))
                 .doOnError(err -> log.error("message not processable", err))
                 .then(Mono.empty());
     }
 
+    // Splits a message holding a batch of messages into the individual messages so that consumers never see a batch.
+    private Flux<ReceiveMessage> splitBatch(ReceiveMessage message) {
+        if (!HubMessageMetadata.BATCH_FRAMING.equals(message.context().framing())) {
+            return Flux.just(message);
+        }
+
+        return Mono.fromCallable(() -> HubMessageBatch.decode(message.payload()))
+                .onErrorMap(err -> new ProcessingReceivedMessageException("cannot split batch of messages", err))
+                .flatMapIterable(HubMessageBatch::entries)
+                .map(entry -> ReceiveMessage.builder()
+                        .sentFrom(message.sender())
+                        .withPayload(entry.payload())
+                        .inContext(new ReceiveMessageContext(
+                                entry.messageId(),
+                                message.context().analysisId(),
+                                message.context().encryption()))
+                        .build());
+    }
+
     private Mono<ReceiveMessage> convertIncomingMessageToInternal(byte[] message) {
         return Mono.defer(() -> {
                     try {
@@ -99,18 +191,11 @@ public final class HubMessageReceiver implements MessageReceiver {
                         .withPayload(msg.payload().getBytes())
                         .inContext(new ReceiveMessageContext(
                                 msg.metadata().messageId(),
-                                msg.metadata().analysisId()))
+                                msg.metadata().analysisId(),
+                                msg.metadata().encryption(),
+                                msg.metadata().framing(),
+                                msg.metadata().compression(),
+                                null))
                         .build());
     }
-
-    // TODO: do this in the register function - improves performance since the chain does not have to be built every time
-    //       it's invoked
-    private Function<ReceiveMessage, Mono<ReceiveMessage>> generateMiddlewareStack() {
-        // function composition for middlewares with in-between unwrapping of result values in a reactive way.
-        return middlewares.stream()
-                .reduce(
-                        Mono::just,
-                        (curr, next) ->
-                                (msg) -> curr.apply(msg).flatMap(next));
-    }
 }
@@ -1,12 +1,12 @@
 package de.privateaim.node_message_broker.message.receive;
 
 import jakarta.validation.constraints.NotNull;
+import org.json.JSONObject;
 import reactor.core.publisher.Mono;
 
 /**
  * Represents a receiver capable of processing a generic message from other nodes.
  */
-@FunctionalInterface
 public interface MessageReceiver {
 
     /**
@@ -16,4 +16,22 @@ public interface MessageReceiver {
      * @return A completed {@link Mono}.
      */
     Mono<Void> processMessage(@NotNull byte[] message);
+
+    /**
+     * Processes an incoming message in the form of a frame that socket.io already parsed. The frame gets decoded, e.g.
+     * by {@link HubMessageFrameDecoder}, once the message gets processed, so that handing it over does not hold up the
+     * socket reader.
+     *
+     * @param frame the frame holding the message to be processed
+     * @return A completed {@link Mono}.
+     */
+    Mono<Void> processMessage(@NotNull JSONObject frame);
+
+    /**
+     * Processes an incoming message that already got decoded, e.g. by {@link HubMessageFrameDecoder}.
+     *
+     * @param message the message to be processed
+     * @return A completed {@link Mono}.
+     */
+    Mono<Void> processMessage(@NotNull ReceiveMessage message);
 }
@@ -1,15 +1,52 @@
 package de.privateaim.node_message_broker.message.receive;
 
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.compression.PayloadCompression;
+
 import java.util.UUID;
 
 /**
  * Represents meta information of a message that was received.
  *
- * @param messageId  unique identifier of the message
- * @param analysisId unique identifier of the analysis that this message belongs to
+ * @param messageId   unique identifier of the message
+ * @param analysisId  unique identifier of the analysis that this message belongs to
+ * @param encryption  format that the message is encrypted with. Absent if the message is encrypted for a single
+ *                    recipient only.
+ * @param framing     framing of the payload, e.g. {@link HubMessageMetadata#BATCH_FRAMING} if the payload holds
+ *                    multiple messages. Absent if the payload is a single message.
+ * @param compression codec that the payload is compressed with, e.g. {@link PayloadCompression#DEFLATE}. Absent if
+ *                    the payload is not compressed.
+ * @param transport   way the payload got transported, e.g. {@link #BINARY_TRANSPORT} if it got transported as is.
+ *                    Absent if the payload got transported as text and is still encoded.
  */
 public record ReceiveMessageContext(
         UUID messageId,
-        String analysisId
+        String analysisId,
+        String encryption,
+        String framing,
+        String compression,
+        String transport
 ) {
+    /**
+     * Transport of payloads that are attached to a message as binary data instead of being encoded as text.
+     */
+    public static final String BINARY_TRANSPORT = "binary";
+
+    /**
+     * Transport of payloads that got encoded as text but were already decoded from the frame they arrived in.
+     */
+    public static final String DECODED_TRANSPORT = "decoded";
+
+    public ReceiveMessageContext(UUID messageId, String analysisId) {
+        this(messageId, analysisId, null, null, null, null);
+    }
+
+    public ReceiveMessageContext(UUID messageId, String analysisId, String encryption) {
+        this(messageId, analysisId, encryption, null, null, null);
+    }
+
+    public ReceiveMessageContext(UUID messageId, String analysisId, String encryption, String framing,
+                                 String compression) {
+        this(messageId, analysisId, encryption, framing, compression, null);
+    }
 }
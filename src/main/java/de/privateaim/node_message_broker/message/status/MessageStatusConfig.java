@@ -0,0 +1,42 @@
+package de.privateaim.node_message_broker.message.status;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration options for tracking the state of messages that are sent asynchronously.
+ *
+ * @param maxEntries number of maximum message states held in memory before older ones get evicted
+ * @param timeToLive time after which the state of a message gets discarded once it got updated for the last time
+ */
+public record MessageStatusConfig(int maxEntries, Duration timeToLive) {
+    public static final class Builder {
+        private int maxEntries = 10000;
+        private Duration timeToLive = Duration.ofHours(1);
+
+        public Builder withMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder withTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public MessageStatusConfig build() {
+            requireNonNull(timeToLive, "time to live must not be null");
+
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be greater than 0");
+            }
+
+            if (timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new IllegalArgumentException("timeToLive must be greater than 0");
+            }
+
+            return new MessageStatusConfig(maxEntries, timeToLive);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package de.privateaim.node_message_broker.message.status;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
+import de.privateaim.node_message_broker.message.status.persistence.MessageStatusEntry;
+import de.privateaim.node_message_broker.message.status.persistence.MessageStatusRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tracks the state of messages that are sent asynchronously, including the delivery result of every recipient.
+ * <p>
+ * States are held in a bounded in-memory cache. Optionally, they are persisted once a message got accepted and once
+ * sending it finished, so that they can still be looked up after being evicted from memory or after a restart. The
+ * progress of single recipients is held in memory only.
+ */
+@Slf4j
+public final class MessageStatusTracker {
+
+    public static final String TRACKED_GAUGE_NAME = "message.status.tracked";
+
+    private final MessageStatusConfig config;
+    private final MessageStatusRepository repository;
+    private final Clock clock;
+    private final Cache<UUID, MessageStatus> statuses;
+
+    /**
+     * Creates a new {@link MessageStatusTracker} instance.
+     *
+     * @param config        configuration of the tracker
+     * @param repository    repository for persisting message states, may be {@code null} for keeping them in memory
+     *                      only
+     * @param meterRegistry registry for recording metrics of the tracker
+     */
+    public MessageStatusTracker(@NotNull MessageStatusConfig config, MessageStatusRepository repository,
+                                @NotNull MeterRegistry meterRegistry) {
+        this(config, repository, meterRegistry, Clock.systemUTC());
+    }
+
+    MessageStatusTracker(MessageStatusConfig config, MessageStatusRepository repository, MeterRegistry meterRegistry,
+                         Clock clock) {
+        this.config = requireNonNull(config, "config must not be null");
+        this.repository = repository; // optional
+        this.clock = requireNonNull(clock, "clock must not be null");
+        this.statuses = Caffeine.newBuilder()
+                .maximumSize(config.maxEntries())
+                .expireAfterWrite(config.timeToLive())
+                .build();
+
+        Gauge.builder(TRACKED_GAUGE_NAME, statuses, Cache::estimatedSize)
+                .description("Number of message states held in memory")
+                .register(requireNonNull(meterRegistry, "meter registry must not be null"));
+    }
+
+    /**
+     * Starts tracking a message that got accepted for being sent.
+     *
+     * @param messageId  unique identifier of the message
+     * @param analysisId unique identifier of the analysis that the message belongs to
+     * @return The initial state of the message.
+     */
+    public Mono<MessageStatus> accept(@NotNull UUID messageId, @NotNull String analysisId) {
+        if (messageId == null) {
+            return Mono.error(new NullPointerException("message id must not be null"));
+        }
+        if (analysisId == null) {
+            return Mono.error(new NullPointerException("analysis id must not be null"));
+        }
+
+        return Mono.defer(() -> {
+            var status = MessageStatus.builder()
+                    .messageId(messageId)
+                    .analysisId(analysisId)
+                    .state(MessageStatus.State.PENDING)
+                    .build();
+            statuses.put(messageId, status);
+            return persist(status).thenReturn(status);
+        });
+    }
+
+    /**
+     * Records the recipients of a message once they are known. Their delivery result is pending until it gets
+     * recorded via {@link #recordResult(UUID, MessageDeliveryResult)}.
+     *
+     * @param messageId        unique identifier of the message
+     * @param recipientNodeIds node ids of all recipients of the message
+     */
+    public void recordRecipients(@NotNull UUID messageId, @NotNull List<String> recipientNodeIds) {
+        update(messageId, status -> status.toBuilder()
+                .results(recipientNodeIds.stream()
+                        .map(nodeId -> MessageDeliveryResult.builder()
+                                .recipient(nodeId)
+                                .status(MessageDeliveryResult.Status.PENDING)
+                                .build())
+                        .toList())
+                .build());
+    }
+
+    /**
+     * Records the delivery result of a single recipient of a message.
+     *
+     * @param messageId unique identifier of the message
+     * @param result    the delivery result
+     */
+    public void recordResult(@NotNull UUID messageId, @NotNull MessageDeliveryResult result) {
+        update(messageId, status -> {
+            var results = new ArrayList<MessageDeliveryResult>();
+            if (status.results != null) {
+                status.results.stream()
+                        .filter(other -> !other.recipient.equals(result.recipient))
+                        .forEach(results::add);
+            }
+            results.add(result);
+            return status.toBuilder()
+                    .results(List.copyOf(results))
+                    .build();
+        });
+    }
+
+    /**
+     * Marks a message as completed once sending it got attempted for every recipient.
+     *
+     * @param messageId unique identifier of the message
+     * @return A completed {@link Mono} once the state is recorded.
+     */
+    public Mono<Void> complete(@NotNull UUID messageId) {
+        return Mono.fromSupplier(() -> update(messageId, status -> status.toBuilder()
+                        .state(MessageStatus.State.COMPLETED)
+                        .build()))
+                .flatMap(this::persist);
+    }
+
+    /**
+     * Marks a message as failed if it could not get sent to any recipient.
+     *
+     * @param messageId unique identifier of the message
+     * @param reason    reason why the message could not get sent
+     * @return A completed {@link Mono} once the state is recorded.
+     */
+    public Mono<Void> fail(@NotNull UUID messageId, String reason) {
+        return Mono.fromSupplier(() -> update(messageId, status -> status.toBuilder()
+                        .state(MessageStatus.State.FAILED)
+                        .reason(reason)
+                        .build()))
+                .flatMap(this::persist);
+    }
+
+    /**
+     * Looks up the state of a message.
+     *
+     * @param analysisId unique identifier of the analysis that the message belongs to
+     * @param messageId  unique identifier of the message
+     * @return The state of the message or an empty {@link Mono} if it is unknown or does not belong to the analysis.
+     */
+    public Mono<MessageStatus> getStatus(@NotNull String analysisId, @NotNull UUID messageId) {
+        if (analysisId == null) {
+            return Mono.error(new NullPointerException("analysis id must not be null"));
+        }
+        if (messageId == null) {
+            return Mono.error(new NullPointerException("message id must not be null"));
+        }
+
+        return Mono.defer(() -> {
+                    var status = statuses.getIfPresent(messageId);
+                    return status != null || repository == null
+                            ? Mono.justOrEmpty(status)
+                            : repository.findById(messageId).map(MessageStatusTracker::toStatus);
+                })
+                .filter(status -> analysisId.equals(status.analysisId));
+    }
+
+    private MessageStatus update(UUID messageId, UnaryOperator<MessageStatus> updater) {
+        requireNonNull(messageId, "message id must not be null");
+        // states that already got evicted are not updated anymore
+        return statuses.asMap().computeIfPresent(messageId, (ignored, status) -> updater.apply(status));
+    }
+
+    private Mono<Void> persist(MessageStatus status) {
+        if (repository == null) {
+            return Mono.empty();
+        }
+
+        return repository.save(new MessageStatusEntry(status.messageId, status.analysisId, status.state,
+                        status.reason, status.results, clock.instant().plus(config.timeToLive())))
+                .then()
+                .onErrorResume(err -> {
+                    // the state is still available in memory
+                    log.warn("failed to persist state of message `{}`", status.messageId, err);
+                    return Mono.empty();
+                });
+    }
+
+    private static MessageStatus toStatus(MessageStatusEntry entry) {
+        return MessageStatus.builder()
+                .messageId(entry.id())
+                .analysisId(entry.analysisId())
+                .state(entry.state())
+                .reason(entry.reason())
+                .results(entry.results())
+                .build();
+    }
+}
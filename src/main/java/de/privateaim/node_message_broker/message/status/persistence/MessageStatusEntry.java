@@ -0,0 +1,25 @@
+package de.privateaim.node_message_broker.message.status.persistence;
+
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Represents the persisted state of a message that got accepted for being sent asynchronously.
+ *
+ * @param id         unique identifier of the message
+ * @param analysisId unique identifier of the analysis that the message belongs to
+ * @param state      state of the message
+ * @param reason     reason why the message could not get sent. Absent unless sending failed.
+ * @param results    delivery result of every recipient. Absent until the recipients are known.
+ * @param expiresAt  point in time after which the state gets discarded
+ */
+public record MessageStatusEntry(@MongoId UUID id, String analysisId, MessageStatus.State state, String reason,
+                                 List<MessageDeliveryResult> results,
+                                 @Indexed(name = "expiresAt", expireAfter = "0s") Instant expiresAt) {
+}
@@ -0,0 +1,11 @@
+package de.privateaim.node_message_broker.message.status.persistence;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+import java.util.UUID;
+
+/**
+ * Repository for managing persisted states of messages that are sent asynchronously.
+ */
+public interface MessageStatusRepository extends ReactiveMongoRepository<MessageStatusEntry, UUID> {
+}
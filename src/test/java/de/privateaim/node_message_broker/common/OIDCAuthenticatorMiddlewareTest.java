@@ -2,10 +2,11 @@ package de.privateaim.node_message_broker.common;
 
 import com.github.dockerjava.zerodep.shaded.org.apache.hc.core5.http.HttpStatus;
 import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -17,6 +18,7 @@ import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeFunction;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 
 import java.net.URI;
@@ -27,6 +29,7 @@ import java.util.Date;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,9 +38,15 @@ public class OIDCAuthenticatorMiddlewareTest {
     @Mock
     private OIDCAuthenticator authenticator;
 
-    @InjectMocks
+    private SimpleMeterRegistry meterRegistry;
     private OIDCAuthenticatorMiddleware authenticatorMiddleware;
 
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        authenticatorMiddleware = new OIDCAuthenticatorMiddleware(authenticator, 0.8, meterRegistry);
+    }
+
     private OAuth2RefreshToken getSimpleRefreshToken(Instant issuedAt, Instant expiresAt) {
         var refreshTokenValue = Jwts.builder()
                 .subject("test")
@@ -314,4 +323,115 @@ public class OIDCAuthenticatorMiddlewareTest {
         assertEquals(expiredAccessToken.getTokenValue(), getBearerToken(capturedRequests.getFirst()));
         assertEquals(newAccessToken.getTokenValue(), getBearerToken(capturedRequests.getLast()));
     }
+
+    @Test
+    void refreshFractionMustBeWithinLifetime() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OIDCAuthenticatorMiddleware(authenticator, 0, meterRegistry));
+        assertThrows(IllegalArgumentException.class,
+                () -> new OIDCAuthenticatorMiddleware(authenticator, 1.1, meterRegistry));
+    }
+
+    @Test
+    void sharedTokenProviderIsUsedForAllHosts() {
+        var issuedAt = Instant.now();
+        var accessToken = getSimpleAccessToken(issuedAt, issuedAt.plus(Duration.ofHours(1)));
+        var sharedMiddleware = new OIDCAuthenticatorMiddleware(
+                new OIDCTokenProvider("test", authenticator, 0.8, meterRegistry));
+
+        var targetResponse = Mockito.mock(ClientResponse.class);
+        ExchangeFunction targetExchangeFunction = r -> Mono.just(targetResponse);
+
+        doReturn(Mono.just(new OIDCTokenPair(accessToken, Optional.empty()))).when(authenticator).authenticate();
+        doReturn(HttpStatusCode.valueOf(HttpStatus.SC_OK)).when(targetResponse).statusCode();
+
+        for (var host : new String[]{"https://test.host/some-resource", "https://other.host/some-resource"}) {
+            StepVerifier.create(sharedMiddleware.filter(ClientRequest.create(HttpMethod.GET, URI.create(host)).build(),
+                            targetExchangeFunction))
+                    .expectNext(targetResponse)
+                    .verifyComplete();
+        }
+        verify(authenticator, Mockito.times(1)).authenticate();
+    }
+
+    @Test
+    void concurrentRequestsForAHostShareASingleAuthentication() {
+        var issuedAt = Instant.now();
+        var accessToken = getSimpleAccessToken(issuedAt, issuedAt.plus(Duration.ofHours(1)));
+
+        var targetResponse = Mockito.mock(ClientResponse.class);
+        var request = ClientRequest.create(HttpMethod.GET, URI.create("https://test.host/some-resource")).build();
+        ExchangeFunction targetExchangeFunction = r -> Mono.just(targetResponse);
+
+        var pendingAuthentication = Sinks.<OIDCTokenPair>one();
+        doReturn(pendingAuthentication.asMono()).when(authenticator).authenticate();
+        doReturn(HttpStatusCode.valueOf(HttpStatus.SC_OK)).when(targetResponse).statusCode();
+
+        var firstResponse = authenticatorMiddleware.filter(request, targetExchangeFunction).toFuture();
+        var secondResponse = authenticatorMiddleware.filter(request, targetExchangeFunction).toFuture();
+        pendingAuthentication.tryEmitValue(new OIDCTokenPair(accessToken, Optional.empty()));
+
+        assertEquals(targetResponse, firstResponse.join());
+        assertEquals(targetResponse, secondResponse.join());
+        verify(authenticator, Mockito.times(1)).authenticate();
+        assertEquals(2, meterRegistry.get(OIDCTokenProvider.STALL_TIMER_NAME).timer().count());
+        assertEquals(1, meterRegistry.get(OIDCTokenProvider.REFRESH_TIMER_NAME)
+                .tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void accessTokenGetsRefreshedInAdvanceWhileStillInUse() {
+        var issuedAt = Instant.now().minus(Duration.ofMinutes(50));
+        var agingAccessToken = getSimpleAccessToken(issuedAt, issuedAt.plus(Duration.ofHours(1)));
+        var refreshToken = getSimpleRefreshToken(issuedAt, Instant.now().plus(Duration.ofHours(1)));
+        var newAccessToken = getSimpleAccessToken(Instant.now(), Instant.now().plus(Duration.ofHours(1)));
+
+        var targetResponse = Mockito.mock(ClientResponse.class);
+        var request = ClientRequest.create(HttpMethod.GET, URI.create("https://test.host/some-resource")).build();
+        ExchangeFunction targetExchangeFunction = Mockito.mock(ExchangeFunction.class);
+
+        doReturn(Mono.just(new OIDCTokenPair(agingAccessToken, Optional.of(refreshToken))))
+                .when(authenticator).authenticate();
+        doReturn(Mono.just(new OIDCTokenPair(newAccessToken, Optional.empty())))
+                .when(authenticator).refresh(refreshToken);
+        doReturn(HttpStatusCode.valueOf(HttpStatus.SC_OK)).when(targetResponse).statusCode();
+
+        var requestCaptor = ArgumentCaptor.forClass(ClientRequest.class);
+        doReturn(Mono.just(targetResponse)).when(targetExchangeFunction).exchange(requestCaptor.capture());
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(authenticatorMiddleware.filter(request, targetExchangeFunction))
+                    .expectNext(targetResponse)
+                    .verifyComplete();
+        }
+        verify(authenticator, Mockito.times(1)).authenticate();
+        verify(authenticator, Mockito.times(1)).refresh(refreshToken);
+
+        var capturedRequests = requestCaptor.getAllValues();
+        assertEquals(3, capturedRequests.size());
+        // the aging token is still valid and thus used for the request that triggers its refresh
+        assertEquals(agingAccessToken.getTokenValue(), getBearerToken(capturedRequests.get(0)));
+        assertEquals(agingAccessToken.getTokenValue(), getBearerToken(capturedRequests.get(1)));
+        assertEquals(newAccessToken.getTokenValue(), getBearerToken(capturedRequests.get(2)));
+        // only the very first request had to wait for a token
+        assertEquals(1, meterRegistry.get(OIDCTokenProvider.STALL_TIMER_NAME).timer().count());
+    }
+
+    @Test
+    void failedAuthenticationIsSharedWithSubsequentRequestsDuringBackoff() {
+        var targetResponse = Mockito.mock(ClientResponse.class);
+        var request = ClientRequest.create(HttpMethod.GET, URI.create("https://test.host/some-resource")).build();
+        ExchangeFunction targetExchangeFunction = r -> Mono.just(targetResponse);
+
+        doReturn(Mono.error(new IllegalStateException("auth server unavailable"))).when(authenticator).authenticate();
+
+        StepVerifier.create(authenticatorMiddleware.filter(request, targetExchangeFunction))
+                .verifyError(IllegalStateException.class);
+        StepVerifier.create(authenticatorMiddleware.filter(request, targetExchangeFunction))
+                .verifyError(IllegalStateException.class);
+
+        verify(authenticator, Mockito.times(1)).authenticate();
+        assertEquals(1, meterRegistry.get(OIDCTokenProvider.REFRESH_TIMER_NAME)
+                .tag("outcome", "failure").timer().count());
+    }
 }
@@ -0,0 +1,162 @@
+package de.privateaim.node_message_broker.common;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public final class OIDCTokenProviderTest {
+
+    @Mock
+    private OIDCAuthenticator authenticator;
+
+    private OIDCTokenProvider tokenProvider;
+
+    @BeforeEach
+    void setUp() {
+        tokenProvider = new OIDCTokenProvider("test", authenticator, 0.5, new SimpleMeterRegistry());
+    }
+
+    private static OAuth2AccessToken accessToken(String value, Instant issuedAt, Instant expiresAt) {
+        return new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, value, issuedAt, expiresAt);
+    }
+
+    @Test
+    void refreshFractionMustBeWithinLifetime() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OIDCTokenProvider("test", authenticator, -0.5, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void failureBackoffMustNotBeNegative() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OIDCTokenProvider("test", authenticator, 0.5, Duration.ofSeconds(-1),
+                        new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void nextRefreshIsDueAfterConfiguredFractionOfLifetime() {
+        var issuedAt = Instant.now();
+        var accessToken = accessToken("token", issuedAt, issuedAt.plus(Duration.ofHours(1)));
+        doReturn(Mono.just(new OIDCTokenPair(accessToken, Optional.empty()))).when(authenticator).authenticate();
+
+        assertEquals(Instant.MIN, tokenProvider.nextRefreshAt());
+        StepVerifier.create(tokenProvider.getAccessToken())
+                .expectNext(accessToken)
+                .verifyComplete();
+        assertEquals(issuedAt.plus(Duration.ofMinutes(30)), tokenProvider.nextRefreshAt());
+    }
+
+    @Test
+    void refreshedAccessTokenWaitsForRefreshIfCurrentOneIsDue() {
+        var issuedAt = Instant.now().minus(Duration.ofMinutes(40));
+        var agingAccessToken = accessToken("aging", issuedAt, issuedAt.plus(Duration.ofHours(1)));
+        var newAccessToken = accessToken("new", Instant.now(), Instant.now().plus(Duration.ofHours(1)));
+        doReturn(Mono.just(new OIDCTokenPair(agingAccessToken, Optional.empty())),
+                Mono.just(new OIDCTokenPair(newAccessToken, Optional.empty())))
+                .when(authenticator).authenticate();
+
+        StepVerifier.create(tokenProvider.getAccessToken())
+                .expectNext(agingAccessToken)
+                .verifyComplete();
+        StepVerifier.create(tokenProvider.getRefreshedAccessToken())
+                .expectNext(newAccessToken)
+                .verifyComplete();
+        StepVerifier.create(tokenProvider.getRefreshedAccessToken())
+                .expectNext(newAccessToken)
+                .verifyComplete();
+        verify(authenticator, Mockito.times(2)).authenticate();
+    }
+
+    @Test
+    void accessTokenGetsOnlyReplacedIfStillCurrent() {
+        var issuedAt = Instant.now();
+        var rejectedAccessToken = accessToken("rejected", issuedAt, issuedAt.plus(Duration.ofHours(1)));
+        var newAccessToken = accessToken("new", issuedAt, issuedAt.plus(Duration.ofHours(1)));
+        doReturn(Mono.just(new OIDCTokenPair(rejectedAccessToken, Optional.empty())),
+                Mono.just(new OIDCTokenPair(newAccessToken, Optional.empty())))
+                .when(authenticator).authenticate();
+
+        StepVerifier.create(tokenProvider.getAccessToken())
+                .expectNext(rejectedAccessToken)
+                .verifyComplete();
+        StepVerifier.create(tokenProvider.replaceAccessToken(rejectedAccessToken))
+                .expectNext(newAccessToken)
+                .verifyComplete();
+        // a concurrent caller that got rejected with the same token gets the already replaced one
+        StepVerifier.create(tokenProvider.replaceAccessToken(rejectedAccessToken))
+                .expectNext(newAccessToken)
+                .verifyComplete();
+        verify(authenticator, Mockito.times(2)).authenticate();
+    }
+
+    @Test
+    void failedAcquisitionIsNotRepeatedUntilBackoffElapsed() {
+        var clock = new MutableClock(Instant.now());
+        var provider = new OIDCTokenProvider("test", authenticator, 0.5, Duration.ofSeconds(5),
+                new SimpleMeterRegistry(), clock);
+        var accessToken = accessToken("token", clock.instant(), clock.instant().plus(Duration.ofHours(1)));
+        doReturn(Mono.error(new RuntimeException("unavailable")),
+                Mono.just(new OIDCTokenPair(accessToken, Optional.empty())))
+                .when(authenticator).authenticate();
+
+        StepVerifier.create(provider.getAccessToken())
+                .verifyErrorMessage("unavailable");
+        clock.advance(Duration.ofSeconds(4));
+        StepVerifier.create(provider.getAccessToken())
+                .verifyErrorMessage("unavailable");
+        verify(authenticator, Mockito.times(1)).authenticate();
+
+        clock.advance(Duration.ofSeconds(1));
+        StepVerifier.create(provider.getAccessToken())
+                .expectNext(accessToken)
+                .verifyComplete();
+        verify(authenticator, Mockito.times(2)).authenticate();
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package de.privateaim.node_message_broker.common.hub;
 
 import com.github.dockerjava.zerodep.shaded.org.apache.hc.core5.http.HttpStatus;
+import de.privateaim.node_message_broker.common.CacheConfig;
 import de.privateaim.node_message_broker.common.HttpRetryConfig;
 import de.privateaim.node_message_broker.common.hub.api.AnalysisNode;
 import de.privateaim.node_message_broker.common.hub.api.HubResponseContainer;
 import de.privateaim.node_message_broker.common.hub.api.Node;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -18,6 +20,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.testcontainers.shaded.com.fasterxml.jackson.core.JsonProcessingException;
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
 import java.io.ByteArrayOutputStream;
@@ -28,10 +31,13 @@ import java.security.*;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.RSAKeyGenParameterSpec;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class HttpHubClientIT {
 
@@ -125,6 +131,79 @@ public class HttpHubClientIT {
                 assertEquals("/analysis-nodes", URI.create(recordedRequest.getPath()).getPath());
             }
         }
+
+        @Test
+        void burstOfLookupsIsCoalescedIntoASingleRequest() throws JsonProcessingException {
+            var node = new Node("test-node-id", "default", "not-relevant-here", ROBOT_ID);
+            var analysisNodes = List.of(new AnalysisNode("id-1", "test-node-id", node));
+            var mockedHubResponse = new HubResponseContainer<>(analysisNodes);
+
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBodyDelay(200, TimeUnit.MILLISECONDS)
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            StepVerifier.create(Flux.range(0, 100)
+                            .flatMap(i -> httpHubClient.fetchAnalysisNodes(ANALYSIS_ID)))
+                    .expectNextCount(100)
+                    .verifyComplete();
+
+            assertEquals(1, mockWebServer.getRequestCount());
+        }
+
+        @Test
+        void staleAnalysisNodesAreServedWhileBeingRefreshed() throws JsonProcessingException, InterruptedException {
+            var meterRegistry = new SimpleMeterRegistry();
+            var cacheConfig = new CacheConfig.Builder()
+                    .withExpireAfterWrite(Duration.ofMinutes(1))
+                    .withRefreshAfterWrite(Duration.ofMillis(100))
+                    .build();
+            var webClient = WebClient.create(mockWebServer.url("/").toString());
+            var client = new HttpHubClient(webClient, new HttpRetryConfig(MAX_RETRIES, RETRY_DELAY_MILLIS),
+                    new CacheConfig.Builder().build(), cacheConfig, meterRegistry);
+
+            var node = new Node("test-node-id", "default", "not-relevant-here", ROBOT_ID);
+            var otherNode = new Node("other-node-id", "default", "not-relevant-here", "robot-456");
+            var analysisNodes = List.of(new AnalysisNode("id-1", "test-node-id", node));
+            var refreshedAnalysisNodes = List.of(
+                    new AnalysisNode("id-1", "test-node-id", node),
+                    new AnalysisNode("id-2", "other-node-id", otherNode));
+
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(analysisNodes))));
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(refreshedAnalysisNodes))));
+
+            StepVerifier.create(client.fetchAnalysisNodes(ANALYSIS_ID))
+                    .expectNext(analysisNodes)
+                    .verifyComplete();
+
+            Thread.sleep(200);
+
+            // stale entry is served right away while a refresh is triggered in the background
+            StepVerifier.create(client.fetchAnalysisNodes(ANALYSIS_ID))
+                    .expectNext(analysisNodes)
+                    .verifyComplete();
+
+            mockWebServer.takeRequest();
+            assertNotNull(mockWebServer.takeRequest(5, TimeUnit.SECONDS));
+
+            var deadline = System.currentTimeMillis() + 5000;
+            List<AnalysisNode> currentAnalysisNodes;
+            do {
+                currentAnalysisNodes = client.fetchAnalysisNodes(ANALYSIS_ID).block();
+            } while (!refreshedAnalysisNodes.equals(currentAnalysisNodes) && System.currentTimeMillis() < deadline);
+
+            assertEquals(refreshedAnalysisNodes, currentAnalysisNodes);
+            assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "hub.analysis-nodes")
+                    .tag("result", "miss").functionCounter().count());
+            assertTrue(meterRegistry.get("cache.gets").tag("cache", "hub.analysis-nodes")
+                    .tag("result", "hit").functionCounter().count() >= 2);
+            assertTrue(meterRegistry.get("hub.cache.refreshes").tag("cache", "hub.analysis-nodes")
+                    .counter().count() >= 1);
+        }
     }
 
     @Nested
@@ -290,5 +369,131 @@ public class HttpHubClientIT {
                 assertEquals("/nodes", URI.create(recordedRequest.getPath()).getPath());
             }
         }
+
+        @Test
+        void subsequentLookupsAreServedFromCache() throws NoSuchAlgorithmException, IOException,
+                NoSuchProviderException {
+            var securityProvider = new BouncyCastleProvider();
+            Security.addProvider(securityProvider);
+            var ecdhPublicKey = generateECDHPublicKey();
+            var encodedEcdhPublicKey = hexEncoded(convertToPem("PUBLIC KEY", ecdhPublicKey));
+
+            var node = new Node("test-node-id", "default", encodedEcdhPublicKey, ROBOT_ID);
+            var mockedHubResponse = new HubResponseContainer<>(List.of(node));
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            StepVerifier.create(httpHubClient.fetchPublicKey(ROBOT_ID))
+                    .expectNext(ecdhPublicKey)
+                    .verifyComplete();
+            StepVerifier.create(httpHubClient.fetchPublicKey(ROBOT_ID))
+                    .expectNext(ecdhPublicKey)
+                    .verifyComplete();
+
+            assertEquals(1, mockWebServer.getRequestCount());
+        }
+
+        @Test
+        void concurrentLookupsShareASingleRequest() throws NoSuchAlgorithmException, IOException,
+                NoSuchProviderException {
+            var securityProvider = new BouncyCastleProvider();
+            Security.addProvider(securityProvider);
+            var ecdhPublicKey = generateECDHPublicKey();
+            var encodedEcdhPublicKey = hexEncoded(convertToPem("PUBLIC KEY", ecdhPublicKey));
+
+            var node = new Node("test-node-id", "default", encodedEcdhPublicKey, ROBOT_ID);
+            var mockedHubResponse = new HubResponseContainer<>(List.of(node));
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBodyDelay(200, TimeUnit.MILLISECONDS)
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            StepVerifier.create(Flux.merge(
+                            httpHubClient.fetchPublicKey(ROBOT_ID),
+                            httpHubClient.fetchPublicKey(ROBOT_ID),
+                            httpHubClient.fetchPublicKey(ROBOT_ID)))
+                    .expectNext(ecdhPublicKey, ecdhPublicKey, ecdhPublicKey)
+                    .verifyComplete();
+
+            assertEquals(1, mockWebServer.getRequestCount());
+        }
+
+        @Test
+        void failedLookupsAreNotCached() throws NoSuchAlgorithmException, IOException, NoSuchProviderException {
+            var securityProvider = new BouncyCastleProvider();
+            Security.addProvider(securityProvider);
+            var ecdhPublicKey = generateECDHPublicKey();
+            var encodedEcdhPublicKey = hexEncoded(convertToPem("PUBLIC KEY", ecdhPublicKey));
+
+            var node = new Node("test-node-id", "default", encodedEcdhPublicKey, ROBOT_ID);
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(List.of()))));
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(List.of(node)))));
+
+            StepVerifier.create(httpHubClient.fetchPublicKey(ROBOT_ID))
+                    .expectError(NoMatchingNodeFoundException.class)
+                    .verify();
+            StepVerifier.create(httpHubClient.fetchPublicKey(ROBOT_ID))
+                    .expectNext(ecdhPublicKey)
+                    .verifyComplete();
+
+            assertEquals(2, mockWebServer.getRequestCount());
+        }
+
+        @Test
+        void publicKeysOfAnalysisNodesAreServedWithoutFurtherRequest() throws NoSuchAlgorithmException, IOException,
+                NoSuchProviderException {
+            var securityProvider = new BouncyCastleProvider();
+            Security.addProvider(securityProvider);
+            var ecdhPublicKey = generateECDHPublicKey();
+            var encodedEcdhPublicKey = hexEncoded(convertToPem("PUBLIC KEY", ecdhPublicKey));
+
+            var node = new Node("test-node-id", "default", encodedEcdhPublicKey, ROBOT_ID);
+            var analysisNodes = List.of(new AnalysisNode("id-1", "test-node-id", node));
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(analysisNodes))));
+
+            StepVerifier.create(httpHubClient.fetchAnalysisNodes(ANALYSIS_ID))
+                    .expectNext(analysisNodes)
+                    .verifyComplete();
+            StepVerifier.create(httpHubClient.fetchPublicKey(ROBOT_ID))
+                    .expectNext(ecdhPublicKey)
+                    .verifyComplete();
+
+            assertEquals(1, mockWebServer.getRequestCount());
+        }
+
+        @Test
+        void malformedPublicKeysOfAnalysisNodesAreNotServed() throws NoSuchAlgorithmException, IOException,
+                NoSuchProviderException {
+            var securityProvider = new BouncyCastleProvider();
+            Security.addProvider(securityProvider);
+            var ecdhPublicKey = generateECDHPublicKey();
+            var encodedEcdhPublicKey = hexEncoded(convertToPem("PUBLIC KEY", ecdhPublicKey));
+
+            var malformedNode = new Node("test-node-id", "default", "malformed", ROBOT_ID);
+            var analysisNodes = List.of(new AnalysisNode("id-1", "test-node-id", malformedNode));
+            var node = new Node("test-node-id", "default", encodedEcdhPublicKey, ROBOT_ID);
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(analysisNodes))));
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(new HubResponseContainer<>(List.of(node)))));
+
+            StepVerifier.create(httpHubClient.fetchAnalysisNodes(ANALYSIS_ID))
+                    .expectNext(analysisNodes)
+                    .verifyComplete();
+            StepVerifier.create(httpHubClient.fetchPublicKey(ROBOT_ID))
+                    .expectNext(ecdhPublicKey)
+                    .verifyComplete();
+
+            assertEquals(2, mockWebServer.getRequestCount());
+        }
     }
 }
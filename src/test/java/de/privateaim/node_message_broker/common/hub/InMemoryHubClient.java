@@ -0,0 +1,42 @@
+package de.privateaim.node_message_broker.common.hub;
+
+import de.privateaim.node_message_broker.common.hub.api.AnalysisNode;
+import reactor.core.publisher.Mono;
+
+import java.security.interfaces.ECPublicKey;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link HubClient} serving analysis nodes and public keys from memory without contacting any Hub instance.
+ */
+public final class InMemoryHubClient implements HubClient {
+
+    private final Map<String, List<AnalysisNode>> analysisNodes = new ConcurrentHashMap<>();
+    private final Map<String, ECPublicKey> publicKeys = new ConcurrentHashMap<>();
+
+    public InMemoryHubClient withAnalysisNodes(String analysisId, List<AnalysisNode> nodes) {
+        analysisNodes.put(analysisId, nodes);
+        return this;
+    }
+
+    public InMemoryHubClient withPublicKey(String nodeRobotId, ECPublicKey publicKey) {
+        publicKeys.put(nodeRobotId, publicKey);
+        return this;
+    }
+
+    @Override
+    public Mono<List<AnalysisNode>> fetchAnalysisNodes(String analysisId) {
+        return Mono.justOrEmpty(analysisNodes.get(analysisId))
+                .switchIfEmpty(Mono.error(() -> new HubAnalysisNodesNotObtainable(
+                        "no analysis nodes for analysis `%s`".formatted(analysisId))));
+    }
+
+    @Override
+    public Mono<ECPublicKey> fetchPublicKey(String nodeRobotId) {
+        return Mono.justOrEmpty(publicKeys.get(nodeRobotId))
+                .switchIfEmpty(Mono.error(() -> new NoMatchingNodeFoundException(
+                        "cannot find node with robot id `%s`".formatted(nodeRobotId))));
+    }
+}
@@ -0,0 +1,85 @@
+package de.privateaim.node_message_broker.message;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class ConcurrencyLimiterTest {
+
+    @Test
+    public void maxConcurrencyMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(0));
+    }
+
+    @Test
+    public void tasksExceedingTheLimitWaitUntilRunningTasksTerminate() {
+        var limiter = new ConcurrencyLimiter(2);
+        var subscriptions = new AtomicInteger();
+        var first = Sinks.<String>one();
+        var second = Sinks.<String>one();
+        var third = Sinks.<String>one();
+
+        var firstResult = limiter.limit(first.asMono().doOnSubscribe(s -> subscriptions.incrementAndGet())).toFuture();
+        var secondResult = limiter.limit(second.asMono().doOnSubscribe(s -> subscriptions.incrementAndGet()))
+                .toFuture();
+        var thirdResult = limiter.limit(third.asMono().doOnSubscribe(s -> subscriptions.incrementAndGet())).toFuture();
+
+        assertEquals(2, subscriptions.get());
+        assertEquals(2, limiter.inUse());
+        assertEquals(1, limiter.waiting());
+
+        first.tryEmitValue("first");
+        assertEquals("first", firstResult.join());
+        assertEquals(3, subscriptions.get());
+        assertEquals(0, limiter.waiting());
+
+        second.tryEmitError(new IllegalStateException("failing on purpose"));
+        third.tryEmitValue("third");
+        assertEquals("third", thirdResult.join());
+        assertEquals(true, secondResult.isCompletedExceptionally());
+        assertEquals(0, limiter.inUse());
+    }
+
+    @Test
+    public void tasksCompletingRightAwayDoNotSignalEachOtherRecursively() {
+        var limiter = new ConcurrencyLimiter(1);
+        var running = Sinks.<String>one();
+        var completed = new AtomicInteger();
+
+        limiter.limit(running.asMono()).subscribe();
+        for (int i = 0; i < 100_000; i++) {
+            limiter.limit(Mono.just("waiting")).subscribe(ignored -> completed.incrementAndGet());
+        }
+        running.tryEmitValue("running");
+
+        assertEquals(100_000, completed.get());
+        assertEquals(0, limiter.inUse());
+        assertEquals(0, limiter.waiting());
+    }
+
+    @Test
+    public void cancelledTasksGiveUpTheirPermitOrPlaceInLine() {
+        var limiter = new ConcurrencyLimiter(1);
+        var running = limiter.limit(Mono.never()).subscribe();
+        var waiting = limiter.limit(Mono.never()).subscribe();
+
+        assertEquals(1, limiter.inUse());
+        assertEquals(1, limiter.waiting());
+
+        waiting.dispose();
+        assertEquals(0, limiter.waiting());
+
+        running.dispose();
+        assertEquals(0, limiter.inUse());
+
+        StepVerifier.create(limiter.limit(Mono.just("next")))
+                .expectNext("next")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,104 @@
+package de.privateaim.node_message_broker.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageSender;
+import de.privateaim.node_message_broker.message.api.hub.IncomingHubMessage;
+import de.privateaim.node_message_broker.message.receive.HubMessageDeduplicator;
+import de.privateaim.node_message_broker.message.receive.MessageReceiver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.emitter.Emitter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(MockitoExtension.class)
+public final class HubMessengerMessageListenerTest {
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final String RECEIVE_EVENT = "send";
+
+    @Mock
+    private MessageReceiver messageReceiver;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HubMessengerMessageListener listener;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        listener = new HubMessengerMessageListener(new HubMessageDeduplicator(messageReceiver, 100,
+                Duration.ofMinutes(10), meterRegistry));
+    }
+
+    // Parses the given message the same way socket.io does when receiving it.
+    private static JSONObject frameOf(IncomingHubMessage message) throws Exception {
+        return new JSONObject(JSON_MAPPER.writeValueAsString(message));
+    }
+
+    private static String messageIdOf(JSONObject frame) {
+        return frame.getJSONObject(IncomingHubMessage.METADATA_FIELD).getString(HubMessageMetadata.MESSAGE_ID_FIELD);
+    }
+
+    private static IncomingHubMessage message(UUID messageId) {
+        return new IncomingHubMessage(new HubMessageSender("robot", "robot-123"),
+                Base64.getEncoder().encodeToString("foo".getBytes()),
+                new HubMessageMetadata(messageId, "analysis-123"));
+    }
+
+    @Test
+    void messageDeliveredViaMultipleSocketsGetsProcessedOnce() throws Exception {
+        Mockito.doReturn(Mono.empty()).when(messageReceiver).processMessage(Mockito.any(JSONObject.class));
+        // every socket of a pool dispatches incoming events to the same listener
+        var sockets = List.of(new Emitter(), new Emitter(), new Emitter());
+        sockets.forEach(socket -> socket.on(RECEIVE_EVENT, listener));
+        var firstMessageId = UUID.randomUUID();
+        var secondMessageId = UUID.randomUUID();
+
+        for (var socket : sockets) {
+            socket.emit(RECEIVE_EVENT, frameOf(message(firstMessageId)));
+        }
+        sockets.getLast().emit(RECEIVE_EVENT, frameOf(message(secondMessageId)));
+
+        Mockito.verify(messageReceiver).processMessage(Mockito.<JSONObject>argThat(frame -> messageIdOf(frame)
+                .equals(firstMessageId.toString())));
+        Mockito.verify(messageReceiver).processMessage(Mockito.<JSONObject>argThat(frame -> messageIdOf(frame)
+                .equals(secondMessageId.toString())));
+        assertEquals(2, meterRegistry.get(HubMessageDeduplicator.DUPLICATES_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void frameGetsHandedOverWithoutBeingDecoded() throws Exception {
+        var directListener = new HubMessengerMessageListener(messageReceiver);
+        Mockito.doReturn(Mono.empty()).when(messageReceiver).processMessage(Mockito.any(JSONObject.class));
+        // decoding this payload would fail
+        var frame = frameOf(message(UUID.randomUUID())).put(IncomingHubMessage.PAYLOAD_FIELD, "not Base64!");
+
+        directListener.call(frame);
+
+        Mockito.verify(messageReceiver).processMessage(frame);
+    }
+
+    @Test
+    void serializedMessageGetsHandedOverAsIs() throws Exception {
+        Mockito.doReturn(Mono.empty()).when(messageReceiver).processMessage(Mockito.any(byte[].class));
+        var serialized = JSON_MAPPER.writeValueAsString(message(UUID.randomUUID()));
+
+        listener.call(serialized);
+
+        Mockito.verify(messageReceiver).processMessage(serialized.getBytes());
+    }
+}
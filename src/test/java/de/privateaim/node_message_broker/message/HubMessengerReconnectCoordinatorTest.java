@@ -0,0 +1,223 @@
+package de.privateaim.node_message_broker.message;
+
+import de.privateaim.node_message_broker.common.OIDCAuthenticator;
+import de.privateaim.node_message_broker.common.OIDCTokenPair;
+import de.privateaim.node_message_broker.common.OIDCTokenProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.Manager;
+import io.socket.client.Socket;
+import io.socket.emitter.Emitter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(MockitoExtension.class)
+public final class HubMessengerReconnectCoordinatorTest {
+
+    @Mock
+    private OIDCAuthenticator authenticator;
+
+    @Mock
+    private Socket socket;
+
+    @Mock
+    private Manager manager;
+
+    private SimpleMeterRegistry meterRegistry;
+    private VirtualTimeScheduler scheduler;
+    private MutableClock clock;
+    private Map<String, String> auth;
+    private HubMessengerReconnectCoordinator coordinator;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = VirtualTimeScheduler.create();
+        clock = new MutableClock(Instant.now());
+        auth = new ConcurrentHashMap<>();
+        // the token provider does not follow the virtual time, so it must not back off after failures
+        var tokenProvider = new OIDCTokenProvider("test", authenticator, 0.5, Duration.ZERO, meterRegistry);
+        coordinator = new HubMessengerReconnectCoordinator(tokenProvider, meterRegistry, scheduler, clock);
+
+        Mockito.doReturn(manager).when(socket).io();
+        coordinator.register(0, socket, auth);
+    }
+
+    @AfterEach
+    void tearDown() {
+        coordinator.stop();
+    }
+
+    private static OIDCTokenPair tokenPair(String value, Instant issuedAt, Duration lifetime) {
+        return new OIDCTokenPair(
+                new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, value, issuedAt, issuedAt.plus(lifetime)),
+                Optional.empty());
+    }
+
+    private static Emitter.Listener listenerOf(Emitter emitter, String event) {
+        var listenerCaptor = ArgumentCaptor.forClass(Emitter.Listener.class);
+        Mockito.verify(emitter).on(Mockito.eq(event), listenerCaptor.capture());
+        return listenerCaptor.getValue();
+    }
+
+    @Test
+    void tokenGetsAppliedToSocketsOnStart() {
+        Mockito.doReturn(Mono.just(tokenPair("first", Instant.now(), Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+
+        coordinator.start().subscribe();
+        scheduler.advanceTime();
+
+        assertEquals("first", auth.get(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY));
+        assertEquals(1, meterRegistry.get(HubMessengerReconnectCoordinator.TOKEN_FETCH_TIMER_NAME)
+                .tag("trigger", "scheduled").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void tokenGetsRefreshedAheadOfExpiry() {
+        // the first token is already due for a refresh while still being valid for another minute
+        Mockito.doReturn(Mono.just(tokenPair("aging", Instant.now().minus(Duration.ofMinutes(59)),
+                                Duration.ofHours(1))),
+                        Mono.just(tokenPair("fresh", Instant.now(), Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+
+        coordinator.start().subscribe();
+        scheduler.advanceTime();
+        scheduler.advanceTimeBy(HubMessengerReconnectCoordinator.RETRY_DELAY);
+
+        Mockito.verify(authenticator, Mockito.times(2)).authenticate();
+        assertEquals("fresh", auth.get(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY));
+    }
+
+    @Test
+    void tokenThatIsDueForRefreshRightAwayDoesNotGetFetchedOverAndOver() {
+        // every token is already due for a refresh once it got fetched
+        Mockito.doAnswer(invocation -> Mono.just(tokenPair("aging", Instant.now().minus(Duration.ofMinutes(59)),
+                        Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+
+        coordinator.start().subscribe();
+        scheduler.advanceTime();
+        scheduler.advanceTimeBy(HubMessengerReconnectCoordinator.RETRY_DELAY.multipliedBy(3).minusMillis(1));
+
+        Mockito.verify(authenticator, Mockito.times(3)).authenticate();
+    }
+
+    @Test
+    void failedStartGetsRetriedInBackground() {
+        Mockito.doReturn(Mono.error(new IllegalStateException("auth server unavailable")),
+                        Mono.just(tokenPair("first", Instant.now(), Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+
+        coordinator.start().onErrorComplete().subscribe();
+        scheduler.advanceTime();
+        assertEquals(null, auth.get(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY));
+
+        scheduler.advanceTimeBy(HubMessengerReconnectCoordinator.RETRY_DELAY);
+        assertEquals("first", auth.get(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY));
+    }
+
+    @Test
+    void connectErrorReplacesTokenAndReconnects() {
+        Mockito.doReturn(Mono.just(tokenPair("rejected", Instant.now(), Duration.ofHours(1))),
+                        Mono.just(tokenPair("replacement", Instant.now(), Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+        coordinator.start().subscribe();
+        scheduler.advanceTime();
+
+        listenerOf(socket, Socket.EVENT_CONNECT_ERROR).call("unauthorized");
+        scheduler.advanceTime();
+
+        assertEquals("replacement", auth.get(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY));
+        Mockito.verify(socket).connect();
+        assertEquals(1, meterRegistry.get(HubMessengerReconnectCoordinator.TOKEN_FETCH_TIMER_NAME)
+                .tag("trigger", "connect-error").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void reconnectAttemptUsesLatestToken() {
+        Mockito.doReturn(Mono.just(tokenPair("first", Instant.now(), Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+        coordinator.start().subscribe();
+        scheduler.advanceTime();
+
+        auth.remove(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY);
+        listenerOf(manager, Manager.EVENT_RECONNECT_ATTEMPT).call(1);
+
+        assertEquals("first", auth.get(HubMessengerReconnectCoordinator.AUTH_TOKEN_KEY));
+    }
+
+    @Test
+    void tokenFetchTimersGetRegisteredOnceUpFront() {
+        var timers = meterRegistry.get(HubMessengerReconnectCoordinator.TOKEN_FETCH_TIMER_NAME).timers();
+        Mockito.doReturn(Mono.just(tokenPair("first", Instant.now(), Duration.ofHours(1))))
+                .when(authenticator).authenticate();
+
+        coordinator.start().subscribe();
+        scheduler.advanceTime();
+
+        assertEquals(4, timers.size());
+        assertEquals(timers, meterRegistry.get(HubMessengerReconnectCoordinator.TOKEN_FETCH_TIMER_NAME).timers());
+    }
+
+    @Test
+    void timeToReconnectGetsRecorded() {
+        listenerOf(socket, Socket.EVENT_DISCONNECT).call("transport close");
+        clock.advance(Duration.ofSeconds(3));
+        listenerOf(socket, Socket.EVENT_CONNECT).call();
+        // connecting without a preceding disconnect is not a reconnect
+        listenerOf(socket, Socket.EVENT_CONNECT).call();
+
+        var reconnectTimer = meterRegistry.get(HubMessengerReconnectCoordinator.RECONNECT_TIMER_NAME)
+                .tag("connection", "0").timer();
+        assertEquals(1, reconnectTimer.count());
+        assertEquals(3.0, reconnectTimer.totalTime(TimeUnit.SECONDS));
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
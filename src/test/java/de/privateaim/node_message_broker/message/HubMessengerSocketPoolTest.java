@@ -0,0 +1,104 @@
+package de.privateaim.node_message_broker.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.Manager;
+import io.socket.client.Socket;
+import io.socket.emitter.Emitter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@ExtendWith(MockitoExtension.class)
+public final class HubMessengerSocketPoolTest {
+
+    @Mock
+    private Socket socket0;
+
+    @Mock
+    private Socket socket1;
+
+    @Mock
+    private Manager manager0;
+
+    @Mock
+    private Manager manager1;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private HubMessengerSocketPool newPool() {
+        Mockito.doReturn(manager0).when(socket0).io();
+        Mockito.doReturn(manager1).when(socket1).io();
+        return new HubMessengerSocketPool(List.of(socket0, socket1), meterRegistry);
+    }
+
+    private static Emitter.Listener listenerOf(Emitter emitter, String event) {
+        var listenerCaptor = ArgumentCaptor.forClass(Emitter.Listener.class);
+        Mockito.verify(emitter).on(Mockito.eq(event), listenerCaptor.capture());
+        return listenerCaptor.getValue();
+    }
+
+    private double count(String name, String connection) {
+        return meterRegistry.get(name).tag("connection", connection).counter().count();
+    }
+
+    @Test
+    void poolMustNotBeEmpty() {
+        assertThrows(IllegalArgumentException.class, () -> new HubMessengerSocketPool(List.of(), meterRegistry));
+    }
+
+    @Test
+    void connectionStateIsRecordedPerConnection() {
+        newPool();
+        Mockito.doReturn(true).when(socket0).connected();
+        Mockito.doReturn(false).when(socket1).connected();
+
+        assertEquals(1.0, meterRegistry.get(HubMessengerSocketPool.CONNECTED_GAUGE_NAME)
+                .tag("connection", "0").gauge().value());
+        assertEquals(0.0, meterRegistry.get(HubMessengerSocketPool.CONNECTED_GAUGE_NAME)
+                .tag("connection", "1").gauge().value());
+    }
+
+    @Test
+    void connectionEventsAreCountedPerConnection() {
+        newPool();
+
+        listenerOf(socket0, Socket.EVENT_DISCONNECT).call("transport close");
+        listenerOf(socket0, Socket.EVENT_CONNECT_ERROR).call("unauthorized");
+        listenerOf(socket0, Socket.EVENT_CONNECT_ERROR).call("unauthorized");
+        listenerOf(manager1, Manager.EVENT_RECONNECT).call(3);
+
+        assertEquals(1.0, count(HubMessengerSocketPool.DISCONNECT_COUNTER_NAME, "0"));
+        assertEquals(2.0, count(HubMessengerSocketPool.CONNECT_ERROR_COUNTER_NAME, "0"));
+        assertEquals(0.0, count(HubMessengerSocketPool.RECONNECT_COUNTER_NAME, "0"));
+        assertEquals(0.0, count(HubMessengerSocketPool.DISCONNECT_COUNTER_NAME, "1"));
+        assertEquals(0.0, count(HubMessengerSocketPool.CONNECT_ERROR_COUNTER_NAME, "1"));
+        assertEquals(1.0, count(HubMessengerSocketPool.RECONNECT_COUNTER_NAME, "1"));
+    }
+
+    @Test
+    void allSocketsGetConnectedAndDisconnected() {
+        var pool = newPool();
+
+        pool.connect();
+        pool.disconnect();
+
+        Mockito.verify(socket0).connect();
+        Mockito.verify(socket1).connect();
+        Mockito.verify(socket0).disconnect();
+        Mockito.verify(socket1).disconnect();
+    }
+}
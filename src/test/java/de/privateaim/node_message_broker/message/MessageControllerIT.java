@@ -4,7 +4,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import de.privateaim.node_message_broker.message.api.MessageBroadcastRequest;
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
 import de.privateaim.node_message_broker.message.api.MessageRequest;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -20,6 +22,7 @@ import org.springframework.web.reactive.function.BodyInserters;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.UUID;
 
 import static org.mockito.Mockito.when;
 
@@ -114,6 +117,55 @@ public final class MessageControllerIT {
                     .exchange()
                     .expectStatus().isEqualTo(HttpStatus.ACCEPTED);
         }
+
+        @Test
+        void respondsWithDeliveryResultOfEveryRecipient() throws JsonProcessingException {
+            when(service.sendMessageToSelectedRecipients(Mockito.eq("ana-123"), Mockito.eq(TEST_MESSAGE_REQUEST)))
+                    .thenReturn(Mono.just(List.of(
+                            MessageDeliveryResult.builder()
+                                    .recipient("foo")
+                                    .status(MessageDeliveryResult.Status.SENT)
+                                    .build(),
+                            MessageDeliveryResult.builder()
+                                    .recipient("bar")
+                                    .status(MessageDeliveryResult.Status.FAILED)
+                                    .reason("some error")
+                                    .build())));
+
+            client.post().uri("/analyses/ana-123/messages")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(BodyInserters.fromValue(JSON.writeValueAsString(TEST_MESSAGE_REQUEST)))
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.ACCEPTED)
+                    .expectBody()
+                    .jsonPath("$[0].recipient").isEqualTo("foo")
+                    .jsonPath("$[0].status").isEqualTo("SENT")
+                    .jsonPath("$[0].reason").doesNotExist()
+                    .jsonPath("$[1].recipient").isEqualTo("bar")
+                    .jsonPath("$[1].status").isEqualTo("FAILED")
+                    .jsonPath("$[1].reason").isEqualTo("some error");
+        }
+
+        @Test
+        void failsIfMessageCannotGetSentToAnyRecipient() throws JsonProcessingException {
+            when(service.sendMessageToSelectedRecipients(Mockito.eq("ana-123"), Mockito.eq(TEST_MESSAGE_REQUEST)))
+                    .thenReturn(Mono.just(List.of(
+                            MessageDeliveryResult.builder()
+                                    .recipient("foo")
+                                    .status(MessageDeliveryResult.Status.FAILED)
+                                    .reason("some error")
+                                    .build())));
+
+            client.post().uri("/analyses/ana-123/messages")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(BodyInserters.fromValue(JSON.writeValueAsString(TEST_MESSAGE_REQUEST)))
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.BAD_GATEWAY)
+                    .expectBody()
+                    .jsonPath("$[0].recipient").isEqualTo("foo")
+                    .jsonPath("$[0].status").isEqualTo("FAILED")
+                    .jsonPath("$[0].reason").isEqualTo("some error");
+        }
     }
 
     @Nested
@@ -167,6 +219,30 @@ public final class MessageControllerIT {
                     .expectStatus().isEqualTo(HttpStatus.BAD_REQUEST);
         }
 
+        @Test
+        void failsIfBroadcastCannotGetSentToAnyRecipient() throws JsonProcessingException {
+            when(service.sendBroadcastMessage(Mockito.eq("ana-123"), Mockito.eq(TEST_MESSAGE_BROADCAST_REQUEST)))
+                    .thenReturn(Mono.just(List.of(
+                            MessageDeliveryResult.builder()
+                                    .recipient("foo")
+                                    .status(MessageDeliveryResult.Status.FAILED)
+                                    .reason("some error")
+                                    .build(),
+                            MessageDeliveryResult.builder()
+                                    .recipient("bar")
+                                    .status(MessageDeliveryResult.Status.FAILED)
+                                    .reason("some error")
+                                    .build())));
+
+            client.post().uri("/analyses/ana-123/messages/broadcast")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(BodyInserters.fromValue(JSON.writeValueAsString(TEST_MESSAGE_BROADCAST_REQUEST)))
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.BAD_GATEWAY)
+                    .expectBody()
+                    .jsonPath("$.length()").isEqualTo(2);
+        }
+
         @Test
         void succeeds() throws JsonProcessingException {
             when(service.sendBroadcastMessage(Mockito.eq("ana-123"), Mockito.eq(TEST_MESSAGE_BROADCAST_REQUEST)))
@@ -179,4 +255,88 @@ public final class MessageControllerIT {
                     .expectStatus().isEqualTo(HttpStatus.ACCEPTED);
         }
     }
+
+    @Nested
+    public class AsyncSendTests {
+
+        private static final UUID TEST_MESSAGE_ID = UUID.randomUUID();
+
+        private static final MessageStatus TEST_ACCEPTED_STATUS = MessageStatus.builder()
+                .messageId(TEST_MESSAGE_ID)
+                .analysisId("ana-123")
+                .state(MessageStatus.State.PENDING)
+                .build();
+
+        @Test
+        void acceptsMessageRightAway() throws JsonProcessingException {
+            var messageRequest = MessageRequest.builder()
+                    .recipients(List.of("foo"))
+                    .message(JsonNodeFactory.instance.objectNode())
+                    .build();
+            when(service.acceptMessageToSelectedRecipients(Mockito.eq("ana-123"), Mockito.eq(messageRequest)))
+                    .thenReturn(Mono.just(TEST_ACCEPTED_STATUS));
+
+            client.post().uri("/analyses/ana-123/messages?async=true")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(BodyInserters.fromValue(JSON.writeValueAsString(messageRequest)))
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.ACCEPTED)
+                    .expectHeader().location("/analyses/ana-123/messages/" + TEST_MESSAGE_ID)
+                    .expectBody()
+                    .jsonPath("$.messageId").isEqualTo(TEST_MESSAGE_ID.toString())
+                    .jsonPath("$.state").isEqualTo("PENDING");
+
+            Mockito.verify(service, Mockito.never()).sendMessageToSelectedRecipients(Mockito.any(), Mockito.any());
+        }
+
+        @Test
+        void acceptsBroadcastMessageRightAway() throws JsonProcessingException {
+            var messageBroadcastRequest = MessageBroadcastRequest.builder()
+                    .message(JsonNodeFactory.instance.objectNode())
+                    .build();
+            when(service.acceptBroadcastMessage(Mockito.eq("ana-123"), Mockito.eq(messageBroadcastRequest)))
+                    .thenReturn(Mono.just(TEST_ACCEPTED_STATUS));
+
+            client.post().uri("/analyses/ana-123/messages/broadcast?async=true")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(BodyInserters.fromValue(JSON.writeValueAsString(messageBroadcastRequest)))
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.ACCEPTED)
+                    .expectHeader().location("/analyses/ana-123/messages/" + TEST_MESSAGE_ID)
+                    .expectBody()
+                    .jsonPath("$.messageId").isEqualTo(TEST_MESSAGE_ID.toString());
+        }
+
+        @Test
+        void respondsWithStatusOfMessage() {
+            when(service.getMessageStatus(Mockito.eq("ana-123"), Mockito.eq(TEST_MESSAGE_ID)))
+                    .thenReturn(Mono.just(TEST_ACCEPTED_STATUS.toBuilder()
+                            .state(MessageStatus.State.COMPLETED)
+                            .results(List.of(MessageDeliveryResult.builder()
+                                    .recipient("foo")
+                                    .status(MessageDeliveryResult.Status.FAILED)
+                                    .reason("some error")
+                                    .build()))
+                            .build()));
+
+            client.get().uri("/analyses/ana-123/messages/" + TEST_MESSAGE_ID)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody()
+                    .jsonPath("$.state").isEqualTo("COMPLETED")
+                    .jsonPath("$.results[0].recipient").isEqualTo("foo")
+                    .jsonPath("$.results[0].status").isEqualTo("FAILED")
+                    .jsonPath("$.results[0].reason").isEqualTo("some error");
+        }
+
+        @Test
+        void failsIfStatusOfMessageIsUnknown() {
+            when(service.getMessageStatus(Mockito.eq("ana-123"), Mockito.eq(TEST_MESSAGE_ID)))
+                    .thenReturn(Mono.empty());
+
+            client.get().uri("/analyses/ana-123/messages/" + TEST_MESSAGE_ID)
+                    .exchange()
+                    .expectStatus().isNotFound();
+        }
+    }
 }
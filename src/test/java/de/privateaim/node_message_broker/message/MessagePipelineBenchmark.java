@@ -0,0 +1,94 @@
+package de.privateaim.node_message_broker.message;
+
+import de.privateaim.node_message_broker.common.hub.InMemoryHubClient;
+import de.privateaim.node_message_broker.message.crypto.ECDHSharedSecretCache;
+import de.privateaim.node_message_broker.message.crypto.HubMessageCryptoService;
+import de.privateaim.node_message_broker.message.emit.*;
+import de.privateaim.node_message_broker.message.receive.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Mono;
+
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static de.privateaim.node_message_broker.message.CryptoUtil.generateECDHKeyPair;
+
+/**
+ * Benchmarks for the middleware chains that are applied when emitting and receiving messages, composed the same way as
+ * in {@link MessageSpringConfig}. Run via: mvn -P benchmark verify -Djmh.args="MessagePipeline"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class MessagePipelineBenchmark {
+
+    private static final String SENDER_ROBOT_ID = "sender-robot-id";
+    private static final String RECIPIENT_ROBOT_ID = "recipient-robot-id";
+    private static final UUID MESSAGE_ID = UUID.fromString("f691940a-e5ce-483c-80d7-17b9e4f682fe");
+    private static final String ANALYSIS_ID = "analysis-123";
+
+    @Param({"1024", "65536", "1048576", "16777216", "67108864"})
+    int payloadSize;
+
+    private Function<EmitMessage, Mono<EmitMessage>> emitChain;
+    private Function<ReceiveMessage, Mono<ReceiveMessage>> receiveChain;
+    private EmitMessage emitMessage;
+    private ReceiveMessage receiveMessage;
+
+    @Setup
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+
+        var senderKeyPair = generateECDHKeyPair();
+        var recipientKeyPair = generateECDHKeyPair();
+        var hubClient = new InMemoryHubClient()
+                .withPublicKey(SENDER_ROBOT_ID, (ECPublicKey) senderKeyPair.getPublic())
+                .withPublicKey(RECIPIENT_ROBOT_ID, (ECPublicKey) recipientKeyPair.getPublic());
+        var cryptoService = new HubMessageCryptoService(new SecureRandom(),
+                new ECDHSharedSecretCache(10, Duration.ofHours(1)));
+
+        var meterRegistry = new SimpleMeterRegistry();
+        emitChain = MiddlewareChain.<EmitMessage>empty("emit", meterRegistry)
+                .with(new HubMessageEncryptionMiddleware((ECPrivateKey) senderKeyPair.getPrivate(), cryptoService,
+                        hubClient, msg -> (msg.context().messageId() + msg.context().analysisId()).getBytes()))
+                .with(new HubMessageBase64EncodingMiddleware());
+        receiveChain = MiddlewareChain.<ReceiveMessage>empty("receive", meterRegistry)
+                .with(new HubMessageBase64DecodingMiddleware())
+                .with(new HubMessageDecryptionMiddleware((ECPrivateKey) recipientKeyPair.getPrivate(), cryptoService,
+                        hubClient, msg -> (msg.context().messageId() + msg.context().analysisId()).getBytes()));
+
+        var payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        emitMessage = EmitMessage.builder()
+                .sendTo(new EmitMessageRecipient(RECIPIENT_ROBOT_ID))
+                .withPayload(payload)
+                .inContext(new EmitMessageContext(MESSAGE_ID, ANALYSIS_ID))
+                .build();
+        receiveMessage = new ReceiveMessage(
+                new ReceiveMessageSender(SENDER_ROBOT_ID),
+                emitChain.apply(emitMessage).block().payload(),
+                new ReceiveMessageContext(MESSAGE_ID, ANALYSIS_ID));
+    }
+
+    @Benchmark
+    public EmitMessage emitChain() {
+        return emitChain.apply(emitMessage).block();
+    }
+
+    @Benchmark
+    public ReceiveMessage receiveChain() {
+        return receiveChain.apply(receiveMessage).block();
+    }
+}
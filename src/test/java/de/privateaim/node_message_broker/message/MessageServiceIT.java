@@ -10,10 +10,16 @@ import de.privateaim.node_message_broker.common.hub.api.AnalysisNode;
 import de.privateaim.node_message_broker.common.hub.api.HubResponseContainer;
 import de.privateaim.node_message_broker.common.hub.api.Node;
 import de.privateaim.node_message_broker.message.api.MessageBroadcastRequest;
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
 import de.privateaim.node_message_broker.message.api.MessageRequest;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
 import de.privateaim.node_message_broker.message.emit.EmitMessage;
+import de.privateaim.node_message_broker.message.emit.EnvelopeEmitMessage;
 import de.privateaim.node_message_broker.message.emit.HubMessageEmitter;
 import de.privateaim.node_message_broker.message.emit.MessageEmitter;
+import de.privateaim.node_message_broker.message.status.MessageStatusConfig;
+import de.privateaim.node_message_broker.message.status.MessageStatusTracker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.socket.client.Socket;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -28,10 +34,17 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.mongodb.assertions.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public final class MessageServiceIT {
 
@@ -59,7 +72,9 @@ public final class MessageServiceIT {
         var webClient = WebClient.create(mockWebServer.url("/").toString());
         var httpHubClient = new HttpHubClient(webClient, new HttpRetryConfig(0, 0));
 
-        messageService = new MessageService(spyMessageEmitter, httpHubClient, SELF_ROBOT_ID);
+        messageService = new MessageService(spyMessageEmitter, null, httpHubClient, SELF_ROBOT_ID,
+                new MessageFanOutConfig.Builder().build(),
+                new MessageStatusTracker(new MessageStatusConfig.Builder().build(), null, new SimpleMeterRegistry()));
         emitMessageCaptor = ArgumentCaptor.forClass(EmitMessage.class);
     }
 
@@ -127,7 +142,9 @@ public final class MessageServiceIT {
                     .thenThrow(new RuntimeException("some error"));
 
             StepVerifier.create(messageService.sendMessageToSelectedRecipients("analysis-123", messageRequest))
-                    .expectNext()
+                    .assertNext(results -> assertEquals(
+                            List.of(MessageDeliveryResult.Status.SENT, MessageDeliveryResult.Status.FAILED),
+                            results.stream().map(MessageDeliveryResult::getStatus).toList()))
                     .verifyComplete();
 
             Mockito.verify(mockSocket, Mockito.times(testAnalysisNodes.size())).emit(Mockito.any(), Mockito.any());
@@ -156,7 +173,14 @@ public final class MessageServiceIT {
                     .thenReturn(mockSocket);
 
             StepVerifier.create(messageService.sendMessageToSelectedRecipients("analysis-123", messageRequest))
-                    .expectNext()
+                    .assertNext(results -> {
+                        assertEquals(List.of("node-1", "node-2", "node-3"),
+                                results.stream().map(MessageDeliveryResult::getRecipient).toList());
+                        assertEquals(List.of(MessageDeliveryResult.Status.SENT, MessageDeliveryResult.Status.FAILED,
+                                        MessageDeliveryResult.Status.SENT),
+                                results.stream().map(MessageDeliveryResult::getStatus).toList());
+                        assertNotNull(results.get(1).getReason());
+                    })
                     .verifyComplete();
 
             Mockito.verify(mockSocket, Mockito.times(testAnalysisNodes.size())).emit(Mockito.any(), Mockito.any());
@@ -219,7 +243,12 @@ public final class MessageServiceIT {
             messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode();
 
             StepVerifier.create(messageService.sendBroadcastMessage("123", messageBroadcastRequest))
-                    .expectNext()
+                    .assertNext(results -> {
+                        assertEquals(testAnalysisNodes.size(), results.size());
+                        assertEquals(1, results.stream()
+                                .filter(r -> r.getStatus() == MessageDeliveryResult.Status.FAILED)
+                                .count());
+                    })
                     .verifyComplete();
 
             Mockito.verify(mockSocket, Mockito.times(testAnalysisNodes.size())).emit(Mockito.any(), Mockito.any());
@@ -247,7 +276,12 @@ public final class MessageServiceIT {
             messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode();
 
             StepVerifier.create(messageService.sendBroadcastMessage("123", messageBroadcastRequest))
-                    .expectNext()
+                    .assertNext(results -> {
+                        assertEquals(testAnalysisNodes.size(), results.size());
+                        assertEquals(1, results.stream()
+                                .filter(r -> r.getStatus() == MessageDeliveryResult.Status.FAILED)
+                                .count());
+                    })
                     .verifyComplete();
 
             Mockito.verify(mockSocket, Mockito.times(testAnalysisNodes.size())).emit(Mockito.any(), Mockito.any());
@@ -273,7 +307,8 @@ public final class MessageServiceIT {
             Mockito.doReturn(Mono.empty()).when(spyMessageEmitter).emitMessage(emitMessageCaptor.capture());
 
             StepVerifier.create(messageService.sendBroadcastMessage("123", messageBroadcastRequest))
-                    .expectNext()
+                    .assertNext(results -> assertTrue(results.stream()
+                            .allMatch(r -> r.getStatus() == MessageDeliveryResult.Status.SENT)))
                     .verifyComplete();
 
             var emittedMessages = emitMessageCaptor.getAllValues();
@@ -285,5 +320,190 @@ public final class MessageServiceIT {
                             .map(analysisNode -> analysisNode.node.robotId)
                             .toList()));
         }
+
+        @Test
+        public void payloadIsSerializedOnceAndSharedByAllRecipients() throws JsonProcessingException {
+            var testAnalysisNodes = List.of(
+                    new AnalysisNode("123", "node-1", new Node("node-1", "default", "pub123", "robot-1")),
+                    new AnalysisNode("456", "node-2", new Node("node-2", "default", "pub456", "robot-2")),
+                    new AnalysisNode("789", "node-3", new Node("node-3", "default", "pub789", "robot-3"))
+            );
+            var mockedHubResponse = new HubResponseContainer<>(testAnalysisNodes);
+
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            var messageBroadcastRequest = new MessageBroadcastRequest();
+            messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode().put("foo", "bar");
+
+            Mockito.doReturn(Mono.empty()).when(spyMessageEmitter).emitMessage(emitMessageCaptor.capture());
+
+            StepVerifier.create(messageService.sendBroadcastMessage("123", messageBroadcastRequest))
+                    .expectNextCount(1)
+                    .verifyComplete();
+
+            var emittedMessages = emitMessageCaptor.getAllValues();
+            assertEquals(testAnalysisNodes.size(), emittedMessages.size());
+            assertEquals("{\"foo\":\"bar\"}", new String(emittedMessages.getFirst().payload()));
+            emittedMessages.forEach(msg -> assertSame(emittedMessages.getFirst().payload(), msg.payload()));
+        }
+
+        @Test
+        public void messagesAreEmittedWithBoundedConcurrency() throws JsonProcessingException {
+            var testAnalysisNodes = IntStream.range(0, 10)
+                    .mapToObj(i -> new AnalysisNode("an-" + i, "node-" + i,
+                            new Node("node-" + i, "default", "pub" + i, "robot-" + i)))
+                    .toList();
+            var mockedHubResponse = new HubResponseContainer<>(testAnalysisNodes);
+
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            var inFlight = new AtomicInteger();
+            var maxInFlight = new AtomicInteger();
+            Mockito.doAnswer(invocation -> Mono.delay(Duration.ofMillis(20))
+                            .doOnSubscribe(s -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                            .doOnTerminate(inFlight::decrementAndGet)
+                            .then())
+                    .when(spyMessageEmitter).emitMessage(Mockito.any());
+
+            var limitedMessageService = new MessageService(spyMessageEmitter,
+                    new HttpHubClient(WebClient.create(mockWebServer.url("/").toString()), new HttpRetryConfig(0, 0)),
+                    SELF_ROBOT_ID, new MessageFanOutConfig.Builder()
+                    .withPerRequestConcurrency(3)
+                    .withGlobalConcurrency(3)
+                    .build());
+
+            var messageBroadcastRequest = new MessageBroadcastRequest();
+            messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode();
+
+            StepVerifier.create(limitedMessageService.sendBroadcastMessage("123", messageBroadcastRequest))
+                    .assertNext(results -> {
+                        assertEquals(testAnalysisNodes.size(), results.size());
+                        assertTrue(results.stream()
+                                .allMatch(r -> r.getStatus() == MessageDeliveryResult.Status.SENT));
+                    })
+                    .verifyComplete();
+
+            assertEquals(3, maxInFlight.get());
+        }
+
+        @Test
+        public void messageGetsEmittedOnceAsEnvelopeIfEnabled() throws JsonProcessingException {
+            var testAnalysisNodes = List.of(
+                    new AnalysisNode("123", "node-1", new Node("node-1", "default", "pub123", "robot-1")),
+                    new AnalysisNode("456", "node-2", new Node("node-2", "default", "pub456", "robot-2")),
+                    new AnalysisNode("789", "node-3", new Node("node-3", "default", "pub789", SELF_ROBOT_ID))
+            );
+            var mockedHubResponse = new HubResponseContainer<>(testAnalysisNodes);
+
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            @SuppressWarnings("unchecked")
+            MessageEmitter<EnvelopeEmitMessage> envelopeMessageEmitter = Mockito.mock(MessageEmitter.class);
+            var envelopeMessageCaptor = ArgumentCaptor.forClass(EnvelopeEmitMessage.class);
+            Mockito.doReturn(Mono.empty()).when(envelopeMessageEmitter).emitMessage(envelopeMessageCaptor.capture());
+
+            var envelopeMessageService = new MessageService(spyMessageEmitter, envelopeMessageEmitter,
+                    new HttpHubClient(WebClient.create(mockWebServer.url("/").toString()), new HttpRetryConfig(0, 0)),
+                    SELF_ROBOT_ID, new MessageFanOutConfig.Builder().build());
+
+            var messageBroadcastRequest = new MessageBroadcastRequest();
+            messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode();
+
+            StepVerifier.create(envelopeMessageService.sendBroadcastMessage("123", messageBroadcastRequest))
+                    .assertNext(results -> {
+                        assertEquals(2, results.size());
+                        assertTrue(results.stream()
+                                .allMatch(r -> r.getStatus() == MessageDeliveryResult.Status.SENT));
+                    })
+                    .verifyComplete();
+
+            Mockito.verify(spyMessageEmitter, Mockito.never()).emitMessage(Mockito.any());
+            Mockito.verify(envelopeMessageEmitter, Mockito.times(1)).emitMessage(Mockito.any());
+            assertEquals(2, envelopeMessageCaptor.getValue().recipients().size());
+            assertTrue(envelopeMessageCaptor.getValue().recipients().stream()
+                    .noneMatch(recipient -> recipient.nodeRobotId().equals(SELF_ROBOT_ID)));
+        }
+    }
+
+    @Nested
+    public class AcceptMessageTests {
+
+        private MessageStatus awaitCompletion(String analysisId, UUID messageId) {
+            return Mono.defer(() -> messageService.getMessageStatus(analysisId, messageId))
+                    .filter(status -> status.getState() != MessageStatus.State.PENDING)
+                    .repeatWhenEmpty(100, repeats -> repeats.delayElements(Duration.ofMillis(10)))
+                    .block(Duration.ofSeconds(5));
+        }
+
+        @Test
+        public void acceptedMessageReportsDeliveryResultOfEveryRecipient() throws JsonProcessingException {
+            var testAnalysisNodes = List.of(
+                    new AnalysisNode("123", "node-1", new Node("node-1", "default", "pub123", "robot-1")),
+                    new AnalysisNode("456", "node-2", new Node("node-2", "default", "pub456", "robot-2"))
+            );
+            var mockedHubResponse = new HubResponseContainer<>(testAnalysisNodes);
+
+            var messageRequest = new MessageRequest();
+            messageRequest.recipients = List.of("node-1", "node-2");
+            messageRequest.message = JsonNodeFactory.instance.objectNode();
+
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_OK)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(JSON.writeValueAsString(mockedHubResponse)));
+
+            Mockito.when(mockSocket.emit(Mockito.any(), Mockito.any()))
+                    .thenReturn(mockSocket)
+                    .thenThrow(new RuntimeException("some error"));
+
+            var acceptedStatus = messageService.acceptMessageToSelectedRecipients("analysis-123", messageRequest)
+                    .block(Duration.ofSeconds(5));
+            assertNotNull(acceptedStatus);
+            assertEquals(MessageStatus.State.PENDING, acceptedStatus.getState());
+
+            var status = awaitCompletion("analysis-123", acceptedStatus.getMessageId());
+            assertEquals(MessageStatus.State.COMPLETED, status.getState());
+            var statusByRecipient = status.getResults().stream()
+                    .collect(Collectors.toMap(MessageDeliveryResult::getRecipient, MessageDeliveryResult::getStatus));
+            assertEquals(2, statusByRecipient.size());
+            assertTrue(statusByRecipient.containsValue(MessageDeliveryResult.Status.SENT));
+            assertTrue(statusByRecipient.containsValue(MessageDeliveryResult.Status.FAILED));
+        }
+
+        @Test
+        public void acceptedMessageFailsIfAnalysisNodeLookupFails() {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_SERVICE_UNAVAILABLE));
+
+            var messageBroadcastRequest = new MessageBroadcastRequest();
+            messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode();
+
+            var acceptedStatus = messageService.acceptBroadcastMessage("analysis-123", messageBroadcastRequest)
+                    .block(Duration.ofSeconds(5));
+            assertNotNull(acceptedStatus);
+
+            var status = awaitCompletion("analysis-123", acceptedStatus.getMessageId());
+            assertEquals(MessageStatus.State.FAILED, status.getState());
+            assertNotNull(status.getReason());
+        }
+
+        @Test
+        public void statusOfMessageIsNotVisibleForOtherAnalyses() {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(HttpStatus.SC_SERVICE_UNAVAILABLE));
+
+            var messageBroadcastRequest = new MessageBroadcastRequest();
+            messageBroadcastRequest.message = JsonNodeFactory.instance.objectNode();
+
+            var acceptedStatus = messageService.acceptBroadcastMessage("analysis-123", messageBroadcastRequest)
+                    .block(Duration.ofSeconds(5));
+            assertNotNull(acceptedStatus);
+
+            StepVerifier.create(messageService.getMessageStatus("analysis-456", acceptedStatus.getMessageId()))
+                    .verifyComplete();
+        }
     }
 }
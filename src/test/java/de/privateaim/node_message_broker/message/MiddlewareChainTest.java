@@ -0,0 +1,120 @@
+package de.privateaim.node_message_broker.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class MiddlewareChainTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private static final class AppendingMiddleware implements Function<String, Mono<String>> {
+        @Override
+        public Mono<String> apply(String message) {
+            return Mono.just(message + "-appended");
+        }
+    }
+
+    @Test
+    public void directionMustNotBeNull() {
+        assertThrows(
+                NullPointerException.class,
+                () -> MiddlewareChain.empty(null, meterRegistry)
+        );
+    }
+
+    @Test
+    public void emptyChainReturnsMessageAsIs() {
+        StepVerifier.create(MiddlewareChain.<String>empty("emit", meterRegistry).apply("msg"))
+                .expectNext("msg")
+                .verifyComplete();
+    }
+
+    @Test
+    public void middlewaresAreAppliedInOrder() {
+        var chain = MiddlewareChain.<String>empty("emit", meterRegistry)
+                .with("first", msg -> Mono.just(msg + "-1"))
+                .with("second", msg -> Mono.just(msg + "-2"));
+
+        StepVerifier.create(chain.apply("msg"))
+                .expectNext("msg-1-2")
+                .verifyComplete();
+    }
+
+    @Test
+    public void extendingChainDoesNotAffectOriginalChain() {
+        var chain = MiddlewareChain.<String>empty("emit", meterRegistry)
+                .with("first", msg -> Mono.just(msg + "-1"));
+        chain.with("second", msg -> Mono.just(msg + "-2"));
+
+        StepVerifier.create(chain.apply("msg"))
+                .expectNext("msg-1")
+                .verifyComplete();
+    }
+
+    @Test
+    public void stagesRecordTimingsAndErrors() {
+        var chain = MiddlewareChain.<String>empty("emit", meterRegistry)
+                .with("first", msg -> Mono.just(msg + "-1"))
+                .with("second", msg -> msg.startsWith("fail")
+                        ? Mono.error(new IllegalStateException("failing on purpose"))
+                        : Mono.just(msg));
+
+        StepVerifier.create(chain.apply("msg"))
+                .expectNext("msg-1")
+                .verifyComplete();
+        StepVerifier.create(chain.apply("fail"))
+                .verifyError(IllegalStateException.class);
+
+        assertEquals(2, meterRegistry.get(MiddlewareChain.STAGE_TIMER_NAME)
+                .tags("direction", "emit", "stage", "first").timer().count());
+        assertEquals(2, meterRegistry.get(MiddlewareChain.STAGE_TIMER_NAME)
+                .tags("direction", "emit", "stage", "second").timer().count());
+        assertEquals(0, meterRegistry.get(MiddlewareChain.STAGE_ERROR_COUNTER_NAME)
+                .tags("direction", "emit", "stage", "first").counter().count());
+        assertEquals(1, meterRegistry.get(MiddlewareChain.STAGE_ERROR_COUNTER_NAME)
+                .tags("direction", "emit", "stage", "second").counter().count());
+    }
+
+    @Test
+    public void middlewareThrowingIsRecordedAsError() {
+        var chain = MiddlewareChain.<String>empty("receive", meterRegistry)
+                .with("throwing", msg -> {
+                    throw new IllegalStateException("throwing on purpose");
+                });
+
+        StepVerifier.create(chain.apply("msg"))
+                .verifyError(IllegalStateException.class);
+
+        assertEquals(1, meterRegistry.get(MiddlewareChain.STAGE_ERROR_COUNTER_NAME)
+                .tags("direction", "receive", "stage", "throwing").counter().count());
+    }
+
+    @Test
+    public void stageNamesAreDerivedFromMiddlewares() {
+        var chain = MiddlewareChain.<String>empty("emit", meterRegistry)
+                .with(new AppendingMiddleware())
+                .with(msg -> Mono.just(msg));
+
+        StepVerifier.create(chain.apply("msg"))
+                .expectNext("msg-appended")
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get(MiddlewareChain.STAGE_TIMER_NAME)
+                .tags("stage", "AppendingMiddleware").timer().count());
+        assertEquals(1, meterRegistry.get(MiddlewareChain.STAGE_TIMER_NAME)
+                .tags("stage", "middleware-1").timer().count());
+    }
+}
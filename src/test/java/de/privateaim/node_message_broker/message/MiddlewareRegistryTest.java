@@ -0,0 +1,43 @@
+package de.privateaim.node_message_broker.message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class MiddlewareRegistryTest {
+
+    private MiddlewareRegistry<String> registry;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new MiddlewareRegistry<>("emit", new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void registeredMiddlewaresAreAppliedInOrder() {
+        registry.register("first", msg -> Mono.just(msg + "-1"));
+        registry.register("second", msg -> Mono.just(msg + "-2"));
+
+        StepVerifier.create(registry.chain().apply("msg"))
+                .expectNext("msg-1-2")
+                .verifyComplete();
+    }
+
+    @Test
+    public void middlewaresCannotBeRegisteredOnceChainIsInUse() {
+        registry.register("first", msg -> Mono.just(msg + "-1"));
+        registry.chain();
+
+        assertThrows(
+                IllegalStateException.class,
+                () -> registry.register("second", msg -> Mono.just(msg + "-2"))
+        );
+        StepVerifier.create(registry.chain().apply("msg"))
+                .expectNext("msg-1")
+                .verifyComplete();
+    }
+}
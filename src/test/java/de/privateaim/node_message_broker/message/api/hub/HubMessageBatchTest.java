@@ -0,0 +1,47 @@
+package de.privateaim.node_message_broker.message.api.hub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class HubMessageBatchTest {
+
+    private static final HubMessageBatch TEST_BATCH = new HubMessageBatch(List.of(
+            new HubMessageBatch.Entry(UUID.randomUUID(), "foo".getBytes()),
+            new HubMessageBatch.Entry(UUID.randomUUID(), new byte[0]),
+            new HubMessageBatch.Entry(UUID.randomUUID(), "bar".getBytes())));
+
+    @Test
+    void encodedBatchCanBeDecoded() {
+        assertEquals(TEST_BATCH, HubMessageBatch.decode(TEST_BATCH.encode()));
+    }
+
+    @Test
+    void decodingTruncatedBatchFails() {
+        var encoded = TEST_BATCH.encode();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> HubMessageBatch.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    @Test
+    void decodingBatchWithTrailingDataFails() {
+        var encoded = TEST_BATCH.encode();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> HubMessageBatch.decode(Arrays.copyOf(encoded, encoded.length + 1)));
+    }
+
+    @Test
+    void decodingBatchOfUnsupportedVersionFails() {
+        var encoded = TEST_BATCH.encode();
+        encoded[0] = 42;
+
+        assertThrows(IllegalArgumentException.class, () -> HubMessageBatch.decode(encoded));
+    }
+}
@@ -0,0 +1,47 @@
+package de.privateaim.node_message_broker.message.api.hub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class HubMessageChunkTest {
+
+    private static final HubMessageChunk TEST_CHUNK = new HubMessageChunk(UUID.randomUUID(), 1, 3, 3, 7,
+            HubMessageMetadata.BATCH_FRAMING, "foo".getBytes());
+
+    @Test
+    void encodedChunkCanBeDecoded() {
+        assertEquals(TEST_CHUNK, HubMessageChunk.decode(TEST_CHUNK.encode()));
+    }
+
+    @Test
+    void encodedChunkWithoutFramingCanBeDecoded() {
+        var chunk = new HubMessageChunk(UUID.randomUUID(), 0, 1, 0, 3, null, "foo".getBytes());
+
+        assertEquals(chunk, HubMessageChunk.decode(chunk.encode()));
+    }
+
+    @Test
+    void decodingTruncatedChunkFails() {
+        assertThrows(IllegalArgumentException.class,
+                () -> HubMessageChunk.decode(Arrays.copyOf(TEST_CHUNK.encode(), 20)));
+    }
+
+    @Test
+    void decodingChunkOfUnsupportedVersionFails() {
+        var encoded = TEST_CHUNK.encode();
+        encoded[0] = 42;
+
+        assertThrows(IllegalArgumentException.class, () -> HubMessageChunk.decode(encoded));
+    }
+
+    @Test
+    void chunkDataMustBeWithinTransferredPayload() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new HubMessageChunk(UUID.randomUUID(), 0, 1, 5, 7, null, "foo".getBytes()));
+    }
+}
@@ -0,0 +1,45 @@
+package de.privateaim.node_message_broker.message.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class PayloadCompressionTest {
+
+    private static final byte[] TEST_DATA = "{\"weights\":[0.1,0.1,0.1,0.1,0.1,0.1,0.1,0.1,0.1,0.1,0.1,0.1]}"
+            .repeat(100).getBytes();
+
+    @Test
+    void deflatedDataCanBeInflated() throws DataFormatException {
+        var compressed = PayloadCompression.deflate(TEST_DATA);
+
+        assertTrue(compressed.length < TEST_DATA.length);
+        assertArrayEquals(TEST_DATA, PayloadCompression.inflate(compressed, TEST_DATA.length));
+    }
+
+    @Test
+    void inflatingFailsIfDataExceedsMaxBytes() {
+        var compressed = PayloadCompression.deflate(TEST_DATA);
+
+        assertThrows(DataFormatException.class, () -> PayloadCompression.inflate(compressed, TEST_DATA.length - 1));
+    }
+
+    @Test
+    void inflatingTruncatedDataFails() {
+        var compressed = PayloadCompression.deflate(TEST_DATA);
+
+        assertThrows(DataFormatException.class,
+                () -> PayloadCompression.inflate(Arrays.copyOf(compressed, compressed.length / 2), TEST_DATA.length));
+    }
+
+    @Test
+    void inflatingDataThatIsNotDeflatedFails() {
+        assertThrows(DataFormatException.class,
+                () -> PayloadCompression.inflate("not-deflated".getBytes(), TEST_DATA.length));
+    }
+}
@@ -0,0 +1,47 @@
+package de.privateaim.node_message_broker.message.crypto;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Test;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class CipherProviderSelectorTest {
+
+    private static final Provider UNSUPPORTING_PROVIDER = new Provider("Unsupporting", "1.0", "supports nothing") {
+    };
+
+    @Test
+    public void candidatesMustNotBeNull() {
+        assertThrows(
+                NullPointerException.class,
+                () -> CipherProviderSelector.selectFastest(null)
+        );
+    }
+
+    @Test
+    public void failsIfNoCandidateSupportsCipher() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> CipherProviderSelector.selectFastest(List.of(UNSUPPORTING_PROVIDER))
+        );
+    }
+
+    @Test
+    public void skipsCandidatesNotSupportingCipher() {
+        var supportingProvider = new BouncyCastleProvider();
+
+        assertSame(supportingProvider,
+                CipherProviderSelector.selectFastest(List.of(UNSUPPORTING_PROVIDER, supportingProvider)));
+    }
+
+    @Test
+    public void selectsOneOfTheSupportingCandidates() {
+        var candidates = List.of(Security.getProvider("SunJCE"), new BouncyCastleProvider());
+
+        assertTrue(candidates.contains(CipherProviderSelector.selectFastest(candidates)));
+    }
+}
@@ -0,0 +1,85 @@
+package de.privateaim.node_message_broker.message.crypto;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.InvalidKeyException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.privateaim.node_message_broker.message.CryptoUtil.generateECDHKeyPair;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ECDHSharedSecretCacheTest {
+
+    private static final byte[] TEST_SECRET = new byte[]{1, 2, 3, 4};
+
+    private ECDHSharedSecretCache sharedSecretCache;
+    private AtomicInteger agreementCount;
+    private ECDHSharedSecretCache.SharedSecretAgreement agreement;
+
+    @BeforeEach
+    public void setUp() {
+        sharedSecretCache = new ECDHSharedSecretCache(10, Duration.ofMinutes(1));
+        agreementCount = new AtomicInteger();
+        agreement = (privateKey, publicKey) -> {
+            agreementCount.incrementAndGet();
+            return TEST_SECRET.clone();
+        };
+    }
+
+    @Test
+    public void maxEntriesMustBeGreaterThanZero() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new ECDHSharedSecretCache(0, Duration.ofMinutes(1))
+        );
+    }
+
+    @Test
+    public void expireAfterAccessMustBeGreaterThanZero() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new ECDHSharedSecretCache(10, Duration.ZERO)
+        );
+    }
+
+    @Test
+    public void secretIsOnlyComputedOncePerPairOfKeys() throws InvalidKeyException {
+        var privateKey = (ECPrivateKey) generateECDHKeyPair().getPrivate();
+        var publicKey = (ECPublicKey) generateECDHKeyPair().getPublic();
+        var otherPublicKey = (ECPublicKey) generateECDHKeyPair().getPublic();
+
+        assertArrayEquals(TEST_SECRET, sharedSecretCache.getSharedSecret(privateKey, publicKey, agreement));
+        assertArrayEquals(TEST_SECRET, sharedSecretCache.getSharedSecret(privateKey, publicKey, agreement));
+        assertEquals(1, agreementCount.get());
+
+        sharedSecretCache.getSharedSecret(privateKey, otherPublicKey, agreement);
+        assertEquals(2, agreementCount.get());
+    }
+
+    @Test
+    public void returnedSecretsAreCopies() throws InvalidKeyException {
+        var privateKey = (ECPrivateKey) generateECDHKeyPair().getPrivate();
+        var publicKey = (ECPublicKey) generateECDHKeyPair().getPublic();
+
+        var secret = sharedSecretCache.getSharedSecret(privateKey, publicKey, agreement);
+        secret[0] = 0;
+
+        assertArrayEquals(TEST_SECRET, sharedSecretCache.getSharedSecret(privateKey, publicKey, agreement));
+    }
+
+    @Test
+    public void secretIsComputedAgainAfterBeingCleared() throws InvalidKeyException {
+        var privateKey = (ECPrivateKey) generateECDHKeyPair().getPrivate();
+        var publicKey = (ECPublicKey) generateECDHKeyPair().getPublic();
+
+        sharedSecretCache.getSharedSecret(privateKey, publicKey, agreement);
+        sharedSecretCache.clear();
+
+        assertArrayEquals(TEST_SECRET, sharedSecretCache.getSharedSecret(privateKey, publicKey, agreement));
+        assertEquals(2, agreementCount.get());
+    }
+}
@@ -0,0 +1,96 @@
+package de.privateaim.node_message_broker.message.crypto;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static de.privateaim.node_message_broker.message.CryptoUtil.generateECDHKeyPair;
+
+/**
+ * Benchmarks for {@link HubMessageCryptoService}. Run via: mvn -P benchmark verify -Djmh.args="HubMessageCryptoService"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HubMessageCryptoServiceBenchmark {
+
+    private static final byte[] KDF_KEYING_INFO = "f691940a-e5ce-483c-80d7-17b9e4f682feanalysis-123".getBytes();
+
+    @State(Scope.Benchmark)
+    public static class KeyDerivationState {
+        @Param({"false", "true"})
+        boolean sharedSecretCache;
+
+        MessageCryptoService cryptoService;
+        ECPrivateKey privateKey;
+        ECPublicKey publicKey;
+
+        @Setup
+        public void setUp() {
+            Security.addProvider(new BouncyCastleProvider());
+
+            cryptoService = sharedSecretCache
+                    ? new HubMessageCryptoService(new SecureRandom(),
+                    new ECDHSharedSecretCache(10, Duration.ofHours(1)))
+                    : new HubMessageCryptoService(new SecureRandom());
+            privateKey = (ECPrivateKey) generateECDHKeyPair().getPrivate();
+            publicKey = (ECPublicKey) generateECDHKeyPair().getPublic();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PayloadState {
+        @Param({"1024", "65536", "1048576", "16777216", "67108864"})
+        int payloadSize;
+
+        @Param({"SunJCE", "BC"})
+        String cipherProvider;
+
+        MessageCryptoService cryptoService;
+        Key symmetricKey;
+        byte[] payload;
+        byte[] encryptedPayload;
+
+        @Setup
+        public void setUp() throws InvalidKeyException, MessageCryptoException {
+            Security.addProvider(new BouncyCastleProvider());
+
+            cryptoService = new HubMessageCryptoService(new SecureRandom(), new CryptoProviderConfig.Builder()
+                    .withCipherProvider(Security.getProvider(cipherProvider))
+                    .build());
+            symmetricKey = cryptoService.deriveSymmetricKey((ECPrivateKey) generateECDHKeyPair().getPrivate(),
+                    (ECPublicKey) generateECDHKeyPair().getPublic(), KDF_KEYING_INFO);
+
+            payload = new byte[payloadSize];
+            new Random(42).nextBytes(payload);
+            encryptedPayload = cryptoService.encryptMessage(symmetricKey, payload);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Key deriveSymmetricKey(KeyDerivationState state) throws InvalidKeyException {
+        return state.cryptoService.deriveSymmetricKey(state.privateKey, state.publicKey, KDF_KEYING_INFO);
+    }
+
+    @Benchmark
+    public byte[] encryptMessage(PayloadState state) throws InvalidKeyException, MessageCryptoException {
+        return state.cryptoService.encryptMessage(state.symmetricKey, state.payload);
+    }
+
+    @Benchmark
+    public byte[] decryptMessage(PayloadState state) throws InvalidKeyException, MessageCryptoException {
+        return state.cryptoService.decryptMessage(state.symmetricKey, state.encryptedPayload);
+    }
+}
@@ -7,11 +7,15 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static de.privateaim.node_message_broker.message.CryptoUtil.*;
@@ -226,4 +230,189 @@ public final class HubMessageCryptoServiceTest {
                 () -> cryptoService.decryptMessage(symmetricKeyReceiver, encryptedMessage)
         );
     }
+
+    @Test
+    public void deriveSymmetricKey__CachedSharedSecretResultsInSameKey() throws InvalidKeyException {
+        var cachingCryptoService = new HubMessageCryptoService(new SecureRandom(),
+                new ECDHSharedSecretCache(10, Duration.ofMinutes(1)));
+        var privateKey = (ECPrivateKey) generateECDHKeyPair().getPrivate();
+        var publicKey = (ECPublicKey) generateECDHKeyPair().getPublic();
+
+        for (var keyingInfo : List.of("test-keying-info", "other-keying-info")) {
+            var derivedSymmetricKey = cryptoService.deriveSymmetricKey(privateKey, publicKey, keyingInfo.getBytes());
+            var cachedDerivedSymmetricKey = cachingCryptoService.deriveSymmetricKey(privateKey, publicKey,
+                    keyingInfo.getBytes());
+
+            assertEquals(derivedSymmetricKey.getAlgorithm(), cachedDerivedSymmetricKey.getAlgorithm());
+            assertArrayEquals(derivedSymmetricKey.getEncoded(), cachedDerivedSymmetricKey.getEncoded());
+        }
+    }
+
+    @Test
+    public void restorePlaintextWithCachedSharedSecretOnOneSide() throws InvalidKeyException, MessageCryptoException {
+        var cachingCryptoService = new HubMessageCryptoService(new SecureRandom(),
+                new ECDHSharedSecretCache(10, Duration.ofMinutes(1)));
+        var senderKeyPair = generateECDHKeyPair();
+        var receiverKeyPair = generateECDHKeyPair();
+        var testKeyingInfo = "test-keying-info".getBytes();
+
+        var symmetricKeySender = cachingCryptoService.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                (ECPublicKey) receiverKeyPair.getPublic(),
+                testKeyingInfo);
+        var symmetricKeyReceiver = cryptoService.deriveSymmetricKey((ECPrivateKey) receiverKeyPair.getPrivate(),
+                (ECPublicKey) senderKeyPair.getPublic(),
+                testKeyingInfo);
+
+        var encryptedMessage = cachingCryptoService.encryptMessage(symmetricKeySender, TEST_MESSAGE);
+        var restoredPlaintext = cryptoService.decryptMessage(symmetricKeyReceiver, encryptedMessage);
+
+        assertArrayEquals(TEST_MESSAGE, restoredPlaintext);
+    }
+
+    @Test
+    public void restorePlaintextFailsOnTamperedMessage() throws InvalidKeyException, MessageCryptoException {
+        var keyPair = generateECDHKeyPair();
+        var symmetricKey = cryptoService.deriveSymmetricKey((ECPrivateKey) keyPair.getPrivate(),
+                (ECPublicKey) keyPair.getPublic(),
+                "test-keying-info".getBytes());
+
+        var encryptedMessage = cryptoService.encryptMessage(symmetricKey, TEST_MESSAGE);
+        encryptedMessage[encryptedMessage.length - 1] ^= 1;
+
+        assertThrows(
+                MessageCryptoException.class,
+                () -> cryptoService.decryptMessage(symmetricKey, encryptedMessage)
+        );
+    }
+
+    @Test
+    public void restorePlaintextAcrossCipherProviders() throws InvalidKeyException, MessageCryptoException {
+        var bcCryptoService = new HubMessageCryptoService(new SecureRandom(), new CryptoProviderConfig.Builder()
+                .withKeyAgreementProvider(Security.getProvider("BC"))
+                .withCipherProvider(Security.getProvider("BC"))
+                .build());
+        var sunCryptoService = new HubMessageCryptoService(new SecureRandom(), new CryptoProviderConfig.Builder()
+                .withKeyAgreementProvider(Security.getProvider("BC"))
+                .withCipherProvider(Security.getProvider("SunJCE"))
+                .build());
+        var senderKeyPair = generateECDHKeyPair();
+        var receiverKeyPair = generateECDHKeyPair();
+        var testKeyingInfo = "test-keying-info".getBytes();
+
+        var symmetricKeySender = bcCryptoService.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                (ECPublicKey) receiverKeyPair.getPublic(),
+                testKeyingInfo);
+        var symmetricKeyReceiver = sunCryptoService.deriveSymmetricKey((ECPrivateKey) receiverKeyPair.getPrivate(),
+                (ECPublicKey) senderKeyPair.getPublic(),
+                testKeyingInfo);
+
+        var encryptedMessage = bcCryptoService.encryptMessage(symmetricKeySender, TEST_MESSAGE);
+        var restoredPlaintext = sunCryptoService.decryptMessage(symmetricKeyReceiver, encryptedMessage);
+
+        assertArrayEquals(TEST_MESSAGE, restoredPlaintext);
+    }
+
+    @Test
+    public void encryptEnvelope__derivedSymmetricKeysMustNotBeEmpty() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> cryptoService.encryptEnvelope(List.of(), TEST_MESSAGE)
+        );
+    }
+
+    @Test
+    public void restorePlaintextFromEnvelopeForEveryRecipient() throws InvalidKeyException, MessageCryptoException {
+        var senderKeyPair = generateECDHKeyPair();
+        var receiverKeyPairs = List.of(generateECDHKeyPair(), generateECDHKeyPair(), generateECDHKeyPair());
+        var testKeyingInfo = "test-keying-info".getBytes();
+
+        var symmetricKeysSender = new ArrayList<Key>();
+        for (var receiverKeyPair : receiverKeyPairs) {
+            symmetricKeysSender.add(cryptoService.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                    (ECPublicKey) receiverKeyPair.getPublic(),
+                    testKeyingInfo));
+        }
+
+        var envelope = cryptoService.encryptEnvelope(symmetricKeysSender, TEST_MESSAGE);
+        assertEquals(3 + receiverKeyPairs.size() * cryptoService.getEncryptedMessageLength(32)
+                + cryptoService.getEncryptedMessageLength(TEST_MESSAGE.length), envelope.length);
+
+        for (var receiverKeyPair : receiverKeyPairs) {
+            var symmetricKeyReceiver = cryptoService.deriveSymmetricKey(
+                    (ECPrivateKey) receiverKeyPair.getPrivate(),
+                    (ECPublicKey) senderKeyPair.getPublic(),
+                    testKeyingInfo);
+            assertArrayEquals(TEST_MESSAGE, cryptoService.decryptEnvelope(symmetricKeyReceiver, envelope));
+        }
+    }
+
+    @Test
+    public void restorePlaintextFromEnvelopeFailsForNonRecipient() throws InvalidKeyException, MessageCryptoException {
+        var senderKeyPair = generateECDHKeyPair();
+        var receiverKeyPair = generateECDHKeyPair();
+        var otherKeyPair = generateECDHKeyPair();
+        var testKeyingInfo = "test-keying-info".getBytes();
+
+        var symmetricKeySender = cryptoService.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                (ECPublicKey) receiverKeyPair.getPublic(),
+                testKeyingInfo);
+        var symmetricKeyOther = cryptoService.deriveSymmetricKey((ECPrivateKey) otherKeyPair.getPrivate(),
+                (ECPublicKey) senderKeyPair.getPublic(),
+                testKeyingInfo);
+
+        var envelope = cryptoService.encryptEnvelope(List.of(symmetricKeySender), TEST_MESSAGE);
+
+        assertThrows(
+                MessageCryptoException.class,
+                () -> cryptoService.decryptEnvelope(symmetricKeyOther, envelope)
+        );
+    }
+
+    @Test
+    public void restorePlaintextFromEnvelopeFailsOnMalformedEnvelope() throws InvalidKeyException {
+        var keyPair = generateECDHKeyPair();
+        var symmetricKey = cryptoService.deriveSymmetricKey((ECPrivateKey) keyPair.getPrivate(),
+                (ECPublicKey) keyPair.getPublic(),
+                "test-keying-info".getBytes());
+
+        assertThrows(
+                MessageCryptoException.class,
+                () -> cryptoService.decryptEnvelope(symmetricKey, new byte[]{1, 0})
+        );
+        assertThrows(
+                MessageCryptoException.class,
+                () -> cryptoService.decryptEnvelope(symmetricKey, new byte[]{2, 0, 0})
+        );
+        assertThrows(
+                MessageCryptoException.class,
+                () -> cryptoService.decryptEnvelope(symmetricKey, new byte[]{1, 0, 5, 0, 0, 0})
+        );
+    }
+
+    @Test
+    public void restorePlaintextFromEnvelopeAcrossCipherProviders() throws InvalidKeyException,
+            MessageCryptoException {
+        var bcCryptoService = new HubMessageCryptoService(new SecureRandom(), new CryptoProviderConfig.Builder()
+                .withCipherProvider(Security.getProvider("BC"))
+                .build());
+        var sunCryptoService = new HubMessageCryptoService(new SecureRandom(), new CryptoProviderConfig.Builder()
+                .withCipherProvider(Security.getProvider("SunJCE"))
+                .build());
+        var senderKeyPair = generateECDHKeyPair();
+        var receiverKeyPair = generateECDHKeyPair();
+        var testKeyingInfo = "test-keying-info".getBytes();
+
+        var symmetricKeySender = bcCryptoService.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                (ECPublicKey) receiverKeyPair.getPublic(),
+                testKeyingInfo);
+        var symmetricKeyReceiver = sunCryptoService.deriveSymmetricKey((ECPrivateKey) receiverKeyPair.getPrivate(),
+                (ECPublicKey) senderKeyPair.getPublic(),
+                testKeyingInfo);
+
+        var envelope = bcCryptoService.encryptEnvelope(List.of(symmetricKeySender), TEST_MESSAGE);
+        assertArrayEquals(TEST_MESSAGE, sunCryptoService.decryptEnvelope(symmetricKeyReceiver, envelope));
+
+        envelope = sunCryptoService.encryptEnvelope(List.of(symmetricKeySender), TEST_MESSAGE);
+        assertArrayEquals(TEST_MESSAGE, bcCryptoService.decryptEnvelope(symmetricKeyReceiver, envelope));
+    }
 }
@@ -0,0 +1,103 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageRecipient;
+import de.privateaim.node_message_broker.message.api.hub.OutgoingHubMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.Socket;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+public final class HubEnvelopeMessageEmitterTest {
+
+    private static final EnvelopeEmitMessage TEST_MESSAGE = new EnvelopeEmitMessage(
+            List.of(new EmitMessageRecipient("robot-1"), new EmitMessageRecipient("robot-2")),
+            "foo".getBytes(),
+            new EmitMessageContext(UUID.randomUUID(), "analysis-123"));
+
+    private ArgumentCaptor<JSONObject> messageCaptor;
+
+    @Mock
+    private Socket socket;
+
+    private HubEnvelopeMessageEmitter emitter;
+
+    @BeforeEach
+    public void setUp() {
+        var meterRegistry = new SimpleMeterRegistry();
+        emitter = new HubEnvelopeMessageEmitter(new HubMessageEmitter(socket, meterRegistry), meterRegistry);
+        messageCaptor = ArgumentCaptor.forClass(JSONObject.class);
+    }
+
+    @Test
+    public void messageGetsEmittedOnceToAllRecipients() {
+        emitter.registerMiddleware("uppercase",
+                msg -> Mono.just(msg.withPayload(new String(msg.payload()).toUpperCase().getBytes())));
+
+        var expectedEmitMessage = new OutgoingHubMessage(
+                List.of(new HubMessageRecipient("robot", "robot-1"), new HubMessageRecipient("robot", "robot-2")),
+                "FOO",
+                new HubMessageMetadata(
+                        TEST_MESSAGE.context().messageId(),
+                        TEST_MESSAGE.context().analysisId(),
+                        HubMessageMetadata.ENVELOPE_ENCRYPTION
+                )
+        );
+
+        Mockito.doReturn(socket).when(socket).emit(Mockito.anyString(), messageCaptor.capture());
+
+        StepVerifier.create(emitter.emitMessage(TEST_MESSAGE))
+                .verifyComplete();
+
+        Mockito.verify(socket, Mockito.times(1)).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+        assertTrue(messageCaptor.getValue().similar(new JSONObject(expectedEmitMessage)));
+        assertEquals(HubMessageMetadata.ENVELOPE_ENCRYPTION,
+                messageCaptor.getValue().getJSONObject("metadata").getString("encryption"));
+    }
+
+    @Test
+    public void messagesOfAnalysisAreEmittedViaSameConnectionOfPool() {
+        var otherSocket = Mockito.mock(Socket.class);
+        var meterRegistry = new SimpleMeterRegistry();
+        var pool = new HubMessageEmitterPool(List.of(
+                new HubMessageEmitter(socket, meterRegistry),
+                new HubMessageEmitter(otherSocket, meterRegistry)));
+        var pooledEmitter = new HubEnvelopeMessageEmitter(pool, meterRegistry);
+
+        StepVerifier.create(pooledEmitter.emitMessage(TEST_MESSAGE)
+                        .then(pooledEmitter.emitMessage(TEST_MESSAGE)))
+                .verifyComplete();
+
+        var expectedSocket = pool.emitterFor(TEST_MESSAGE.context().analysisId(), null) == pool.emitters().getFirst()
+                ? socket
+                : otherSocket;
+        var unexpectedSocket = expectedSocket == socket ? otherSocket : socket;
+        Mockito.verify(expectedSocket, Mockito.times(2)).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+        Mockito.verifyNoInteractions(unexpectedSocket);
+    }
+
+    @Test
+    public void messageGetsNotEmittedIfMiddlewareFails() {
+        emitter.registerMiddleware("failing", msg -> Mono.error(new Exception("random error")));
+
+        StepVerifier.create(emitter.emitMessage(TEST_MESSAGE))
+                .verifyError(EmitMessageException.class);
+
+        Mockito.verifyNoInteractions(socket);
+    }
+}
@@ -0,0 +1,49 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+public final class HubMessageBase64EncodingMiddlewareTest {
+
+    private static final byte[] TEST_PAYLOAD = "{\"foo\": \"bar\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final HubMessageBase64EncodingMiddleware middleware = new HubMessageBase64EncodingMiddleware();
+
+    @Test
+    void messageMustNotBeNull() {
+        StepVerifier.create(middleware.apply(null))
+                .expectError(EmitMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    void payloadGetsEncoded() {
+        var message = EmitMessage.builder()
+                .sendTo(new EmitMessageRecipient("robot-123"))
+                .withPayload(TEST_PAYLOAD)
+                .inContext(new EmitMessageContext(UUID.randomUUID(), "analysis-123"))
+                .build();
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(new EmitMessage(message.recipient(), Base64.getEncoder().encode(TEST_PAYLOAD),
+                        message.context()))
+                .verifyComplete();
+    }
+
+    @Test
+    void envelopePayloadGetsEncoded() {
+        var message = new EnvelopeEmitMessage(
+                List.of(new EmitMessageRecipient("robot-123"), new EmitMessageRecipient("robot-456")),
+                TEST_PAYLOAD,
+                new EmitMessageContext(UUID.randomUUID(), "analysis-123"));
+
+        StepVerifier.create(middleware.forEnvelopes().apply(message))
+                .expectNext(message.withPayload(Base64.getEncoder().encode(TEST_PAYLOAD)))
+                .verifyComplete();
+    }
+}
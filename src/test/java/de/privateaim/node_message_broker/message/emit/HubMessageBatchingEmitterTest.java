@@ -0,0 +1,202 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageBatch;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static de.privateaim.node_message_broker.message.emit.MessageUtil.generateBasicMessage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class HubMessageBatchingEmitterTest {
+
+    private List<EmitMessage> emittedMessages;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        emittedMessages = new CopyOnWriteArrayList<>();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private HubMessageBatchingEmitter createEmitter(HubMessageBatchConfig config) {
+        return new HubMessageBatchingEmitter(msg -> Mono.fromRunnable(() -> emittedMessages.add(msg)), config,
+                meterRegistry);
+    }
+
+    private static EmitMessage messageFor(EmitMessage other, String payload) {
+        return EmitMessage.builder()
+                .sendTo(other.recipient())
+                .withPayload(payload.getBytes())
+                .inContext(new EmitMessageContext(UUID.randomUUID(), other.context().analysisId()))
+                .build();
+    }
+
+    @Test
+    void singleMessageGetsEmittedAsIsOnceWindowElapsed() {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofMillis(20))
+                .build());
+        var message = generateBasicMessage("foo".getBytes());
+
+        StepVerifier.create(emitter.emitMessage(message))
+                .verifyComplete();
+
+        assertEquals(1, emittedMessages.size());
+        assertSame(message, emittedMessages.getFirst());
+    }
+
+    @Test
+    void messagesForSameRecipientGetEmittedAsSingleBatch() {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofMillis(50))
+                .build());
+        var first = generateBasicMessage("foo".getBytes());
+        var second = messageFor(first, "bar");
+
+        StepVerifier.create(Flux.merge(emitter.emitMessage(first), emitter.emitMessage(second)))
+                .verifyComplete();
+
+        assertEquals(1, emittedMessages.size());
+        var batchMessage = emittedMessages.getFirst();
+        assertEquals(first.recipient(), batchMessage.recipient());
+        assertEquals(first.context().analysisId(), batchMessage.context().analysisId());
+        assertEquals(HubMessageMetadata.BATCH_FRAMING, batchMessage.context().framing());
+        assertEquals(List.of(
+                        new HubMessageBatch.Entry(first.context().messageId(), first.payload()),
+                        new HubMessageBatch.Entry(second.context().messageId(), second.payload())),
+                HubMessageBatch.decode(batchMessage.payload()).entries());
+        assertEquals(1, meterRegistry.get(HubMessageBatchingEmitter.BATCH_SIZE_SUMMARY_NAME).summary().count());
+        assertEquals(2, meterRegistry.get(HubMessageBatchingEmitter.BATCH_SIZE_SUMMARY_NAME).summary()
+                .totalAmount());
+    }
+
+    @Test
+    void messagesForDifferentRecipientsGetEmittedSeparately() {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofMillis(20))
+                .build());
+        var first = generateBasicMessage("foo".getBytes());
+        var second = generateBasicMessage("bar".getBytes());
+
+        StepVerifier.create(Flux.merge(emitter.emitMessage(first), emitter.emitMessage(second)))
+                .verifyComplete();
+
+        assertEquals(2, emittedMessages.size());
+        emittedMessages.forEach(msg -> assertEquals(null, msg.context().framing()));
+    }
+
+    @Test
+    void batchGetsEmittedRightAwayOnceItReachesMaxMessages() {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofHours(1))
+                .withMaxMessages(2)
+                .build());
+        var first = generateBasicMessage("foo".getBytes());
+
+        StepVerifier.create(Flux.merge(emitter.emitMessage(first), emitter.emitMessage(messageFor(first, "bar"))))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, emittedMessages.size());
+        assertEquals(2, HubMessageBatch.decode(emittedMessages.getFirst().payload()).entries().size());
+    }
+
+    @Test
+    void messageThatExceedsMaxBytesOfOpenBatchStartsNewBatch() {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofMillis(50))
+                .withMaxBytes(5)
+                .build());
+        var first = generateBasicMessage("foo".getBytes());
+        var second = messageFor(first, "bar");
+
+        StepVerifier.create(Flux.merge(emitter.emitMessage(first), emitter.emitMessage(second)))
+                .verifyComplete();
+
+        assertEquals(2, emittedMessages.size());
+        assertSame(first, emittedMessages.get(0));
+        assertSame(second, emittedMessages.get(1));
+    }
+
+    @Test
+    void allMessagesOfBatchFailIfBatchCannotGetEmitted() {
+        var emitter = new HubMessageBatchingEmitter(msg -> Mono.error(new EmitMessageException("failed",
+                new RuntimeException())), new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofMillis(20))
+                .build(), meterRegistry);
+        var first = generateBasicMessage("foo".getBytes());
+
+        StepVerifier.create(emitter.emitMessage(first))
+                .verifyError(EmitMessageException.class);
+        StepVerifier.create(Flux.merge(
+                        emitter.emitMessage(first).onErrorResume(err -> Mono.empty()),
+                        emitter.emitMessage(messageFor(first, "bar"))))
+                .verifyError(EmitMessageException.class);
+    }
+
+    @Test
+    void cancelledMessageGetsWithdrawnFromOpenBatch() throws Exception {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofMillis(50))
+                .build());
+        var first = generateBasicMessage("foo".getBytes());
+        var second = messageFor(first, "bar");
+
+        var cancelled = emitter.emitMessage(first).subscribe();
+        var emitted = emitter.emitMessage(second).toFuture();
+        cancelled.dispose();
+        emitted.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, emittedMessages.size());
+        assertSame(second, emittedMessages.getFirst());
+    }
+
+    @Test
+    void closingEmitterFailsMessagesOfOpenBatches() {
+        var emitter = createEmitter(new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofHours(1))
+                .build());
+        var first = generateBasicMessage("foo".getBytes());
+
+        StepVerifier.create(emitter.emitMessage(first))
+                .then(emitter::close)
+                .verifyError(EmitMessageException.class);
+        StepVerifier.create(emitter.emitMessage(messageFor(first, "bar")))
+                .verifyError(EmitMessageException.class);
+
+        assertTrue(emittedMessages.isEmpty());
+    }
+
+    @Test
+    void closingEmitterCancelsBatchesThatAreBeingEmitted() {
+        var emissionCancelled = new AtomicBoolean();
+        var emitter = new HubMessageBatchingEmitter(msg -> Mono.<Void>never()
+                .doOnCancel(() -> emissionCancelled.set(true)), new HubMessageBatchConfig.Builder()
+                .withWindow(Duration.ofHours(1))
+                .withMaxMessages(2)
+                .build(), meterRegistry);
+        var first = generateBasicMessage("foo".getBytes());
+
+        StepVerifier.create(Flux.merge(emitter.emitMessage(first), emitter.emitMessage(messageFor(first, "bar"))))
+                .then(emitter::close)
+                .verifyError(EmitMessageException.class);
+
+        assertTrue(emissionCancelled.get());
+    }
+}
@@ -0,0 +1,114 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageChunk;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.privateaim.node_message_broker.message.emit.MessageUtil.generateBasicMessage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class HubMessageChunkingEmitterTest {
+
+    private static final HubMessageChunkConfig TEST_CONFIG = new HubMessageChunkConfig.Builder()
+            .withThresholdBytes(8)
+            .withChunkSizeBytes(4)
+            .withMaxInFlightChunks(2)
+            .build();
+
+    private List<EmitMessage> emittedMessages;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        emittedMessages = new CopyOnWriteArrayList<>();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void messageUpToThresholdGetsEmittedAsIs() {
+        var emitter = new HubMessageChunkingEmitter(msg -> Mono.fromRunnable(() -> emittedMessages.add(msg)),
+                TEST_CONFIG, meterRegistry);
+        var message = generateBasicMessage("12345678".getBytes());
+
+        StepVerifier.create(emitter.emitMessage(message))
+                .verifyComplete();
+
+        assertEquals(1, emittedMessages.size());
+        assertSame(message, emittedMessages.getFirst());
+    }
+
+    @Test
+    void largeMessageGetsEmittedInChunks() {
+        var emitter = new HubMessageChunkingEmitter(msg -> Mono.fromRunnable(() -> emittedMessages.add(msg)),
+                TEST_CONFIG, meterRegistry);
+        var message = generateBasicMessage("0123456789".getBytes());
+
+        StepVerifier.create(emitter.emitMessage(message))
+                .verifyComplete();
+
+        assertEquals(3, emittedMessages.size());
+        var chunks = emittedMessages.stream()
+                .peek(msg -> {
+                    assertEquals(message.recipient(), msg.recipient());
+                    assertEquals(message.context().analysisId(), msg.context().analysisId());
+                    assertEquals(HubMessageMetadata.CHUNK_FRAMING, msg.context().framing());
+                })
+                .map(msg -> HubMessageChunk.decode(msg.payload()))
+                .sorted(Comparator.comparingInt(HubMessageChunk::index))
+                .toList();
+
+        var reassembled = new ByteArrayOutputStream();
+        chunks.forEach(chunk -> {
+            assertEquals(message.context().messageId(), chunk.transferId());
+            assertEquals(3, chunk.count());
+            assertEquals(10, chunk.totalLength());
+            assertEquals(reassembled.size(), chunk.offset());
+            reassembled.writeBytes(chunk.data());
+        });
+        assertArrayEquals(message.payload(), reassembled.toByteArray());
+        assertEquals(3, meterRegistry.get(HubMessageChunkingEmitter.CHUNK_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void chunksGetEmittedWithBoundedConcurrency() {
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        var emitter = new HubMessageChunkingEmitter(msg -> Mono.delay(Duration.ofMillis(10))
+                .doOnSubscribe(ignored -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                .doOnTerminate(inFlight::decrementAndGet)
+                .then(), TEST_CONFIG, meterRegistry);
+
+        StepVerifier.create(emitter.emitMessage(generateBasicMessage(new byte[64])))
+                .verifyComplete();
+
+        assertTrue(maxInFlight.get() <= 2);
+        assertEquals(16, meterRegistry.get(HubMessageChunkingEmitter.CHUNK_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void emittingFailsIfAnyChunkCannotGetEmitted() {
+        var emitted = new AtomicInteger();
+        var emitter = new HubMessageChunkingEmitter(msg -> emitted.incrementAndGet() == 2
+                ? Mono.error(new EmitMessageException("could not emit chunk",
+                        new IllegalStateException("socket is not connected")))
+                : Mono.empty(), TEST_CONFIG, meterRegistry);
+
+        StepVerifier.create(emitter.emitMessage(generateBasicMessage(new byte[16])))
+                .verifyError(EmitMessageException.class);
+    }
+}
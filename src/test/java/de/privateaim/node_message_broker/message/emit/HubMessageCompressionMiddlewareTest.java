@@ -0,0 +1,91 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.message.compression.PayloadCompression;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static de.privateaim.node_message_broker.message.emit.MessageUtil.generateBasicMessage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class HubMessageCompressionMiddlewareTest {
+
+    private static final byte[] COMPRESSIBLE_PAYLOAD = "{\"weights\":[0.1,0.1,0.1,0.1]}".repeat(100).getBytes();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HubMessageCompressionMiddleware middleware;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        middleware = new HubMessageCompressionMiddleware(64, meterRegistry);
+    }
+
+    @Test
+    void creatingMiddlewareWithNegativeThresholdFails() {
+        assertThrows(IllegalArgumentException.class, () -> new HubMessageCompressionMiddleware(-1, meterRegistry));
+    }
+
+    @Test
+    void payloadAtThresholdGetsCompressedAndCodecIsRecorded() {
+        var message = generateBasicMessage(COMPRESSIBLE_PAYLOAD);
+
+        StepVerifier.create(middleware.apply(message))
+                .assertNext(compressed -> {
+                    assertEquals(PayloadCompression.DEFLATE, compressed.context().compression());
+                    assertEquals(message.context().messageId(), compressed.context().messageId());
+                    assertEquals(message.recipient(), compressed.recipient());
+                    try {
+                        assertArrayEquals(COMPRESSIBLE_PAYLOAD,
+                                PayloadCompression.inflate(compressed.payload(), COMPRESSIBLE_PAYLOAD.length));
+                    } catch (DataFormatException e) {
+                        throw new AssertionError(e);
+                    }
+                })
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get(PayloadCompression.RATIO_SUMMARY_NAME).summary().count());
+        assertEquals(1, meterRegistry.get(PayloadCompression.CPU_TIMER_NAME)
+                .tags("operation", "compress").timer().count());
+    }
+
+    @Test
+    void payloadBelowThresholdIsLeftAsIs() {
+        var message = generateBasicMessage("small".getBytes());
+
+        StepVerifier.create(middleware.apply(message))
+                .assertNext(result -> assertSame(message, result))
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get(PayloadCompression.SKIPPED_COUNTER_NAME)
+                .tags("reason", "below-threshold").counter().count());
+    }
+
+    @Test
+    void payloadThatDoesNotGetSmallerIsLeftAsIs() {
+        var incompressiblePayload = new byte[128];
+        new Random(42).nextBytes(incompressiblePayload);
+        var message = generateBasicMessage(incompressiblePayload);
+
+        StepVerifier.create(middleware.apply(message))
+                .assertNext(result -> assertSame(message, result))
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get(PayloadCompression.SKIPPED_COUNTER_NAME)
+                .tags("reason", "not-beneficial").counter().count());
+    }
+
+    @Test
+    void nullMessageResultsInError() {
+        StepVerifier.create(middleware.apply(null))
+                .verifyError(EmitMiddlewareException.class);
+    }
+}
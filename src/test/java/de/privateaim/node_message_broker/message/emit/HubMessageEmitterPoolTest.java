@@ -0,0 +1,109 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.Socket;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+public final class HubMessageEmitterPoolTest {
+
+    @Mock
+    private Socket socket0;
+
+    @Mock
+    private Socket socket1;
+
+    @Mock
+    private Socket socket2;
+
+    @Mock
+    private Socket socket3;
+
+    private List<Socket> sockets;
+    private HubMessageEmitterPool pool;
+
+    @BeforeEach
+    void setUp() {
+        var meterRegistry = new SimpleMeterRegistry();
+        sockets = List.of(socket0, socket1, socket2, socket3);
+        pool = new HubMessageEmitterPool(sockets.stream()
+                .map(socket -> new HubMessageEmitter(socket, meterRegistry))
+                .toList());
+    }
+
+    private static EmitMessage message(String analysisId, String recipient, String payload) {
+        return EmitMessage.builder()
+                .sendTo(new EmitMessageRecipient(recipient))
+                .withPayload(payload.getBytes())
+                .inContext(new EmitMessageContext(UUID.randomUUID(), analysisId))
+                .build();
+    }
+
+    private List<JSONObject> framesEmittedVia(Socket socket) {
+        var frameCaptor = ArgumentCaptor.forClass(JSONObject.class);
+        Mockito.verify(socket, Mockito.atLeast(0)).emit(Mockito.anyString(), frameCaptor.capture());
+        return frameCaptor.getAllValues();
+    }
+
+    @Test
+    void poolMustNotBeEmpty() {
+        assertThrows(IllegalArgumentException.class, () -> new HubMessageEmitterPool(List.of()));
+    }
+
+    @Test
+    void messagesOfAnalysisToSameRecipientAreEmittedInOrderViaSameConnection() {
+        var messages = new ArrayList<EmitMessage>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(message("analysis-123", "robot-1", "msg-" + i));
+        }
+
+        StepVerifier.create(Flux.fromIterable(messages).concatMap(pool::emitMessage))
+                .verifyComplete();
+
+        var usedSockets = sockets.stream()
+                .filter(socket -> !framesEmittedVia(socket).isEmpty())
+                .toList();
+        assertEquals(1, usedSockets.size());
+
+        var payloads = framesEmittedVia(usedSockets.getFirst()).stream()
+                .map(frame -> frame.getString("data"))
+                .toList();
+        assertEquals(messages.stream().map(msg -> new String(msg.payload())).toList(), payloads);
+    }
+
+    @Test
+    void messagesToDifferentRecipientsAreDistributedAcrossConnections() {
+        var messages = new ArrayList<EmitMessage>();
+        for (int i = 0; i < 100; i++) {
+            messages.add(message("analysis-123", "robot-" + i, "msg-" + i));
+        }
+
+        StepVerifier.create(Flux.fromIterable(messages).concatMap(pool::emitMessage))
+                .verifyComplete();
+
+        var emittedFrames = 0;
+        for (var socket : sockets) {
+            var frames = framesEmittedVia(socket);
+            assertTrue(!frames.isEmpty(), "every connection is expected to emit messages");
+            emittedFrames += frames.size();
+        }
+        assertEquals(messages.size(), emittedFrames);
+    }
+}
@@ -1,8 +1,13 @@
 package de.privateaim.node_message_broker.message.emit;
 
+import de.privateaim.node_message_broker.message.MiddlewareChain;
 import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
 import de.privateaim.node_message_broker.message.api.hub.HubMessageRecipient;
 import de.privateaim.node_message_broker.message.api.hub.OutgoingHubMessage;
+import de.privateaim.node_message_broker.message.emit.outbox.MessageOutbox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.socket.client.Ack;
+import io.socket.client.AckWithTimeout;
 import io.socket.client.Socket;
 import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
@@ -13,12 +18,22 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static de.privateaim.node_message_broker.message.emit.MessageUtil.generateBasicMessage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,11 +44,14 @@ public final class HubMessageEmitterTest {
     @Mock
     private Socket socket;
 
+    private SimpleMeterRegistry meterRegistry;
+
     private HubMessageEmitter emitter;
 
     @BeforeEach
     public void setUp() {
-        emitter = new HubMessageEmitter(socket);
+        meterRegistry = new SimpleMeterRegistry();
+        emitter = new HubMessageEmitter(socket, meterRegistry);
         messageCaptor = ArgumentCaptor.forClass(JSONObject.class);
     }
 
@@ -62,6 +80,23 @@ public final class HubMessageEmitterTest {
 
         Mockito.verify(socket, Mockito.times(1)).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
         assertTrue(messageCaptor.getValue().similar(new JSONObject(expectedEmitMessage)));
+        assertFalse(messageCaptor.getValue().getJSONObject("metadata").has("encryption"));
+    }
+
+    @Test
+    public void compressionCodecOfMessageIsRecordedInMetadata() {
+        var testMessage = generateBasicMessage("foo".getBytes());
+        emitter.registerMiddleware(msg -> Mono.just(new EmitMessage(
+                msg.recipient(),
+                msg.payload(),
+                msg.context().withCompression("deflate"))));
+
+        Mockito.doReturn(socket).when(socket).emit(Mockito.anyString(), messageCaptor.capture());
+
+        StepVerifier.create(emitter.emitMessage(testMessage))
+                .verifyComplete();
+
+        assertEquals("deflate", messageCaptor.getValue().getJSONObject("metadata").getString("compression"));
     }
 
     @Test
@@ -114,4 +149,230 @@ public final class HubMessageEmitterTest {
         Mockito.verify(socket, Mockito.times(1)).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
         assertTrue(messageCaptor.getValue().similar(new JSONObject(expectedEmitMessage)));
     }
+
+    @Test
+    public void metricsGetRecordedForEveryStage() {
+        emitter.registerMiddleware("uppercase", msg -> Mono.just(new EmitMessage(
+                msg.recipient(),
+                new String(msg.payload()).toUpperCase().getBytes(),
+                msg.context()
+        )));
+
+        Mockito.doReturn(socket).when(socket).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+
+        StepVerifier.create(emitter.emitMessage(generateBasicMessage("foo".getBytes())))
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get(MiddlewareChain.STAGE_TIMER_NAME)
+                .tags("direction", "emit", "stage", "uppercase").timer().count());
+        assertEquals(1, meterRegistry.get(MiddlewareChain.STAGE_TIMER_NAME)
+                .tags("direction", "emit", "stage", "socket-emit").timer().count());
+    }
+
+    @Test
+    public void messageGetsStoredInOutboxInsteadOfEmittedWhileSocketIsNotConnected() {
+        var outbox = new InMemoryMessageOutbox();
+        var outboxEmitter = new HubMessageEmitter(socket, meterRegistry, outbox);
+        var testMessage = generateBasicMessage("foo".getBytes());
+
+        Mockito.doReturn(false).when(socket).connected();
+
+        StepVerifier.create(outboxEmitter.emitMessage(testMessage))
+                .verifyComplete();
+
+        Mockito.verify(socket, Mockito.never()).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+        assertEquals(1, outbox.frames.size());
+        assertEquals(testMessage.context().messageId().toString(),
+                new JSONObject(outbox.frames.getFirst()).getJSONObject("metadata").getString("messageId"));
+        assertEquals(testMessage.context().analysisId() + "/" + testMessage.recipient().nodeRobotId(),
+                outbox.orderingKeys.getFirst());
+    }
+
+    @Test
+    public void messageGetsEmittedRightAwayWhileSocketIsConnected() {
+        var outbox = new InMemoryMessageOutbox();
+        var outboxEmitter = new HubMessageEmitter(socket, meterRegistry, outbox);
+
+        Mockito.doReturn(true).when(socket).connected();
+        Mockito.doReturn(socket).when(socket).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+
+        StepVerifier.create(outboxEmitter.emitMessage(generateBasicMessage("foo".getBytes())))
+                .verifyComplete();
+
+        Mockito.verify(socket, Mockito.times(1)).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+        assertTrue(outbox.frames.isEmpty());
+    }
+
+    @Test
+    public void storedMessagesGetEmittedOnceOutboxGetsDrained() {
+        var outbox = new InMemoryMessageOutbox();
+        var outboxEmitter = new HubMessageEmitter(socket, meterRegistry, outbox);
+        var testMessage = generateBasicMessage("foo".getBytes());
+
+        Mockito.doReturn(false).when(socket).connected();
+        StepVerifier.create(outboxEmitter.emitMessage(testMessage))
+                .verifyComplete();
+
+        Mockito.doReturn(true).when(socket).connected();
+        Mockito.doReturn(socket).when(socket).emit(Mockito.anyString(), messageCaptor.capture());
+        StepVerifier.create(outboxEmitter.drainOutbox())
+                .expectNext(1L)
+                .verifyComplete();
+
+        assertTrue(outbox.frames.isEmpty());
+        assertEquals(testMessage.context().messageId().toString(),
+                messageCaptor.getValue().getJSONObject("metadata").getString("messageId"));
+    }
+
+    @Test
+    public void storedMessagesAreKeptIfSocketDisconnectsWhileDrainingOutbox() {
+        var outbox = new InMemoryMessageOutbox();
+        var outboxEmitter = new HubMessageEmitter(socket, meterRegistry, outbox);
+
+        Mockito.doReturn(false).when(socket).connected();
+        StepVerifier.create(outboxEmitter.emitMessage(generateBasicMessage("foo".getBytes())))
+                .verifyComplete();
+
+        StepVerifier.create(outboxEmitter.drainOutbox())
+                .expectNext(0L)
+                .verifyComplete();
+
+        Mockito.verify(socket, Mockito.never()).emit(Mockito.anyString(), Mockito.any(JSONObject.class));
+        assertEquals(1, outbox.frames.size());
+    }
+
+    @Test
+    public void drainingDoesNothingWithoutOutbox() {
+        StepVerifier.create(emitter.drainOutbox())
+                .expectNext(0L)
+                .verifyComplete();
+
+        Mockito.verifyNoInteractions(socket);
+    }
+
+    private static final HubMessageAckConfig TEST_ACK_CONFIG = new HubMessageAckConfig.Builder()
+            .withTimeout(Duration.ofMillis(100))
+            .withMaxRetries(2)
+            .withRetryBackoff(Duration.ofMillis(10))
+            .build();
+
+    @Test
+    public void acknowledgedEmitCompletesOnceHubAcknowledgesMessage() {
+        var ackEmitter = new HubMessageEmitter(socket, meterRegistry, null, TEST_ACK_CONFIG);
+
+        Mockito.doAnswer(invocation -> {
+            invocation.getArgument(2, Ack.class).call();
+            return socket;
+        }).when(socket).emit(Mockito.eq("send"), Mockito.any(Object[].class), Mockito.any(Ack.class));
+
+        StepVerifier.create(ackEmitter.emitMessage(generateBasicMessage("foo".getBytes())))
+                .verifyComplete();
+
+        Mockito.verify(socket, Mockito.times(1))
+                .emit(Mockito.eq("send"), Mockito.any(Object[].class), Mockito.any(Ack.class));
+        assertEquals(1, meterRegistry.get(HubMessageEmitter.ACK_TIMER_NAME)
+                .tags("outcome", "acknowledged").timer().count());
+    }
+
+    @Test
+    public void acknowledgedEmitGetsRetriedIfHubDoesNotAcknowledgeInTime() {
+        var ackEmitter = new HubMessageEmitter(socket, meterRegistry, null, TEST_ACK_CONFIG);
+        var attempts = new AtomicInteger();
+        var messageIds = new ArrayList<String>();
+
+        Mockito.doAnswer(invocation -> {
+            var frame = (JSONObject) invocation.getArgument(1, Object[].class)[0];
+            messageIds.add(frame.getJSONObject("metadata").getString("messageId"));
+            // only acknowledge the second attempt, the first one times out the same way socket.io lets it time out
+            var ack = invocation.getArgument(2, AckWithTimeout.class);
+            if (attempts.incrementAndGet() > 1) {
+                ack.call();
+            } else {
+                ack.onTimeout();
+            }
+            return socket;
+        }).when(socket).emit(Mockito.eq("send"), Mockito.any(Object[].class), Mockito.any(Ack.class));
+
+        StepVerifier.create(ackEmitter.emitMessage(generateBasicMessage("foo".getBytes())))
+                .verifyComplete();
+
+        assertEquals(2, attempts.get());
+        // the retry carries the same message id so that the recipient can discard it if the first attempt arrived
+        assertEquals(messageIds.get(0), messageIds.get(1));
+        assertEquals(1, meterRegistry.get(HubMessageEmitter.ACK_TIMER_NAME)
+                .tags("outcome", "timeout").timer().count());
+        assertEquals(1, meterRegistry.get(HubMessageEmitter.ACK_RETRY_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    public void acknowledgedEmitFailsIfHubKeepsRejectingMessage() {
+        var ackEmitter = new HubMessageEmitter(socket, meterRegistry, null, TEST_ACK_CONFIG);
+
+        Mockito.doAnswer(invocation -> {
+            invocation.getArgument(2, Ack.class).call(new JSONObject().put("error", "unknown recipient"));
+            return socket;
+        }).when(socket).emit(Mockito.eq("send"), Mockito.any(Object[].class), Mockito.any(Ack.class));
+
+        StepVerifier.create(ackEmitter.emitMessage(generateBasicMessage("foo".getBytes())))
+                .expectErrorMatches(err -> err instanceof EmitMessageException
+                        && err.getCause() instanceof EmitMessageRejectedException)
+                .verify();
+
+        Mockito.verify(socket, Mockito.times(3))
+                .emit(Mockito.eq("send"), Mockito.any(Object[].class), Mockito.any(Ack.class));
+        assertEquals(3, meterRegistry.get(HubMessageEmitter.ACK_TIMER_NAME)
+                .tags("outcome", "rejected").timer().count());
+    }
+
+    @Test
+    public void payloadGetsAttachedAsBinaryDataWithBinaryTransport() {
+        var binaryEmitter = new HubMessageEmitter(socket, meterRegistry, null, null, HubMessageTransport.BINARY);
+        var payload = new byte[]{0, 1, 2, (byte) 0xff};
+
+        Mockito.doReturn(socket).when(socket).emit(Mockito.anyString(), messageCaptor.capture());
+
+        StepVerifier.create(binaryEmitter.emitMessage(generateBasicMessage(payload)))
+                .verifyComplete();
+
+        assertArrayEquals(payload, (byte[]) messageCaptor.getValue().get("data"));
+    }
+
+    @Test
+    public void binaryPayloadGetsStoredAsBase64InOutbox() {
+        var outbox = new InMemoryMessageOutbox();
+        var binaryEmitter = new HubMessageEmitter(socket, meterRegistry, outbox, null, HubMessageTransport.BINARY);
+        var payload = new byte[]{0, 1, 2, (byte) 0xff};
+
+        Mockito.doReturn(false).when(socket).connected();
+
+        StepVerifier.create(binaryEmitter.emitMessage(generateBasicMessage(payload)))
+                .verifyComplete();
+
+        assertEquals(1, outbox.frames.size());
+        assertEquals(Base64.getEncoder().encodeToString(payload),
+                new JSONObject(outbox.frames.getFirst()).getString("data"));
+    }
+
+    private static final class InMemoryMessageOutbox implements MessageOutbox {
+        private final List<String> frames = new CopyOnWriteArrayList<>();
+        private final List<String> orderingKeys = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Mono<Void> store(String frame, String orderingKey) {
+            return Mono.fromRunnable(() -> {
+                frames.add(frame);
+                orderingKeys.add(orderingKey);
+            });
+        }
+
+        @Override
+        public Mono<Long> drain(Function<String, Mono<Void>> emitter) {
+            return Flux.fromIterable(frames)
+                    .concatMap(frame -> emitter.apply(frame)
+                            .then(Mono.fromRunnable(() -> frames.remove(frame)))
+                            .thenReturn(frame)
+                            .onErrorResume(err -> Mono.empty()))
+                    .count();
+        }
+    }
 }
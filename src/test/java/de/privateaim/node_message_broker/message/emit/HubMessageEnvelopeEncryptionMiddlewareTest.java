@@ -0,0 +1,127 @@
+package de.privateaim.node_message_broker.message.emit;
+
+import de.privateaim.node_message_broker.common.hub.HubClient;
+import de.privateaim.node_message_broker.common.hub.HubNodePublicKeyNotObtainable;
+import de.privateaim.node_message_broker.message.crypto.HubMessageCryptoService;
+import de.privateaim.node_message_broker.message.crypto.MessageCryptoException;
+import de.privateaim.node_message_broker.message.crypto.MessageCryptoService;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static de.privateaim.node_message_broker.message.CryptoUtil.generateECDHKeyPair;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public final class HubMessageEnvelopeEncryptionMiddlewareTest {
+
+    private static final UUID MESSAGE_ID = UUID.fromString("f691940a-e5ce-483c-80d7-17b9e4f682fe");
+    private static final String ANALYSIS_ID = "analysis-123";
+    private static final MessageCryptoService HUB_MESSAGE_CRYPTO_SERVICE = new HubMessageCryptoService(new SecureRandom());
+    private static final EnvelopeEmitMessage TEST_MESSAGE = new EnvelopeEmitMessage(
+            List.of(new EmitMessageRecipient("robot-1"), new EmitMessageRecipient("robot-2")),
+            "FOO".getBytes(),
+            new EmitMessageContext(
+                    MESSAGE_ID,
+                    ANALYSIS_ID
+            )
+    );
+
+    private static final Function<EmitMessageContext, byte[]> KDF_KEYING_INFO_GENERATOR = context ->
+            (context.messageId() + context.analysisId()).getBytes();
+
+    private static KeyPair nodeKeyPair;
+    private static KeyPair firstRecipientKeyPair;
+    private static KeyPair secondRecipientKeyPair;
+    private static HubClient hubClient;
+    private static HubMessageEnvelopeEncryptionMiddleware middleware;
+
+    @BeforeAll
+    public static void setUpTestEnvironment() {
+        var securityProvider = new BouncyCastleProvider();
+        Security.addProvider(securityProvider);
+
+        nodeKeyPair = generateECDHKeyPair();
+        firstRecipientKeyPair = generateECDHKeyPair();
+        secondRecipientKeyPair = generateECDHKeyPair();
+
+        hubClient = Mockito.mock(HubClient.class);
+
+        middleware = new HubMessageEnvelopeEncryptionMiddleware(
+                (ECPrivateKey) nodeKeyPair.getPrivate(),
+                HUB_MESSAGE_CRYPTO_SERVICE,
+                hubClient,
+                KDF_KEYING_INFO_GENERATOR
+        );
+    }
+
+    @AfterEach
+    public void resetMocks() {
+        Mockito.reset(hubClient);
+    }
+
+    @Test
+    public void incomingMessageMustNotBeNull() {
+        StepVerifier.create(middleware.apply(null))
+                .expectError(EmitMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    public void failsIfPublicKeyOfAnyRecipientCannotGetFetched() {
+        Mockito.doReturn(Mono.just((ECPublicKey) firstRecipientKeyPair.getPublic()))
+                .when(hubClient)
+                .fetchPublicKey("robot-1");
+        Mockito.doReturn(Mono.error(new HubNodePublicKeyNotObtainable("some error")))
+                .when(hubClient)
+                .fetchPublicKey("robot-2");
+
+        StepVerifier.create(middleware.apply(TEST_MESSAGE))
+                .expectError(EmitMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    public void messagePayloadGetsEncryptedForAllRecipients() {
+        Mockito.doReturn(Mono.just((ECPublicKey) firstRecipientKeyPair.getPublic()))
+                .when(hubClient)
+                .fetchPublicKey("robot-1");
+        Mockito.doReturn(Mono.just((ECPublicKey) secondRecipientKeyPair.getPublic()))
+                .when(hubClient)
+                .fetchPublicKey("robot-2");
+
+        StepVerifier.create(middleware.apply(TEST_MESSAGE))
+                .assertNext(encryptedMessage -> {
+                    assertEquals(TEST_MESSAGE.recipients(), encryptedMessage.recipients());
+                    assertEquals(TEST_MESSAGE.context(), encryptedMessage.context());
+
+                    for (var recipientKeyPair : List.of(firstRecipientKeyPair, secondRecipientKeyPair)) {
+                        try {
+                            var symmetricKey = HUB_MESSAGE_CRYPTO_SERVICE.deriveSymmetricKey(
+                                    (ECPrivateKey) recipientKeyPair.getPrivate(),
+                                    (ECPublicKey) nodeKeyPair.getPublic(),
+                                    (MESSAGE_ID + ANALYSIS_ID).getBytes());
+                            assertArrayEquals(TEST_MESSAGE.payload(), HUB_MESSAGE_CRYPTO_SERVICE
+                                    .decryptEnvelope(symmetricKey, encryptedMessage.payload()));
+                        } catch (InvalidKeyException | MessageCryptoException e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                })
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,273 @@
+package de.privateaim.node_message_broker.message.emit.outbox;
+
+import de.privateaim.node_message_broker.message.emit.outbox.persistence.MessageOutboxEntry;
+import de.privateaim.node_message_broker.message.emit.outbox.persistence.MessageOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+public final class MongoMessageOutboxTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Duration TIME_TO_LIVE = Duration.ofHours(1);
+
+    @Mock
+    private MessageOutboxRepository repository;
+
+    private MutableClock clock;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MongoMessageOutbox outbox;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(NOW);
+        meterRegistry = new SimpleMeterRegistry();
+        outbox = new MongoMessageOutbox(repository, new MessageOutboxConfig.Builder()
+                .withTimeToLive(TIME_TO_LIVE)
+                .withDrainConcurrency(2)
+                .build(), meterRegistry, clock);
+    }
+
+    private static MessageOutboxEntry entry(String frame) {
+        return entry(frame, null);
+    }
+
+    private static MessageOutboxEntry entry(String frame, String orderingKey) {
+        return new MessageOutboxEntry(UUID.randomUUID(), frame, NOW, NOW.plus(TIME_TO_LIVE), orderingKey);
+    }
+
+    private void mockEmptyStatistics() {
+        Mockito.doReturn(Mono.just(0L)).when(repository).count();
+        Mockito.doReturn(Mono.empty()).when(repository).findFirstByOrderByCreatedAtAsc();
+    }
+
+    @Test
+    void storingNullFrameFails() {
+        StepVerifier.create(outbox.store(null))
+                .verifyError(NullPointerException.class);
+
+        Mockito.verifyNoInteractions(repository);
+    }
+
+    @Test
+    void storedFrameExpiresAfterTimeToLive() {
+        var entryCaptor = ArgumentCaptor.forClass(MessageOutboxEntry.class);
+        Mockito.doAnswer(invocation -> Mono.just(invocation.getArgument(0)))
+                .when(repository).save(entryCaptor.capture());
+
+        StepVerifier.create(outbox.store("foo"))
+                .verifyComplete();
+
+        assertEquals("foo", entryCaptor.getValue().frame());
+        assertEquals(NOW, entryCaptor.getValue().createdAt());
+        assertEquals(NOW.plus(TIME_TO_LIVE), entryCaptor.getValue().expiresAt());
+    }
+
+    @Test
+    void depthAndAgeOfOldestFrameGetTracked() {
+        Mockito.doAnswer(invocation -> Mono.just(invocation.getArgument(0)))
+                .when(repository).save(Mockito.any(MessageOutboxEntry.class));
+
+        StepVerifier.create(outbox.store("foo"))
+                .verifyComplete();
+        clock.advance(Duration.ofSeconds(10));
+        StepVerifier.create(outbox.store("bar"))
+                .verifyComplete();
+        clock.advance(Duration.ofSeconds(5));
+
+        assertEquals(2, meterRegistry.get(MongoMessageOutbox.DEPTH_GAUGE_NAME).gauge().value());
+        assertEquals(15, meterRegistry.get(MongoMessageOutbox.OLDEST_AGE_GAUGE_NAME).timeGauge()
+                .value(TimeUnit.SECONDS));
+        assertEquals(2, meterRegistry.get(MongoMessageOutbox.FRAMES_COUNTER_NAME)
+                .tags("outcome", "stored").counter().count());
+    }
+
+    @Test
+    void drainingEmitsAndRemovesAllStoredFrames() {
+        var entries = List.of(entry("foo"), entry("bar"));
+        var emittedFrames = new CopyOnWriteArrayList<String>();
+
+        Mockito.doReturn(Mono.just(0L)).when(repository).deleteAllByExpiresAtBefore(NOW);
+        Mockito.doReturn(Flux.fromIterable(entries)).when(repository).findAllByOrderByCreatedAtAsc();
+        Mockito.doReturn(Mono.empty()).when(repository).deleteById(Mockito.any(UUID.class));
+        mockEmptyStatistics();
+
+        StepVerifier.create(outbox.drain(frame -> Mono.fromRunnable(() -> emittedFrames.add(frame))))
+                .expectNext(2L)
+                .verifyComplete();
+
+        assertEquals(List.of("foo", "bar"), emittedFrames);
+        entries.forEach(e -> Mockito.verify(repository).deleteById(e.id()));
+        assertEquals(0, meterRegistry.get(MongoMessageOutbox.DEPTH_GAUGE_NAME).gauge().value());
+        assertEquals(0, meterRegistry.get(MongoMessageOutbox.OLDEST_AGE_GAUGE_NAME).timeGauge()
+                .value(TimeUnit.SECONDS));
+        assertEquals(2, meterRegistry.get(MongoMessageOutbox.FRAMES_COUNTER_NAME)
+                .tags("outcome", "emitted").counter().count());
+    }
+
+    @Test
+    void framesThatCannotGetEmittedAreKept() {
+        var failingEntry = entry("foo");
+        var succeedingEntry = entry("bar");
+
+        Mockito.doReturn(Mono.just(0L)).when(repository).deleteAllByExpiresAtBefore(NOW);
+        Mockito.doReturn(Flux.just(failingEntry, succeedingEntry)).when(repository).findAllByOrderByCreatedAtAsc();
+        Mockito.doReturn(Mono.empty()).when(repository).deleteById(succeedingEntry.id());
+        Mockito.doReturn(Mono.just(1L)).when(repository).count();
+        Mockito.doReturn(Mono.just(failingEntry)).when(repository).findFirstByOrderByCreatedAtAsc();
+
+        StepVerifier.create(outbox.drain(frame -> frame.equals("foo")
+                        ? Mono.error(new IllegalStateException("socket is not connected"))
+                        : Mono.empty()))
+                .expectNext(1L)
+                .verifyComplete();
+
+        Mockito.verify(repository, Mockito.never()).deleteById(failingEntry.id());
+        assertEquals(1, meterRegistry.get(MongoMessageOutbox.DEPTH_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void expiredFramesGetDiscardedBeforeDraining() {
+        Mockito.doReturn(Mono.just(3L)).when(repository).deleteAllByExpiresAtBefore(NOW);
+        Mockito.doReturn(Flux.empty()).when(repository).findAllByOrderByCreatedAtAsc();
+        mockEmptyStatistics();
+
+        StepVerifier.create(outbox.drain(frame -> Mono.empty()))
+                .expectNext(0L)
+                .verifyComplete();
+
+        assertEquals(3, meterRegistry.get(MongoMessageOutbox.FRAMES_COUNTER_NAME)
+                .tags("outcome", "expired").counter().count());
+    }
+
+    @Test
+    void framesGetEmittedWithBoundedConcurrency() {
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+
+        Mockito.doReturn(Mono.just(0L)).when(repository).deleteAllByExpiresAtBefore(NOW);
+        Mockito.doReturn(Flux.fromStream(IntStream.range(0, 10).mapToObj(i -> entry("frame-" + i))))
+                .when(repository).findAllByOrderByCreatedAtAsc();
+        Mockito.doReturn(Mono.empty()).when(repository).deleteById(Mockito.any(UUID.class));
+        mockEmptyStatistics();
+
+        StepVerifier.create(outbox.drain(frame -> Mono.delay(Duration.ofMillis(10))
+                        .doOnSubscribe(ignored -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                        .doOnTerminate(inFlight::decrementAndGet)
+                        .then()))
+                .expectNext(10L)
+                .verifyComplete();
+
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    void framesWithSameOrderingKeyGetEmittedInOrderTheyGotStored() {
+        var entries = IntStream.range(0, 20)
+                .mapToObj(i -> entry("frame-" + i, "analysis-123/robot-" + i % 3))
+                .toList();
+        var emittedFrames = new CopyOnWriteArrayList<String>();
+
+        Mockito.doReturn(Mono.just(0L)).when(repository).deleteAllByExpiresAtBefore(NOW);
+        Mockito.doReturn(Flux.fromIterable(entries)).when(repository).findAllByOrderByCreatedAtAsc();
+        Mockito.doReturn(Mono.empty()).when(repository).deleteById(Mockito.any(UUID.class));
+        mockEmptyStatistics();
+
+        // earlier frames take longer, so that later ones would overtake them if they were emitted concurrently
+        StepVerifier.create(outbox.drain(frame -> Mono.delay(Duration.ofMillis(
+                                20 - Integer.parseInt(frame.substring("frame-".length()))))
+                        .then(Mono.fromRunnable(() -> emittedFrames.add(frame)))))
+                .expectNext(20L)
+                .verifyComplete();
+
+        for (var recipient = 0; recipient < 3; recipient++) {
+            var expected = new ArrayList<String>();
+            for (var i = recipient; i < 20; i += 3) {
+                expected.add("frame-" + i);
+            }
+            var finalRecipient = recipient;
+            assertEquals(expected, emittedFrames.stream()
+                    .filter(frame -> Integer.parseInt(frame.substring("frame-".length())) % 3 == finalRecipient)
+                    .toList());
+        }
+    }
+
+    @Test
+    void framesFollowingOneThatCannotGetEmittedAreKept() {
+        var failingEntry = entry("foo", "analysis-123/robot-1");
+        var followingEntry = entry("bar", "analysis-123/robot-1");
+        var unrelatedEntry = entry("baz", "analysis-123/robot-2");
+        var emittedFrames = new CopyOnWriteArrayList<String>();
+
+        Mockito.doReturn(Mono.just(0L)).when(repository).deleteAllByExpiresAtBefore(NOW);
+        Mockito.doReturn(Flux.just(failingEntry, followingEntry, unrelatedEntry))
+                .when(repository).findAllByOrderByCreatedAtAsc();
+        Mockito.doReturn(Mono.empty()).when(repository).deleteById(unrelatedEntry.id());
+        Mockito.doReturn(Mono.just(2L)).when(repository).count();
+        Mockito.doReturn(Mono.just(failingEntry)).when(repository).findFirstByOrderByCreatedAtAsc();
+
+        StepVerifier.create(outbox.drain(frame -> frame.equals("foo")
+                        ? Mono.error(new IllegalStateException("socket is not connected"))
+                        : Mono.fromRunnable(() -> emittedFrames.add(frame))))
+                .expectNext(1L)
+                .verifyComplete();
+
+        assertEquals(List.of("baz"), emittedFrames);
+        Mockito.verify(repository, Mockito.never()).deleteById(failingEntry.id());
+        Mockito.verify(repository, Mockito.never()).deleteById(followingEntry.id());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class HubMessageBase64DecodingMiddlewareTest {
+
+    private static final byte[] TEST_PAYLOAD = "{\"foo\": \"bar\"}".getBytes(StandardCharsets.UTF_8);
+    private static final ReceiveMessageSender SENDER = new ReceiveMessageSender("robot-123");
+    private static final ReceiveMessageContext CONTEXT = new ReceiveMessageContext(UUID.randomUUID(), "analysis-123");
+
+    private final HubMessageBase64DecodingMiddleware middleware = new HubMessageBase64DecodingMiddleware();
+
+    @Test
+    void messageMustNotBeNull() {
+        StepVerifier.create(middleware.apply(null))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    void payloadGetsDecoded() {
+        var message = new ReceiveMessage(SENDER, Base64.getEncoder().encode(TEST_PAYLOAD), CONTEXT);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(new ReceiveMessage(SENDER, TEST_PAYLOAD, CONTEXT))
+                .verifyComplete();
+    }
+
+    @Test
+    void payloadGetsDecodedOnGivenScheduler() {
+        var message = new ReceiveMessage(SENDER, Base64.getEncoder().encode(TEST_PAYLOAD), CONTEXT);
+        var scheduler = Schedulers.newSingle("decode-test");
+        try {
+            StepVerifier.create(new HubMessageBase64DecodingMiddleware(scheduler).apply(message)
+                            .map(ignored -> Thread.currentThread().getName()))
+                    .assertNext(threadName -> assertTrue(threadName.startsWith("decode-test")))
+                    .verifyComplete();
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void binaryPayloadIsNotDecoded() {
+        var binaryContext = new ReceiveMessageContext(CONTEXT.messageId(), CONTEXT.analysisId(), null, null, null,
+                ReceiveMessageContext.BINARY_TRANSPORT);
+        var message = new ReceiveMessage(SENDER, TEST_PAYLOAD, binaryContext);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(message)
+                .verifyComplete();
+    }
+
+    @Test
+    void payloadDecodedOnArrivalIsNotDecodedAgain() {
+        var decodedContext = new ReceiveMessageContext(CONTEXT.messageId(), CONTEXT.analysisId(), null, null, null,
+                ReceiveMessageContext.DECODED_TRANSPORT);
+        var message = new ReceiveMessage(SENDER, TEST_PAYLOAD, decodedContext);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(message)
+                .verifyComplete();
+    }
+
+    @Test
+    void decodingFailsOnMalformedPayload() {
+        var message = new ReceiveMessage(SENDER, "not base64!".getBytes(StandardCharsets.UTF_8), CONTEXT);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+}
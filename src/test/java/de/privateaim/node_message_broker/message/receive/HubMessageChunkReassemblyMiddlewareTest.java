@@ -0,0 +1,275 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import de.privateaim.node_message_broker.message.api.hub.HubMessageChunk;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class HubMessageChunkReassemblyMiddlewareTest {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final byte[] TEST_PAYLOAD = "0123456789".getBytes(StandardCharsets.UTF_8);
+    private static final ReceiveMessageSender SENDER = new ReceiveMessageSender("robot-123");
+    private static final String ANALYSIS_ID = "analysis-123";
+
+    @TempDir
+    private Path spoolDirectory;
+
+    private MutableClock clock;
+
+    private VirtualTimeScheduler scheduler;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HubMessageChunkReassemblyMiddleware middleware;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        scheduler = VirtualTimeScheduler.create();
+        meterRegistry = new SimpleMeterRegistry();
+        middleware = new HubMessageChunkReassemblyMiddleware(new HubMessageChunkReassemblyConfig.Builder()
+                .withSpoolDirectory(spoolDirectory)
+                .withTimeout(TIMEOUT)
+                .withMaxMessageBytes(16)
+                .build(), meterRegistry, clock, scheduler);
+    }
+
+    private static ReceiveMessage chunkMessage(UUID transferId, int index) {
+        return chunkMessage(SENDER, transferId, index);
+    }
+
+    private static ReceiveMessage chunkMessage(ReceiveMessageSender sender, UUID transferId, int index) {
+        var chunkSize = 4;
+        var offset = index * chunkSize;
+        var chunk = new HubMessageChunk(transferId, index, 3, offset, TEST_PAYLOAD.length,
+                HubMessageMetadata.BATCH_FRAMING,
+                Arrays.copyOfRange(TEST_PAYLOAD, offset, Math.min(TEST_PAYLOAD.length, offset + chunkSize)));
+
+        return new ReceiveMessage(sender, chunk.encode(), new ReceiveMessageContext(UUID.randomUUID(), ANALYSIS_ID,
+                null, HubMessageMetadata.CHUNK_FRAMING, null));
+    }
+
+    private boolean spoolDirectoryIsEmpty() throws IOException {
+        try (var files = Files.list(spoolDirectory)) {
+            return files.findAny().isEmpty();
+        }
+    }
+
+    @Test
+    void messageThatIsNoChunkIsLeftAsIs() {
+        var message = new ReceiveMessage(SENDER, TEST_PAYLOAD, new ReceiveMessageContext(UUID.randomUUID(),
+                ANALYSIS_ID));
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(message)
+                .verifyComplete();
+    }
+
+    @Test
+    void chunksInAnyOrderGetReassembled() throws IOException {
+        var transferId = UUID.randomUUID();
+
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 2)))
+                .verifyComplete();
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 0)))
+                .verifyComplete();
+        assertFalse(spoolDirectoryIsEmpty());
+
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 1)))
+                .assertNext(message -> {
+                    assertEquals(SENDER, message.sender());
+                    assertArrayEquals(TEST_PAYLOAD, message.payload());
+                    assertEquals(transferId, message.context().messageId());
+                    assertEquals(ANALYSIS_ID, message.context().analysisId());
+                    assertEquals(HubMessageMetadata.BATCH_FRAMING, message.context().framing());
+                })
+                .verifyComplete();
+
+        assertTrue(spoolDirectoryIsEmpty());
+        assertEquals(1, meterRegistry.get(HubMessageChunkReassemblyMiddleware.TRANSFER_COUNTER_NAME)
+                .tags("outcome", "completed").counter().count());
+        assertEquals(0, meterRegistry.get(HubMessageChunkReassemblyMiddleware.ACTIVE_TRANSFERS_GAUGE_NAME)
+                .gauge().value());
+    }
+
+    @Test
+    void duplicateChunksGetIgnored() {
+        var transferId = UUID.randomUUID();
+
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 0)))
+                .verifyComplete();
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 0)))
+                .verifyComplete();
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 1)))
+                .verifyComplete();
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 2)))
+                .assertNext(message -> assertArrayEquals(TEST_PAYLOAD, message.payload()))
+                .verifyComplete();
+    }
+
+    @Test
+    void incompleteTransferGetsDiscardedAfterTimeout() throws IOException {
+        StepVerifier.create(middleware.apply(chunkMessage(UUID.randomUUID(), 0)))
+                .verifyComplete();
+
+        clock.advance(TIMEOUT.minusSeconds(1));
+        scheduler.advanceTimeBy(TIMEOUT.minusSeconds(1));
+        assertEquals(1, meterRegistry.get(HubMessageChunkReassemblyMiddleware.ACTIVE_TRANSFERS_GAUGE_NAME)
+                .gauge().value());
+
+        clock.advance(Duration.ofSeconds(1));
+        scheduler.advanceTimeBy(Duration.ofSeconds(1));
+        assertEquals(0, meterRegistry.get(HubMessageChunkReassemblyMiddleware.ACTIVE_TRANSFERS_GAUGE_NAME)
+                .gauge().value());
+        assertEquals(1, meterRegistry.get(HubMessageChunkReassemblyMiddleware.TRANSFER_COUNTER_NAME)
+                .tags("outcome", "expired").counter().count());
+        assertTrue(spoolDirectoryIsEmpty());
+    }
+
+    @Test
+    void receivingFurtherChunksDefersTimeout() {
+        var transferId = UUID.randomUUID();
+
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 0)))
+                .verifyComplete();
+        clock.advance(TIMEOUT.minusSeconds(1));
+        scheduler.advanceTimeBy(TIMEOUT.minusSeconds(1));
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 1)))
+                .verifyComplete();
+
+        clock.advance(Duration.ofSeconds(1));
+        scheduler.advanceTimeBy(Duration.ofSeconds(1));
+        StepVerifier.create(middleware.apply(chunkMessage(transferId, 2)))
+                .assertNext(message -> assertArrayEquals(TEST_PAYLOAD, message.payload()))
+                .verifyComplete();
+    }
+
+    @Test
+    void chunkOfTooLargeMessageGetsRejected() {
+        var chunk = new HubMessageChunk(UUID.randomUUID(), 0, 2, 0, 17, null, new byte[4]);
+        var message = new ReceiveMessage(SENDER, chunk.encode(), new ReceiveMessageContext(UUID.randomUUID(),
+                ANALYSIS_ID, null, HubMessageMetadata.CHUNK_FRAMING, null));
+
+        StepVerifier.create(middleware.apply(message))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    void chunksNotFittingLayoutOfTransferGetRejected() throws IOException {
+        var transferId = UUID.randomUUID();
+        var chunks = List.of(
+                // claims far more chunks than the total length allows for
+                new HubMessageChunk(transferId, 0, Integer.MAX_VALUE, 0, 10, null, new byte[4]),
+                // not at the offset that follows from its index
+                new HubMessageChunk(transferId, 1, 3, 3, 10, null, new byte[4]),
+                // last chunk that does not end the transferred payload
+                new HubMessageChunk(transferId, 2, 3, 8, 10, null, new byte[1]));
+
+        for (var chunk : chunks) {
+            var message = new ReceiveMessage(SENDER, chunk.encode(), new ReceiveMessageContext(UUID.randomUUID(),
+                    ANALYSIS_ID, null, HubMessageMetadata.CHUNK_FRAMING, null));
+
+            StepVerifier.create(middleware.apply(message))
+                    .expectError(ReceiveMiddlewareException.class)
+                    .verify();
+        }
+        assertTrue(spoolDirectoryIsEmpty());
+    }
+
+    @Test
+    void transfersBeyondLimitsGetRejected() {
+        var limitedMiddleware = new HubMessageChunkReassemblyMiddleware(new HubMessageChunkReassemblyConfig.Builder()
+                .withSpoolDirectory(spoolDirectory)
+                .withTimeout(TIMEOUT)
+                .withMaxMessageBytes(16)
+                .withMaxTransfers(2)
+                .withMaxTransfersPerSender(1)
+                .build(), meterRegistry, clock, scheduler);
+        var firstTransferId = UUID.randomUUID();
+
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(firstTransferId, 0)))
+                .verifyComplete();
+        // further chunks of an open transfer are still accepted
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(firstTransferId, 1)))
+                .verifyComplete();
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(UUID.randomUUID(), 0)))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(new ReceiveMessageSender("robot-456"),
+                        UUID.randomUUID(), 0)))
+                .verifyComplete();
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(new ReceiveMessageSender("robot-789"),
+                        UUID.randomUUID(), 0)))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+
+        assertEquals(2, meterRegistry.get(HubMessageChunkReassemblyMiddleware.TRANSFER_COUNTER_NAME)
+                .tags("outcome", "rejected").counter().count());
+        // completing a transfer makes room for another one
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(firstTransferId, 2)))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(limitedMiddleware.apply(chunkMessage(UUID.randomUUID(), 0)))
+                .verifyComplete();
+    }
+
+    @Test
+    void leftoverSpoolFilesGetPurged() throws IOException {
+        Files.createFile(spoolDirectory.resolve("transfer-123.part"));
+
+        middleware.purgeSpoolDirectory();
+
+        assertTrue(spoolDirectoryIsEmpty());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import de.privateaim.node_message_broker.message.compression.PayloadCompression;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public final class HubMessageDecompressionMiddlewareTest {
+
+    private static final byte[] TEST_PAYLOAD = "{\"foo\": \"bar\"}".repeat(10).getBytes(StandardCharsets.UTF_8);
+    private static final ReceiveMessageSender SENDER = new ReceiveMessageSender("robot-123");
+    private static final ReceiveMessageContext CONTEXT = new ReceiveMessageContext(UUID.randomUUID(), "analysis-123");
+    private static final ReceiveMessageContext COMPRESSED_CONTEXT = new ReceiveMessageContext(CONTEXT.messageId(),
+            CONTEXT.analysisId(), null, null, PayloadCompression.DEFLATE);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final HubMessageDecompressionMiddleware middleware = new HubMessageDecompressionMiddleware(
+            TEST_PAYLOAD.length, meterRegistry);
+
+    @Test
+    void messageMustNotBeNull() {
+        StepVerifier.create(middleware.apply(null))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    void uncompressedPayloadIsLeftAsIs() {
+        var message = new ReceiveMessage(SENDER, TEST_PAYLOAD, CONTEXT);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(message)
+                .verifyComplete();
+    }
+
+    @Test
+    void compressedPayloadGetsDecompressed() {
+        var message = new ReceiveMessage(SENDER, PayloadCompression.deflate(TEST_PAYLOAD), COMPRESSED_CONTEXT);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectNext(new ReceiveMessage(SENDER, TEST_PAYLOAD, COMPRESSED_CONTEXT))
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get(PayloadCompression.CPU_TIMER_NAME)
+                .tags("operation", "decompress").timer().count());
+    }
+
+    @Test
+    void decompressionFailsIfPayloadExpandsBeyondLimit() {
+        var payload = PayloadCompression.deflate(new byte[TEST_PAYLOAD.length + 1]);
+        var message = new ReceiveMessage(SENDER, payload, COMPRESSED_CONTEXT);
+
+        StepVerifier.create(middleware.apply(message))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    void decompressionFailsOnUnsupportedCodec() {
+        var message = new ReceiveMessage(SENDER, TEST_PAYLOAD, new ReceiveMessageContext(CONTEXT.messageId(),
+                CONTEXT.analysisId(), null, null, "zstd"));
+
+        StepVerifier.create(middleware.apply(message))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+}
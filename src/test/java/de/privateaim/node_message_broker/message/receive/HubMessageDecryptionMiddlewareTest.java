@@ -2,6 +2,7 @@ package de.privateaim.node_message_broker.message.receive;
 
 import de.privateaim.node_message_broker.common.hub.HubClient;
 import de.privateaim.node_message_broker.common.hub.HubNodePublicKeyNotObtainable;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
 import de.privateaim.node_message_broker.message.crypto.HubMessageCryptoService;
 import de.privateaim.node_message_broker.message.crypto.MessageCryptoException;
 import de.privateaim.node_message_broker.message.crypto.MessageCryptoService;
@@ -11,19 +12,24 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 import static de.privateaim.node_message_broker.message.CryptoUtil.generateECDHKeyPair;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class HubMessageDecryptionMiddlewareTest {
 
@@ -129,4 +135,100 @@ public final class HubMessageDecryptionMiddlewareTest {
                         assertEquals(expectedPlaintextTestMessage, decryptedMessage))
                 .verifyComplete();
     }
+
+    @Test
+    public void envelopeMessagePayloadGetsDecrypted() throws InvalidKeyException, MessageCryptoException {
+        var otherReceiverKeyPair = generateECDHKeyPair();
+        var keyingInfo = (MESSAGE_ID + ANALYSIS_ID).getBytes();
+        var envelope = HUB_MESSAGE_CRYPTO_SERVICE.encryptEnvelope(List.of(
+                HUB_MESSAGE_CRYPTO_SERVICE.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                        (ECPublicKey) otherReceiverKeyPair.getPublic(), keyingInfo),
+                HUB_MESSAGE_CRYPTO_SERVICE.deriveSymmetricKey((ECPrivateKey) senderKeyPair.getPrivate(),
+                        (ECPublicKey) receiverKeyPair.getPublic(), keyingInfo)
+        ), TEST_MESSAGE_PAYLOAD.getBytes());
+
+        var context = new ReceiveMessageContext(MESSAGE_ID, ANALYSIS_ID, HubMessageMetadata.ENVELOPE_ENCRYPTION);
+        var encryptedTestMessage = ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(SENDER_ROBOT_ID.toString()))
+                .withPayload(envelope)
+                .inContext(context)
+                .build();
+
+        var expectedPlaintextTestMessage = ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(SENDER_ROBOT_ID.toString()))
+                .withPayload(TEST_MESSAGE_PAYLOAD.getBytes())
+                .inContext(context)
+                .build();
+
+        Mockito.doReturn(Mono.just((ECPublicKey) senderKeyPair.getPublic()))
+                .when(hubClient)
+                .fetchPublicKey(SENDER_ROBOT_ID.toString());
+
+        StepVerifier.create(middleware.apply(encryptedTestMessage))
+                .assertNext(decryptedMessage ->
+                        assertEquals(expectedPlaintextTestMessage, decryptedMessage))
+                .verifyComplete();
+    }
+
+    @Test
+    public void failsOnUnsupportedEncryptionFormat() {
+        var testMessage = ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(SENDER_ROBOT_ID.toString()))
+                .withPayload("does-not-matter".getBytes())
+                .inContext(new ReceiveMessageContext(MESSAGE_ID, ANALYSIS_ID, "unknown"))
+                .build();
+
+        Mockito.doReturn(Mono.just((ECPublicKey) senderKeyPair.getPublic()))
+                .when(hubClient)
+                .fetchPublicKey(SENDER_ROBOT_ID.toString());
+
+        StepVerifier.create(middleware.apply(testMessage))
+                .expectError(ReceiveMiddlewareException.class)
+                .verify();
+    }
+
+    @Test
+    public void messagePayloadGetsDecryptedOnGivenScheduler() throws InvalidKeyException, MessageCryptoException {
+        var messageCryptoService = Mockito.mock(MessageCryptoService.class);
+        var decryptingThread = new AtomicReference<String>();
+        Mockito.doReturn(new SecretKeySpec(new byte[32], "AES"))
+                .when(messageCryptoService)
+                .deriveSymmetricKey(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.doAnswer(invocation -> {
+                    decryptingThread.set(Thread.currentThread().getName());
+                    return TEST_MESSAGE_PAYLOAD.getBytes();
+                })
+                .when(messageCryptoService)
+                .decryptMessage(Mockito.any(), Mockito.any());
+        Mockito.doReturn(Mono.just((ECPublicKey) senderKeyPair.getPublic()))
+                .when(hubClient)
+                .fetchPublicKey(SENDER_ROBOT_ID.toString());
+
+        var encryptedTestMessage = ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(SENDER_ROBOT_ID.toString()))
+                .withPayload("encrypted".getBytes())
+                .inContext(new ReceiveMessageContext(
+                        MESSAGE_ID,
+                        ANALYSIS_ID))
+                .build();
+
+        var scheduler = Schedulers.newSingle("decrypt-test");
+        try {
+            var schedulingMiddleware = new HubMessageDecryptionMiddleware(
+                    (ECPrivateKey) receiverKeyPair.getPrivate(),
+                    messageCryptoService,
+                    hubClient,
+                    KDF_KEYING_INFO_GENERATOR,
+                    scheduler
+            );
+
+            StepVerifier.create(schedulingMiddleware.apply(encryptedTestMessage))
+                    .assertNext(decryptedMessage ->
+                            assertEquals(TEST_MESSAGE_PAYLOAD, new String(decryptedMessage.payload())))
+                    .verifyComplete();
+            assertTrue(decryptingThread.get().startsWith("decrypt-test"));
+        } finally {
+            scheduler.dispose();
+        }
+    }
 }
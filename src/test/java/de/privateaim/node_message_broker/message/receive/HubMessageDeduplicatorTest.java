@@ -0,0 +1,126 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(MockitoExtension.class)
+public final class HubMessageDeduplicatorTest {
+
+    @Mock
+    private MessageReceiver delegate;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HubMessageDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        deduplicator = new HubMessageDeduplicator(delegate, 100, Duration.ofMinutes(10), meterRegistry);
+    }
+
+    private static byte[] message(String senderId, UUID messageId) {
+        return ("{\"from\":{\"type\":\"robot\",\"id\":\"" + senderId + "\"},\"data\":\"\",\"metadata\":"
+                + "{\"messageId\":\"" + messageId + "\",\"analysisId\":\"analysis-123\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ReceiveMessage decodedMessage(String senderId, UUID messageId) {
+        return ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(senderId))
+                .withPayload(new byte[0])
+                .inContext(new ReceiveMessageContext(messageId, "analysis-123", null, null, null,
+                        ReceiveMessageContext.DECODED_TRANSPORT))
+                .build();
+    }
+
+    @Test
+    void repeatedDeliveriesOfMessageGetDiscarded() {
+        var message = message("robot-1", UUID.randomUUID());
+        Mockito.when(delegate.processMessage(message)).thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.processMessage(message)).verifyComplete();
+        StepVerifier.create(deduplicator.processMessage(message.clone())).verifyComplete();
+
+        Mockito.verify(delegate).processMessage(Mockito.any(byte[].class));
+        assertEquals(1, meterRegistry.get(HubMessageDeduplicator.DUPLICATES_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void decodedAndEncodedDeliveriesOfMessageAreRecognizedAsSame() {
+        var messageId = UUID.randomUUID();
+        var decoded = decodedMessage("robot-1", messageId);
+        Mockito.when(delegate.processMessage(decoded)).thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.processMessage(decoded)).verifyComplete();
+        StepVerifier.create(deduplicator.processMessage(message("robot-1", messageId))).verifyComplete();
+
+        Mockito.verify(delegate, Mockito.never()).processMessage(Mockito.any(byte[].class));
+    }
+
+    @Test
+    void framesAndEncodedDeliveriesOfMessageAreRecognizedAsSame() {
+        var messageId = UUID.randomUUID();
+        var frame = new JSONObject(new String(message("robot-1", messageId), StandardCharsets.UTF_8));
+        Mockito.when(delegate.processMessage(frame)).thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.processMessage(frame)).verifyComplete();
+        StepVerifier.create(deduplicator.processMessage(message("robot-1", messageId))).verifyComplete();
+        StepVerifier.create(deduplicator.processMessage(decodedMessage("robot-1", messageId))).verifyComplete();
+
+        Mockito.verify(delegate, Mockito.never()).processMessage(Mockito.any(byte[].class));
+        Mockito.verify(delegate, Mockito.never()).processMessage(Mockito.any(ReceiveMessage.class));
+        assertEquals(2, meterRegistry.get(HubMessageDeduplicator.DUPLICATES_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void messagesOfDifferentSendersWithSameIdAreNotDiscarded() {
+        var messageId = UUID.randomUUID();
+        Mockito.when(delegate.processMessage(Mockito.any(byte[].class))).thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.processMessage(message("robot-1", messageId))).verifyComplete();
+        StepVerifier.create(deduplicator.processMessage(message("robot-2", messageId))).verifyComplete();
+
+        Mockito.verify(delegate, Mockito.times(2)).processMessage(Mockito.any(byte[].class));
+    }
+
+    @Test
+    void messageThatCannotBeHandedOverIsNotRememberedAsReceived() {
+        var message = message("robot-1", UUID.randomUUID());
+        Mockito.when(delegate.processMessage(message))
+                .thenReturn(Mono.error(new ProcessingReceivedMessageException("queue is full",
+                        new IllegalStateException())))
+                .thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.processMessage(message))
+                .verifyError(ProcessingReceivedMessageException.class);
+        StepVerifier.create(deduplicator.processMessage(message)).verifyComplete();
+
+        Mockito.verify(delegate, Mockito.times(2)).processMessage(message);
+    }
+
+    @Test
+    void messagesWithoutIdGetPassedOn() {
+        var message = "{\"data\":\"\"}".getBytes(StandardCharsets.UTF_8);
+        Mockito.when(delegate.processMessage(message)).thenReturn(Mono.empty());
+
+        StepVerifier.create(deduplicator.processMessage(message)).verifyComplete();
+        StepVerifier.create(deduplicator.processMessage(message)).verifyComplete();
+
+        Mockito.verify(delegate, Mockito.times(2)).processMessage(message);
+    }
+}
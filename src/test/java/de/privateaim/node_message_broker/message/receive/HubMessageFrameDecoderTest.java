@@ -0,0 +1,105 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageSender;
+import de.privateaim.node_message_broker.message.api.hub.IncomingHubMessage;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class HubMessageFrameDecoderTest {
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final byte[] TEST_PAYLOAD = "{\"foo\": \"bar\"}".getBytes(StandardCharsets.UTF_8);
+
+    private static final IncomingHubMessage TEST_MESSAGE = new IncomingHubMessage(
+            new HubMessageSender("robot", "123"),
+            Base64.getEncoder().encodeToString(TEST_PAYLOAD),
+            new HubMessageMetadata(UUID.randomUUID(), "analysis-abc", HubMessageMetadata.ENVELOPE_ENCRYPTION,
+                    HubMessageMetadata.BATCH_FRAMING, null)
+    );
+
+    // Parses the given message the same way socket.io does when receiving it.
+    private static JSONObject frameOf(IncomingHubMessage message) throws Exception {
+        return new JSONObject(JSON_MAPPER.writeValueAsString(message));
+    }
+
+    @Test
+    void textFrameGetsDecoded() throws Exception {
+        var message = HubMessageFrameDecoder.decode(frameOf(TEST_MESSAGE));
+
+        assertEquals(ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender("123"))
+                .withPayload(TEST_PAYLOAD)
+                .inContext(new ReceiveMessageContext(TEST_MESSAGE.metadata().messageId(), "analysis-abc",
+                        HubMessageMetadata.ENVELOPE_ENCRYPTION, HubMessageMetadata.BATCH_FRAMING, null,
+                        ReceiveMessageContext.DECODED_TRANSPORT))
+                .build(), message);
+    }
+
+    @Test
+    void binaryPayloadIsTakenAsIs() throws Exception {
+        var binaryPayload = new byte[]{0, 1, 2, (byte) 0xff};
+        var frame = frameOf(TEST_MESSAGE).put("data", binaryPayload);
+
+        var message = HubMessageFrameDecoder.decode(frame);
+
+        assertArrayEquals(binaryPayload, message.payload());
+        assertEquals(ReceiveMessageContext.BINARY_TRANSPORT, message.context().transport());
+    }
+
+    @Test
+    void decodingFailsOnMissingMetadata() throws Exception {
+        var frame = frameOf(TEST_MESSAGE);
+        frame.remove("metadata");
+
+        assertThrows(ProcessingReceivedMessageException.class, () -> HubMessageFrameDecoder.decode(frame));
+    }
+
+    @Test
+    void decodingFailsOnMalformedMessageId() throws Exception {
+        var frame = frameOf(TEST_MESSAGE);
+        frame.getJSONObject("metadata").put("messageId", "not-a-uuid");
+
+        assertThrows(ProcessingReceivedMessageException.class, () -> HubMessageFrameDecoder.decode(frame));
+    }
+
+    @Test
+    void decodingFailsOnMalformedPayload() throws Exception {
+        for (var payload : List.of("not base64!", "A", "AA=", "A===", "AAAA====", "QUJ\u00e4")) {
+            var frame = frameOf(TEST_MESSAGE).put("data", payload);
+
+            assertThrows(ProcessingReceivedMessageException.class, () -> HubMessageFrameDecoder.decode(frame),
+                    payload);
+        }
+    }
+
+    @Test
+    void unpaddedPayloadGetsDecoded() {
+        var encoded = Base64.getEncoder().withoutPadding().encodeToString(TEST_PAYLOAD);
+
+        assertArrayEquals(TEST_PAYLOAD, HubMessageFrameDecoder.decodeBase64(encoded));
+    }
+
+    @Test
+    void payloadGetsDecodedLikeStandardDecoder() {
+        // covers payloads spanning multiple chunks of the decoder's buffer as well as all possible last units
+        for (var length : List.of(0, 1, 2, 3, 4, 6143, 6144, 6145, 100_000)) {
+            var data = new byte[length];
+            new Random(length).nextBytes(data);
+
+            assertArrayEquals(data, HubMessageFrameDecoder.decodeBase64(Base64.getEncoder().encodeToString(data)),
+                    "length " + length);
+        }
+    }
+}
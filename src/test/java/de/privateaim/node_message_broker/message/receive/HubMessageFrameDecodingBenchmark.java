@@ -0,0 +1,69 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for turning a frame received from the Hub's messenger into a message handed to consumers, either by
+ * serializing the already parsed frame and deserializing it again or by decoding it via {@link HubMessageFrameDecoder}.
+ * Run via: mvn -P benchmark verify -Djmh.args="HubMessageFrameDecoding"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class HubMessageFrameDecodingBenchmark {
+
+    @Param({"1024", "1048576", "16777216", "104857600"})
+    int payloadSize;
+
+    private HubMessageReceiver receiver;
+    private JSONObject frame;
+    private ReceiveMessage consumed;
+
+    @Setup
+    public void setUp() {
+        // lifts Jackson's limit on string lengths which large payloads exceed when deserializing the serialized frame
+        receiver = new HubMessageReceiver(new ObjectMapper(JsonFactory.builder()
+                .streamReadConstraints(StreamReadConstraints.builder().maxStringLength(Integer.MAX_VALUE).build())
+                .build()));
+        receiver.registerMiddleware(new HubMessageBase64DecodingMiddleware());
+        receiver.registerConsumer(message -> {
+            consumed = message;
+            return Mono.empty();
+        });
+
+        var payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        // shaped the same way as the frames that socket.io hands to the listener of incoming messages
+        frame = new JSONObject()
+                .put("from", new JSONObject().put("type", "robot").put("id", "sender-robot-id"))
+                .put("data", Base64.getEncoder().encodeToString(payload))
+                .put("metadata", new JSONObject()
+                        .put("messageId", "f691940a-e5ce-483c-80d7-17b9e4f682fe")
+                        .put("analysisId", "analysis-123"));
+    }
+
+    @Benchmark
+    public ReceiveMessage serializedFrame() {
+        receiver.processMessage(frame.toString().getBytes(StandardCharsets.UTF_8)).block();
+        return consumed;
+    }
+
+    @Benchmark
+    public ReceiveMessage decodedFrame() throws ProcessingReceivedMessageException {
+        receiver.processMessage(HubMessageFrameDecoder.decode(frame)).block();
+        return consumed;
+    }
+}
@@ -0,0 +1,645 @@
+package de.privateaim.node_message_broker.message.receive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public final class HubMessageIngestionQueueTest {
+
+    @TempDir
+    private Path spillDirectory;
+
+    private MutableClock clock;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RecordingMessageReceiver delegate;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        meterRegistry = new SimpleMeterRegistry();
+        delegate = new RecordingMessageReceiver();
+    }
+
+    private HubMessageIngestionQueue createQueue(int capacity, int concurrency,
+                                                 HubMessageIngestionOverflowPolicy overflowPolicy) {
+        return createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withCapacity(capacity)
+                .withConcurrency(concurrency)
+                .withOverflowPolicy(overflowPolicy));
+    }
+
+    private HubMessageIngestionQueue createQueue(HubMessageIngestionQueueConfig.Builder config) {
+        return createQueue(config, Schedulers.immediate());
+    }
+
+    private HubMessageIngestionQueue createQueue(HubMessageIngestionQueueConfig.Builder config,
+                                                 Scheduler spillScheduler) {
+        return new HubMessageIngestionQueue(delegate, config
+                .withSpillDirectory(spillDirectory)
+                .build(), meterRegistry, clock, Schedulers.immediate(), spillScheduler);
+    }
+
+    private static byte[] message(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hubMessage(String analysisId, String senderId, String payload) {
+        return """
+                {"data":"%s","from":{"type":"robot","id":"%s"},"metadata":{"messageId":"%s","analysisId":"%s"}}"""
+                .formatted(payload, senderId, UUID.randomUUID(), analysisId);
+    }
+
+    // Parses a message the same way socket.io does when receiving it.
+    private static JSONObject frame(String analysisId, String senderId, String payload) {
+        return new JSONObject(hubMessage(analysisId, senderId,
+                Base64.getEncoder().encodeToString(message(payload))));
+    }
+
+    private static ReceiveMessage decodedMessage(String analysisId, String senderId, String payload) {
+        return ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(senderId))
+                .withPayload(message(payload))
+                .inContext(new ReceiveMessageContext(UUID.randomUUID(), analysisId, null, null, null,
+                        ReceiveMessageContext.DECODED_TRANSPORT))
+                .build();
+    }
+
+    private static void enqueue(HubMessageIngestionQueue queue, String content) {
+        StepVerifier.create(queue.processMessage(message(content)))
+                .verifyComplete();
+    }
+
+    private double depth(String storage) {
+        return meterRegistry.get(HubMessageIngestionQueue.DEPTH_GAUGE_NAME).tag("storage", storage).gauge().value();
+    }
+
+    @Test
+    void messagesGetProcessedByAtMostConfiguredNumberOfWorkers() {
+        var queue = createQueue(8, 2, HubMessageIngestionOverflowPolicy.BLOCK);
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        enqueue(queue, "third");
+
+        assertEquals(List.of("first", "second"), delegate.received());
+        assertEquals(1, depth("memory"));
+        assertEquals(2, meterRegistry.get(HubMessageIngestionQueue.ACTIVE_GAUGE_NAME).gauge().value());
+
+        delegate.complete(0);
+
+        assertEquals(List.of("first", "second", "third"), delegate.received());
+        assertEquals(0, depth("memory"));
+    }
+
+    @Test
+    void failingMessageDoesNotHoldUpQueue() {
+        var queue = createQueue(8, 1, HubMessageIngestionOverflowPolicy.BLOCK);
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        delegate.fail(0);
+
+        assertEquals(List.of("first", "second"), delegate.received());
+    }
+
+    @Test
+    void decodedMessageGetsPassedOn() {
+        var queue = createQueue(8, 1, HubMessageIngestionOverflowPolicy.BLOCK);
+        var decodedMessage = decodedMessage("analysis-1", "robot-a", "first");
+
+        StepVerifier.create(queue.processMessage(decodedMessage))
+                .verifyComplete();
+
+        assertEquals(List.of("first"), delegate.received());
+        assertEquals(decodedMessage, delegate.decodedMessages.getFirst());
+    }
+
+    @Test
+    void frameGetsPassedOnWithoutBeingDecoded() {
+        var queue = createQueue(8, 1, HubMessageIngestionOverflowPolicy.BLOCK);
+        var frame = frame("analysis-1", "robot-a", "first");
+
+        StepVerifier.create(queue.processMessage(frame))
+                .verifyComplete();
+
+        assertEquals(List.of("first"), delegate.received());
+        assertSame(frame, delegate.frames.getFirst());
+    }
+
+    @Test
+    void spilledFrameGetsDecoded() {
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        StepVerifier.create(queue.processMessage(frame("analysis-1", "robot-a", "third")))
+                .verifyComplete();
+        delegate.complete(0);
+        delegate.complete(1);
+
+        assertEquals(List.of("first", "second", "third"), delegate.received());
+        assertEquals(ReceiveMessageContext.DECODED_TRANSPORT,
+                delegate.decodedMessages.getFirst().context().transport());
+    }
+
+    @Test
+    void waitTimeGetsRecorded() {
+        var queue = createQueue(8, 1, HubMessageIngestionOverflowPolicy.BLOCK);
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        clock.advance(Duration.ofSeconds(2));
+        delegate.complete(0);
+
+        var waitTimer = meterRegistry.get(HubMessageIngestionQueue.WAIT_TIMER_NAME).timer();
+        assertEquals(2, waitTimer.count());
+        assertEquals(2.0, waitTimer.totalTime(TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fullQueueBlocksUntilThereIsRoom() throws Exception {
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.BLOCK);
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+
+        var blocked = CompletableFuture.runAsync(() -> queue.processMessage(message("third")).block());
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+
+        delegate.complete(0);
+        blocked.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("first", "second"), delegate.received());
+        assertEquals(1, depth("memory"));
+    }
+
+    @Test
+    void fullQueueFailsMessageOnceBlockTimeoutElapses() {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withCapacity(1)
+                .withConcurrency(1)
+                .withOverflowPolicy(HubMessageIngestionOverflowPolicy.BLOCK)
+                .withBlockTimeout(Duration.ofMillis(50)));
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+
+        StepVerifier.create(queue.processMessage(message("third")))
+                .verifyError(ProcessingReceivedMessageException.class);
+
+        delegate.complete(0);
+        assertEquals(List.of("first", "second"), delegate.received());
+    }
+
+    @Test
+    void fullQueueDropsOldestMessage() {
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.DROP_OLDEST);
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        enqueue(queue, "third");
+        delegate.complete(0);
+
+        assertEquals(List.of("first", "third"), delegate.received());
+        assertEquals(1, meterRegistry.get(HubMessageIngestionQueue.DROPPED_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void fullQueueSpillsMessagesToDiskAndKeepsTheirOrder() throws IOException {
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        enqueue(queue, "third");
+        enqueue(queue, "fourth");
+
+        assertEquals(1, depth("memory"));
+        assertEquals(2, depth("disk"));
+        assertEquals(2, spillFileCount());
+
+        // room in memory does not let new messages overtake spilled ones
+        delegate.complete(0);
+        enqueue(queue, "fifth");
+        delegate.complete(1);
+        delegate.complete(2);
+        delegate.complete(3);
+
+        assertEquals(List.of("first", "second", "third", "fourth", "fifth"), delegate.received());
+        assertEquals(0, depth("disk"));
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void spilledMessagesGetWrittenInBackground() throws IOException {
+        var spillTasks = new ArrayList<Runnable>();
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                        .withCapacity(1)
+                        .withConcurrency(1)
+                        .withOverflowPolicy(HubMessageIngestionOverflowPolicy.SPILL),
+                Schedulers.fromExecutor(spillTasks::add));
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        enqueue(queue, "third");
+        enqueue(queue, "fourth");
+
+        assertEquals(2, depth("disk"));
+        assertEquals(0, spillFileCount());
+
+        runAll(spillTasks);
+        assertEquals(2, spillFileCount());
+
+        delegate.complete(0);
+        delegate.complete(1);
+        runAll(spillTasks);
+        assertEquals(List.of("first", "second", "third"), delegate.received());
+        assertEquals(1, spillFileCount());
+    }
+
+    @Test
+    void spilledMessageTakenBeforeBeingWrittenGetsProcessedFromMemory() throws IOException {
+        var spillTasks = new ArrayList<Runnable>();
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                        .withCapacity(1)
+                        .withConcurrency(1)
+                        .withOverflowPolicy(HubMessageIngestionOverflowPolicy.SPILL),
+                Schedulers.fromExecutor(spillTasks::add));
+
+        enqueue(queue, "first");
+        enqueue(queue, "second");
+        enqueue(queue, "third");
+        delegate.complete(0);
+        delegate.complete(1);
+
+        assertEquals(List.of("first", "second", "third"), delegate.received());
+
+        runAll(spillTasks);
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void spilledMessagesOfPreviousRunGetRecovered() throws IOException {
+        var previousQueue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+        enqueue(previousQueue, "first");
+        enqueue(previousQueue, "second");
+        enqueue(previousQueue, "third");
+        enqueue(previousQueue, "fourth");
+        Files.writeString(spillDirectory.resolve("message-00000000000000000099.tmp"), "incomplete");
+
+        delegate = new RecordingMessageReceiver();
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+        queue.recoverSpilledMessages();
+        delegate.complete(0);
+        enqueue(queue, "fifth");
+        delegate.complete(1);
+
+        assertEquals(List.of("third", "fourth", "fifth"), delegate.received());
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void spilledDecodedMessagesOfPreviousRunGetRecovered() throws IOException {
+        var previousQueue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+        var decodedMessage = ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender("robot-a"))
+                .withPayload(new byte[]{0, 1, 2, (byte) 0xff})
+                .inContext(new ReceiveMessageContext(UUID.randomUUID(), "analysis-1", "envelope", null, "deflate",
+                        ReceiveMessageContext.BINARY_TRANSPORT))
+                .build();
+        enqueue(previousQueue, "first");
+        enqueue(previousQueue, "second");
+        StepVerifier.create(previousQueue.processMessage(decodedMessage))
+                .verifyComplete();
+
+        delegate = new RecordingMessageReceiver();
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+        queue.recoverSpilledMessages();
+
+        assertEquals(decodedMessage, delegate.decodedMessages.getFirst());
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void corruptSpilledMessagesOfPreviousRunGetDiscarded() throws IOException {
+        var headers = List.of(new int[]{0, HubMessageIngestionQueue.SPILL_FILE_VERSION},
+                new int[]{HubMessageIngestionQueue.SPILL_FILE_MAGIC, HubMessageIngestionQueue.SPILL_FILE_VERSION + 1});
+        for (var i = 0; i < headers.size(); i++) {
+            try (var out = new DataOutputStream(Files.newOutputStream(spillDirectory.resolve(
+                    "message-%020d.spill".formatted(i + 1))))) {
+                out.writeInt(headers.get(i)[0]);
+                out.writeByte(headers.get(i)[1]);
+                out.writeUTF("");
+                out.writeInt(message("first").length);
+                out.write(message("first"));
+            }
+        }
+        Files.writeString(spillDirectory.resolve("message-00000000000000000003.spill"), "");
+
+        var queue = createQueue(1, 1, HubMessageIngestionOverflowPolicy.SPILL);
+        queue.recoverSpilledMessages();
+        enqueue(queue, "second");
+
+        assertEquals(List.of("second"), delegate.received());
+        assertEquals(0, depth("disk"));
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void decodedMessagesGetOrderedWithEncodedMessagesOfSameSender() {
+        var queue = createQueue(8, 4, HubMessageIngestionOverflowPolicy.BLOCK);
+        var first = hubMessage("analysis-1", "robot-a", "first");
+
+        enqueue(queue, first);
+        StepVerifier.create(queue.processMessage(decodedMessage("analysis-1", "robot-a", "second")))
+                .verifyComplete();
+        StepVerifier.create(queue.processMessage(decodedMessage("analysis-1", "robot-b", "third")))
+                .verifyComplete();
+
+        assertEquals(List.of(first, "third"), delegate.received());
+
+        delegate.complete(0);
+
+        assertEquals(List.of(first, "third", "second"), delegate.received());
+    }
+
+    @Test
+    void messagesOfSameSenderGetProcessedInOrder() {
+        var queue = createQueue(8, 4, HubMessageIngestionOverflowPolicy.BLOCK);
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+        var otherSender = hubMessage("analysis-1", "robot-b", "first");
+        var otherAnalysis = hubMessage("analysis-2", "robot-a", "first");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+        enqueue(queue, otherSender);
+        enqueue(queue, otherAnalysis);
+
+        assertEquals(List.of(first, otherSender, otherAnalysis), delegate.received());
+        assertEquals(3, meterRegistry.get(HubMessageIngestionQueue.SENDERS_GAUGE_NAME).gauge().value());
+        assertEquals(1, meterRegistry.get(HubMessageIngestionQueue.SENDER_LAG_GAUGE_NAME).gauge().value());
+
+        delegate.complete(0);
+
+        assertEquals(List.of(first, otherSender, otherAnalysis, second), delegate.received());
+        assertEquals(0, meterRegistry.get(HubMessageIngestionQueue.SENDER_LAG_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void failingMessageDoesNotHoldUpItsSender() {
+        var queue = createQueue(8, 4, HubMessageIngestionOverflowPolicy.BLOCK);
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+        delegate.fail(0);
+        delegate.complete(1);
+
+        assertEquals(List.of(first, second), delegate.received());
+        assertEquals(0, meterRegistry.get(HubMessageIngestionQueue.SENDERS_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void busySenderHoldsUpQueueOnceTooManyOfItsMessagesWait() {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withConcurrency(4)
+                .withOverflowPolicy(HubMessageIngestionOverflowPolicy.BLOCK)
+                .withMaxWaitingPerSender(1));
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+        var third = hubMessage("analysis-1", "robot-a", "third");
+        var otherSender = hubMessage("analysis-1", "robot-b", "first");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+        enqueue(queue, third);
+        enqueue(queue, otherSender);
+
+        assertEquals(List.of(first), delegate.received());
+        assertEquals(2, depth("memory"));
+
+        delegate.complete(0);
+        assertEquals(List.of(first, second, otherSender), delegate.received());
+
+        delegate.complete(1);
+        assertEquals(List.of(first, second, otherSender, third), delegate.received());
+    }
+
+    @Test
+    void busySenderCannotExceedCapacityAndItsWaitingMessages() {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withCapacity(2)
+                .withConcurrency(4)
+                .withOverflowPolicy(HubMessageIngestionOverflowPolicy.BLOCK)
+                .withBlockTimeout(Duration.ofMillis(50))
+                .withMaxWaitingPerSender(1));
+
+        for (var i = 0; i < 4; i++) {
+            enqueue(queue, hubMessage("analysis-1", "robot-a", "message-" + i));
+        }
+        StepVerifier.create(queue.processMessage(message(hubMessage("analysis-1", "robot-a", "message-4"))))
+                .verifyError(ProcessingReceivedMessageException.class);
+
+        assertEquals(1, delegate.received().size());
+        assertEquals(2, depth("memory"));
+        assertEquals(1, meterRegistry.get(HubMessageIngestionQueue.SENDER_LAG_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void busySenderDropsItsOldestWaitingMessage() {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withConcurrency(4)
+                .withOverflowPolicy(HubMessageIngestionOverflowPolicy.DROP_OLDEST)
+                .withMaxWaitingPerSender(1));
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+        var third = hubMessage("analysis-1", "robot-a", "third");
+        var otherSender = hubMessage("analysis-1", "robot-b", "first");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+        enqueue(queue, third);
+        enqueue(queue, otherSender);
+        delegate.complete(0);
+
+        assertEquals(List.of(first, otherSender, third), delegate.received());
+        assertEquals(1, meterRegistry.get(HubMessageIngestionQueue.DROPPED_COUNTER_NAME).counter().count());
+    }
+
+    @Test
+    void busySenderSpillsItsFurtherMessages() throws IOException {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withConcurrency(4)
+                .withOverflowPolicy(HubMessageIngestionOverflowPolicy.SPILL)
+                .withMaxWaitingPerSender(1));
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+        var third = hubMessage("analysis-1", "robot-a", "third");
+        var otherSender = hubMessage("analysis-1", "robot-b", "first");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+        enqueue(queue, third);
+        enqueue(queue, otherSender);
+
+        assertEquals(List.of(first, otherSender), delegate.received());
+        assertEquals(1, spillFileCount());
+
+        delegate.complete(0);
+        delegate.complete(2);
+
+        assertEquals(List.of(first, otherSender, second, third), delegate.received());
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void messagesOfSameSenderGetProcessedConcurrentlyIfNotOrdered() {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withConcurrency(4)
+                .withOrderedPerSender(false));
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+
+        assertEquals(List.of(first, second), delegate.received());
+    }
+
+    @Test
+    void spilledMessagesStayOrderedPerSender() {
+        var queue = createQueue(new HubMessageIngestionQueueConfig.Builder()
+                .withCapacity(1)
+                .withConcurrency(4)
+                .withOverflowPolicy(HubMessageIngestionOverflowPolicy.SPILL));
+        var first = hubMessage("analysis-1", "robot-a", "first");
+        var second = hubMessage("analysis-1", "robot-a", "second");
+        var third = hubMessage("analysis-1", "robot-a", "third");
+
+        enqueue(queue, first);
+        enqueue(queue, second);
+        enqueue(queue, third);
+        delegate.complete(0);
+
+        assertEquals(List.of(first, second), delegate.received());
+
+        delegate.complete(1);
+
+        assertEquals(List.of(first, second, third), delegate.received());
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.removeFirst().run();
+        }
+    }
+
+    private long spillFileCount() throws IOException {
+        try (var files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    private static final class RecordingMessageReceiver implements MessageReceiver {
+        private final List<String> messages = new ArrayList<>();
+        private final List<JSONObject> frames = new ArrayList<>();
+        private final List<ReceiveMessage> decodedMessages = new ArrayList<>();
+        private final List<Sinks.Empty<Void>> processings = new ArrayList<>();
+
+        @Override
+        public synchronized Mono<Void> processMessage(byte[] message) {
+            return record(message);
+        }
+
+        @Override
+        public synchronized Mono<Void> processMessage(JSONObject frame) {
+            frames.add(frame);
+            return record(Base64.getDecoder().decode(frame.getString("data")));
+        }
+
+        @Override
+        public synchronized Mono<Void> processMessage(ReceiveMessage message) {
+            decodedMessages.add(message);
+            return record(message.payload());
+        }
+
+        private Mono<Void> record(byte[] message) {
+            messages.add(new String(message, StandardCharsets.UTF_8));
+            var processing = Sinks.<Void>empty();
+            processings.add(processing);
+            return processing.asMono();
+        }
+
+        private synchronized List<String> received() {
+            return List.copyOf(messages);
+        }
+
+        private void complete(int index) {
+            processing(index).tryEmitEmpty();
+        }
+
+        private void fail(int index) {
+            processing(index).tryEmitError(new IllegalStateException("processing failed"));
+        }
+
+        private synchronized Sinks.Empty<Void> processing(int index) {
+            return processings.get(index);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -2,9 +2,12 @@ package de.privateaim.node_message_broker.message.receive;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.privateaim.node_message_broker.message.api.hub.HubMessageBatch;
 import de.privateaim.node_message_broker.message.api.hub.HubMessageMetadata;
 import de.privateaim.node_message_broker.message.api.hub.HubMessageSender;
 import de.privateaim.node_message_broker.message.api.hub.IncomingHubMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,8 +18,11 @@ import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
@@ -83,6 +89,111 @@ public final class HubMessageReceiverTest {
         assertEquals(expectedReceivedMessage, messageConsumerCaptor.getValue());
     }
 
+    @Test
+    public void encryptionFormatOfMessageIsKept() throws JsonProcessingException {
+        var envelopeMessage = new IncomingHubMessage(
+                TEST_MESSAGE.sender(),
+                TEST_MESSAGE.payload(),
+                new HubMessageMetadata(
+                        TEST_MESSAGE.metadata().messageId(),
+                        TEST_MESSAGE.metadata().analysisId(),
+                        HubMessageMetadata.ENVELOPE_ENCRYPTION
+                )
+        );
+
+        Mockito.doReturn(Mono.empty()).when(mockedMessageConsumerA).consume(messageConsumerCaptor.capture());
+        receiver.registerConsumer(mockedMessageConsumerA);
+
+        StepVerifier.create(receiver.processMessage(JSON_MAPPER.writeValueAsBytes(envelopeMessage)))
+                .verifyComplete();
+
+        assertEquals(HubMessageMetadata.ENVELOPE_ENCRYPTION, messageConsumerCaptor.getValue().context().encryption());
+    }
+
+    @Test
+    public void decodedMessageGetsSentToConsumersAsIs() {
+        var decodedMessage = ReceiveMessage.builder()
+                .sentFrom(new ReceiveMessageSender(TEST_MESSAGE.sender().nodeRobotId()))
+                .withPayload(new byte[]{0, 1, 2, (byte) 0xff})
+                .inContext(new ReceiveMessageContext(TEST_MESSAGE.metadata().messageId(),
+                        TEST_MESSAGE.metadata().analysisId(), null, null, null,
+                        ReceiveMessageContext.DECODED_TRANSPORT))
+                .build();
+
+        Mockito.doReturn(Mono.empty()).when(mockedMessageConsumerA).consume(messageConsumerCaptor.capture());
+        receiver.registerConsumer(mockedMessageConsumerA);
+        receiver.registerMiddleware(new HubMessageBase64DecodingMiddleware());
+
+        StepVerifier.create(receiver.processMessage(decodedMessage))
+                .verifyComplete();
+
+        assertEquals(decodedMessage, messageConsumerCaptor.getValue());
+    }
+
+    @Test
+    public void frameGetsDecodedOnDecodeScheduler() throws JsonProcessingException {
+        var frame = new JSONObject(JSON_MAPPER.writeValueAsString(TEST_MESSAGE))
+                .put(IncomingHubMessage.PAYLOAD_FIELD, Base64.getEncoder().encodeToString(TEST_MESSAGE.payload()
+                        .getBytes(StandardCharsets.UTF_8)));
+        var decodeScheduler = Schedulers.newSingle("test-decode");
+        try {
+            var receiver = new HubMessageReceiver(JSON_MAPPER, new SimpleMeterRegistry(), decodeScheduler);
+            var consumingThread = new String[1];
+            Mockito.doAnswer(invocation -> {
+                consumingThread[0] = Thread.currentThread().getName();
+                return Mono.empty();
+            }).when(mockedMessageConsumerA).consume(messageConsumerCaptor.capture());
+            receiver.registerConsumer(mockedMessageConsumerA);
+
+            StepVerifier.create(receiver.processMessage(frame))
+                    .verifyComplete();
+
+            assertTrue(consumingThread[0].startsWith("test-decode"));
+            assertEquals(TEST_MESSAGE.payload(), new String(messageConsumerCaptor.getValue().payload(),
+                    StandardCharsets.UTF_8));
+            assertEquals(TEST_MESSAGE.metadata().messageId(), messageConsumerCaptor.getValue().context().messageId());
+        } finally {
+            decodeScheduler.dispose();
+        }
+    }
+
+    @Test
+    public void batchOfMessagesGetsSplitBeforeBeingSentToConsumers() throws JsonProcessingException {
+        var firstEntry = new HubMessageBatch.Entry(UUID.randomUUID(), "foo".getBytes());
+        var secondEntry = new HubMessageBatch.Entry(UUID.randomUUID(), "bar".getBytes());
+        var batchMessage = new IncomingHubMessage(
+                TEST_MESSAGE.sender(),
+                new String(new HubMessageBatch(List.of(firstEntry, secondEntry)).encode(), StandardCharsets.ISO_8859_1),
+                new HubMessageMetadata(
+                        TEST_MESSAGE.metadata().messageId(),
+                        TEST_MESSAGE.metadata().analysisId(),
+                        null,
+                        HubMessageMetadata.BATCH_FRAMING,
+                        null
+                )
+        );
+        receiver = new HubMessageReceiver(JSON_MAPPER);
+        // payloads are usually base64 encoded, this only reverts the string conversion of the test message
+        receiver.registerMiddleware(msg -> Mono.just(new ReceiveMessage(msg.sender(),
+                new String(msg.payload()).getBytes(StandardCharsets.ISO_8859_1), msg.context())));
+
+        Mockito.doReturn(Mono.empty()).when(mockedMessageConsumerA).consume(messageConsumerCaptor.capture());
+        receiver.registerConsumer(mockedMessageConsumerA);
+
+        StepVerifier.create(receiver.processMessage(JSON_MAPPER.writeValueAsBytes(batchMessage)))
+                .verifyComplete();
+
+        var consumedMessages = messageConsumerCaptor.getAllValues();
+        assertEquals(2, consumedMessages.size());
+        assertEquals(new ReceiveMessageContext(firstEntry.messageId(), TEST_MESSAGE.metadata().analysisId()),
+                consumedMessages.get(0).context());
+        assertEquals("foo", new String(consumedMessages.get(0).payload()));
+        assertEquals(new ReceiveMessageContext(secondEntry.messageId(), TEST_MESSAGE.metadata().analysisId()),
+                consumedMessages.get(1).context());
+        assertEquals("bar", new String(consumedMessages.get(1).payload()));
+        assertEquals(TEST_MESSAGE.sender().nodeRobotId(), consumedMessages.get(1).sender().nodeRobotId());
+    }
+
     @Test
     public void messageGetsNotSentToConsumerIfMessageParsingFails() {
         Mockito.doReturn(Mono.empty()).when(mockedMessageConsumerA).consume(messageConsumerCaptor.capture());
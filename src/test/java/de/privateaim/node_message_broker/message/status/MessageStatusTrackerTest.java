@@ -0,0 +1,160 @@
+package de.privateaim.node_message_broker.message.status;
+
+import de.privateaim.node_message_broker.message.api.MessageDeliveryResult;
+import de.privateaim.node_message_broker.message.api.MessageStatus;
+import de.privateaim.node_message_broker.message.status.persistence.MessageStatusEntry;
+import de.privateaim.node_message_broker.message.status.persistence.MessageStatusRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(MockitoExtension.class)
+public final class MessageStatusTrackerTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+    private static final MessageStatusConfig CONFIG = new MessageStatusConfig.Builder()
+            .withMaxEntries(10)
+            .withTimeToLive(Duration.ofHours(1))
+            .build();
+    private static final String ANALYSIS_ID = "analysis-123";
+
+    @Mock
+    private MessageStatusRepository repository;
+
+    private MessageStatusTracker inMemoryTracker() {
+        return new MessageStatusTracker(CONFIG, null, new SimpleMeterRegistry());
+    }
+
+    private MessageStatusTracker persistentTracker() {
+        return new MessageStatusTracker(CONFIG, repository, new SimpleMeterRegistry(),
+                Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private static MessageDeliveryResult result(String recipient, MessageDeliveryResult.Status status) {
+        return MessageDeliveryResult.builder()
+                .recipient(recipient)
+                .status(status)
+                .build();
+    }
+
+    @Test
+    void acceptedMessageIsPending() {
+        var tracker = inMemoryTracker();
+        var messageId = UUID.randomUUID();
+
+        StepVerifier.create(tracker.accept(messageId, ANALYSIS_ID))
+                .assertNext(status -> {
+                    assertEquals(messageId, status.getMessageId());
+                    assertEquals(ANALYSIS_ID, status.getAnalysisId());
+                    assertEquals(MessageStatus.State.PENDING, status.getState());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void deliveryResultOfEveryRecipientGetsTracked() {
+        var tracker = inMemoryTracker();
+        var messageId = UUID.randomUUID();
+
+        StepVerifier.create(tracker.accept(messageId, ANALYSIS_ID))
+                .expectNextCount(1)
+                .verifyComplete();
+        tracker.recordRecipients(messageId, List.of("node-1", "node-2"));
+        tracker.recordResult(messageId, result("node-2", MessageDeliveryResult.Status.FAILED));
+
+        StepVerifier.create(tracker.getStatus(ANALYSIS_ID, messageId))
+                .assertNext(status -> assertEquals(List.of(
+                                result("node-1", MessageDeliveryResult.Status.PENDING),
+                                result("node-2", MessageDeliveryResult.Status.FAILED)),
+                        status.getResults()))
+                .verifyComplete();
+
+        StepVerifier.create(tracker.complete(messageId))
+                .verifyComplete();
+        StepVerifier.create(tracker.getStatus(ANALYSIS_ID, messageId))
+                .assertNext(status -> assertEquals(MessageStatus.State.COMPLETED, status.getState()))
+                .verifyComplete();
+    }
+
+    @Test
+    void statusIsOnlyVisibleForAnalysisOfMessage() {
+        var tracker = inMemoryTracker();
+        var messageId = UUID.randomUUID();
+
+        StepVerifier.create(tracker.accept(messageId, ANALYSIS_ID))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        StepVerifier.create(tracker.getStatus("analysis-456", messageId))
+                .verifyComplete();
+    }
+
+    @Test
+    void statusGetsPersistedOnceAcceptedAndOnceFinished() {
+        var tracker = persistentTracker();
+        var messageId = UUID.randomUUID();
+        var entryCaptor = ArgumentCaptor.forClass(MessageStatusEntry.class);
+        Mockito.doAnswer(invocation -> Mono.just(invocation.getArgument(0)))
+                .when(repository).save(entryCaptor.capture());
+
+        StepVerifier.create(tracker.accept(messageId, ANALYSIS_ID))
+                .expectNextCount(1)
+                .verifyComplete();
+        tracker.recordRecipients(messageId, List.of("node-1"));
+        StepVerifier.create(tracker.fail(messageId, "some error"))
+                .verifyComplete();
+
+        var entries = entryCaptor.getAllValues();
+        assertEquals(2, entries.size());
+        assertEquals(MessageStatus.State.PENDING, entries.get(0).state());
+        assertEquals(MessageStatus.State.FAILED, entries.get(1).state());
+        assertEquals("some error", entries.get(1).reason());
+        assertEquals(NOW.plus(CONFIG.timeToLive()), entries.get(1).expiresAt());
+    }
+
+    @Test
+    void persistedStatusGetsLookedUpIfNotHeldInMemory() {
+        var tracker = persistentTracker();
+        var messageId = UUID.randomUUID();
+        Mockito.doReturn(Mono.just(new MessageStatusEntry(messageId, ANALYSIS_ID, MessageStatus.State.COMPLETED,
+                        null, List.of(result("node-1", MessageDeliveryResult.Status.SENT)), NOW)))
+                .when(repository).findById(messageId);
+
+        StepVerifier.create(tracker.getStatus(ANALYSIS_ID, messageId))
+                .assertNext(status -> {
+                    assertEquals(MessageStatus.State.COMPLETED, status.getState());
+                    assertEquals(List.of(result("node-1", MessageDeliveryResult.Status.SENT)), status.getResults());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void failingPersistenceDoesNotFailAcceptance() {
+        var tracker = persistentTracker();
+        var messageId = UUID.randomUUID();
+        Mockito.doReturn(Mono.error(new IllegalStateException("database is down")))
+                .when(repository).save(Mockito.any(MessageStatusEntry.class));
+
+        StepVerifier.create(tracker.accept(messageId, ANALYSIS_ID))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(tracker.getStatus(ANALYSIS_ID, messageId))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+}